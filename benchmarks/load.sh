@@ -0,0 +1,14 @@
+#!/bin/sh
+# Runs the end-to-end load harness for 100, 1k, 10k and 50k devices
+# usage: load.sh [seconds per run (60)] [interval ms (1000)] [JVM options]
+# build first: mvn install (parent directory), mvn package (this directory)
+SECONDS_PER_RUN=${1:-60}
+INTERVAL=${2:-1000}
+JVM_OPTIONS=${3:-"-Xmx2g"}
+JAR=$(dirname "$0")/target/benchmarks.jar
+
+for DEVICES in 100 1000 10000 50000; do
+	echo "=== $DEVICES devices"
+	java $JVM_OPTIONS -cp "$JAR" de.steinerix.ping_monitor.LoadHarness \
+		$DEVICES $SECONDS_PER_RUN $INTERVAL 2>/dev/null
+done
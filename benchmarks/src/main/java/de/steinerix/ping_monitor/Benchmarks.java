@@ -0,0 +1,48 @@
+package de.steinerix.ping_monitor;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the JMH command line (all by default) with
+ * the GC profiler, so each result is accompanied by its allocation rate
+ * (gc.alloc.rate.norm: bytes per operation).
+ *
+ * @author usr
+ *
+ */
+public class Benchmarks {
+	// strongly referenced, the level would be lost with the logger otherwise
+	private static final Logger APPLICATION_LOG = Logger
+			.getLogger("de.steinerix.ping_monitor");
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		if (options.shouldHelp()) {
+			options.showHelp();
+			return;
+		}
+		if (options.shouldList()) {
+			new Runner(options).list();
+			return;
+		}
+		new Runner(new OptionsBuilder().parent(options)
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+
+	/**
+	 * Silences the application loggers within a benchmark fork (alarms and
+	 * config reads are logged per call)
+	 */
+	public static void silenceLogging() {
+		APPLICATION_LOG.setLevel(Level.OFF);
+	}
+}
@@ -0,0 +1,326 @@
+package de.steinerix.ping_monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import de.steinerix.ping_monitor.PingResponse.Type;
+import de.steinerix.ping_monitor.ping.PingDriver;
+import de.steinerix.ping_monitor.ping.ProbeBackend;
+import de.steinerix.ping_monitor.ping.ProbeCallback;
+import de.steinerix.ping_monitor.ping.ProbeResult;
+import de.steinerix.ping_monitor.ping.ProbeTarget;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+import de.steinerix.ping_monitor.stats.LatencySketch;
+
+/**
+ * End-to-end load test: generates a config with N devices, starts the real
+ * {@link PingMonitor} wiring with a {@link SimulatedBackend} and a recording
+ * {@link PlotInterface}, and reports after a fixed run:
+ * <ul>
+ * <li>achieved probes/s against the configured rate</li>
+ * <li>interval accuracy: deviation of the time between two probes of a
+ * device from its interval (percentiles)</li>
+ * <li>reply to listener latency: time from the backend delivering a reply to
+ * the plot interface receiving it (percentiles)</li>
+ * <li>heap usage and GC pauses</li>
+ * </ul>
+ * Usage: LoadHarness devices [seconds (60)] [interval ms (1000)] [backend
+ * threads (4)], see load.sh for the series N = 100 … 50k. Measurement starts
+ * after one interval, when every device has been pinged once.
+ *
+ * @author usr
+ *
+ */
+public class LoadHarness {
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999, 1 };
+
+	private final int devices;
+	private final int interval; // ms
+	private final long intervalNs;
+
+	private volatile boolean recording = false;
+
+	// written by the driver thread only
+	private final long[] lastProbe;
+	private final LatencySketch intervalDeviation = new LatencySketch();
+	// written by backend threads, read by the GUI consumer thread
+	private final AtomicLongArray replied;
+	// written by the GUI consumer thread only
+	private final LatencySketch listenerLatency = new LatencySketch();
+	private final LongAdder plotUpdates = new LongAdder();
+	private final LongAdder replies = new LongAdder();
+
+	// written by the GC notification thread
+	private final LongAdder gcPauses = new LongAdder();
+	private final LongAdder gcTime = new LongAdder(); // ms
+	private volatile long gcMaxPause = 0; // ms
+	private volatile long heapMax = 0;
+
+	LoadHarness(int devices, int interval) {
+		this.devices = devices;
+		this.interval = interval;
+		this.intervalNs = TimeUnit.MILLISECONDS.toNanos(interval);
+		lastProbe = new long[devices];
+		replied = new AtomicLongArray(devices);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: LoadHarness devices [seconds] "
+					+ "[interval ms] [backend threads]");
+			System.exit(2);
+		}
+		int devices = Integer.parseInt(args[0]);
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		int interval = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		System.out.println(new LoadHarness(devices, interval).run(seconds,
+				threads));
+		System.exit(0); // the monitor's threads aren't all daemons
+	}
+
+	/** Runs the monitor for a warm up interval plus seconds */
+	String run(int seconds, int threads) throws Exception {
+		File directory = Files.createTempDirectory("load-harness").toFile();
+		File configFile = new File(directory, "config.xml");
+		File schemaFile = new File(directory, "config.xsd");
+		writeConfig(configFile, schemaFile);
+		watchGarbageCollection();
+
+		SimulatedBackend simulated = new SimulatedBackend.Builder().threads(
+				threads).build();
+		long start = System.nanoTime();
+		PingMonitor monitor = new PingMonitor(new RecordingPlot(), configFile,
+				new InstrumentedBackend(simulated));
+		long startup = System.nanoTime() - start;
+		PingDriver driver = monitor.getPingDriver();
+
+		Thread.sleep(interval); // every device has been pinged once
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long probes = driver.getProbes();
+		monitor.getPipelineMetrics().report(); // starts a new period
+		recording = true;
+		long from = System.nanoTime();
+		for (long end = from + TimeUnit.SECONDS.toNanos(seconds); System
+				.nanoTime() < end;) {
+			heapMax = Math.max(heapMax, memory.getHeapMemoryUsage().getUsed());
+			Thread.sleep(100);
+		}
+		recording = false;
+		double elapsed = (System.nanoTime() - from) / 1e9;
+		probes = driver.getProbes() - probes;
+		String pipeline = monitor.getPipelineMetrics().report();
+		Thread.sleep(100); // let listeners finish recording
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("devices %d, interval %d ms, run %d s, "
+				+ "startup %.0f ms%n", devices, interval, seconds,
+				startup / 1e6));
+		report.append(String.format("probes/s %.0f (configured %.0f, %.1f%%)%n",
+				probes / elapsed, devices * 1000.0 / interval, 100 * probes
+						/ elapsed / (devices * 1000.0 / interval)));
+		report.append("interval deviation ").append(
+				quantiles(intervalDeviation));
+		report.append(String.format("%nreply to listener %s (%d of %d replies "
+				+ "plotted)%n", quantiles(listenerLatency), plotUpdates.sum(),
+				replies.sum()));
+		System.gc(); // not recorded anymore
+		report.append(String.format(
+				"heap max %.0f MB, after GC %.0f MB, GC pauses %d, "
+						+ "total %d ms, max %d ms%n", heapMax / 1e6, memory
+						.getHeapMemoryUsage().getUsed() / 1e6, gcPauses.sum(),
+				gcTime.sum(), gcMaxPause));
+		report.append(pipeline);
+
+		monitor.stop();
+		configFile.delete();
+		schemaFile.delete();
+		directory.delete();
+		return report.toString();
+	}
+
+	/** Returns "p50 … ms, p99 … ms, p99.9 … ms, max … ms" of sketch */
+	private static String quantiles(LatencySketch sketch) {
+		long[] values = new long[QUANTILES.length];
+		sketch.quantiles(QUANTILES, values);
+		return String.format("p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, "
+				+ "max %.2f ms", values[0] / 1e6, values[1] / 1e6,
+				values[2] / 1e6, values[3] / 1e6);
+	}
+
+	/** Records the pauses of all collectors while recording */
+	private void watchGarbageCollection() {
+		NotificationListener listener = new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification,
+					Object handback) {
+				if (!recording
+						|| !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+								.equals(notification.getType())) {
+					return;
+				}
+				long duration = GarbageCollectionNotificationInfo
+						.from((CompositeData) notification.getUserData())
+						.getGcInfo().getDuration();
+				gcPauses.increment();
+				gcTime.add(duration);
+				if (duration > gcMaxPause) {
+					gcMaxPause = duration;
+				}
+			}
+		};
+		for (GarbageCollectorMXBean collector : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			((NotificationEmitter) collector).addNotificationListener(
+					listener, null, null);
+		}
+	}
+
+	/**
+	 * Writes a config with devices 10.0.0.0, 10.0.0.1, … (the index is the
+	 * address) and the schema next to it
+	 */
+	private void writeConfig(File configFile, File schemaFile)
+			throws IOException {
+		try (InputStream schema = PingMonitor.class
+				.getResourceAsStream("/config.xsd")) {
+			Files.copy(schema, schemaFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		try (PrintWriter out = new PrintWriter(configFile, "UTF-8")) {
+			out.println("<config xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+					+ " xsi:noNamespaceSchemaLocation=\"config.xsd\">");
+			out.println("\t<mail>");
+			out.println("\t\t<enabled>false</enabled>");
+			out.println("\t\t<server>smtp.domain.tld</server>");
+			out.println("\t\t<port>587</port>");
+			out.println("\t\t<username>user</username>");
+			out.println("\t\t<password>password</password>");
+			out.println("\t\t<authtype>PASSWORD</authtype>");
+			out.println("\t\t<securitytype>STARTTLS</securitytype>");
+			out.println("\t\t<from>sender@domain.tld</from>");
+			out.println("\t</mail>");
+			out.println("\t<probe>");
+			out.println("\t\t<backend>SIMULATED</backend>");
+			out.println("\t</probe>");
+			for (int i = 0; i < devices; i++) {
+				out.println("\t<device>");
+				out.println("\t\t<ip>10." + (i >>> 16 & 0xff) + "."
+						+ (i >>> 8 & 0xff) + "." + (i & 0xff) + "</ip>");
+				out.println("\t\t<name>Device " + i + "</name>");
+				out.println("\t\t<interval>" + interval + "</interval>");
+				out.println("\t\t<timeout>1000</timeout>");
+				out.println("\t\t<limit>50</limit>");
+				out.println("\t\t<maxgraph>100</maxgraph>");
+				out.println("\t\t<email>watch@domain.tld</email>");
+				out.println("\t</device>");
+			}
+			out.println("</config>");
+		}
+	}
+
+	/** Returns the device index of an address written by writeConfig */
+	private static int index(InetAddress addr) {
+		byte[] bytes = addr.getAddress();
+		return (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | bytes[3]
+				& 0xff;
+	}
+
+	/**
+	 * Records the time of each probe (interval accuracy) and of each reply
+	 * (listener latency) of the simulated backend
+	 */
+	private class InstrumentedBackend implements ProbeBackend {
+		private final ProbeBackend backend;
+
+		InstrumentedBackend(ProbeBackend backend) {
+			this.backend = backend;
+		}
+
+		@Override
+		public ProbeTarget createTarget(InetAddress addr, int timeout,
+				final ProbeCallback callback) {
+			final int index = index(addr);
+			final ProbeTarget target = backend.createTarget(addr, timeout,
+					new ProbeCallback() {
+						@Override
+						public void onReply(long rtt) {
+							replied.set(index, System.nanoTime());
+							if (recording) {
+								replies.increment();
+							}
+							callback.onReply(rtt);
+						}
+
+						@Override
+						public void onTimeout() {
+							callback.onTimeout();
+						}
+
+						@Override
+						public void onSuccess(ProbeResult response) {
+							callback.onSuccess(response);
+						}
+
+						@Override
+						public void onFailure(Throwable throwable) {
+							callback.onFailure(throwable);
+						}
+					});
+			return new ProbeTarget() {
+				@Override
+				public boolean probe() {
+					long now = System.nanoTime();
+					if (recording && lastProbe[index] != 0) {
+						intervalDeviation.record(Math.abs(now
+								- lastProbe[index] - intervalNs));
+					}
+					lastProbe[index] = now;
+					return target.probe();
+				}
+			};
+		}
+
+		@Override
+		public void shutdown() {
+			backend.shutdown();
+		}
+	}
+
+	/** Plot interface recording the latency of replies instead of drawing */
+	private class RecordingPlot implements PlotInterface {
+		@Override
+		public int addPingGraph(String name, InetAddress ip, int maxGraph,
+				int limit, int interval) {
+			return index(ip);
+		}
+
+		@Override
+		public void updatePingGraph(int id, Type type, double time) {
+			if (recording && (type == Type.NORMAL
+					|| type == Type.LIMIT_EXCEEDED)) {
+				listenerLatency.record(System.nanoTime() - replied.get(id));
+				plotUpdates.increment();
+			}
+		}
+	}
+}
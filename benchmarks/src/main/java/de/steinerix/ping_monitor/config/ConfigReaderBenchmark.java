@@ -0,0 +1,114 @@
+package de.steinerix.ping_monitor.config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+import de.steinerix.ping_monitor.Benchmarks;
+
+/**
+ * Reading large configs: opening (the single pass validating against
+ * config.xsd and building the device configs) and getting the device configs
+ * of a generated config.xml with 100 to 100k devices. Time per device should
+ * stay flat across the sizes.
+ *
+ * @author usr
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigReaderBenchmark {
+	@Param({ "100", "1000", "10000", "100000" })
+	private int devices;
+
+	private File directory;
+	private File configFile;
+	private ConfigReader reader;
+
+	@Setup
+	public void setUp() throws IOException, SAXException {
+		Benchmarks.silenceLogging();
+		directory = Files.createTempDirectory("config-benchmark").toFile();
+		try (InputStream schema = ConfigReader.class
+				.getResourceAsStream("/config.xsd")) {
+			Files.copy(schema, new File(directory, "config.xsd").toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		configFile = new File(directory, "config.xml");
+		writeConfig(configFile, devices);
+		reader = new ConfigReader(configFile);
+	}
+
+	@TearDown
+	public void tearDown() {
+		new File(directory, "config.xsd").delete();
+		configFile.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public ConfigReader open() throws FileNotFoundException, SAXException {
+		return new ConfigReader(configFile);
+	}
+
+	@Benchmark
+	public List<DeviceConfig> getDeviceConfigs() {
+		return reader.getDeviceConfigs();
+	}
+
+	/** Writes a valid config with the provided number of unique devices */
+	static void writeConfig(File file, int devices) throws IOException {
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("<config xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+					+ " xsi:noNamespaceSchemaLocation=\"config.xsd\">");
+			out.println("\t<mail>");
+			out.println("\t\t<enabled>false</enabled>");
+			out.println("\t\t<server>smtp.domain.tld</server>");
+			out.println("\t\t<port>587</port>");
+			out.println("\t\t<username>user</username>");
+			out.println("\t\t<password>password</password>");
+			out.println("\t\t<authtype>PASSWORD</authtype>");
+			out.println("\t\t<securitytype>STARTTLS</securitytype>");
+			out.println("\t\t<from>sender@domain.tld</from>");
+			out.println("\t</mail>");
+			for (int i = 0; i < devices; i++) {
+				out.println("\t<device>");
+				out.println("\t\t<ip>10." + (i >>> 16 & 0xff) + "."
+						+ (i >>> 8 & 0xff) + "." + (i & 0xff) + "</ip>");
+				out.println("\t\t<name>Device " + i + "</name>");
+				out.println("\t\t<interval>" + (1000 + i % 10 * 500)
+						+ "</interval>");
+				out.println("\t\t<timeout>1000</timeout>");
+				out.println("\t\t<limit>50</limit>");
+				out.println("\t\t<maxgraph>100</maxgraph>");
+				out.println("\t\t<email>watch@domain.tld</email>");
+				out.println("\t</device>");
+			}
+			out.println("</config>");
+		}
+	}
+}
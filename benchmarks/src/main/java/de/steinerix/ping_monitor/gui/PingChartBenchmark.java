@@ -0,0 +1,73 @@
+package de.steinerix.ping_monitor.gui;
+
+import java.util.concurrent.TimeUnit;
+
+import javafx.embed.swing.JFXPanel;
+import javafx.scene.chart.NumberAxis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.steinerix.ping_monitor.PingResponse.Type;
+
+/**
+ * Adding responses to a full chart: steady replies (one series, the oldest
+ * value is shifted out) and churn (the type changes with every response, so
+ * each one adds a series and shifted out values remove one).
+ * <br />
+ * The chart isn't shown, so it is updated on the benchmark thread; the
+ * JavaFX toolkit has to be initialized though, which requires a display
+ * (e.g. xvfb-run).
+ *
+ * @author usr
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingChartBenchmark {
+	private static final Type[] CHURN = { Type.NORMAL, Type.LIMIT_EXCEEDED,
+			Type.NORMAL, Type.TIMEOUT, Type.NORMAL, Type.NOT_REACHABLE };
+
+	@Param({ "100", "1000" })
+	private int maxElements;
+
+	private PingChart chart;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		new JFXPanel(); // initializes the JavaFX toolkit
+		chart = new PingChart(new NumberAxis(), new NumberAxis(), maxElements,
+				100);
+		chart.setAnimated(false);
+		for (int i = 0; i < maxElements; i++) { // fill the chart
+			chart.addPingResponse(CHURN[i % CHURN.length], 10);
+		}
+	}
+
+	@Benchmark
+	public PingChart steady() {
+		chart.addPingResponse(Type.NORMAL, 10 + (next++ & 7));
+		return chart;
+	}
+
+	@Benchmark
+	public PingChart churn() {
+		next = (next + 1) % CHURN.length;
+		chart.addPingResponse(CHURN[next], 60);
+		return chart;
+	}
+}
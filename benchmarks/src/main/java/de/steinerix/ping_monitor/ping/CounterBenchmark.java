@@ -0,0 +1,49 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counter updates: plain increments and the retry pattern of a device
+ * (increment until the limit is reached, then reset).
+ *
+ * @author usr
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterBenchmark {
+	private final Counter counter = new Counter();
+	private final Counter retries = new Counter(3);
+
+	@Benchmark
+	public boolean increment() {
+		return counter.increment();
+	}
+
+	@Benchmark
+	public int incrementUntilLimit() {
+		if (retries.increment()) {
+			retries.reset();
+		}
+		return retries.getCount();
+	}
+
+	@Benchmark
+	public boolean isLimitReached() {
+		return retries.isLimitReached();
+	}
+}
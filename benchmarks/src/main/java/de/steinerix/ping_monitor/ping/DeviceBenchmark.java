@@ -0,0 +1,124 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.InternetAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.steinerix.ping_monitor.Benchmarks;
+import de.steinerix.ping_monitor.config.DeviceConfig;
+
+/**
+ * Result handling of a device with 1..N listeners: a reply (the path every
+ * probe takes, expected to allocate nothing), a reply through onSuccess with
+ * a probe result, a failure and a full alarm cycle (three timeouts enter the
+ * alarm state, three replies clear it).
+ *
+ * @author usr
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceBenchmark {
+	private static final ProbeResult REPLY = ProbeResult.reply(12.5);
+	private static final ProbeResult TIMEOUT = ProbeResult.timeout();
+	private static final Throwable FAILURE = new Exception("benchmark");
+
+	@Param({ "1", "4", "16" })
+	private int listeners;
+
+	private Device device;
+
+	@Setup
+	public void setUp(final Blackhole blackhole) throws Exception {
+		Benchmarks.silenceLogging();
+		DeviceConfig config = new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Benchmark", 1000, 1000,
+				50, 100, new InternetAddress("test@test.com"));
+		device = new Device(config, new ProbeBackend() {
+			@Override
+			public ProbeTarget createTarget(InetAddress addr, int timeout,
+					ProbeCallback callback) {
+				return new ProbeTarget() {
+					@Override
+					public boolean probe() {
+						return true;
+					}
+				};
+			}
+
+			@Override
+			public void shutdown() {
+			}
+		});
+		for (int i = 0; i < listeners; i++) {
+			device.addListener(new DeviceListener() {
+				@Override
+				public void reply(Device device, int type, long rtt,
+						long timestamp) {
+					blackhole.consume(rtt);
+				}
+
+				@Override
+				public void alarm(DeviceEvent event) {
+					blackhole.consume(event);
+				}
+
+				@Override
+				public void clear(DeviceEvent event) {
+					blackhole.consume(event);
+				}
+			});
+		}
+	}
+
+	@Benchmark
+	public void reply() {
+		device.onReply(12500000);
+	}
+
+	@Benchmark
+	public void replyResult() {
+		device.onSuccess(REPLY);
+	}
+
+	@Benchmark
+	public void failure() {
+		device.onFailure(FAILURE);
+	}
+
+	@Benchmark
+	public boolean alarmCycle() {
+		device.onSuccess(TIMEOUT);
+		device.onSuccess(TIMEOUT);
+		device.onSuccess(TIMEOUT);
+		device.onReply(12500000);
+		device.onReply(12500000);
+		device.onReply(12500000);
+		return device.isAlarm();
+	}
+
+	/** Probe and its reply, as the driver and a synchronous backend do */
+	@Benchmark
+	public void pingAndReply() {
+		device.ping();
+		device.onReply(12500000);
+	}
+}
@@ -0,0 +1,113 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.InternetAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.steinerix.ping_monitor.Benchmarks;
+import de.steinerix.ping_monitor.config.DeviceConfig;
+
+/**
+ * Scheduling cost per probe for 1k, 10k and 100k devices: polling the next
+ * due device from the deadline queue of the driver (which moves it to its
+ * next deadline), and registering plus deregistering a device with a running
+ * driver. The hour interval keeps the driver thread mostly idle, so the
+ * registration measures the lock and the queue, not the pinging.
+ *
+ * @author usr
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingDriverBenchmark {
+	private static final int INTERVAL = 3600000; // ms
+
+	@Param({ "1000", "10000", "100000" })
+	private int devices;
+
+	private DeadlineQueue<Device> schedule;
+	private PingDriver driver;
+	private Device[] extra;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws Exception {
+		Benchmarks.silenceLogging();
+		ProbeBackend backend = new ProbeBackend() {
+			@Override
+			public ProbeTarget createTarget(InetAddress addr, int timeout,
+					ProbeCallback callback) {
+				return new ProbeTarget() {
+					@Override
+					public boolean probe() {
+						return true; // result never arrives, device stays pending
+					}
+				};
+			}
+
+			@Override
+			public void shutdown() {
+			}
+		};
+
+		long interval = TimeUnit.MILLISECONDS.toNanos(INTERVAL);
+		long now = System.nanoTime();
+		schedule = new DeadlineQueue<Device>();
+		driver = new PingDriver(backend);
+		for (int i = 0; i < devices; i++) {
+			Device device = createDevice(i, backend);
+			schedule.add(device, now + (long) (PingDriver.spread(i) * interval),
+					interval);
+			driver.registerDevice(device);
+		}
+		extra = new Device[64];
+		for (int i = 0; i < extra.length; i++) {
+			extra[i] = createDevice(devices + i, backend);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		driver.shutdown();
+	}
+
+	@Benchmark
+	public Device pollDue() {
+		return schedule.pollDue(schedule.peekDeadline());
+	}
+
+	@Benchmark
+	public boolean registerAndDeregister() {
+		Device device = extra[next++ & (extra.length - 1)];
+		driver.registerDevice(device);
+		return driver.deregisterDevice(device);
+	}
+
+	private static Device createDevice(int index, ProbeBackend backend)
+			throws Exception {
+		byte[] addr = { 10, (byte) (index >>> 16), (byte) (index >>> 8),
+				(byte) index };
+		DeviceConfig config = new DeviceConfig(InetAddress.getByAddress(addr),
+				"Device " + index, INTERVAL, 1000, 50, 100,
+				new InternetAddress("test@test.com"));
+		return new Device(config, backend);
+	}
+}
@@ -0,0 +1,142 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.InternetAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.steinerix.ping_monitor.Benchmarks;
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+
+/**
+ * Queries of one device in a shard of 100 to 10k series holding 1M records
+ * (16 segments, all but the last one with index file): all its records, its
+ * slow replies and its outages. Time should follow the records of the device
+ * (on top of a fixed cost of mapping each segment and index file), not the
+ * number of series in the shard.
+ *
+ * @author usr
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RttStoreBenchmark {
+	private static final int RECORDS = 1 << 20;
+	private static final int SEGMENT_SIZE = Segment.HEADER_SIZE + 16
+			* SegmentIndex.BLOCK_RECORDS * Segment.RECORD_SIZE;
+	private static final long RETENTION = 24 * 3600000L;
+	private static final long SLOW = 10000000; // ns
+
+	@Param({ "100", "1000", "10000" })
+	private int series;
+
+	private File directory;
+	private RttStore store;
+	private DeviceConfig config; // of the queried device
+
+	@Setup
+	public void setUp() throws Exception {
+		Benchmarks.silenceLogging();
+		directory = Files.createTempDirectory("rtt-store-benchmark").toFile();
+		store = new RttStore(directory, 1, SEGMENT_SIZE, RETENTION);
+		SimulatedBackend backend = new SimulatedBackend.Builder().build();
+		InternetAddress mail = new InternetAddress("test@test.com");
+		for (int i = 0; i < series; i++) {
+			Device device = new Device(new DeviceConfig(
+					InetAddress.getByName("127.0.0.1"), "Device " + i, 1000,
+					1000, 50, 100, mail), backend);
+			store.register(device);
+			if (i == series / 2) {
+				config = device.getConfig();
+			}
+		}
+		int queried = store.getSeriesId(config);
+		for (int i = 0; i < RECORDS; i++) {
+			int id = i % series;
+			int round = i / series;
+			int type = DeviceListener.NORMAL;
+			long rtt = 1000000;
+			if (id == queried && round % 50 == 49) {
+				type = DeviceListener.TIMEOUT;
+				rtt = 0;
+			} else if (id == queried && round % 20 == 10) {
+				rtt = 50000000;
+			}
+			store.append(id, i + 1, type, rtt);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		store.close();
+		delete(directory);
+	}
+
+	@Benchmark
+	public int query() throws IOException {
+		try (RecordCursor cursor = store.query(config, 0, Long.MAX_VALUE)) {
+			int count = 0;
+			while (cursor.next()) {
+				count++;
+			}
+			return count;
+		}
+	}
+
+	@Benchmark
+	public int querySlowerThan() throws IOException {
+		try (RecordCursor cursor = store.querySlowerThan(config, 0,
+				Long.MAX_VALUE, SLOW)) {
+			int count = 0;
+			while (cursor.next()) {
+				count++;
+			}
+			return count;
+		}
+	}
+
+	@Benchmark
+	public int queryOutages() throws IOException {
+		try (OutageCursor cursor = store.queryOutages(config, 0,
+				Long.MAX_VALUE)) {
+			int count = 0;
+			while (cursor.next()) {
+				count++;
+			}
+			return count;
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
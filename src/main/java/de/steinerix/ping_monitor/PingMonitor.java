@@ -1,18 +1,48 @@
 package de.steinerix.ping_monitor;
 
 import de.steinerix.ping_monitor.PingResponse.Type;
+import de.steinerix.ping_monitor.event.EventBus;
+import de.steinerix.ping_monitor.history.HistoryStore;
 import de.steinerix.ping_monitor.log.Log;
 import de.steinerix.ping_monitor.mail.Mail;
+import de.steinerix.ping_monitor.metrics.DeviceMetrics;
+import de.steinerix.ping_monitor.metrics.MetricsServer;
+import de.steinerix.ping_monitor.metrics.PipelineMetrics;
+import de.steinerix.ping_monitor.ping.DatagramBackend;
 import de.steinerix.ping_monitor.ping.Device;
 import de.steinerix.ping_monitor.ping.DeviceEvent;
 import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.Icmp4jBackend;
 import de.steinerix.ping_monitor.ping.PingDriver;
+import de.steinerix.ping_monitor.ping.ProbeBackend;
+import de.steinerix.ping_monitor.ping.ProbeExecutor;
+import de.steinerix.ping_monitor.ping.ProbeResult;
+import de.steinerix.ping_monitor.ping.RangeSweep;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+import de.steinerix.ping_monitor.stats.LatencyTracker;
+import de.steinerix.ping_monitor.stats.LatencyWindows;
+import de.steinerix.ping_monitor.stats.LinkQuality;
+import de.steinerix.ping_monitor.store.RollupStore;
+import de.steinerix.ping_monitor.store.RttStore;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,29 +50,122 @@ import javafx.application.Platform;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.InternetAddress;
-import javax.xml.xpath.XPathExpressionException;
 
-import org.icmp4j.IcmpPingResponse;
 import org.xml.sax.SAXException;
 
 import de.steinerix.ping_monitor.config.ConfigReader;
+import de.steinerix.ping_monitor.config.ConfigWatcher;
 import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.config.EventConfig;
+import de.steinerix.ping_monitor.config.HistoryConfig;
 import de.steinerix.ping_monitor.config.MailConfig;
+import de.steinerix.ping_monitor.config.MetricsConfig;
+import de.steinerix.ping_monitor.config.ProbeConfig;
+import de.steinerix.ping_monitor.config.RangeConfig;
+import de.steinerix.ping_monitor.config.StoreConfig;
+import de.steinerix.ping_monitor.dns.ResolverCache;
 
 /**
  * 
  * This class integrates all modules into an application. It can be considered
  * the controller from a MVC point of view (however this doesn't apply strictly,
  * due to JavaFX requirements)
+ * <br />
+ * Changes of the device configs in the config file are applied while
+ * running, see {@link #reloadConfig()}. Devices configured by host name
+ * follow changes of their address, see {@link #updateAddress(String,
+ * InetAddress)}. Hosts of address ranges are swept by a {@link RangeSweep}
+ * and become devices once they answer.
  * 
  * @author usr
  *
  */
 
 public class PingMonitor {
+	// reply types of DeviceListener by ordinal
+	private static final Type[] TYPES = Type.values();
+	// notifications waiting to be sent, further ones are dropped
+	private static final int MAIL_QUEUE = 100;
+
 	private Logger log = Logger.getLogger(PingMonitor.class.getName());
+	private File configFile;
+	private ConfigWatcher configWatcher;
+	private final ResolverCache resolverCache = new ResolverCache();
 	private List<DeviceConfig> deviceConfigs;
-	private MailConfig mailConfig;
+	// running devices by config, changed by addDevices and reloadConfig
+	private final Map<DeviceConfig, Device> devices = new HashMap<DeviceConfig, Device>();
+	private List<RangeConfig> rangeConfigs;
+	// running sweeps by range, changed by addRanges and reloadConfig
+	private final Map<RangeConfig, RangeSweep> sweeps = new HashMap<RangeConfig, RangeSweep>();
+	private volatile MailConfig mailConfig;
+	private ProbeConfig probeConfig;
+	private EventConfig eventConfig;
+	private StoreConfig storeConfig;
+	private RttStore rttStore;
+	private RollupStore rollupStore;
+	private HistoryConfig historyConfig;
+	private HistoryStore historyStore;
+	private LatencyTracker latencyTracker = new LatencyTracker();
+	private MetricsConfig metricsConfig;
+	private DeviceMetrics deviceMetrics;
+	private MetricsServer metricsServer;
+	private PipelineMetrics pipelineMetrics;
+	private EventBus eventBus;
+	// sends notifications, so devices never wait for the mail server
+	private final ThreadPoolExecutor mailExecutor = newSingleThreadExecutor(
+			"Mail", new ArrayBlockingQueue<Runnable>(MAIL_QUEUE));
+	// queues mails of alarms and clears on the probe threads: they are rare
+	// and may not be lost with events the event bus drops
+	private final DeviceListener mailNotifier = new DeviceListener() {
+		@Override
+		public void alarm(DeviceEvent event) {
+			DeviceConfig deviceConfig = ((Device) event.getSource())
+					.getConfig();
+			Type type = getType(event.getResponse(),
+					deviceConfig.getLimit());
+			String reason = type.toString();
+			if (type == Type.NORMAL) { // RTT within limit, quality isn't
+				reason = Type.LIMIT_EXCEEDED + " (jitter or loss)";
+			}
+
+			String subject = "alarm: " + deviceConfig.getName() + " "
+					+ deviceConfig.getAddr().getHostAddress();
+
+			String message = subject
+					+ " is not operating in expected parameters\nreason: "
+					+ reason + "\n"
+					+ formatQuality((Device) event.getSource())
+					+ "\nplease invesigate further";
+
+			queueNotification(deviceConfig.getEmail(), subject, message);
+		}
+
+		@Override
+		public void clear(DeviceEvent event) {
+			DeviceConfig deviceConfig = ((Device) event.getSource())
+					.getConfig();
+			String subject = "clear: " + deviceConfig.getName() + " "
+					+ deviceConfig.getAddr().getHostAddress();
+
+			String message = subject
+					+ " operational within expected parameters"
+					+ "\nprevious alarm state cleared\n"
+					+ formatQuality((Device) event.getSource());
+
+			queueNotification(deviceConfig.getEmail(), subject, message);
+		}
+
+		@Override
+		public void reply(Device device, int type, long rtt,
+				long timestamp) {
+		}
+	};
+	// adds hosts of ranges which answered, off the probe backend threads
+	private final ThreadPoolExecutor hostExecutor = newSingleThreadExecutor(
+			"RangeHosts", new LinkedBlockingQueue<Runnable>());
+	// serializes reloads, which parse the config without holding this
+	private final Object reloadLock = new Object();
+	private Map<Device, Integer> pingGraphIds = new ConcurrentHashMap<Device, Integer>();
 	private PingDriver pingDriver;
 	private PlotInterface plotOutput;
 
@@ -53,24 +176,106 @@ public class PingMonitor {
 	 * @param plotOutput
 	 * */
 	public PingMonitor(PlotInterface plotOutput) {
+		this(plotOutput, null, null);
+	}
+
+	/**
+	 * Starts Ping Monitor with a specific config and probe backend (load tests)
+	 * 
+	 * @param configFile
+	 *            Config file, config.xml from the class path if null
+	 * @param probeBackend
+	 *            Backend of the ping driver, the configured one if null
+	 */
+	PingMonitor(PlotInterface plotOutput, File configFile,
+			ProbeBackend probeBackend) {
 		try {
 			this.plotOutput = plotOutput;
 
 			Log.init(Level.INFO);
 			log.log(Level.INFO, "Start Ping Monitor");
 
-			final String configFileName = "config.xml";
-			readConfig(configFileName);
+			if (configFile == null) {
+				configFile = new File(PingMonitor.class.getResource(
+						"/config.xml").getFile());
+			}
+			readConfig(configFile);
+
+			// open store, start event bus, then driver
+			if (storeConfig.isEnabled()) {
+				rttStore = new RttStore(storeConfig.getDirectory(),
+						storeConfig.getShards(),
+						storeConfig.getSegmentSize() << 20,
+						TimeUnit.HOURS.toMillis(storeConfig.getRetention()));
+			}
+			if (storeConfig.isRollups()) {
+				rollupStore = new RollupStore(new File(
+						storeConfig.getDirectory(), "rollups"));
+			}
+			if (historyConfig.isEnabled()) {
+				historyStore = new HistoryStore(
+						TimeUnit.HOURS.toMillis(historyConfig.getWindow()),
+						TimeUnit.MICROSECONDS.toNanos(historyConfig
+								.getResolution()));
+			}
+			if (metricsConfig.isEnabled()) {
+				deviceMetrics = new DeviceMetrics();
+			}
+			eventBus = createEventBus();
+			eventBus.start();
 
-			pingDriver = new PingDriver(); // start ping driver
+			pingDriver = new PingDriver(
+					probeBackend != null ? probeBackend : createProbeBackend(),
+					probeConfig.getJitter());
 
 			addDevices();
+			resolverCache.addListener(new ResolverCache.Listener() {
+				@Override
+				public void addressChanged(String host, InetAddress address) {
+					updateAddress(host, address);
+				}
+			});
+			resolverCache.start();
+			addRanges();
+
+			pipelineMetrics = new PipelineMetrics(pingDriver, eventBus,
+					plotOutput);
+			pipelineMetrics.start(metricsConfig.getReport());
+			if (deviceMetrics != null) {
+				metricsServer = new MetricsServer(deviceMetrics,
+						pipelineMetrics);
+				metricsServer.start(metricsConfig);
+			}
+
+			configWatcher = new ConfigWatcher(this.configFile, new Runnable() {
+				@Override
+				public void run() {
+					reloadConfig();
+				}
+			});
+			configWatcher.start();
 		} catch (Exception e) {
 			log.log(Level.SEVERE, "Uncaught exception ", e);
 			shutdown(1);
 		}
 	}
 
+	/** Creates the probe backend according to probe config */
+	private ProbeBackend createProbeBackend() {
+		switch (probeConfig.getBackend()) {
+		case DATAGRAM:
+			return new DatagramBackend(probeConfig.getThreads());
+		case SIMULATED:
+			log.log(Level.WARNING,
+					"Simulated probe backend in use, no pings are sent");
+			return new SimulatedBackend.Builder().threads(
+					probeConfig.getThreads()).build();
+		default:
+			return new Icmp4jBackend(new ProbeExecutor(
+					probeConfig.getThreads(), probeConfig.getQueueCapacity()));
+		}
+	}
+
 	/** Shutdown application with a System.exit call */
 	public void shutdown(int exitCode) {
 		if (exitCode == 0) {
@@ -78,82 +283,420 @@ public class PingMonitor {
 		} else {
 			log.log(Level.SEVERE, "Abort application with code " + exitCode);
 		}
+		stop();
 		Platform.exit();
 		System.exit(exitCode);
 	}
 
+	/** Stops pinging and closes all modules, the JVM keeps running */
+	void stop() {
+		if (configWatcher != null) {
+			configWatcher.stop();
+		}
+		resolverCache.shutdown();
+		if (metricsServer != null) {
+			metricsServer.stop();
+		}
+		if (pipelineMetrics != null) {
+			pipelineMetrics.stop();
+			log.log(Level.INFO, pipelineMetrics.report());
+		}
+		synchronized (this) {
+			for (RangeSweep sweep : sweeps.values()) {
+				sweep.stop();
+			}
+		}
+		hostExecutor.shutdownNow();
+		if (pingDriver != null) {
+			pingDriver.shutdown();
+		}
+		if (eventBus != null) { // consumers handle the queued events first
+			eventBus.shutdown();
+		}
+		mailExecutor.shutdown();
+		if (rttStore != null) {
+			try {
+				rttStore.close();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't close RTT store", e);
+			}
+		}
+		if (rollupStore != null) {
+			try {
+				rollupStore.close();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't close rollup store", e);
+			}
+		}
+	}
+
+	/** Returns the running devices */
+	synchronized List<Device> getDevices() {
+		return new ArrayList<Device>(devices.values());
+	}
+
+	/** Returns the ping driver (null before it is started) */
+	PingDriver getPingDriver() {
+		return pingDriver;
+	}
+
+	/** Returns the pipeline metrics (null before the devices are added) */
+	PipelineMetrics getPipelineMetrics() {
+		return pipelineMetrics;
+	}
+
 	/**
 	 * Adds all devices to the ping driver and the plot interface implementation
 	 */
-	private void addDevices() {
+	private synchronized void addDevices() throws IOException {
 		for (Iterator<DeviceConfig> iterator = deviceConfigs.iterator(); iterator
 				.hasNext();) {
-			DeviceConfig deviceConfig = iterator.next();
+			addDevice(iterator.next());
+		}
+		log.log(Level.INFO, deviceConfigs.size()
+				+ " devices registered in PingDriver");
 
-			Device device = new Device(deviceConfig);
-			int pingGraphId = plotOutput.addPingGraph(deviceConfig.getName(),
-					deviceConfig.getAddr(), deviceConfig.getMaxGraph(),
-					deviceConfig.getInterval(), deviceConfig.getLimit());
+	}
 
-			addListenerToDevice(device, pingGraphId);
+	/** Adds a device to the ping driver and the plot interface implementation */
+	private void addDevice(DeviceConfig deviceConfig) throws IOException {
+		Device device = new Device(deviceConfig, pingDriver.getProbeBackend());
+		int pingGraphId = plotOutput.addPingGraph(deviceConfig.getName(),
+				deviceConfig.getAddr(), deviceConfig.getMaxGraph(),
+				deviceConfig.getInterval(), deviceConfig.getLimit());
+
+		addListenerToDevice(device, pingGraphId);
+		devices.put(deviceConfig, device);
+	}
+
+	/**
+	 * Removes a device from the ping driver, the event consumers and the plot
+	 * interface implementation. Results of the device still queued in the
+	 * event bus are ignored by the consumers.
+	 */
+	private void removeDevice(Device device) {
+		pingDriver.deregisterDevice(device);
+		device.removeListener(eventBus);
+		device.removeListener(mailNotifier);
+		if (rttStore != null) {
+			rttStore.deregister(device);
+		}
+		if (rollupStore != null) {
+			rollupStore.deregister(device);
 		}
+		if (historyStore != null) {
+			historyStore.deregister(device);
+		}
+		latencyTracker.deregister(device);
+		if (deviceMetrics != null) {
+			deviceMetrics.deregister(device);
+		}
+		Integer pingGraphId = pingGraphIds.remove(device);
+		if (pingGraphId != null && pingGraphId != PlotInterface.NO_GRAPH) {
+			plotOutput.removePingGraph(pingGraphId);
+		}
+	}
 
+	/** Starts sweeping all ranges */
+	private synchronized void addRanges() {
+		for (RangeConfig rangeConfig : rangeConfigs) {
+			addRange(rangeConfig);
+		}
 	}
 
-	/** add listener to provided device */
-	private void addListenerToDevice(Device device, int guiDeviceId) {
+	/**
+	 * Starts sweeping a range, hosts which answer are added as devices by the
+	 * host executor (so backend threads never wait for this monitor)
+	 */
+	private void addRange(RangeConfig rangeConfig) {
+		RangeSweep sweep = new RangeSweep(rangeConfig,
+				pingDriver.getProbeBackend(), new RangeSweep.Listener() {
+					@Override
+					public void hostFound(final RangeSweep sweep,
+							final int index) {
+						try {
+							hostExecutor.execute(new Runnable() {
+								@Override
+								public void run() {
+									addHost(sweep, index);
+								}
+							});
+						} catch (RejectedExecutionException e) {
+							// stopped
+						}
+					}
+				});
+		sweeps.put(rangeConfig, sweep);
+		sweep.start();
+	}
 
-		DeviceConfig deviceConfig = device.getConfig();
-		device.addListener(new DeviceListener() {
-			@Override
-			public void alarm(DeviceEvent event) {
-				Type type = getType(event.getResponse(),
-						deviceConfig.getLimit());
+	/** Adds the host at index of a running sweep as device */
+	private synchronized void addHost(RangeSweep sweep, int index) {
+		if (sweeps.get(sweep.getRange()) != sweep) {
+			return; // range removed meanwhile
+		}
+		DeviceConfig deviceConfig = sweep.getRange().getDeviceConfig(index);
+		if (devices.containsKey(deviceConfig)) {
+			return;
+		}
+		try {
+			addDevice(deviceConfig);
+			log.log(Level.INFO, "Host of range answered, added as device: "
+					+ deviceConfig.getName());
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Couldn't add device: "
+					+ deviceConfig.getName(), e);
+		}
+	}
+
+	/** Returns the device configs of the hosts a sweep has found */
+	private static List<DeviceConfig> getFoundConfigs(RangeSweep sweep) {
+		List<DeviceConfig> found = new ArrayList<DeviceConfig>();
+		RangeConfig rangeConfig = sweep.getRange();
+		for (int i = 0; i < rangeConfig.size(); i++) {
+			if (sweep.isFound(i)) {
+				found.add(rangeConfig.getDeviceConfig(i));
+			}
+		}
+		return found;
+	}
 
-				String subject = "alarm: " + deviceConfig.getName() + " "
-						+ deviceConfig.getAddr().getHostAddress();
+	/**
+	 * Reads the config file again and applies changed device configs:
+	 * devices which aren't configured anymore are removed, new ones are added
+	 * and unchanged ones keep running with their counters, alarm state and
+	 * history. A changed device config counts as removed and added. Mail
+	 * settings are replaced, the other sections take effect after a restart.
+	 * Unchanged ranges keep sweeping and keep the devices of their hosts,
+	 * changed ranges count as removed and added.
+	 * If the config can't be read, the running config is kept.
+	 * <br />
+	 * The config is read and its hosts are resolved before the running
+	 * devices are locked, only the changes are applied under the lock.
+	 */
+	void reloadConfig() {
+		synchronized (reloadLock) {
+			long start = System.nanoTime();
+			ConfigReader config;
+			List<DeviceConfig> configs;
+			List<RangeConfig> ranges;
+			MailConfig mail;
+			try {
+				config = new ConfigReader(configFile, resolverCache);
+				configs = config.getDeviceConfigs();
+				ranges = config.getRangeConfigs();
+				mail = config.getMailConfig();
+			} catch (FileNotFoundException | SAXException | RuntimeException e) {
+				log.log(Level.SEVERE,
+						"Config not reloaded, keeping the running config: "
+								+ configFile.getName(), e);
+				return;
+			}
+			applyConfig(configs, ranges, mail, start);
+		}
+	}
+
+	/** Applies reloaded device and range configs, see {@link #reloadConfig()} */
+	private synchronized void applyConfig(List<DeviceConfig> configs,
+			List<RangeConfig> ranges, MailConfig mail, long start) {
+		HashSet<RangeConfig> configuredRanges = new HashSet<RangeConfig>(
+				ranges);
+		for (Iterator<Map.Entry<RangeConfig, RangeSweep>> iterator = sweeps
+				.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<RangeConfig, RangeSweep> entry = iterator.next();
+			if (!configuredRanges.contains(entry.getKey())) {
+				entry.getValue().stop();
+				iterator.remove();
+			}
+		}
 
-				String message = subject
-						+ " is not operating in expected parameters\nreason: "
-						+ type.toString() + "\nplease invesigate further";
+		HashSet<DeviceConfig> configured = new HashSet<DeviceConfig>(configs);
+		for (RangeSweep sweep : sweeps.values()) { // devices of kept ranges
+			configured.addAll(getFoundConfigs(sweep));
+		}
+		int removed = 0;
+		for (Iterator<Map.Entry<DeviceConfig, Device>> iterator = devices
+				.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<DeviceConfig, Device> entry = iterator.next();
+			if (!configured.contains(entry.getKey())) {
+				removeDevice(entry.getValue());
+				iterator.remove();
+				removed++;
+			}
+		}
+		int added = 0;
+		for (DeviceConfig deviceConfig : configs) {
+			if (!devices.containsKey(deviceConfig)) {
+				try {
+					addDevice(deviceConfig);
+					added++;
+				} catch (IOException e) {
+					log.log(Level.SEVERE, "Couldn't add device: "
+							+ deviceConfig.getName(), e);
+				}
+			}
+		}
+		for (RangeConfig rangeConfig : ranges) {
+			if (!sweeps.containsKey(rangeConfig)) {
+				addRange(rangeConfig);
+			}
+		}
+		deviceConfigs = configs;
+		rangeConfigs = ranges;
+		mailConfig = mail;
+
+		log.log(Level.INFO, "Config reloaded in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ "ms: " + added + " devices added, " + removed + " removed, "
+				+ (devices.size() - added) + " unchanged");
+	}
 
-				sendNotification(mailConfig, deviceConfig.getEmail(), subject,
-						message);
+	/**
+	 * Replaces the devices monitoring host by devices pinging its changed
+	 * address. Like a changed device config, they start without counters,
+	 * alarm state and history.
+	 */
+	synchronized void updateAddress(String host, InetAddress address) {
+		List<DeviceConfig> changed = new ArrayList<DeviceConfig>();
+		for (Iterator<Map.Entry<DeviceConfig, Device>> iterator = devices
+				.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<DeviceConfig, Device> entry = iterator.next();
+			DeviceConfig deviceConfig = entry.getKey();
+			if (host.equals(deviceConfig.getHost())
+					&& !address.equals(deviceConfig.getAddr())) {
+				removeDevice(entry.getValue());
+				iterator.remove();
+				changed.add(new DeviceConfig(deviceConfig, host, address));
+			}
+		}
+		for (DeviceConfig deviceConfig : changed) {
+			try {
+				addDevice(deviceConfig);
+				log.log(Level.INFO, "Address of device changed: "
+						+ deviceConfig.getName() + " (" + host + ") -> "
+						+ address.getHostAddress());
+			} catch (IOException e) {
+				log.log(Level.SEVERE, "Couldn't add device: "
+						+ deviceConfig.getName(), e);
+			}
+		}
+		for (int i = 0; i < deviceConfigs.size() && !changed.isEmpty(); i++) {
+			if (host.equals(deviceConfigs.get(i).getHost())) {
+				deviceConfigs.set(i, new DeviceConfig(deviceConfigs.get(i),
+						host, address));
+			}
+		}
+	}
+
+	/**
+	 * Registers device in the ping driver, its events are handed to GUI, log,
+	 * RTT store, rollups, history, latency tracker and metrics by the event
+	 * bus, its alarms and clears to the mail notifier
+	 */
+	private void addListenerToDevice(Device device, int guiDeviceId)
+			throws IOException {
+		pingGraphIds.put(device, guiDeviceId);
+		if (rttStore != null) {
+			rttStore.register(device);
+		}
+		if (rollupStore != null) {
+			rollupStore.register(device);
+		}
+		if (historyStore != null) {
+			historyStore.register(device);
+		}
+		LatencyWindows windows = latencyTracker.register(device);
+		if (deviceMetrics != null) {
+			deviceMetrics.register(device, windows);
+		}
+		device.addListener(eventBus);
+		device.addListener(mailNotifier);
+		pingDriver.registerDevice(device);
+	}
+
+	/**
+	 * Creates the event bus with a consumer for GUI, log, latency percentiles
+	 * and (if enabled) RTT store, rollups, history and metrics
+	 */
+	private EventBus createEventBus() {
+		EventBus bus = new EventBus(eventConfig.getCapacity());
+
+		bus.addConsumer("gui", new DeviceListener() {
+			@Override
+			public void alarm(DeviceEvent event) {
 			}
 
 			@Override
 			public void clear(DeviceEvent event) {
-				String subject = "clear: " + deviceConfig.getName() + " "
-						+ deviceConfig.getAddr().getHostAddress();
+			}
+
+			@Override
+			public void reply(Device device, int type, long rtt,
+					long timestamp) {
+				Integer guiDeviceId = pingGraphIds.get(device);
+				if (guiDeviceId == null || guiDeviceId == PlotInterface.NO_GRAPH) {
+					return; // device isn't plotted
+				}
+				plotOutput.updatePingGraph(guiDeviceId, TYPES[type],
+						rtt / 1000000.0);
+				LinkQuality quality = device.getLinkQuality();
+				plotOutput.updateLinkQuality(guiDeviceId,
+						quality.getJitter() / 1000000.0,
+						100 * quality.getLoss(LinkQuality.SHORT_WINDOW));
+			}
+		}, eventConfig.getGuiPolicy());
 
-				String message = subject
-						+ " operational within expected parameters"
-						+ "\nprevious alarm state cleared";
+		bus.addConsumer("log", new DeviceListener() {
+			@Override
+			public void alarm(DeviceEvent event) {
+			}
 
-				sendNotification(mailConfig, deviceConfig.getEmail(), subject,
-						message);
+			@Override
+			public void clear(DeviceEvent event) {
 			}
 
 			@Override
-			public void reply(DeviceEvent event) {
-				double time = event.getResponse().getRtt();
-				int limit = deviceConfig.getLimit();
-				Type type = getType(event.getResponse(), limit);
-				PingResponse response = new PingResponse(type, time);
-				plotOutput.updatePingGraph(guiDeviceId, response);
-			}
-		});
-		pingDriver.registerDevice(device);
+			public void reply(Device device, int type, long rtt,
+					long timestamp) {
+				if (log.isLoggable(Level.FINE)) {
+					DeviceConfig deviceConfig = device.getConfig();
+					log.log(Level.FINE, TYPES[type] + " (" + rtt / 1000000.0
+							+ "ms, " + formatQuality(device) + "): "
+							+ deviceConfig.getName() + " ("
+							+ deviceConfig.getAddr().getHostAddress() + ")");
+				}
+			}
+		}, eventConfig.getLogPolicy());
+
+		bus.addConsumer("latency", latencyTracker, EventConfig.STATS_POLICY);
+		if (rttStore != null) {
+			bus.addConsumer("storage", rttStore,
+					eventConfig.getStoragePolicy());
+		}
+		if (rollupStore != null) {
+			bus.addConsumer("rollups", rollupStore,
+					eventConfig.getStoragePolicy());
+		}
+		if (historyStore != null) {
+			bus.addConsumer("history", historyStore,
+					EventConfig.STATS_POLICY);
+		}
+		if (deviceMetrics != null) {
+			bus.addConsumer("metrics", deviceMetrics,
+					EventConfig.STATS_POLICY);
+		}
+		return bus;
 	}
 
 	/** read config */
-	private void readConfig(String configFileName) {
+	private void readConfig(File configFile) {
+		String configFileName = configFile.getName();
 		deviceConfigs = new ArrayList<DeviceConfig>();
 		ConfigReader config = null;
 
 		try {
-			config = new ConfigReader(new File(PingMonitor.class.getResource(
-					"/" + configFileName).getFile()));
+			config = new ConfigReader(configFile, resolverCache);
+			this.configFile = config.getConfigFile();
 		} catch (FileNotFoundException e) {
 			log.log(Level.SEVERE, "Config file not found: " + configFileName, e);
 			shutdown(1);
@@ -162,15 +705,48 @@ public class PingMonitor {
 					+ configFileName, e);
 			shutdown(1);
 		}
+		deviceConfigs = config.getDeviceConfigs();
+
+		mailConfig = config.getMailConfig();
+		probeConfig = config.getProbeConfig();
+		eventConfig = config.getEventConfig();
+		storeConfig = config.getStoreConfig();
+		historyConfig = config.getHistoryConfig();
+		metricsConfig = config.getMetricsConfig();
+		rangeConfigs = config.getRangeConfigs();
+	}
+
+	/**
+	 * Hands a notification to the mail thread, dropped if MAIL_QUEUE
+	 * notifications are waiting (e.g. while the mail server is unreachable)
+	 */
+	private void queueNotification(final InternetAddress to,
+			final String subject, final String body) {
 		try {
-			deviceConfigs = config.getDeviceConfigs();
-		} catch (XPathExpressionException e) {
-			log.log(Level.SEVERE, "Error reading configuration: "
-					+ configFileName, e);
-			shutdown(1);
+			mailExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					sendNotification(mailConfig, to, subject, body);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.log(Level.WARNING, "Notification dropped, " + MAIL_QUEUE
+					+ " notifications waiting: " + subject);
 		}
+	}
 
-		mailConfig = config.getMailConfig();
+	/** Returns an executor with a daemon thread */
+	private static ThreadPoolExecutor newSingleThreadExecutor(
+			final String name, BlockingQueue<Runnable> queue) {
+		return new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, queue,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, name);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
 	}
 
 	/** send a mail */
@@ -187,8 +763,20 @@ public class PingMonitor {
 		}
 	}
 
+	/** returns jitter and loss of a device as text */
+	private String formatQuality(Device device) {
+		LinkQuality quality = device.getLinkQuality();
+		return String.format("jitter: %.1fms, loss: %.0f%% (last %d), "
+				+ "%.0f%% (last %d), lost in a row: %d",
+				quality.getJitter() / 1000000.0,
+				100 * quality.getLoss(LinkQuality.SHORT_WINDOW),
+				LinkQuality.SHORT_WINDOW,
+				100 * quality.getLoss(LinkQuality.LONG_WINDOW),
+				LinkQuality.LONG_WINDOW, quality.getLossRun());
+	}
+
 	/** returns the response type */
-	private Type getType(IcmpPingResponse response, int limit) {
+	private Type getType(ProbeResult response, int limit) {
 		Type type;
 		if (response.getSuccessFlag() && !response.getTimeoutFlag()
 				&& response.getRtt() <= limit) {
@@ -14,7 +14,7 @@ public class PingResponse {
 	final private Type type;
 	final private double time;
 
-	public PingResponse(Type type, Double time) {
+	public PingResponse(Type type, double time) {
 		this.type = type;
 		this.time = time;
 	}
@@ -2,6 +2,8 @@ package de.steinerix.ping_monitor;
 
 import java.net.InetAddress;
 
+import de.steinerix.ping_monitor.PingResponse.Type;
+
 /**
  * This interface should be implemented by the GUI module
  * 
@@ -10,8 +12,54 @@ import java.net.InetAddress;
  */
 
 public interface PlotInterface {
+	/** Id returned by addPingGraph if no graph could be allocated */
+	public static final int NO_GRAPH = -1;
+
+	/**
+	 * Adds a graph and returns its id, or NO_GRAPH if the implementation
+	 * can't display any further graphs.
+	 */
 	public int addPingGraph(String name, InetAddress ip, int maxGraph,
 			int limit, int interval);
 
-	public void updatePingGraph(int id, PingResponse response);
+	/**
+	 * Removes a graph of a device which isn't monitored anymore, its id may be
+	 * returned by addPingGraph again. The default keeps the graph.
+	 */
+	public default void removePingGraph(int id) {
+	}
+
+	/**
+	 * Adds a response to a graph. Called for each reply of a plotted device,
+	 * implementations should not allocate per call.
+	 * 
+	 * @param time
+	 *            Round trip time in ms
+	 */
+	public void updatePingGraph(int id, Type type, double time);
+
+	/** Adds a response to a graph */
+	public default void updatePingGraph(int id, PingResponse response) {
+		updatePingGraph(id, response.getType(), response.getTime());
+	}
+
+	/**
+	 * Shows the link quality of a graph, called along with each update
+	 * (implementations should not allocate per call). The default ignores it.
+	 * 
+	 * @param jitter
+	 *            Interarrival jitter in ms
+	 * @param loss
+	 *            Lost probes among the last 100 in %
+	 */
+	public default void updateLinkQuality(int id, double jitter, double loss) {
+	}
+
+	/**
+	 * Returns the number of updates waiting for the GUI thread (0 if updates
+	 * are applied immediately)
+	 */
+	public default int getBacklog() {
+		return 0;
+	}
 }
@@ -6,42 +6,77 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.xml.XMLConstants;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.validation.ValidatorHandler;
 
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
 
+import de.steinerix.ping_monitor.config.EventConfig.Policy;
 import de.steinerix.ping_monitor.config.MailConfig.AuthType;
 import de.steinerix.ping_monitor.config.MailConfig.SecurityType;
+import de.steinerix.ping_monitor.config.ProbeConfig.Backend;
+import de.steinerix.ping_monitor.dns.ResolverCache;
 
 /**
  * Provides methods to read in device and mail settings from provided XML
  * configuration file
+ * <br />
+ * The file is read in a single SAX pass: the schema named by the root element
+ * is validated while the same events build the device configs and collect
+ * the properties of the other sections, so no DOM is kept and reading scales
+ * linearly with the number of devices. Errors report line and column.
+ * <br />
+ * Devices configured by host name are resolved concurrently after the pass
+ * through a {@link ResolverCache}, as is the SMTP server.
+ * <br />
+ * Devices and ranges share the {@link DeviceSettings} of the
+ * "&lt;template&gt;" they name; equal settings of elements without template
+ * are shared as well, so large fleets don't hold settings per device.
  * 
  * @author usr
  */
 
 public class ConfigReader {
-	final private String DEVICE_XPATH = "//device";
+	final private String DEVICE_ELEMENT = "device";
+	final private String RANGE_ELEMENT = "range";
+	final private String TEMPLATE_ELEMENT = "template";
 
 	private Logger log = Logger.getLogger(ConfigReader.class.getName());
-	private XPath xpath = XPathFactory.newInstance().newXPath();
 	private File configFile;
-	private InputSource source;
+	private Locator locator; // of the pass, for line and column of errors
+	private int line, column; // of the device element being read
+	// first element of each section (e.g. "mail") by name: property by name
+	private Map<String, Map<String, String>> sections = new HashMap<String, Map<String, String>>();
+	private List<DeviceConfig> devices = new ArrayList<DeviceConfig>();
+	private HashSet<DeviceConfig> uniqueDevices = new HashSet<DeviceConfig>();
+	private List<RangeConfig> ranges = new ArrayList<RangeConfig>();
+	// settings of templates by name, equal settings of all elements
+	private Map<String, DeviceSettings> templates = new HashMap<String, DeviceSettings>();
+	private Map<DeviceSettings, DeviceSettings> sharedSettings = new HashMap<DeviceSettings, DeviceSettings>();
+	// devices configured by host name, resolved after the pass
+	private List<PendingDevice> pendingDevices = new ArrayList<PendingDevice>();
+	private ResolverCache resolver;
 
 	/**
 	 * @param configFile
@@ -50,9 +85,27 @@ public class ConfigReader {
 	 *             if config file could not be found
 	 * @throws SAXException
 	 *             if config validation failed
+	 * @throws IllegalStateException
+	 *             if a device config is invalid or not unique
 	 */
 	public ConfigReader(File configFile) throws FileNotFoundException,
 			SAXException {
+		this(configFile, new ResolverCache());
+	}
+
+	/**
+	 * @param configFile
+	 *            XML Configuration file
+	 * @param resolver
+	 *            Resolves the host names of devices and the SMTP server
+	 * @see #ConfigReader(File)
+	 */
+	public ConfigReader(File configFile, ResolverCache resolver)
+			throws FileNotFoundException, SAXException {
+		if (resolver == null) {
+			throw new IllegalArgumentException("resolver may not be null");
+		}
+		this.resolver = resolver;
 		if (!configFile.exists()) {
 			// we may be executed from within a jar
 			this.configFile = new File(getJarDirectory() + File.separator
@@ -64,9 +117,13 @@ public class ConfigReader {
 		} else { // file is in ordinary working directory present
 			this.configFile = configFile;
 		}
-		source = new InputSource(this.configFile.getAbsolutePath());
-		validateConfig();
+		readConfig();
+		resolveDevices();
+	}
 
+	/** Returns the config file read (next to the jar if not found) */
+	public File getConfigFile() {
+		return configFile;
 	}
 
 	/**
@@ -79,30 +136,23 @@ public class ConfigReader {
 	}
 
 	/**
-	 * Reads the xml config and returns a list of device specific
-	 * configurations.
+	 * Returns the list of device specific configurations read from the xml
+	 * config.
 	 */
-	public List<DeviceConfig> getDeviceConfigs()
-			throws XPathExpressionException {
+	public List<DeviceConfig> getDeviceConfigs() {
 		log.log(Level.INFO, "Reading device configurations from file: "
 				+ configFile.getAbsolutePath());
+		return new ArrayList<DeviceConfig>(devices);
+	}
 
-		ArrayList<DeviceConfig> devices = new ArrayList<DeviceConfig>();
-
-		for (int i = 1; i < countElements(DEVICE_XPATH) + 1; i++) {
-			DeviceConfig device = getDeviceConfig(i);
-			if (devices.contains(device)) {
-				String message = "Device configs should be unique. Please correct XML config. ("
-						+ device.getName()
-						+ " "
-						+ device.getAddr().getHostAddress() + ")";
-				throw new IllegalStateException(message);
-			} else {
-				devices.add(device);
-			}
-
-		}
-		return devices;
+	/**
+	 * Returns the list of address ranges ("&lt;range&gt;" elements) read from
+	 * the xml config
+	 */
+	public List<RangeConfig> getRangeConfigs() {
+		log.log(Level.INFO, "Reading range configurations from file: "
+				+ configFile.getAbsolutePath());
+		return new ArrayList<RangeConfig>(ranges);
 	}
 
 	/**
@@ -116,90 +166,232 @@ public class ConfigReader {
 				"Reading mail config from file: "
 						+ configFile.getAbsolutePath());
 
-		MailConfig config = null;
+		boolean enabled = (getMailProperty("enabled")).toLowerCase()
+				.equals("true");
+		AuthType authType = AuthType.valueOf(getMailProperty("authtype"));
+		SecurityType securityType = SecurityType
+				.valueOf(getMailProperty("securitytype"));
 
+		InetAddress server = null;
 		try {
-			boolean enabled = (getMailProperty("enabled")).toLowerCase()
-					.equals("true");
-			AuthType authType = AuthType.valueOf(getMailProperty("authtype"));
-			SecurityType securityType = SecurityType
-					.valueOf(getMailProperty("securitytype"));
-
-			InetAddress server = null;
-			try {
-				server = InetAddress.getByName(getMailProperty("server"));
-			} catch (UnknownHostException e) {
-				String message = "Please check your mail configuration (smtp server: host unknown)";
-				if (enabled) {
-					throw new IllegalStateException(message, e);
-				} else { // just warn if mail is deactivated
-					log.log(Level.WARNING, message);
-				}
+			server = resolver.resolve(getMailProperty("server"));
+		} catch (UnknownHostException e) {
+			String message = "Please check your mail configuration (smtp server: host unknown)";
+			if (enabled) {
+				throw new IllegalStateException(message, e);
+			} else { // just warn if mail is deactivated
+				log.log(Level.WARNING, message);
 			}
+		}
 
-			InternetAddress from = null;
-			try {
-				from = new InternetAddress(getMailProperty("from"));
-			} catch (AddressException e) {
-				String message = "Please check your mail configuration (from email: invalid)";
-				if (enabled) {
-					throw new IllegalStateException(message, e);
-				} else { // just warn if mail is deactivated
-					log.log(Level.WARNING, message);
-				}
+		InternetAddress from = null;
+		try {
+			from = new InternetAddress(getMailProperty("from"));
+		} catch (AddressException e) {
+			String message = "Please check your mail configuration (from email: invalid)";
+			if (enabled) {
+				throw new IllegalStateException(message, e);
+			} else { // just warn if mail is deactivated
+				log.log(Level.WARNING, message);
 			}
+		}
+
+		String username = getMailProperty("username");
+		String password = getMailProperty("password");
+		int port = Integer.parseInt(getMailProperty("port"));
+
+		return new MailConfig.Builder().server(server, port, enabled)
+				.type(authType, securityType)
+				.credentials(from, username, password).build();
+	}
 
-			String username = getMailProperty("username");
-			String password = getMailProperty("password");
-			int port = Integer.parseInt(getMailProperty("port"));
+	/**
+	 * Reads the xml config and returns the probe config. As the
+	 * "&lt;probe&gt;" element is optional, default values are used for missing
+	 * properties.
+	 */
+	public ProbeConfig getProbeConfig() {
+		log.log(Level.INFO,
+				"Reading probe config from file: "
+						+ configFile.getAbsolutePath());
 
-			config = new MailConfig.Builder().server(server, port, enabled)
-					.type(authType, securityType)
-					.credentials(from, username, password).build();
-		} catch (XPathExpressionException e) {
-			throw new IllegalStateException("Could not read mail property", e);
+		String tmpBackend = getProperty("probe", "backend");
+		Backend backend = ProbeConfig.DEFAULT_BACKEND;
+		if (!tmpBackend.equals("")) {
+			backend = Backend.valueOf(tmpBackend);
 		}
-		return config;
+
+		String tmpThreads = getProperty("probe", "threads");
+		int threads = tmpThreads.equals("") ? ProbeConfig.DEFAULT_THREADS
+				: Integer.parseInt(tmpThreads);
+
+		String tmpQueue = getProperty("probe", "queue");
+		int queue = tmpQueue.equals("") ? ProbeConfig.DEFAULT_QUEUE_CAPACITY
+				: Integer.parseInt(tmpQueue);
+
+		String tmpJitter = getProperty("probe", "jitter");
+		double jitter = tmpJitter.equals("") ? ProbeConfig.DEFAULT_JITTER
+				: Double.parseDouble(tmpJitter);
+
+		return new ProbeConfig(backend, threads, queue, jitter);
+	}
+
+	/**
+	 * Reads the xml config and returns the event config. As the
+	 * "&lt;events&gt;" element is optional, default values are used for
+	 * missing properties.
+	 */
+	public EventConfig getEventConfig() {
+		log.log(Level.INFO,
+				"Reading event config from file: "
+						+ configFile.getAbsolutePath());
+
+		String tmpCapacity = getProperty("events", "capacity");
+		int capacity = tmpCapacity.equals("") ? EventConfig.DEFAULT_CAPACITY
+				: Integer.parseInt(tmpCapacity);
+
+		return new EventConfig(capacity, getPolicy("gui",
+				EventConfig.DEFAULT_GUI_POLICY), getPolicy("log",
+				EventConfig.DEFAULT_LOG_POLICY), getPolicy("storage",
+				EventConfig.DEFAULT_STORAGE_POLICY));
+	}
+
+	/**
+	 * Reads the xml config and returns the store config. As the
+	 * "&lt;store&gt;" element is optional, default values are used for missing
+	 * properties (store disabled).
+	 */
+	public StoreConfig getStoreConfig() {
+		log.log(Level.INFO,
+				"Reading store config from file: "
+						+ configFile.getAbsolutePath());
+
+		String tmpEnabled = getProperty("store", "enabled");
+		boolean enabled = tmpEnabled.equals("") ? StoreConfig.DEFAULT_ENABLED
+				: tmpEnabled.toLowerCase().equals("true");
+
+		String tmpRollups = getProperty("store", "rollups");
+		boolean rollups = tmpRollups.equals("") ? StoreConfig.DEFAULT_ROLLUPS
+				: tmpRollups.toLowerCase().equals("true");
+
+		String tmpDirectory = getProperty("store", "directory");
+		File directory = tmpDirectory.equals("") ? StoreConfig.DEFAULT_DIRECTORY
+				: new File(tmpDirectory);
+
+		String tmpShards = getProperty("store", "shards");
+		int shards = tmpShards.equals("") ? StoreConfig.DEFAULT_SHARDS
+				: Integer.parseInt(tmpShards);
+
+		String tmpSegmentSize = getProperty("store", "segmentsize");
+		int segmentSize = tmpSegmentSize.equals("") ? StoreConfig.DEFAULT_SEGMENT_SIZE
+				: Integer.parseInt(tmpSegmentSize);
+
+		String tmpRetention = getProperty("store", "retention");
+		int retention = tmpRetention.equals("") ? StoreConfig.DEFAULT_RETENTION
+				: Integer.parseInt(tmpRetention);
+
+		return new StoreConfig(enabled, rollups, directory, shards,
+				segmentSize, retention);
+	}
+
+	/**
+	 * Reads the xml config and returns the history config. As the
+	 * "&lt;history&gt;" element is optional, default values are used for
+	 * missing properties.
+	 */
+	public HistoryConfig getHistoryConfig() {
+		log.log(Level.INFO,
+				"Reading history config from file: "
+						+ configFile.getAbsolutePath());
+
+		String tmpEnabled = getProperty("history", "enabled");
+		boolean enabled = tmpEnabled.equals("") ? HistoryConfig.DEFAULT_ENABLED
+				: tmpEnabled.toLowerCase().equals("true");
+
+		String tmpWindow = getProperty("history", "window");
+		int window = tmpWindow.equals("") ? HistoryConfig.DEFAULT_WINDOW
+				: Integer.parseInt(tmpWindow);
+
+		String tmpResolution = getProperty("history", "resolution");
+		int resolution = tmpResolution.equals("") ? HistoryConfig.DEFAULT_RESOLUTION
+				: Integer.parseInt(tmpResolution);
+
+		return new HistoryConfig(enabled, window, resolution);
 	}
 
 	/**
-	 * Get the device configuration for "&lt;device&gt;" element at specified
-	 * index (1 … length)
+	 * Reads the xml config and returns the metrics config. As the
+	 * "&lt;metrics&gt;" element is optional, default values are used for
+	 * missing properties (endpoint disabled).
+	 */
+	public MetricsConfig getMetricsConfig() {
+		log.log(Level.INFO,
+				"Reading metrics config from file: "
+						+ configFile.getAbsolutePath());
+
+		String tmpEnabled = getProperty("metrics", "enabled");
+		boolean enabled = tmpEnabled.equals("") ? MetricsConfig.DEFAULT_ENABLED
+				: tmpEnabled.toLowerCase().equals("true");
+
+		String tmpHost = getProperty("metrics", "host");
+		String host = tmpHost.equals("") ? MetricsConfig.DEFAULT_HOST
+				: tmpHost;
+
+		String tmpPort = getProperty("metrics", "port");
+		int port = tmpPort.equals("") ? MetricsConfig.DEFAULT_PORT : Integer
+				.parseInt(tmpPort);
+
+		String tmpReport = getProperty("metrics", "report");
+		int report = tmpReport.equals("") ? MetricsConfig.DEFAULT_REPORT
+				: Integer.parseInt(tmpReport);
+
+		return new MetricsConfig(enabled, host, port, report);
+	}
+
+	/** Returns the policy of an event consumer or the default if not set */
+	private Policy getPolicy(String consumer, Policy defaultPolicy) {
+		String tmpPolicy = getProperty("events", consumer);
+		return tmpPolicy.equals("") ? defaultPolicy : Policy
+				.valueOf(tmpPolicy);
+	}
+
+	/**
+	 * Get the device configuration for the properties of a "&lt;device&gt;"
+	 * element
 	 * 
+	 * @param addr
+	 *            Resolved address of a device configured by host name, null
+	 *            if configured by ip
 	 * @throws IllegalStateException
 	 */
-	private DeviceConfig getDeviceConfig(int index) {
+	private DeviceConfig getDeviceConfig(Map<String, String> element,
+			InetAddress addr) {
 		DeviceConfig device = null;
 
 		// retrieve device values from xml file
-		String ip;
 		try {
-			ip = getDeviceProperty(index, "ip");
-			String name = getDeviceProperty(index, "name");
-			int interval = Integer
-					.parseInt(getDeviceProperty(index, "interval"));
-			int limit = Integer.parseInt(getDeviceProperty(index, "limit"));
-
-			String tmpTimeout = getOptionalDeviceProperty(index, "timeout");
-			int timeout = tmpTimeout.equals("") ? 0 : Integer.parseInt(tmpTimeout);
-
-			int maxGraph = Integer
-					.parseInt(getDeviceProperty(index, "maxgraph"));
-			String eMail = getDeviceProperty(index, "email");
+			String host = getDeviceProperty(element, "host");
+			if (addr == null) { // ip literal, not looked up
+				addr = InetAddress.getByName(getDeviceProperty(element, "ip"));
+			}
+			String name = getDeviceProperty(element, "name");
 
 			// construct new device config
-			device = new DeviceConfig(InetAddress.getByName(ip), name,
-					interval, timeout, limit, maxGraph, new InternetAddress(
-							eMail));
+			device = new DeviceConfig(addr, name, getSettings(element, name));
+			if (!host.equals("")) {
+				device = new DeviceConfig(device, host, addr);
+			}
 
-		} catch (XPathExpressionException e) {
-			throw new IllegalStateException("Could not read device property", e);
 		} catch (AddressException e) {
 			throw new IllegalStateException(
-					"Email in device configuration invalid", e);
+					"Email in device configuration invalid" + getLocation(), e);
 		} catch (UnknownHostException e) {
 			throw new IllegalStateException(
-					"Could not retrieve IP of device (Unknown host)", e);
+					"Could not retrieve IP of device (Unknown host)"
+							+ getLocation(), e);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(e.getMessage() + getLocation(),
+					e);
 		}
 
 		return device;
@@ -207,51 +399,239 @@ public class ConfigReader {
 	}
 
 	/**
-	 * Validates config file according to schema
+	 * Get the range configuration for the properties of a "&lt;range&gt;"
+	 * element
+	 * 
+	 * @throws IllegalStateException
+	 */
+	private RangeConfig getRangeConfig(Map<String, String> element) {
+		try {
+			String name = getDeviceProperty(element, "name");
+			DeviceSettings settings = getSettings(element, name);
+
+			String cidr = getDeviceProperty(element, "cidr");
+			if (!cidr.equals("")) {
+				return RangeConfig.ofCidr(cidr, name, settings);
+			}
+			return new RangeConfig(InetAddress.getByName(getDeviceProperty(
+					element, "first")), InetAddress.getByName(getDeviceProperty(
+					element, "last")), name, settings);
+		} catch (AddressException e) {
+			throw new IllegalStateException(
+					"Email in range configuration invalid" + getLocation(), e);
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException("Invalid address of range"
+					+ getLocation(), e);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(e.getMessage() + getLocation(),
+					e);
+		}
+	}
+
+	/**
+	 * Adds the settings of a "&lt;template&gt;" element by its name
+	 * 
+	 * @throws IllegalStateException
+	 */
+	private void addTemplate(Map<String, String> element) {
+		String name = getDeviceProperty(element, "name");
+		if (templates.containsKey(name)) {
+			throw new IllegalStateException(
+					"Template names should be unique. Please correct XML config. ("
+							+ name + ")" + getLocation());
+		}
+		try {
+			templates.put(name, getSettings(element, name));
+		} catch (AddressException e) {
+			throw new IllegalStateException(
+					"Email in template configuration invalid" + getLocation(),
+					e);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(e.getMessage() + getLocation(),
+					e);
+		}
+	}
+
+	/**
+	 * Returns the settings of a device, range or template element: the
+	 * settings of the template it names or its own settings. Equal settings
+	 * are read into a single, shared object.
+	 * 
+	 * @param name
+	 *            Name of the element (for errors)
+	 * @throws IllegalStateException
+	 *             if the template isn't defined before
+	 */
+	private DeviceSettings getSettings(Map<String, String> element,
+			String name) throws AddressException {
+		String template = getDeviceProperty(element, "template");
+		if (!template.equals("")) {
+			DeviceSettings settings = templates.get(template);
+			if (settings == null) {
+				throw new IllegalStateException("Unknown template: "
+						+ template + getLocation());
+			}
+			return settings;
+		}
+
+		int interval = Integer.parseInt(getDeviceProperty(element, "interval"));
+		String tmpMinInterval = getDeviceProperty(element, "mininterval");
+		int minInterval = tmpMinInterval.equals("") ? 0 : Integer
+				.parseInt(tmpMinInterval);
+		String tmpMaxInterval = getDeviceProperty(element, "maxinterval");
+		int maxInterval = tmpMaxInterval.equals("") ? 0 : Integer
+				.parseInt(tmpMaxInterval);
+		String tmpTimeout = getDeviceProperty(element, "timeout");
+		int timeout = tmpTimeout.equals("") ? 0 : Integer.parseInt(tmpTimeout);
+		int limit = Integer.parseInt(getDeviceProperty(element, "limit"));
+		String tmpJitterLimit = getDeviceProperty(element, "jitterlimit");
+		int jitterLimit = tmpJitterLimit.equals("") ? 0 : Integer
+				.parseInt(tmpJitterLimit);
+		String tmpLossLimit = getDeviceProperty(element, "losslimit");
+		int lossLimit = tmpLossLimit.equals("") ? 0 : Integer
+				.parseInt(tmpLossLimit);
+		int maxGraph = Integer.parseInt(getDeviceProperty(element, "maxgraph"));
+		InternetAddress eMail = new InternetAddress(getDeviceProperty(element,
+				"email"));
+
+		DeviceSettings settings;
+		try {
+			settings = new DeviceSettings(interval, minInterval, maxInterval,
+					timeout, limit, jitterLimit, lossLimit, maxGraph, eMail);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("[" + name + "]: "
+					+ e.getMessage(), e);
+		}
+		DeviceSettings shared = sharedSettings.get(settings);
+		if (shared == null) {
+			sharedSettings.put(settings, settings);
+			shared = settings;
+		}
+		return shared;
+	}
+
+	/**
+	 * Reads, validates and collects the config file in a single pass
 	 * 
 	 * @throws SAXException
 	 */
-	private void validateConfig() throws SAXException {
+	private void readConfig() throws SAXException {
 		log.log(Level.INFO,
-				"Validating config file: " + configFile.getAbsolutePath());
+				"Reading config file: " + configFile.getAbsolutePath());
 
-		SchemaFactory factory = SchemaFactory
-				.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-		Schema schema;
 		try {
-			schema = factory.newSchema(new File(configFile.getParent()
-					+ File.separator + getSchemaLocation()).toURI().toURL());
-			Validator validator = schema.newValidator();
-
-			validator.validate(new StreamSource(configFile.getAbsolutePath()));
-		} catch (XPathExpressionException | IOException e) {
-			String msg = "Could not get schema from: "
-					+ configFile.getAbsolutePath();
-			log.log(Level.WARNING, msg, e);
-
-		} catch (SAXException e) {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			XMLReader reader = factory.newSAXParser().getXMLReader();
+			SchemaFilter filter = new SchemaFilter(reader);
+			filter.setContentHandler(new ConfigHandler());
+			filter.parse(new InputSource(configFile.toURI().toString()));
+		} catch (SAXParseException e) {
 			// log and rethrow intended
-			String msg = "Error validating: " + configFile.getAbsolutePath();
+			String msg = "Error validating: " + configFile.getAbsolutePath()
+					+ " (line " + e.getLineNumber() + ", column "
+					+ e.getColumnNumber() + ")";
 			log.log(Level.WARNING, msg, e);
-			throw e;
+			throw new SAXParseException(msg + ": " + e.getMessage(),
+					e.getPublicId(), e.getSystemId(), e.getLineNumber(),
+					e.getColumnNumber(), e);
+		} catch (IOException | ParserConfigurationException e) {
+			throw new IllegalStateException("Could not read config file: "
+					+ configFile.getAbsolutePath(), e);
+		} finally {
+			locator = null;
+		}
+	}
+
+	/**
+	 * Resolves the host names of pending devices concurrently and adds their
+	 * device configs in the order of the config file
+	 * 
+	 * @throws IllegalStateException
+	 *             if a host is unknown or a device config is invalid or not
+	 *             unique
+	 */
+	private void resolveDevices() {
+		if (pendingDevices.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		List<String> hosts = new ArrayList<String>(pendingDevices.size());
+		for (PendingDevice pending : pendingDevices) {
+			hosts.add(pending.properties.get("host"));
+		}
+		Map<String, InetAddress> addresses;
+		try {
+			addresses = resolver.resolveAll(hosts);
+		} catch (UnknownHostException e) {
+			addresses = null;
+		}
+
+		for (PendingDevice pending : pendingDevices) {
+			line = pending.line;
+			column = pending.column;
+			String host = pending.properties.get("host");
+			InetAddress addr = addresses != null ? addresses.get(host) : null;
+			if (addr == null) { // first unknown host, for its location
+				try {
+					addr = resolver.resolve(host);
+				} catch (UnknownHostException e) {
+					throw new IllegalStateException(
+							"Could not retrieve IP of device (Unknown host: "
+									+ host + ")" + getLocation(), e);
+				}
+			}
+			DeviceConfig device = getDeviceConfig(pending.properties, addr);
+			checkUnique(device);
+			devices.set(pending.index, device);
+		}
+		log.log(Level.INFO, pendingDevices.size()
+				+ " device host names resolved in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ "ms");
+		pendingDevices.clear();
+	}
+
+	/** Throws if an equal device config has been read before */
+	private void checkUnique(DeviceConfig config) {
+		if (!uniqueDevices.add(config)) {
+			String message = "Device configs should be unique. Please correct XML config. ("
+					+ config.getName()
+					+ " "
+					+ config.getAddr().getHostAddress()
+					+ ")"
+					+ getLocation();
+			throw new IllegalStateException(message);
 		}
 	}
 
 	/**
-	 * Returns a device property for device specified by index (1 … length) and
-	 * tag name (e. g. "email" for &lt;email&gt;)
+	 * Returns " (config file, line …, column …)" of the device, range or
+	 * template element being read or an empty string if none is read
+	 */
+	private String getLocation() {
+		if (line == 0) {
+			return "";
+		}
+		return " (" + configFile.getName() + ", line " + line + ", column "
+				+ column + ")";
+	}
+
+	/**
+	 * Returns a property of the first element of a section (e. g. "mail") by
+	 * property tag name (e. g. "from" for &lt;from&gt;). If property isn't
+	 * present, an empty string is returned.
 	 * 
 	 * @return string representation of property
-	 * @throws XPathExpressionException
 	 */
-	private String getProperty(int index, String parentElement,
-			String propertyName) throws XPathExpressionException {
-		String expression = "//" + parentElement + "[" + index + "]/"
-				+ propertyName;
-		String property = (String) xpath.evaluate(expression, source,
-				XPathConstants.STRING);
-		log.log(Level.FINE, parentElement + ": " + index + ", " + propertyName
-				+ ": " + property);
+	private String getProperty(String parentElement, String propertyName) {
+		Map<String, String> section = sections.get(parentElement);
+		String property = "";
+		if (section != null && section.containsKey(propertyName)) {
+			property = section.get(propertyName);
+		}
+		log.log(Level.FINE, parentElement + ": " + propertyName + ": "
+				+ property);
 
 		return property;
 	}
@@ -260,70 +640,181 @@ public class ConfigReader {
 	 * Returns a mail property
 	 * 
 	 * @return string representation of property
-	 * @throws XPathExpressionException
 	 */
-	private String getMailProperty(String propertyName)
-			throws XPathExpressionException {
-		return getProperty(1, "mail", propertyName); // only one mail element
+	private String getMailProperty(String propertyName) {
+		return getProperty("mail", propertyName); // only one mail element
 	}
 
 	/**
-	 * Returns a device property for device specified by index (1 … length) and
-	 * tag name (e. g. "email" for &lt;email&gt;)
+	 * Returns a device property for provided device properties and tag name
+	 * (e. g. "email" for &lt;email&gt;). If property isn't present (optional
+	 * property), an empty string is returned.
 	 * 
 	 * @return string representation of property
-	 * @throws XPathExpressionException
 	 */
-	private String getDeviceProperty(int index, String propertyName)
-			throws XPathExpressionException {
-		return getProperty(index, "device", propertyName);
+	private String getDeviceProperty(Map<String, String> device,
+			String propertyName) {
+		String property = device.get(propertyName);
+		if (property == null) {
+			property = "";
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Device: " + propertyName + ": " + property);
+		}
+		return property;
 	}
 
 	/**
-	 * Returns an optional device property for device specified by index (1 …
-	 * length) and tag name (e. g. "email" for &lt;email&gt;). If property isn't
-	 * present, an empty string is returned.
-	 * 
-	 * @return string representation of optional property - in case it isn't
-	 *         set, the string is empty.
-	 * @throws XPathExpressionException
+	 * Properties and location of a device configured by host name, its
+	 * config is added at index once the host is resolved
 	 */
-	private String getOptionalDeviceProperty(int index, String propertyName)
-			throws XPathExpressionException {
-		String expression = DEVICE_XPATH + "[" + index + "]/" + propertyName;
-		String property = "";
-		if (countElements(expression) > 0) {
-			property = (String) xpath.evaluate(expression, source,
-					XPathConstants.STRING);
-
+	private static class PendingDevice {
+		final int index;
+		final Map<String, String> properties;
+		final int line, column;
+
+		PendingDevice(int index, Map<String, String> properties, int line,
+				int column) {
+			this.index = index;
+			this.properties = properties;
+			this.line = line;
+			this.column = column;
 		}
-
-		log.log(Level.FINE, "Device: " + index + ", " + propertyName + ": "
-				+ property);
-
-		return property;
 	}
 
 	/**
-	 * Return count of XPath matches for provided expression
-	 * 
-	 * @throws XPathExpressionException
+	 * Validates the events of the parser against the schema named by the
+	 * "xsi:noNamespaceSchemaLocation" attribute of the root element (relative
+	 * to the config file) before handing them to the content handler. The
+	 * schema is only known with the root element, so events up to it are
+	 * replayed to the validator.
 	 */
-	private int countElements(String expression)
-			throws XPathExpressionException {
-		return ((Double) xpath.evaluate("count(" + expression + ")", source,
-				XPathConstants.NUMBER)).intValue();
+	private class SchemaFilter extends XMLFilterImpl {
+		private final List<String[]> prefixes = new ArrayList<String[]>();
+		private boolean root = true;
+
+		SchemaFilter(XMLReader parent) {
+			super(parent);
+		}
+
+		@Override
+		public void setDocumentLocator(Locator documentLocator) {
+			locator = documentLocator;
+			super.setDocumentLocator(documentLocator);
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri)
+				throws SAXException {
+			if (root) { // replayed with the root element
+				prefixes.add(new String[] { prefix, uri });
+			} else {
+				super.startPrefixMapping(prefix, uri);
+			}
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) throws SAXException {
+			if (root) {
+				root = false;
+				ValidatorHandler validator = newValidator(atts.getValue(
+						XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
+						"noNamespaceSchemaLocation"));
+				validator.setContentHandler(getContentHandler());
+				validator.setDocumentLocator(locator);
+				validator.startDocument();
+				setContentHandler(validator);
+				for (String[] mapping : prefixes) {
+					validator.startPrefixMapping(mapping[0], mapping[1]);
+				}
+			}
+			super.startElement(uri, localName, qName, atts);
+		}
+
+		/** Returns a validator of the schema at location */
+		private ValidatorHandler newValidator(String location)
+				throws SAXException {
+			File schemaFile = new File(configFile.getAbsoluteFile()
+					.getParentFile(), location == null ? "" : location);
+			log.log(Level.INFO, "Schema for config file: " + schemaFile);
+			Schema schema = SchemaFactory.newInstance(
+					XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaFile);
+			return schema.newValidatorHandler();
+		}
 	}
 
 	/**
-	 * Returns scheme location
-	 * 
-	 * @throws XPathExpressionException
+	 * Collects the properties of each section and builds the device config
+	 * of each "&lt;device&gt;" element (range config of each "&lt;range&gt;"
+	 * element, settings of each "&lt;template&gt;" element) as soon as it
+	 * ends
 	 */
-	private String getSchemaLocation() throws XPathExpressionException {
-		String schemaLocation = (String) xpath.evaluate("//config/@*", source,
-				XPathConstants.STRING);
-		log.log(Level.INFO, "Schema for config file: " + schemaLocation);
-		return schemaLocation;
+	private class ConfigHandler extends DefaultHandler {
+		private final Map<String, String> device = new HashMap<String, String>();
+		private final StringBuilder text = new StringBuilder();
+		private Map<String, String> section; // null = skipped or no section
+		private int depth = 0; // 1 = root, 2 = section, 3 = property
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+				Attributes atts) {
+			depth++;
+			if (depth == 2) {
+				if (DEVICE_ELEMENT.equals(localName)
+						|| RANGE_ELEMENT.equals(localName)
+						|| TEMPLATE_ELEMENT.equals(localName)) {
+					device.clear();
+					section = device;
+					line = locator.getLineNumber();
+					column = locator.getColumnNumber();
+				} else if (!sections.containsKey(localName)) {
+					section = new HashMap<String, String>();
+					sections.put(localName, section);
+				} else { // only the first element of a section is read
+					section = null;
+				}
+			} else if (depth == 3) {
+				text.setLength(0);
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (depth == 3) {
+				text.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if (depth == 3 && section != null
+					&& !section.containsKey(localName)) {
+				section.put(localName, text.toString());
+			} else if (depth == 2 && section == device
+					&& TEMPLATE_ELEMENT.equals(localName)) {
+				addTemplate(device);
+			} else if (depth == 2 && section == device
+					&& RANGE_ELEMENT.equals(localName)) {
+				RangeConfig range = getRangeConfig(device);
+				if (ranges.contains(range)) {
+					throw new IllegalStateException(
+							"Range configs should be unique. Please correct XML config. ("
+									+ range.getName() + ")" + getLocation());
+				}
+				ranges.add(range);
+			} else if (depth == 2 && section == device) {
+				if (device.containsKey("host")) { // resolved after the pass
+					pendingDevices.add(new PendingDevice(devices.size(),
+							new HashMap<String, String>(device), line, column));
+					devices.add(null);
+				} else {
+					DeviceConfig config = getDeviceConfig(device, null);
+					checkUnique(config);
+					devices.add(config);
+				}
+			}
+			depth--;
+		}
 	}
-}
\ No newline at end of file
+}
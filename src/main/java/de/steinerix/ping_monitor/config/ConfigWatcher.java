@@ -0,0 +1,115 @@
+package de.steinerix.ping_monitor.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a config file with a {@link WatchService} on its directory and
+ * runs a listener on a daemon thread after the file has been changed.
+ * <br />
+ * Editors save a file in several steps (truncate and write, or write a
+ * temporary file and rename it), so the listener runs once the file has been
+ * quiet for {@link #SETTLE_TIME} ms.
+ *
+ * @author usr
+ *
+ */
+public class ConfigWatcher implements Runnable {
+	public static final long SETTLE_TIME = 500; // ms
+
+	private final Logger log = Logger.getLogger(ConfigWatcher.class.getName());
+	private final Path directory;
+	private final Path fileName;
+	private final Runnable listener;
+	private WatchService watchService;
+
+	/**
+	 * @param configFile
+	 *            File to watch
+	 * @param listener
+	 *            Runs on the watcher thread after each change
+	 */
+	public ConfigWatcher(File configFile, Runnable listener) {
+		if (configFile == null || listener == null) {
+			throw new IllegalArgumentException("argument may not be null");
+		}
+		Path path = configFile.getAbsoluteFile().toPath();
+		this.directory = path.getParent();
+		this.fileName = path.getFileName();
+		this.listener = listener;
+	}
+
+	/** Starts watching on a daemon thread */
+	public synchronized void start() throws IOException {
+		if (watchService != null) {
+			throw new IllegalStateException("ConfigWatcher already started");
+		}
+		watchService = FileSystems.getDefault().newWatchService();
+		directory.register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		Thread thread = new Thread(this, "ConfigWatcher");
+		thread.setDaemon(true);
+		thread.start();
+		log.log(Level.INFO, "Watching config file for changes: "
+				+ directory.resolve(fileName));
+	}
+
+	/** Stops watching, a running listener completes */
+	public synchronized void stop() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Couldn't close watch service", e);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				if (!isChanged(watchService.take())) {
+					continue;
+				}
+				// wait until the file is quiet
+				WatchKey key;
+				while ((key = watchService.poll(SETTLE_TIME,
+						TimeUnit.MILLISECONDS)) != null) {
+					isChanged(key);
+				}
+				try {
+					listener.run();
+				} catch (RuntimeException e) {
+					log.log(Level.SEVERE, "Couldn't apply changed config", e);
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			log.log(Level.FINE, "ConfigWatcher stopped");
+		}
+	}
+
+	/** Returns true if the events of key include the config file */
+	private boolean isChanged(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW
+					|| fileName.equals(event.context())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+}
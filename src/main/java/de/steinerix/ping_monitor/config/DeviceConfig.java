@@ -1,16 +1,14 @@
 package de.steinerix.ping_monitor.config;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
-import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 
 /**
  * DeviceConfig holds information about a network device and how it should be
- * monitored
+ * monitored. It is immutable: the per device values (address, host name and
+ * name) point to {@link DeviceSettings} which may be shared by many devices,
+ * so configs are shared instead of copied.
  * 
  * @author usr
  *
@@ -18,48 +16,59 @@ import javax.mail.internet.InternetAddress;
 
 public class DeviceConfig {
 
-	final private Logger log;;
-	private InetAddress addr;
-	private String name;
-	private int interval;
-	private int timeout;
-	private int limit;
-	private int maxGraph;
-	private InternetAddress email;
+	private final InetAddress addr;
+	private final String host;
+	private final String name;
+	private final DeviceSettings settings; // shared, see DeviceSettings
 
+	/**
+	 * Copy of config, which shares its values (DeviceConfig is immutable, so
+	 * a config can be shared instead of copied)
+	 */
 	public DeviceConfig(DeviceConfig config) {
-		log = Logger.getLogger(DeviceConfig.class.getName());
-		try {
-			this.addr = InetAddress
-					.getByAddress((config.getAddr().getAddress()));
-		} catch (UnknownHostException e) {
-			// IP retrieved by InetAddress object
-			// it is safe to assume that it is of valid length
-			log.log(Level.WARNING,
-					"["
-							+ name
-							+ "]: "
-							+ "IP address invalid. This should not happen, please review client code.",
-					e);
+		this(config, config.getHost(), config.getAddr());
+	}
+
+	/**
+	 * Copy of config monitoring a device by host name
+	 * 
+	 * @param host
+	 *            Host name the address was resolved from
+	 * @param addr
+	 *            Current address of host
+	 */
+	public DeviceConfig(DeviceConfig config, String host, InetAddress addr) {
+		if (addr == null) {
+			throwArgumentException("argument may not be null",
+					config.getName());
 		}
+		this.addr = addr;
+		this.host = host;
 		this.name = config.getName();
-		this.interval = config.getInterval();
-		this.timeout = config.getTimeout();
-		this.limit = config.getLimit();
-		this.maxGraph = config.getMaxGraph();
-		try {
-			this.email = new InternetAddress(config.getEmail().getAddress());
-		} catch (AddressException e) {
-			// E-Mail retrieved by InternetAddress object
-			// it is safe to assume that it was parsed without additional syntax
-			// checks
-			log.log(Level.WARNING,
-					"["
-							+ name
-							+ "]: "
-							+ "Could not parse email. This should not happen, please review client code.",
-					e);
+		this.settings = config.getSettings();
+	}
+
+	/**
+	 * Device config with shared settings (e.g. of a template), the settings
+	 * object isn't copied
+	 * 
+	 * @param addr
+	 *            InetAddress object (Can be constructed by a raw IP or host
+	 *            name)
+	 * @param name
+	 *            Name of the device
+	 * @param settings
+	 *            How the device is monitored
+	 */
+	public DeviceConfig(InetAddress addr, String name, DeviceSettings settings) {
+		if (addr == null || name == null || settings == null) {
+			throwArgumentException("argument may not be null",
+					name != null ? name : "");
 		}
+		this.addr = addr;
+		this.host = null;
+		this.name = name;
+		this.settings = settings;
 	}
 
 	/**
@@ -80,39 +89,66 @@ public class DeviceConfig {
 	 */
 	public DeviceConfig(InetAddress addr, String name, int interval,
 			int timeout, int limit, int maxGraph, InternetAddress eMail) {
-		log = Logger.getLogger(DeviceConfig.class.getName());
-
-		// check arguments
-		if (addr == null || name == null || eMail == null) {
-			if (name != null) {
-				throwArgumentException("argument may not be null", name);
-			} else {
-				throwArgumentException("argument may not be null", "");
-			}
-		}
+		this(addr, name, interval, 0, 0, timeout, limit, maxGraph, eMail);
+	}
 
-		if (interval < 100) {
-			throwArgumentException(
-					"flooding protection: interval should be at least 100ms",
-					name);
-		}
+	/**
+	 * Device config with adaptive interval: after a stretch of normal replies
+	 * the interval backs off up to maxInterval, on an anomaly it drops to
+	 * minInterval.
+	 * 
+	 * @param minInterval
+	 *            Time in ms defining the interval after an anomaly (0 = same
+	 *            as interval)
+	 * @param maxInterval
+	 *            Time in ms defining the interval of a healthy device (0 =
+	 *            same as interval)
+	 * @see #DeviceConfig(InetAddress, String, int, int, int, int,
+	 *      InternetAddress)
+	 */
+	public DeviceConfig(InetAddress addr, String name, int interval,
+			int minInterval, int maxInterval, int timeout, int limit,
+			int maxGraph, InternetAddress eMail) {
+		this(addr, name, interval, minInterval, maxInterval, timeout, limit,
+				0, 0, maxGraph, eMail);
+	}
 
-		if (limit < 1) {
-			throwArgumentException("limit should be > 0", name);
-		} else if (maxGraph < limit) {
-			throwArgumentException("maxGraph should be >= limit", name);
-		} else if (timeout != 0 && timeout < limit) { // if 0, timeout not set
-			throwArgumentException("timeout should be >= limit", name);
-		}
+	/**
+	 * Device config with link quality limits: a reply also exceeds the limit
+	 * if the jitter or the loss of the last probes exceeds its limit.
+	 * 
+	 * @param jitterLimit
+	 *            Time in ms defining the limit for the interarrival jitter (0
+	 *            = no limit)
+	 * @param lossLimit
+	 *            Percentage of lost probes among the last 100 defining the
+	 *            limit for packet loss (0 = no limit)
+	 * @see #DeviceConfig(InetAddress, String, int, int, int, int, int, int,
+	 *      InternetAddress)
+	 */
+	public DeviceConfig(InetAddress addr, String name, int interval,
+			int minInterval, int maxInterval, int timeout, int limit,
+			int jitterLimit, int lossLimit, int maxGraph,
+			InternetAddress eMail) {
+		this(addr, name, newSettings(name, interval, minInterval,
+				maxInterval, timeout, limit, jitterLimit, lossLimit, maxGraph,
+				eMail));
+	}
 
-		// assign values
-		this.addr = addr;
-		this.name = name;
-		this.interval = interval;
-		this.timeout = timeout;
-		this.limit = limit;
-		this.maxGraph = maxGraph;
-		this.email = eMail;
+	/**
+	 * Returns validated settings, an IllegalArgumentException names the
+	 * device
+	 */
+	private static DeviceSettings newSettings(String name, int interval,
+			int minInterval, int maxInterval, int timeout, int limit,
+			int jitterLimit, int lossLimit, int maxGraph, InternetAddress eMail) {
+		try {
+			return new DeviceSettings(interval, minInterval, maxInterval,
+					timeout, limit, jitterLimit, lossLimit, maxGraph, eMail);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("["
+					+ (name != null ? name : "") + "]: " + e.getMessage(), e);
+		}
 	}
 
 	/**
@@ -122,6 +158,14 @@ public class DeviceConfig {
 		return addr;
 	}
 
+	/**
+	 * @return Host name the address is resolved from (null if configured by
+	 *         address)
+	 */
+	public String getHost() {
+		return host;
+	}
+
 	/**
 	 * @return Name of the device
 	 */
@@ -133,33 +177,78 @@ public class DeviceConfig {
 	 * @return Time in ms defining the interval by which the device is pinged
 	 */
 	public int getInterval() {
-		return interval;
+		return settings.getInterval();
+	}
+
+	/**
+	 * @return Time in ms defining the interval after an anomaly (equals
+	 *         interval if not adaptive)
+	 */
+	public int getMinInterval() {
+		return settings.getMinInterval();
+	}
+
+	/**
+	 * @return Time in ms defining the interval of a healthy device (equals
+	 *         interval if not adaptive)
+	 */
+	public int getMaxInterval() {
+		return settings.getMaxInterval();
+	}
+
+	/** Returns true if the interval adapts to the device's state */
+	public boolean isAdaptive() {
+		return settings.getMinInterval() != settings.getInterval()
+				|| settings.getMaxInterval() != settings.getInterval();
 	}
 
 	/** Time in ms defining the ping timeout. */
 	public int getTimeout() {
-		return timeout;
+		return settings.getTimeout();
 	}
 
 	/**
 	 * @return Time in ms defining the trigger limit for ping response time
 	 */
 	public int getLimit() {
-		return limit;
+		return settings.getLimit();
+	}
+
+	/**
+	 * @return Time in ms defining the trigger limit for the interarrival
+	 *         jitter (0 = no limit)
+	 */
+	public int getJitterLimit() {
+		return settings.getJitterLimit();
+	}
+
+	/**
+	 * @return Percentage of lost probes among the last 100 defining the
+	 *         trigger limit for packet loss (0 = no limit)
+	 */
+	public int getLossLimit() {
+		return settings.getLossLimit();
 	}
 
 	/**
 	 * @return Time in ms which equals 100% of the graph's size
 	 */
 	public int getMaxGraph() {
-		return maxGraph;
+		return settings.getMaxGraph();
 	}
 
 	/**
-	 * @return InternetAddress object (Can be instantiated by a String)
+	 * @return Copy of the notification address
 	 */
 	public InternetAddress getEmail() {
-		return email;
+		return settings.getEmail();
+	}
+
+	/**
+	 * @return Settings of the device, possibly shared with other devices
+	 */
+	public DeviceSettings getSettings() {
+		return settings;
 	}
 
 	@Override
@@ -167,12 +256,10 @@ public class DeviceConfig {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((addr == null) ? 0 : addr.hashCode());
-		result = prime * result + ((email == null) ? 0 : email.hashCode());
-		result = prime * result + (int) (interval ^ (interval >>> 32));
-		result = prime * result + limit;
-		result = prime * result + maxGraph;
+		result = prime * result + ((host == null) ? 0 : host.hashCode());
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
-		result = prime * result + timeout;
+		result = prime * result
+				+ ((settings == null) ? 0 : settings.hashCode());
 		return result;
 	}
 
@@ -190,23 +277,21 @@ public class DeviceConfig {
 				return false;
 		} else if (!addr.equals(other.addr))
 			return false;
-		if (email == null) {
-			if (other.email != null)
+		if (host == null) {
+			if (other.host != null)
 				return false;
-		} else if (!email.equals(other.email))
-			return false;
-		if (interval != other.interval)
-			return false;
-		if (limit != other.limit)
-			return false;
-		if (maxGraph != other.maxGraph)
+		} else if (!host.equals(other.host))
 			return false;
 		if (name == null) {
 			if (other.name != null)
 				return false;
 		} else if (!name.equals(other.name))
 			return false;
-		if (timeout != other.timeout)
+		if (settings == null) {
+			if (other.settings != null)
+				return false;
+		} else if (settings != other.settings
+				&& !settings.equals(other.settings))
 			return false;
 		return true;
 	}
@@ -0,0 +1,213 @@
+package de.steinerix.ping_monitor.config;
+
+import javax.mail.internet.InternetAddress;
+
+/**
+ * DeviceSettings holds how devices are monitored (intervals, limits, graph
+ * size and notification address). It is immutable, so a single instance is
+ * shared by all devices of a template, of a range or with equal settings
+ * instead of being kept per device.
+ *
+ * @author usr
+ *
+ */
+public class DeviceSettings {
+	private final int interval;
+	private final int minInterval;
+	private final int maxInterval;
+	private final int timeout;
+	private final int limit;
+	private final int jitterLimit;
+	private final int lossLimit;
+	private final int maxGraph;
+	private final InternetAddress email; // private copy, never handed out
+
+	/**
+	 * @param interval
+	 *            Time in ms defining the interval by which the device is pinged
+	 * @param minInterval
+	 *            Time in ms defining the interval after an anomaly (0 = same
+	 *            as interval)
+	 * @param maxInterval
+	 *            Time in ms defining the interval of a healthy device (0 =
+	 *            same as interval)
+	 * @param timeout
+	 *            Time in ms defining the ping timeout (0 = not set)
+	 * @param limit
+	 *            Time in ms defining the limit for ping response time
+	 * @param jitterLimit
+	 *            Time in ms defining the limit for the interarrival jitter (0
+	 *            = no limit)
+	 * @param lossLimit
+	 *            Percentage of lost probes among the last 100 defining the
+	 *            limit for packet loss (0 = no limit)
+	 * @param maxGraph
+	 *            Time in ms which equals 100% of the graph's size
+	 * @param eMail
+	 *            InternetAddress object (Can be instantiated by a String)
+	 */
+	public DeviceSettings(int interval, int minInterval, int maxInterval,
+			int timeout, int limit, int jitterLimit, int lossLimit,
+			int maxGraph, InternetAddress eMail) {
+		if (eMail == null) {
+			throw new IllegalArgumentException("argument may not be null");
+		}
+		if (interval < 100) {
+			throw new IllegalArgumentException(
+					"flooding protection: interval should be at least 100ms");
+		}
+		if (minInterval == 0) { // not set
+			minInterval = interval;
+		}
+		if (maxInterval == 0) { // not set
+			maxInterval = interval;
+		}
+		if (minInterval < 100) {
+			throw new IllegalArgumentException(
+					"flooding protection: mininterval should be at least 100ms");
+		} else if (minInterval > interval || maxInterval < interval) {
+			throw new IllegalArgumentException(
+					"mininterval <= interval <= maxinterval required");
+		}
+
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit should be > 0");
+		} else if (maxGraph < limit) {
+			throw new IllegalArgumentException("maxGraph should be >= limit");
+		} else if (timeout != 0 && timeout < limit) { // if 0, timeout not set
+			throw new IllegalArgumentException("timeout should be >= limit");
+		}
+		if (jitterLimit < 0) {
+			throw new IllegalArgumentException("jitterLimit should be >= 0");
+		}
+		if (lossLimit < 0 || lossLimit > 100) {
+			throw new IllegalArgumentException(
+					"lossLimit should be in [0, 100]");
+		}
+
+		this.interval = interval;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.timeout = timeout;
+		this.limit = limit;
+		this.jitterLimit = jitterLimit;
+		this.lossLimit = lossLimit;
+		this.maxGraph = maxGraph;
+		this.email = (InternetAddress) eMail.clone();
+	}
+
+	/**
+	 * @return Time in ms defining the interval by which the device is pinged
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return Time in ms defining the interval after an anomaly (equals
+	 *         interval if not adaptive)
+	 */
+	public int getMinInterval() {
+		return minInterval;
+	}
+
+	/**
+	 * @return Time in ms defining the interval of a healthy device (equals
+	 *         interval if not adaptive)
+	 */
+	public int getMaxInterval() {
+		return maxInterval;
+	}
+
+	/** Time in ms defining the ping timeout. */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return Time in ms defining the trigger limit for ping response time
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return Time in ms defining the trigger limit for the interarrival
+	 *         jitter (0 = no limit)
+	 */
+	public int getJitterLimit() {
+		return jitterLimit;
+	}
+
+	/**
+	 * @return Percentage of lost probes among the last 100 defining the
+	 *         trigger limit for packet loss (0 = no limit)
+	 */
+	public int getLossLimit() {
+		return lossLimit;
+	}
+
+	/**
+	 * @return Time in ms which equals 100% of the graph's size
+	 */
+	public int getMaxGraph() {
+		return maxGraph;
+	}
+
+	/**
+	 * @return Copy of the notification address (InternetAddress is mutable,
+	 *         only needed on alarms)
+	 */
+	public InternetAddress getEmail() {
+		return (InternetAddress) email.clone();
+	}
+
+	@Override
+	public int hashCode() { // generated with eclipse
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((email == null) ? 0 : email.hashCode());
+		result = prime * result + interval;
+		result = prime * result + jitterLimit;
+		result = prime * result + limit;
+		result = prime * result + lossLimit;
+		result = prime * result + maxGraph;
+		result = prime * result + maxInterval;
+		result = prime * result + minInterval;
+		result = prime * result + timeout;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) { // generated with eclipse
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		DeviceSettings other = (DeviceSettings) obj;
+		if (email == null) {
+			if (other.email != null)
+				return false;
+		} else if (!email.equals(other.email))
+			return false;
+		if (interval != other.interval)
+			return false;
+		if (jitterLimit != other.jitterLimit)
+			return false;
+		if (limit != other.limit)
+			return false;
+		if (lossLimit != other.lossLimit)
+			return false;
+		if (maxGraph != other.maxGraph)
+			return false;
+		if (maxInterval != other.maxInterval)
+			return false;
+		if (minInterval != other.minInterval)
+			return false;
+		if (timeout != other.timeout)
+			return false;
+		return true;
+	}
+}
@@ -0,0 +1,101 @@
+package de.steinerix.ping_monitor.config;
+
+/**
+ * EventConfig defines the size of the event bus between devices and the
+ * consumers of their events and how each consumer handles falling behind.
+ * Only the storage consumers may block publishers (if configured). Alarms
+ * and clears are mailed without the event bus, so they are never dropped
+ * with missed events.
+ *
+ * @author usr
+ *
+ */
+public class EventConfig {
+
+	/**
+	 * Policy of a consumer which can't keep up with the published events
+	 *
+	 * @author usr
+	 *
+	 */
+	public enum Policy {
+		/** publishers wait for the consumer, no event is lost */
+		BLOCK,
+		/** publishers never wait, events the consumer missed are lost */
+		DROP,
+		/** as DROP, but of each batch only the last reply per device is handled */
+		COALESCE
+	};
+
+	public static final int DEFAULT_CAPACITY = 65536;
+	public static final Policy DEFAULT_GUI_POLICY = Policy.COALESCE;
+	public static final Policy DEFAULT_LOG_POLICY = Policy.DROP;
+	public static final Policy DEFAULT_STORAGE_POLICY = Policy.DROP;
+	/** Policy of the in-memory latency, history and metrics consumers */
+	public static final Policy STATS_POLICY = Policy.DROP;
+
+	private final int capacity;
+	private final Policy guiPolicy;
+	private final Policy logPolicy;
+	private final Policy storagePolicy;
+
+	/** Initialize event config with default values */
+	public EventConfig() {
+		this(DEFAULT_CAPACITY, DEFAULT_GUI_POLICY, DEFAULT_LOG_POLICY,
+				DEFAULT_STORAGE_POLICY);
+	}
+
+	/**
+	 * Initialize event config with default storage policy
+	 * 
+	 * @see #EventConfig(int, Policy, Policy, Policy)
+	 */
+	public EventConfig(int capacity, Policy guiPolicy, Policy logPolicy) {
+		this(capacity, guiPolicy, logPolicy, DEFAULT_STORAGE_POLICY);
+	}
+
+	/**
+	 * @param capacity
+	 *            Number of events the bus holds (power of two)
+	 * @param guiPolicy
+	 *            Policy of the GUI consumer
+	 * @param logPolicy
+	 *            Policy of the log consumer
+	 * @param storagePolicy
+	 *            Policy of the RTT store and rollup consumers
+	 */
+	public EventConfig(int capacity, Policy guiPolicy, Policy logPolicy,
+			Policy storagePolicy) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException(
+					"capacity should be a power of two");
+		}
+		if (guiPolicy == null || logPolicy == null || storagePolicy == null) {
+			throw new IllegalArgumentException("policy may not be null");
+		}
+		this.capacity = capacity;
+		this.guiPolicy = guiPolicy;
+		this.logPolicy = logPolicy;
+		this.storagePolicy = storagePolicy;
+	}
+
+	/** Number of events the bus holds */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** Policy of the GUI consumer */
+	public Policy getGuiPolicy() {
+		return guiPolicy;
+	}
+
+	/** Policy of the log consumer */
+	public Policy getLogPolicy() {
+		return logPolicy;
+	}
+
+	/** Policy of the RTT store and rollup consumers */
+	public Policy getStoragePolicy() {
+		return storagePolicy;
+	}
+}
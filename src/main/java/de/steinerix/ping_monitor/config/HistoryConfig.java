@@ -0,0 +1,59 @@
+package de.steinerix.ping_monitor.config;
+
+/**
+ * HistoryConfig defines whether recent replies are kept in memory, for how
+ * long and at which RTT resolution
+ *
+ * @author usr
+ *
+ */
+public class HistoryConfig {
+	public static final boolean DEFAULT_ENABLED = true;
+	public static final int DEFAULT_WINDOW = 6; // h
+	public static final int DEFAULT_RESOLUTION = 1000; // µs
+
+	private final boolean enabled;
+	private final int window;
+	private final int resolution;
+
+	/** Initialize history config with default values */
+	public HistoryConfig() {
+		this(DEFAULT_ENABLED, DEFAULT_WINDOW, DEFAULT_RESOLUTION);
+	}
+
+	/**
+	 * @param enabled
+	 *            true if recent replies are kept
+	 * @param window
+	 *            Hours replies are kept
+	 * @param resolution
+	 *            Resolution of RTTs in µs (the finer, the more memory is
+	 *            used)
+	 */
+	public HistoryConfig(boolean enabled, int window, int resolution) {
+		if (window < 1) {
+			throw new IllegalArgumentException("window should be > 0");
+		}
+		if (resolution < 1) {
+			throw new IllegalArgumentException("resolution should be > 0");
+		}
+		this.enabled = enabled;
+		this.window = window;
+		this.resolution = resolution;
+	}
+
+	/** true if recent replies are kept */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Hours replies are kept */
+	public int getWindow() {
+		return window;
+	}
+
+	/** Resolution of RTTs in µs */
+	public int getResolution() {
+		return resolution;
+	}
+}
@@ -0,0 +1,83 @@
+package de.steinerix.ping_monitor.config;
+
+/**
+ * MetricsConfig defines whether the OpenMetrics (Prometheus) endpoint is
+ * served and on which host and port, and how often the monitor's own metrics
+ * are logged
+ *
+ * @author usr
+ *
+ */
+public class MetricsConfig {
+	public static final boolean DEFAULT_ENABLED = false;
+	public static final String DEFAULT_HOST = "localhost";
+	public static final int DEFAULT_PORT = 9464;
+	public static final int DEFAULT_REPORT = 60; // s
+
+	private final boolean enabled;
+	private final String host;
+	private final int port;
+	private final int report;
+
+	/** Initialize metrics config with default values (endpoint disabled) */
+	public MetricsConfig() {
+		this(DEFAULT_ENABLED, DEFAULT_HOST, DEFAULT_PORT);
+	}
+
+	/**
+	 * Initialize metrics config with default report period
+	 * 
+	 * @see #MetricsConfig(boolean, String, int, int)
+	 */
+	public MetricsConfig(boolean enabled, String host, int port) {
+		this(enabled, host, port, DEFAULT_REPORT);
+	}
+
+	/**
+	 * @param enabled
+	 *            true if the endpoint is served
+	 * @param host
+	 *            Host name or address the endpoint is bound to
+	 * @param port
+	 *            TCP port of the endpoint
+	 * @param report
+	 *            Seconds between two log reports of the monitor's own
+	 *            metrics (0: no reports)
+	 */
+	public MetricsConfig(boolean enabled, String host, int port, int report) {
+		if (host == null || host.isEmpty()) {
+			throw new IllegalArgumentException("host may not be empty");
+		}
+		if (port < 1 || port > 65535) {
+			throw new IllegalArgumentException(
+					"port should be in [1, 65535]");
+		}
+		if (report < 0) {
+			throw new IllegalArgumentException("report should be >= 0");
+		}
+		this.enabled = enabled;
+		this.host = host;
+		this.port = port;
+		this.report = report;
+	}
+
+	/** true if the endpoint is served */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Host name or address the endpoint is bound to */
+	public String getHost() {
+		return host;
+	}
+
+	/** TCP port of the endpoint */
+	public int getPort() {
+		return port;
+	}
+
+	/** Seconds between two log reports of the monitor's own metrics (0: off) */
+	public int getReport() {
+		return report;
+	}
+}
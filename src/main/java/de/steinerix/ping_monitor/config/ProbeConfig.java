@@ -0,0 +1,97 @@
+package de.steinerix.ping_monitor.config;
+
+/**
+ * ProbeConfig defines which backend sends the probes, how many probes may be
+ * executed and queued at the same time and how start times are jittered
+ *
+ * @author usr
+ *
+ */
+public class ProbeConfig {
+
+	/**
+	 * Probe backend
+	 * 
+	 * @author usr
+	 *
+	 */
+	public enum Backend {
+		ICMP4J, DATAGRAM, SIMULATED
+	};
+
+	public static final Backend DEFAULT_BACKEND = Backend.ICMP4J;
+	public static final int DEFAULT_THREADS = 32;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	public static final double DEFAULT_JITTER = 0;
+
+	private final Backend backend;
+	private final int threads;
+	private final int queueCapacity;
+	private final double jitter;
+
+	/** Initialize probe config with default values */
+	public ProbeConfig() {
+		this(DEFAULT_BACKEND, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY,
+				DEFAULT_JITTER);
+	}
+
+	/**
+	 * Initialize probe config without jitter
+	 * 
+	 * @see #ProbeConfig(Backend, int, int, double)
+	 */
+	public ProbeConfig(Backend backend, int threads, int queueCapacity) {
+		this(backend, threads, queueCapacity, DEFAULT_JITTER);
+	}
+
+	/**
+	 * @param backend
+	 *            Backend which sends the probes
+	 * @param threads
+	 *            Number of probes executed in parallel
+	 * @param queueCapacity
+	 *            Number of probes which may wait for execution
+	 * @param jitter
+	 *            Random shift of a device's first probe as fraction of its
+	 *            interval (0 … 1)
+	 */
+	public ProbeConfig(Backend backend, int threads, int queueCapacity,
+			double jitter) {
+		if (backend == null) {
+			throw new IllegalArgumentException("backend may not be null");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads should be > 0");
+		}
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queue should be > 0");
+		}
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("jitter should be in [0, 1]");
+		}
+		this.backend = backend;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		this.jitter = jitter;
+	}
+
+	/** Backend which sends the probes */
+	public Backend getBackend() {
+		return backend;
+	}
+
+	/** Number of probes executed in parallel */
+	public int getThreads() {
+		return threads;
+	}
+
+	/** Number of probes which may wait for execution */
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/** Random shift of a device's first probe as fraction of its interval */
+	public double getJitter() {
+		return jitter;
+	}
+}
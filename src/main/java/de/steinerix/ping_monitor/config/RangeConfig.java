@@ -0,0 +1,242 @@
+package de.steinerix.ping_monitor.config;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.mail.internet.InternetAddress;
+
+/**
+ * RangeConfig holds a block of IPv4 addresses (CIDR block or first and last
+ * address) whose hosts are monitored with shared settings. No per-host
+ * object is kept: the address and device config of a host are derived from
+ * its index on demand (see {@link #getDeviceConfig(int)}), the device configs
+ * share the settings of the range.
+ * <br />
+ * The network and broadcast addresses of a CIDR block up to /30 aren't part
+ * of the range.
+ *
+ * @author usr
+ *
+ */
+public class RangeConfig {
+	/** Largest number of hosts of a range (a /16 block) */
+	public static final int MAX_SIZE = 1 << 16;
+
+	private final int first; // address as unsigned int
+	private final int size;
+	private final String name;
+	private final DeviceSettings settings; // shared by all hosts
+
+	/**
+	 * Range of a CIDR block (e.g. "10.1.0.0/16", prefix length 16 … 32)
+	 *
+	 * @see #RangeConfig(InetAddress, InetAddress, String, int, int, int, int,
+	 *      InternetAddress)
+	 */
+	public static RangeConfig ofCidr(String cidr, String name,
+			int interval, int timeout, int limit, int maxGraph,
+			InternetAddress eMail) {
+		return ofCidr(cidr, name, newSettings(name, interval, timeout, limit,
+				maxGraph, eMail));
+	}
+
+	/**
+	 * Range of a CIDR block with shared settings (e.g. of a template)
+	 *
+	 * @see #ofCidr(String, String, int, int, int, int, InternetAddress)
+	 */
+	public static RangeConfig ofCidr(String cidr, String name,
+			DeviceSettings settings) {
+		int slash = cidr.indexOf('/');
+		if (slash < 0) {
+			throw new IllegalArgumentException("[" + name
+					+ "]: CIDR block requires a prefix length: " + cidr);
+		}
+		int prefix = Integer.parseInt(cidr.substring(slash + 1));
+		if (prefix < 16 || prefix > 32) {
+			throw new IllegalArgumentException("[" + name
+					+ "]: prefix length should be in [16, 32]: " + cidr);
+		}
+		long mask = (0xffffffffL << (32 - prefix)) & 0xffffffffL;
+		long network = toLong(parse(cidr.substring(0, slash), name)) & mask;
+		long last = network | (~mask & 0xffffffffL);
+		if (prefix <= 30) { // without network and broadcast address
+			network++;
+			last--;
+		}
+		return new RangeConfig(toAddress(network), toAddress(last), name,
+				settings);
+	}
+
+	/**
+	 * Range from first to last address (inclusive)
+	 *
+	 * @param name
+	 *            Name of the range, hosts are named "name address"
+	 * @see DeviceConfig#DeviceConfig(InetAddress, String, int, int, int, int,
+	 *      InternetAddress)
+	 */
+	public RangeConfig(InetAddress first, InetAddress last, String name,
+			int interval, int timeout, int limit, int maxGraph,
+			InternetAddress eMail) {
+		this(first, last, name, newSettings(name, interval, timeout, limit,
+				maxGraph, eMail));
+	}
+
+	/**
+	 * Range from first to last address (inclusive) with shared settings
+	 * (e.g. of a template)
+	 *
+	 * @see #RangeConfig(InetAddress, InetAddress, String, int, int, int, int,
+	 *      InternetAddress)
+	 */
+	public RangeConfig(InetAddress first, InetAddress last, String name,
+			DeviceSettings settings) {
+		if (name == null || settings == null) {
+			throw new IllegalArgumentException("argument may not be null");
+		}
+		if (!(first instanceof Inet4Address)
+				|| !(last instanceof Inet4Address)) {
+			throw new IllegalArgumentException("[" + name
+					+ "]: IPv4 addresses required");
+		}
+		long size = toLong(first) <= toLong(last) ? toLong(last)
+				- toLong(first) + 1 : 0;
+		if (size < 1 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("[" + name
+					+ "]: range should contain 1 to " + MAX_SIZE
+					+ " addresses");
+		}
+		this.settings = settings;
+		this.first = (int) toLong(first);
+		this.size = (int) size;
+		this.name = name;
+	}
+
+	/** Returns the name of the range */
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the number of hosts */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the settings shared by all hosts */
+	public DeviceSettings getSettings() {
+		return settings;
+	}
+
+	/** Returns the address of the host at index */
+	public InetAddress getAddr(int index) {
+		checkIndex(index);
+		return toAddress((first & 0xffffffffL) + index);
+	}
+
+	/** Returns a new device config of the host at index */
+	public DeviceConfig getDeviceConfig(int index) {
+		InetAddress addr = getAddr(index);
+		return new DeviceConfig(addr, name + " " + addr.getHostAddress(),
+				settings);
+	}
+
+	/** Returns the index of addr or -1 if addr isn't part of the range */
+	public int indexOf(InetAddress addr) {
+		if (!(addr instanceof Inet4Address)) {
+			return -1;
+		}
+		long index = toLong(addr) - (first & 0xffffffffL);
+		return index >= 0 && index < size ? (int) index : -1;
+	}
+
+	/**
+	 * Returns validated settings, an IllegalArgumentException names the
+	 * range
+	 */
+	private static DeviceSettings newSettings(String name, int interval,
+			int timeout, int limit, int maxGraph, InternetAddress eMail) {
+		try {
+			return new DeviceSettings(interval, 0, 0, timeout, limit, 0, 0,
+					maxGraph, eMail);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("[" + name + "]: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index
+					+ ", size: " + size);
+		}
+	}
+
+	private static InetAddress parse(String address, String name) {
+		try {
+			InetAddress addr = InetAddress.getByName(address);
+			if (!(addr instanceof Inet4Address)) {
+				throw new UnknownHostException(address);
+			}
+			return addr;
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("[" + name
+					+ "]: IPv4 address required: " + address, e);
+		}
+	}
+
+	private static long toLong(InetAddress addr) {
+		byte[] bytes = addr.getAddress();
+		return ((bytes[0] & 0xffL) << 24) | ((bytes[1] & 0xffL) << 16)
+				| ((bytes[2] & 0xffL) << 8) | (bytes[3] & 0xffL);
+	}
+
+	private static InetAddress toAddress(long address) {
+		try {
+			return InetAddress.getByAddress(new byte[] {
+					(byte) (address >>> 24), (byte) (address >>> 16),
+					(byte) (address >>> 8), (byte) address });
+		} catch (UnknownHostException e) { // 4 bytes are valid
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public int hashCode() { // generated with eclipse
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + first;
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + size;
+		result = prime * result
+				+ ((settings == null) ? 0 : settings.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) { // generated with eclipse
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		RangeConfig other = (RangeConfig) obj;
+		if (first != other.first)
+			return false;
+		if (name == null) {
+			if (other.name != null)
+				return false;
+		} else if (!name.equals(other.name))
+			return false;
+		if (size != other.size)
+			return false;
+		if (settings == null) {
+			if (other.settings != null)
+				return false;
+		} else if (!settings.equals(other.settings))
+			return false;
+		return true;
+	}
+}
@@ -0,0 +1,101 @@
+package de.steinerix.ping_monitor.config;
+
+import java.io.File;
+
+/**
+ * StoreConfig defines whether and where the RTT history and its rollups are
+ * stored, how the history is split into segment files and how long it is
+ * retained
+ *
+ * @author usr
+ *
+ */
+public class StoreConfig {
+	public static final boolean DEFAULT_ENABLED = false;
+	public static final boolean DEFAULT_ROLLUPS = false;
+	public static final File DEFAULT_DIRECTORY = new File("history");
+	public static final int DEFAULT_SHARDS = 16;
+	public static final int DEFAULT_SEGMENT_SIZE = 64; // MiB
+	public static final int DEFAULT_RETENTION = 24 * 7; // h
+
+	private final boolean enabled;
+	private final boolean rollups;
+	private final File directory;
+	private final int shards;
+	private final int segmentSize;
+	private final int retention;
+
+	/** Initialize store config with default values (store disabled) */
+	public StoreConfig() {
+		this(DEFAULT_ENABLED, DEFAULT_ROLLUPS, DEFAULT_DIRECTORY,
+				DEFAULT_SHARDS, DEFAULT_SEGMENT_SIZE, DEFAULT_RETENTION);
+	}
+
+	/**
+	 * @param enabled
+	 *            true if replies are stored
+	 * @param rollups
+	 *            true if rollups (per minute, hour and day) are stored
+	 * @param directory
+	 *            Directory of the segment files and rollups
+	 * @param shards
+	 *            Number of segment files written at the same time (devices
+	 *            are distributed among them)
+	 * @param segmentSize
+	 *            Size of a segment file in MiB
+	 * @param retention
+	 *            Hours a segment is kept after its last record
+	 */
+	public StoreConfig(boolean enabled, boolean rollups, File directory,
+			int shards, int segmentSize, int retention) {
+		if (directory == null) {
+			throw new IllegalArgumentException("directory may not be null");
+		}
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards should be > 0");
+		}
+		if (segmentSize < 1 || segmentSize > 1024) {
+			throw new IllegalArgumentException(
+					"segment size should be in [1, 1024] MiB");
+		}
+		if (retention < 1) {
+			throw new IllegalArgumentException("retention should be > 0");
+		}
+		this.enabled = enabled;
+		this.rollups = rollups;
+		this.directory = directory;
+		this.shards = shards;
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+	}
+
+	/** true if replies are stored */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** true if rollups (per minute, hour and day) are stored */
+	public boolean isRollups() {
+		return rollups;
+	}
+
+	/** Directory of the segment files and rollups */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** Number of segment files written at the same time */
+	public int getShards() {
+		return shards;
+	}
+
+	/** Size of a segment file in MiB */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/** Hours a segment is kept after its last record */
+	public int getRetention() {
+		return retention;
+	}
+}
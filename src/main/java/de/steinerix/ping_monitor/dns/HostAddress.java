@@ -0,0 +1,53 @@
+package de.steinerix.ping_monitor.dns;
+
+import java.net.InetAddress;
+
+/**
+ * Address of a host name with its time to live
+ *
+ * @author usr
+ *
+ */
+public class HostAddress {
+	private final String host;
+	private final InetAddress address;
+	private final int ttl;
+
+	/**
+	 * @param host
+	 *            Host name looked up
+	 * @param address
+	 *            Address of host
+	 * @param ttl
+	 *            Time in s the address may be cached
+	 */
+	public HostAddress(String host, InetAddress address, int ttl) {
+		if (host == null || address == null) {
+			throw new IllegalArgumentException("argument may not be null");
+		}
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl should be >= 0");
+		}
+		this.host = host;
+		this.address = address;
+		this.ttl = ttl;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/** Time in s the address may be cached */
+	public int getTtl() {
+		return ttl;
+	}
+
+	@Override
+	public String toString() {
+		return host + "/" + address.getHostAddress() + " (ttl: " + ttl + "s)";
+	}
+}
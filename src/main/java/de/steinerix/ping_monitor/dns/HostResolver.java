@@ -0,0 +1,22 @@
+package de.steinerix.ping_monitor.dns;
+
+import java.net.UnknownHostException;
+
+/**
+ * A HostResolver looks up the address of a host name. The
+ * {@link ResolverCache} only interacts with resolvers through this
+ * interface, which allows to replace DNS by a stub.
+ *
+ * @author usr
+ *
+ */
+public interface HostResolver {
+	/**
+	 * Looks up host, may block
+	 *
+	 * @return address of host and how long it may be cached
+	 * @throws UnknownHostException
+	 *             if host has no address
+	 */
+	public HostAddress resolve(String host) throws UnknownHostException;
+}
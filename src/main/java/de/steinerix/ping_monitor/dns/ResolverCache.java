@@ -0,0 +1,294 @@
+package de.steinerix.ping_monitor.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the addresses of host names for their TTL. Many hosts are looked up
+ * concurrently ({@link #resolveAll(Collection)}), so a config with many host
+ * names doesn't wait for each lookup in turn.
+ * <br />
+ * Once started, expired addresses are refreshed in the background and
+ * listeners are told about changed ones, so devices follow DNS changes. If a
+ * refresh fails, the former address is kept and the lookup is retried after
+ * {@link #RETRY_TIME} ms.
+ *
+ * @author usr
+ *
+ */
+public class ResolverCache {
+	public static final int DEFAULT_THREADS = 8;
+	public static final long RETRY_TIME = 30000; // ms
+	static final long CHECK_PERIOD = 1000; // ms
+
+	/**
+	 * Receives changed addresses once the cache is started. Listeners run on
+	 * the refresh thread, not on a lookup thread, so they may wait for
+	 * lookups.
+	 *
+	 * @author usr
+	 *
+	 */
+	public interface Listener {
+		public void addressChanged(String host, InetAddress address);
+	}
+
+	/**
+	 * Cached address of a host
+	 *
+	 * @author usr
+	 *
+	 */
+	private static class Entry {
+		volatile InetAddress address;
+		volatile long expires; // ms
+		final AtomicBoolean refreshing = new AtomicBoolean();
+	}
+
+	private final Logger log = Logger.getLogger(ResolverCache.class.getName());
+	private final HostResolver resolver;
+	private final ThreadPoolExecutor executor;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private Timer timer;
+
+	/** Cache of the system resolver with {@link #DEFAULT_THREADS} */
+	public ResolverCache() {
+		this(new SystemResolver(), DEFAULT_THREADS);
+	}
+
+	/**
+	 * @param resolver
+	 *            Looks up hosts which aren't cached
+	 * @param threads
+	 *            Number of concurrent lookups (idle threads terminate)
+	 */
+	public ResolverCache(HostResolver resolver, int threads) {
+		if (resolver == null) {
+			throw new IllegalArgumentException("resolver may not be null");
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads should be > 0");
+		}
+		this.resolver = resolver;
+		final AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 10,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Resolver-"
+								+ count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/** Adds a listener of changed addresses */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/** Removes a listener */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the address of host, looked up if it isn't cached or expired
+	 * (and not being refreshed in the background)
+	 */
+	public InetAddress resolve(String host) throws UnknownHostException {
+		Entry entry = entries.get(host);
+		if (entry != null
+				&& (entry.expires > System.currentTimeMillis() || entry.refreshing
+						.get())) {
+			return entry.address;
+		}
+		return lookup(host);
+	}
+
+	/**
+	 * Returns the addresses of hosts by host name; hosts which aren't cached
+	 * are looked up concurrently
+	 *
+	 * @throws UnknownHostException
+	 *             of the first host (in order of hosts) without address
+	 */
+	public Map<String, InetAddress> resolveAll(Collection<String> hosts)
+			throws UnknownHostException {
+		Map<String, InetAddress> addresses = new HashMap<String, InetAddress>();
+		Map<String, Future<InetAddress>> lookups = new HashMap<String, Future<InetAddress>>();
+		for (final String host : new LinkedHashSet<String>(hosts)) {
+			Entry entry = entries.get(host);
+			if (entry != null && entry.expires > System.currentTimeMillis()) {
+				addresses.put(host, entry.address);
+			} else {
+				lookups.put(host, executor.submit(new Callable<InetAddress>() {
+					@Override
+					public InetAddress call() throws UnknownHostException {
+						return resolve(host);
+					}
+				}));
+			}
+		}
+
+		try {
+			for (String host : new LinkedHashSet<String>(hosts)) {
+				Future<InetAddress> lookup = lookups.get(host);
+				if (lookup != null) {
+					addresses.put(host, lookup.get());
+				}
+			}
+		} catch (ExecutionException e) {
+			cancel(lookups.values());
+			if (e.getCause() instanceof UnknownHostException) {
+				throw (UnknownHostException) e.getCause();
+			}
+			throw new IllegalStateException("Lookup failed", e.getCause());
+		} catch (InterruptedException e) {
+			cancel(lookups.values());
+			Thread.currentThread().interrupt();
+			throw new UnknownHostException("Interrupted while resolving");
+		}
+		return addresses;
+	}
+
+	private static void cancel(Collection<Future<InetAddress>> lookups) {
+		for (Future<InetAddress> lookup : lookups) {
+			lookup.cancel(true);
+		}
+	}
+
+	/** Returns the number of cached hosts */
+	public int size() {
+		return entries.size();
+	}
+
+	/** Starts refreshing expired addresses in the background */
+	public synchronized void start() {
+		if (timer != null || executor.isShutdown()) {
+			throw new IllegalStateException("ResolverCache already started");
+		}
+		timer = new Timer("ResolverCache", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				refreshExpired();
+			}
+		}, CHECK_PERIOD, CHECK_PERIOD);
+	}
+
+	/** Stops refreshing and the lookup threads */
+	public synchronized void shutdown() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		executor.shutdownNow();
+	}
+
+	/** Hands each expired entry to a lookup thread (once) */
+	void refreshExpired() {
+		long now = System.currentTimeMillis();
+		for (final Map.Entry<String, Entry> cached : entries.entrySet()) {
+			final Entry entry = cached.getValue();
+			if (entry.expires > now
+					|| !entry.refreshing.compareAndSet(false, true)) {
+				continue;
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						lookup(cached.getKey());
+					} catch (UnknownHostException e) {
+						entry.expires = System.currentTimeMillis() + RETRY_TIME;
+						log.log(Level.WARNING, "Couldn't refresh address of "
+								+ cached.getKey() + ", keeping "
+								+ entry.address.getHostAddress());
+					} catch (RuntimeException e) {
+						entry.expires = System.currentTimeMillis() + RETRY_TIME;
+						log.log(Level.WARNING, "Couldn't refresh address of "
+								+ cached.getKey(), e);
+					} finally {
+						entry.refreshing.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/** Looks up host, caches its address and tells listeners about changes */
+	private InetAddress lookup(String host) throws UnknownHostException {
+		HostAddress resolved = resolver.resolve(host);
+		InetAddress address = resolved.getAddress();
+
+		Entry entry = entries.get(host);
+		if (entry == null) {
+			entry = new Entry();
+			entry.address = address;
+			Entry former = entries.putIfAbsent(host, entry);
+			if (former != null) {
+				entry = former;
+			}
+		}
+		InetAddress formerAddress = entry.address;
+		entry.address = address;
+		entry.expires = System.currentTimeMillis() + resolved.getTtl() * 1000L;
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Resolved " + resolved);
+		}
+
+		if (!formerAddress.equals(address)) {
+			log.log(Level.INFO, "Address of " + host + " changed: "
+					+ formerAddress.getHostAddress() + " -> "
+					+ address.getHostAddress());
+			notifyListeners(host, address);
+		}
+		return address;
+	}
+
+	/** Tells the listeners about a changed address on the refresh thread */
+	private synchronized void notifyListeners(final String host,
+			final InetAddress address) {
+		if (timer == null) { // not started or shut down
+			return;
+		}
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				for (Listener listener : listeners) {
+					try {
+						listener.addressChanged(host, address);
+					} catch (RuntimeException e) {
+						log.log(Level.SEVERE, "Listener failed on address of "
+								+ host, e);
+					}
+				}
+			}
+		}, 0);
+	}
+}
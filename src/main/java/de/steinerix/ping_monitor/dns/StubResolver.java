@@ -0,0 +1,57 @@
+package de.steinerix.ping_monitor.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HostResolver answering from a local table instead of DNS (tests and load
+ * tests). Records can be changed at any time, each lookup may be delayed to
+ * simulate a slow DNS server.
+ *
+ * @author usr
+ *
+ */
+public class StubResolver implements HostResolver {
+	private final ConcurrentHashMap<String, HostAddress> records = new ConcurrentHashMap<String, HostAddress>();
+	private final LongAdder lookups = new LongAdder();
+	private volatile long delay = 0; // ms
+
+	/** Adds or replaces the record of host */
+	public void put(String host, InetAddress address, int ttl) {
+		records.put(host, new HostAddress(host, address, ttl));
+	}
+
+	/** Removes the record of host, its lookups fail */
+	public void remove(String host) {
+		records.remove(host);
+	}
+
+	/** Delays each lookup by delay ms */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/** Returns the number of lookups so far */
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	@Override
+	public HostAddress resolve(String host) throws UnknownHostException {
+		lookups.increment();
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		HostAddress record = records.get(host);
+		if (record == null) {
+			throw new UnknownHostException(host);
+		}
+		return record;
+	}
+}
@@ -0,0 +1,39 @@
+package de.steinerix.ping_monitor.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * HostResolver using the resolver of the system (InetAddress.getByName). The
+ * system resolver doesn't report the TTL of records, so every address gets
+ * the same, configured TTL.
+ *
+ * @author usr
+ *
+ */
+public class SystemResolver implements HostResolver {
+	public static final int DEFAULT_TTL = 300; // s
+
+	private final int ttl;
+
+	/** System resolver with {@link #DEFAULT_TTL} */
+	public SystemResolver() {
+		this(DEFAULT_TTL);
+	}
+
+	/**
+	 * @param ttl
+	 *            Time in s an address may be cached
+	 */
+	public SystemResolver(int ttl) {
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl should be >= 0");
+		}
+		this.ttl = ttl;
+	}
+
+	@Override
+	public HostAddress resolve(String host) throws UnknownHostException {
+		return new HostAddress(host, InetAddress.getByName(host), ttl);
+	}
+}
@@ -0,0 +1,439 @@
+package de.steinerix.ping_monitor.event;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.steinerix.ping_monitor.config.EventConfig.Policy;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.stats.DurationRecorder;
+
+/**
+ * Ring buffer between devices and the consumers of their events (in the
+ * style of the LMAX Disruptor). The bus is registered as listener of all
+ * devices; each event is written into a preallocated slot and handed to every
+ * consumer by the consumer's own thread, which follows the ring with its own
+ * cursor and handles all available events as one batch.
+ * <br />
+ * A consumer without events spins briefly and then parks until a publisher
+ * unparks it, so an idle bus doesn't use CPU.
+ * <br />
+ * Publishing never calls a consumer and doesn't allocate. Only consumers with
+ * policy BLOCK make publishers wait (if the ring is full); DROP and COALESCE
+ * consumers which fall behind by more than the capacity lose the overwritten
+ * events. Slots are validated by their sequence after reading (seqlock), so a
+ * slot overwritten while it is read is counted as dropped.
+ * <br />
+ * {@link #shutdown()} stops publishing and lets the consumers handle the
+ * events in the ring before their threads end.
+ *
+ * @author usr
+ *
+ */
+public class EventBus implements DeviceListener {
+	private static final int REPLY = 0;
+	private static final int ALARM = 1;
+	private static final int CLEAR = 2;
+
+	private static final long WRITING = Long.MIN_VALUE;
+	private static final int SPINS = 100;
+	private static final long PUBLISH_WAIT = TimeUnit.MICROSECONDS.toNanos(10);
+	/** Time in ms shutdown waits for the consumers to drain the ring */
+	public static final long SHUTDOWN_TIMEOUT = 5000;
+
+	private final Logger log = Logger.getLogger(EventBus.class.getName());
+	private final int capacity;
+	private final int mask;
+	private final Slot[] slots;
+	private final AtomicLongArray sequences; // published sequence per slot
+	private final AtomicLong claimed = new AtomicLong(-1);
+	private final LongAdder publishWaits = new LongAdder();
+
+	private final List<Consumer> consumers = new ArrayList<Consumer>();
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private Consumer[] gating = new Consumer[0];
+	private Consumer[] started = new Consumer[0]; // to unpark
+	private volatile boolean running = false;
+
+	/** A preallocated event, fields are written by one publisher at a time */
+	private static class Slot {
+		private volatile int kind;
+		private volatile Device device;
+		private volatile int type;
+		private volatile long rtt;
+		private volatile long timestamp;
+		private volatile DeviceEvent event;
+	}
+
+	/**
+	 * @param capacity
+	 *            Number of events the ring holds (power of two)
+	 */
+	public EventBus(int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException(
+					"capacity should be a power of two");
+		}
+		this.capacity = capacity;
+		mask = capacity - 1;
+		slots = new Slot[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new Slot();
+			sequences.set(i, i - capacity); // "previous lap" is published
+		}
+	}
+
+	/**
+	 * Adds a consumer which receives all events published after
+	 * {@link #start()}. Consumers can only be added before the bus is started.
+	 */
+	public synchronized Consumer addConsumer(String name,
+			DeviceListener listener, Policy policy) {
+		if (running) {
+			throw new IllegalStateException("event bus already started");
+		}
+		if (listener == null || policy == null) {
+			throw new IllegalArgumentException(
+					"listener and policy may not be null");
+		}
+		Consumer consumer = new Consumer(name, listener, policy);
+		consumers.add(consumer);
+		return consumer;
+	}
+
+	/** Starts a thread per consumer */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		List<Consumer> blocking = new ArrayList<Consumer>();
+		for (Consumer consumer : consumers) {
+			if (consumer.policy == Policy.BLOCK) {
+				blocking.add(consumer);
+			}
+		}
+		gating = blocking.toArray(new Consumer[blocking.size()]);
+		started = consumers.toArray(new Consumer[consumers.size()]);
+		running = true;
+
+		for (Consumer consumer : consumers) {
+			Thread thread = new Thread(consumer, "EventBus-" + consumer.name);
+			thread.setDaemon(true);
+			consumer.thread = thread;
+			thread.start();
+			threads.add(thread);
+		}
+		log.log(Level.INFO, "Event bus started (capacity: " + capacity
+				+ ", consumers: " + consumers.size() + ")");
+	}
+
+	/**
+	 * Stops the bus within {@link #SHUTDOWN_TIMEOUT}
+	 *
+	 * @see #shutdown(long)
+	 */
+	public void shutdown() {
+		shutdown(SHUTDOWN_TIMEOUT);
+	}
+
+	/**
+	 * Stops the bus: events published afterwards are discarded, the events in
+	 * the ring are handed to the consumers and their threads end. Waits at
+	 * most timeout ms for the consumer threads.
+	 *
+	 * @return true if all consumer threads ended
+	 */
+	public boolean shutdown(long timeout) {
+		List<Thread> consumerThreads;
+		synchronized (this) {
+			running = false;
+			consumerThreads = new ArrayList<Thread>(threads);
+		}
+		for (Thread thread : consumerThreads) {
+			LockSupport.unpark(thread); // parked consumers drain and end
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		try {
+			for (Thread thread : consumerThreads) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait > 0) {
+					thread.join(wait);
+				}
+				if (thread.isAlive()) {
+					log.log(Level.WARNING, "Event bus stopped, "
+							+ thread.getName() + " still handling events");
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	/** Returns the consumers */
+	public synchronized List<Consumer> getConsumers() {
+		return new ArrayList<Consumer>(consumers);
+	}
+
+	/** Returns the number of published events */
+	public long getPublished() {
+		return claimed.get() + 1;
+	}
+
+	/** Returns how often a publisher had to wait for a BLOCK consumer */
+	public long getPublishWaits() {
+		return publishWaits.sum();
+	}
+
+	@Override
+	public void reply(Device device, int type, long rtt, long timestamp) {
+		publish(REPLY, device, type, rtt, timestamp, null);
+	}
+
+	@Override
+	public void alarm(DeviceEvent event) {
+		publish(ALARM, (Device) event.getSource(), 0, 0, 0, event);
+	}
+
+	@Override
+	public void clear(DeviceEvent event) {
+		publish(CLEAR, (Device) event.getSource(), 0, 0, 0, event);
+	}
+
+	/** Claims the next slot, waits until it is free and publishes the event */
+	private void publish(int kind, Device device, int type, long rtt,
+			long timestamp, DeviceEvent event) {
+		if (!running) {
+			return;
+		}
+		long sequence = claimed.incrementAndGet();
+		int index = (int) sequence & mask;
+		long previous = sequence - capacity;
+
+		// previous lap of slot must be published and consumed by BLOCK
+		// consumers
+		boolean waited = false;
+		while (sequences.get(index) != previous
+				|| minGatingSequence() < previous) {
+			if (!running) {
+				return;
+			}
+			waited = true;
+			LockSupport.parkNanos(PUBLISH_WAIT);
+		}
+		if (waited) {
+			publishWaits.increment();
+		}
+
+		sequences.set(index, WRITING);
+		Slot slot = slots[index];
+		slot.kind = kind;
+		slot.device = device;
+		slot.type = type;
+		slot.rtt = rtt;
+		slot.timestamp = timestamp;
+		slot.event = event;
+		sequences.set(index, sequence);
+
+		for (Consumer consumer : started) {
+			if (consumer.sleeping) {
+				LockSupport.unpark(consumer.thread);
+			}
+		}
+	}
+
+	/** Returns the lowest sequence handled by all BLOCK consumers */
+	private long minGatingSequence() {
+		long min = Long.MAX_VALUE;
+		for (Consumer consumer : gating) {
+			min = Math.min(min, consumer.sequence);
+		}
+		return min;
+	}
+
+	/**
+	 * A consumer follows the ring with its own cursor and hands events to its
+	 * listener on its own thread
+	 *
+	 * @author usr
+	 *
+	 */
+	public class Consumer implements Runnable {
+		private final String name;
+		private final DeviceListener listener;
+		private final Policy policy;
+
+		private volatile Thread thread;
+		private volatile boolean sleeping = false; // parked until published
+		private volatile long sequence = -1; // last handled sequence
+		private volatile long handled = 0; // written by consumer thread only
+		private volatile long dropped = 0;
+		private volatile long coalesced = 0;
+		private final DurationRecorder listenerTime = new DurationRecorder();
+
+		// COALESCE: devices seen in current batch and slots to skip
+		private final IdentityHashMap<Device, Boolean> seen;
+		private final boolean[] skip;
+
+		private Consumer(String name, DeviceListener listener, Policy policy) {
+			this.name = name;
+			this.listener = listener;
+			this.policy = policy;
+			boolean coalesce = policy == Policy.COALESCE;
+			seen = coalesce ? new IdentityHashMap<Device, Boolean>() : null;
+			skip = coalesce ? new boolean[capacity] : null;
+		}
+
+		@Override
+		public void run() {
+			long next = sequence + 1;
+			int idle = 0;
+			while (true) {
+				boolean stopping = !running; // then drain the ring and end
+				long last = next - 1;
+				while (last + 1 - next < capacity
+						&& sequences.get((int) (last + 1) & mask) == last + 1) {
+					last++;
+				}
+
+				if (last < next) { // nothing published
+					if (policy != Policy.BLOCK
+							&& claimed.get() - next >= capacity) {
+						long resume = claimed.get() - capacity + 1;
+						dropped += resume - next;
+						next = resume;
+					} else if (stopping) {
+						return;
+					} else if (++idle < SPINS) {
+						Thread.yield();
+					} else {
+						park(next);
+					}
+					continue;
+				}
+				idle = 0;
+
+				if (policy == Policy.COALESCE) {
+					markCoalesced(next, last);
+				}
+				for (long s = next; s <= last; s++) {
+					handle(s);
+				}
+				next = last + 1;
+				sequence = last;
+			}
+		}
+
+		/**
+		 * Parks until a publisher unparks the consumer. The flag is set
+		 * before checking for published events and publishers check it
+		 * after publishing, so no event is missed.
+		 */
+		private void park(long next) {
+			sleeping = true;
+			if (running && claimed.get() < next) {
+				LockSupport.park(this);
+			}
+			sleeping = false;
+		}
+
+		/** Marks all but the last reply of each device in [first, last] */
+		private void markCoalesced(long first, long last) {
+			for (long s = last; s >= first; s--) {
+				int index = (int) s & mask;
+				Slot slot = slots[index];
+				skip[index] = slot.kind == REPLY
+						&& seen.put(slot.device, Boolean.TRUE) != null;
+			}
+			for (long s = first; s <= last; s++) {
+				seen.remove(slots[(int) s & mask].device);
+			}
+		}
+
+		/** Reads, validates and hands one event to the listener */
+		private void handle(long s) {
+			int index = (int) s & mask;
+			Slot slot = slots[index];
+			int kind = slot.kind;
+			Device device = slot.device;
+			int type = slot.type;
+			long rtt = slot.rtt;
+			long timestamp = slot.timestamp;
+			DeviceEvent event = slot.event;
+			if (sequences.get(index) != s) { // overwritten while reading
+				dropped++;
+				return;
+			}
+			if (skip != null && skip[index]) {
+				coalesced++;
+				return;
+			}
+
+			long start = System.nanoTime();
+			try {
+				switch (kind) {
+				case REPLY:
+					listener.reply(device, type, rtt, timestamp);
+					break;
+				case ALARM:
+					listener.alarm(event);
+					break;
+				default:
+					listener.clear(event);
+				}
+			} catch (Throwable t) {
+				log.log(Level.SEVERE, "Consumer " + name
+						+ " terminated unexpectedly", t);
+			}
+			listenerTime.record(System.nanoTime() - start);
+			handled++;
+		}
+
+		/** Name of the consumer */
+		public String getName() {
+			return name;
+		}
+
+		/** Policy of the consumer */
+		public Policy getPolicy() {
+			return policy;
+		}
+
+		/** Returns the number of handed events */
+		public long getHandled() {
+			return handled;
+		}
+
+		/** Returns the number of events lost by falling behind */
+		public long getDropped() {
+			return dropped;
+		}
+
+		/** Returns the number of replies skipped by coalescing */
+		public long getCoalesced() {
+			return coalesced;
+		}
+
+		/** Returns the times spent in the listener per event (ns) */
+		public DurationRecorder getListenerTime() {
+			return listenerTime;
+		}
+
+		/** Returns the number of published events not handled yet */
+		public long getLag() {
+			return Math.max(0, claimed.get() - sequence);
+		}
+	}
+}
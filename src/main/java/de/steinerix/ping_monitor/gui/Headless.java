@@ -5,7 +5,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import de.steinerix.ping_monitor.PingMonitor;
-import de.steinerix.ping_monitor.PingResponse;
+import de.steinerix.ping_monitor.PingResponse.Type;
 import de.steinerix.ping_monitor.PlotInterface;
 
 /** This class allows a headless run of ping monitor */
@@ -26,7 +26,7 @@ public class Headless implements PlotInterface {
 	}
 
 	@Override
-	public void updatePingGraph(int id, PingResponse response) {
+	public void updatePingGraph(int id, Type type, double time) {
 		// TODO Auto-generated method stub
 
 	}
@@ -2,12 +2,14 @@ package de.steinerix.ping_monitor.gui;
 
 import java.net.InetAddress;
 import java.text.DecimalFormat;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import de.steinerix.ping_monitor.PingMonitor;
-import de.steinerix.ping_monitor.PingResponse;
+import de.steinerix.ping_monitor.PingResponse.Type;
 import de.steinerix.ping_monitor.PlotInterface;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -16,6 +18,7 @@ import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
@@ -24,11 +27,18 @@ import javafx.stage.WindowEvent;
 
 public class PingMonitorGUI extends Application implements PlotInterface {
 	private final Logger log = Logger.getLogger(PingMonitorGUI.class.getName());
-	private HashMap<Integer, PingChart> pingCharts = new HashMap<Integer, PingChart>();
+	// by id, null for removed charts
+	private List<PingChart> pingCharts = new ArrayList<PingChart>();
+	private List<Label> qualityLabels = new ArrayList<Label>();
+	private List<VBox> chartBoxes = new ArrayList<VBox>();
+	private TreeSet<Integer> freeIds = new TreeSet<Integer>(); // of removed charts
 	private Stage stage;
 	private GridPane pingChartGrid;
-	private final int MAX_PING_CHARTS = 20;
+	private final int MAX_PING_CHARTS = 100;
 	private final int CHART_COLUMNS = 5;
+	private final int MAX_GROWING_ROWS = 4; // further rows are scrolled
+	private int omittedCharts = 0;
+	private final UpdateBuffer updates = new UpdateBuffer();
 
 	public static void main(String args[]) {
 		launch(args);
@@ -45,7 +55,7 @@ public class PingMonitorGUI extends Application implements PlotInterface {
 				log.log(Level.INFO, "Initialize GUI");
 				arg0.setTitle("Ping Monitor - Watch your digital neighbourhood 0.2"); // :-)
 				pingChartGrid = new GridPane();
-				Scene scene = new Scene(pingChartGrid);
+				Scene scene = new Scene(new ScrollPane(pingChartGrid));
 				stage.setScene(scene);
 				stage.show();
 			}
@@ -70,23 +80,51 @@ public class PingMonitorGUI extends Application implements PlotInterface {
 			int maxGraph, int interval, int limit) {
 		int size = pingCharts.size();
 
-		if (size < MAX_PING_CHARTS) {
-			final int row = size / CHART_COLUMNS;
-			final int column = size % CHART_COLUMNS;
-			PingChart pingChart = addPingChart(name, ip, maxGraph, interval,
-					limit, row, column);
-			pingCharts.put(pingCharts.size(), pingChart);
-			int id = pingCharts.size() - 1;
+		if (!freeIds.isEmpty() || size < MAX_PING_CHARTS) {
+			// fill the place of a removed chart first
+			int id = freeIds.isEmpty() ? size : freeIds.pollFirst();
+			addPingChart(name, ip, maxGraph, interval, limit, id);
 			log.log(Level.INFO, "Added PingChart for " + name + " [id: " + id
 					+ "]");
 			return id;
 		}
-		return size - 1;
+
+		if (omittedCharts++ == 0) { // warn once
+			log.log(Level.WARNING, "Only the first " + MAX_PING_CHARTS
+					+ " devices are plotted");
+		}
+		return NO_GRAPH;
+	}
+
+	// provide interface for ping monitor
+	@Override
+	synchronized public void removePingGraph(int id) {
+		if (id == NO_GRAPH || id >= pingCharts.size()
+				|| pingCharts.get(id) == null) {
+			return;
+		}
+		VBox vBox = chartBoxes.get(id);
+		pingCharts.set(id, null);
+		qualityLabels.set(id, null);
+		chartBoxes.set(id, null);
+		updates.clearQuality(id);
+		freeIds.add(id);
+		log.log(Level.INFO, "Removed PingChart [id: " + id + "]");
+
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run() {
+				pingChartGrid.getChildren().remove(vBox);
+			}
+		});
 	}
 
-	/** Adds a new PingChart to GUI */
-	private PingChart addPingChart(String name, InetAddress ip, int maxGraph,
-			int interval, int limit, int row, int column) {
+	/** Adds a new PingChart with id to GUI (at the end or at a free place) */
+	private void addPingChart(String name, InetAddress ip, int maxGraph,
+			int interval, int limit, int id) {
+		final int row = id / CHART_COLUMNS;
+		final int column = id % CHART_COLUMNS;
+		final boolean grow = id == pingCharts.size();
 
 		// Axis
 		NumberAxis xAxis = new NumberAxis();
@@ -111,28 +149,41 @@ public class PingMonitorGUI extends Application implements PlotInterface {
 		labelName.setText(name);
 		labelIp.setText("(" + ip.getHostAddress() + ")");
 		labelIp.setFont(new Font(10));
+		Label labelQuality = new Label();
+		labelQuality.setFont(new Font(10));
 
 		VBox vBox = new VBox();
 		vBox.setAlignment(Pos.CENTER);
 
+		if (grow) {
+			pingCharts.add(pingChart);
+			qualityLabels.add(labelQuality);
+			chartBoxes.add(vBox);
+		} else {
+			pingCharts.set(id, pingChart);
+			qualityLabels.set(id, labelQuality);
+			chartBoxes.set(id, vBox);
+		}
+
 		// Add to GUI
 		Platform.runLater(new Runnable() {
 
 			@Override
 			public void run() {
-				growWindow(column, row);
+				if (grow) {
+					growWindow(column, row);
+				}
 
-				vBox.getChildren().addAll(labelName, labelIp, pingChart);
+				vBox.getChildren().addAll(labelName, labelIp, pingChart,
+						labelQuality);
 				pingChartGrid.add(vBox, column, row);
 			}
 		});
-
-		return pingChart;
 	}
 
 	/** grow window according to displayed number of charts */
 	private void growWindow(int column, int row) {
-		if (column == 0) { // increase height for each new row
+		if (column == 0 && row < MAX_GROWING_ROWS) { // height for new row
 			int minChartHeight = 205;
 			double newHeight = minChartHeight + stage.getMinHeight();
 			stage.setMinHeight(newHeight);
@@ -149,16 +200,26 @@ public class PingMonitorGUI extends Application implements PlotInterface {
 
 	// provide interface for ping monitor
 	@Override
-	public void updatePingGraph(int id, PingResponse response) {
-		Platform.runLater(new Runnable() {
-			@Override
-			public void run() {
-				log.log(Level.FINE, "Update PingChart: " + id);
-				pingCharts.get(id).addPingResponse(response.getType(),
-						response.getTime());
+	public void updatePingGraph(int id, Type type, double time) {
+		if (id == NO_GRAPH) {
+			return;
+		}
+		updates.add(id, type, time);
+	}
 
-			}
-		});
+	// provide interface for ping monitor
+	@Override
+	public void updateLinkQuality(int id, double jitter, double loss) {
+		if (id == NO_GRAPH) {
+			return;
+		}
+		updates.setQuality(id, jitter, loss);
+	}
+
+	/** Returns the number of chart updates waiting for the FX thread */
+	@Override
+	public int getBacklog() {
+		return updates.size();
 	}
 
 	/** Returns a formatted representation of value (provide in ms). */
@@ -180,4 +241,123 @@ public class PingMonitorGUI extends Application implements PlotInterface {
 		return new DecimalFormat("0.#").format(value);
 	}
 
-}
\ No newline at end of file
+
+	/**
+	 * Collects chart updates of any thread in reused arrays. The FX thread
+	 * applies all collected updates in one batch, so only one task per batch
+	 * is queued by runLater (instead of one Runnable per reply). Of the link
+	 * quality only the latest values per chart are applied.
+	 */
+	private class UpdateBuffer implements Runnable {
+		private static final int CAPACITY = 65536;
+		private int[] ids = new int[CAPACITY];
+		private Type[] types = new Type[CAPACITY];
+		private double[] times = new double[CAPACITY];
+		private int size = 0;
+		private boolean scheduled = false;
+		private long dropped = 0;
+
+		// arrays applied by the FX thread, swapped with the collecting ones
+		private int[] appliedIds = new int[CAPACITY];
+		private Type[] appliedTypes = new Type[CAPACITY];
+		private double[] appliedTimes = new double[CAPACITY];
+
+		// latest link quality per chart, changed ones are applied
+		private final double[] jitters = new double[MAX_PING_CHARTS];
+		private final double[] losses = new double[MAX_PING_CHARTS];
+		private final boolean[] qualityChanged = new boolean[MAX_PING_CHARTS];
+		private final double[] appliedJitters = new double[MAX_PING_CHARTS];
+		private final double[] appliedLosses = new double[MAX_PING_CHARTS];
+		private final boolean[] appliedQuality = new boolean[MAX_PING_CHARTS];
+
+		synchronized void add(int id, Type type, double time) {
+			if (size == CAPACITY) { // FX thread lags behind
+				if (dropped++ == 0) {
+					log.log(Level.WARNING,
+							"GUI can't keep up, chart updates are dropped");
+				}
+				return;
+			}
+			ids[size] = id;
+			types[size] = type;
+			times[size] = time;
+			size++;
+			if (!scheduled) {
+				scheduled = true;
+				Platform.runLater(this);
+			}
+		}
+
+		synchronized void setQuality(int id, double jitter, double loss) {
+			if (jitters[id] == jitter && losses[id] == loss) {
+				return;
+			}
+			jitters[id] = jitter;
+			losses[id] = loss;
+			qualityChanged[id] = true;
+			if (!scheduled) {
+				scheduled = true;
+				Platform.runLater(this);
+			}
+		}
+
+		/** Forgets the link quality of a removed chart */
+		synchronized void clearQuality(int id) {
+			jitters[id] = Double.NaN; // applied again for a new chart
+			losses[id] = Double.NaN;
+			qualityChanged[id] = false;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		@Override
+		public void run() {
+			int count;
+			synchronized (this) {
+				int[] tmpIds = ids;
+				ids = appliedIds;
+				appliedIds = tmpIds;
+				Type[] tmpTypes = types;
+				types = appliedTypes;
+				appliedTypes = tmpTypes;
+				double[] tmpTimes = times;
+				times = appliedTimes;
+				appliedTimes = tmpTimes;
+				count = size;
+				size = 0;
+				scheduled = false;
+				for (int id = 0; id < MAX_PING_CHARTS; id++) {
+					appliedQuality[id] = qualityChanged[id];
+					if (qualityChanged[id]) {
+						appliedJitters[id] = jitters[id];
+						appliedLosses[id] = losses[id];
+						qualityChanged[id] = false;
+					}
+				}
+			}
+			synchronized (PingMonitorGUI.this) { // charts may be removed
+				applyUpdates(count);
+			}
+		}
+
+		/** Applies count collected updates to the charts which still exist */
+		private void applyUpdates(int count) {
+			for (int i = 0; i < count; i++) {
+				PingChart pingChart = pingCharts.get(appliedIds[i]);
+				if (pingChart != null) {
+					pingChart.addPingResponse(appliedTypes[i], appliedTimes[i]);
+				}
+			}
+			for (int id = 0; id < MAX_PING_CHARTS; id++) {
+				if (appliedQuality[id] && qualityLabels.get(id) != null) {
+					qualityLabels.get(id).setText(
+							"jitter: " + round(appliedJitters[id])
+									+ "ms loss: " + round(appliedLosses[id])
+									+ "%");
+				}
+			}
+		}
+	}
+}
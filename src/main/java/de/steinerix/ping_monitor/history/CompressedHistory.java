@@ -0,0 +1,342 @@
+package de.steinerix.ping_monitor.history;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import de.steinerix.ping_monitor.ping.DeviceListener;
+
+/**
+ * Recent replies of one device, compressed in the manner of Gorilla (Facebook's
+ * in-memory time series database). Samples are appended to blocks of up to
+ * BLOCK_SAMPLES samples; blocks older than the window are dropped.
+ * <ul>
+ * <li>timestamps: delta-of-delta encoded (1 bit if the interval didn't change)</li>
+ * <li>RTTs: rounded to the resolution, as double XORed with the previous RTT
+ * (1 bit if equal, otherwise only the meaningful bits). Timeouts and
+ * unreachable hosts have no RTT, so nothing is written for them.</li>
+ * <li>types: run-length encoded, an outage of any length is one run</li>
+ * </ul>
+ * Methods are synchronized, as appends come from one thread (e.g. an event bus
+ * consumer) and reads from others; there is no contention in practice.
+ *
+ * @author usr
+ *
+ */
+public class CompressedHistory {
+	static final int BLOCK_SAMPLES = 1024;
+	private static final int TYPE_SHIFT = 28;
+	private static final int RUN_MASK = (1 << TYPE_SHIFT) - 1;
+
+	private final long window; // ms
+	private final long resolution; // ns
+	private final ArrayDeque<Block> blocks = new ArrayDeque<Block>();
+	private Block current;
+
+	/**
+	 * Visitor for reads
+	 *
+	 * @author usr
+	 *
+	 */
+	public interface SampleVisitor {
+		/**
+		 * Called for each sample read
+		 *
+		 * @param timestamp
+		 *            Time of the result in ms
+		 * @param type
+		 *            Reply type (see {@link DeviceListener})
+		 * @param rtt
+		 *            Round trip time in ns (rounded to resolution, 0 if no
+		 *            reply was received)
+		 */
+		void sample(long timestamp, int type, long rtt);
+	}
+
+	/**
+	 * @param window
+	 *            Time in ms samples are kept at least
+	 * @param resolution
+	 *            Resolution of RTTs in ns
+	 */
+	public CompressedHistory(long window, long resolution) {
+		if (window < 1) {
+			throw new IllegalArgumentException("window should be > 0");
+		}
+		if (resolution < 1) {
+			throw new IllegalArgumentException("resolution should be > 0");
+		}
+		this.window = window;
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Appends a sample. Timestamps should not decrease (a decrease costs up
+	 * to 68 bits and blocks are skipped on reads by their first and last
+	 * timestamp).
+	 *
+	 * @param rtt
+	 *            RTT in ns
+	 */
+	public synchronized void append(long timestamp, int type, long rtt) {
+		if (current == null || current.count == BLOCK_SAMPLES) {
+			if (current != null) {
+				current.seal();
+			}
+			current = new Block();
+			blocks.addLast(current);
+			expire(timestamp);
+		}
+		current.append(timestamp, type,
+				hasRtt(type) ? Math.rint((double) rtt / resolution) : 0);
+	}
+
+	/** Drops blocks whose last sample is older than window */
+	private void expire(long now) {
+		while (blocks.size() > 1 && blocks.peekFirst().last < now - window) {
+			blocks.removeFirst();
+		}
+	}
+
+	/** Decodes all samples with from &lt;= timestamp &lt;= to in order */
+	public synchronized void read(long from, long to, SampleVisitor visitor) {
+		for (Block block : blocks) {
+			if (block.count > 0 && block.last >= from && block.first <= to) {
+				block.read(from, to, visitor);
+			}
+		}
+	}
+
+	/** Returns the number of samples held */
+	public synchronized int getCount() {
+		int count = 0;
+		for (Block block : blocks) {
+			count += block.count;
+		}
+		return count;
+	}
+
+	/** Returns the memory used by the encoded samples in bytes */
+	public synchronized long getSize() {
+		long size = 0;
+		for (Iterator<Block> i = blocks.iterator(); i.hasNext();) {
+			Block block = i.next();
+			size += ((block.bits + 63) >>> 6) * 8L + block.runCount * 4L;
+		}
+		return size;
+	}
+
+	private static boolean hasRtt(int type) {
+		return type == DeviceListener.NORMAL
+				|| type == DeviceListener.LIMIT_EXCEEDED;
+	}
+
+	/**
+	 * A bit stream of samples and the runs of their types
+	 *
+	 * @author usr
+	 *
+	 */
+	private class Block {
+		private long[] words = new long[16];
+		private int bits;
+		private int[] runs = new int[4]; // type << TYPE_SHIFT | length
+		private int runCount;
+		private int count;
+
+		private long first, last; // timestamps
+		private long delta;
+		private boolean hasValue;
+		private long value; // bits of last RTT value
+		private int leading = -1, trailing; // meaningful bits of last XOR
+
+		void append(long timestamp, int type, double rtt) {
+			if (count == 0) {
+				first = timestamp;
+				write(timestamp, 64);
+			} else {
+				writeTimestamp(timestamp);
+			}
+			last = timestamp;
+			if (hasRtt(type)) {
+				writeValue(Double.doubleToRawLongBits(rtt));
+			}
+			addRun(type);
+			count++;
+		}
+
+		/** Writes the delta-of-delta of timestamp */
+		private void writeTimestamp(long timestamp) {
+			long newDelta = timestamp - last;
+			long dod = newDelta - delta;
+			delta = newDelta;
+			if (dod == 0) {
+				write(0, 1);
+			} else if (dod >= -4 && dod <= 3) {
+				write(0b10, 2);
+				write(dod, 3);
+			} else if (dod >= -64 && dod <= 63) {
+				write(0b110, 3);
+				write(dod, 7);
+			} else if (dod >= -2048 && dod <= 2047) {
+				write(0b1110, 4);
+				write(dod, 12);
+			} else {
+				write(0b1111, 4);
+				write(dod, 64);
+			}
+		}
+
+		/** Writes the XOR of value and the former value */
+		private void writeValue(long bits) {
+			if (!hasValue) {
+				hasValue = true;
+				value = bits;
+				write(bits, 64);
+				return;
+			}
+			long xor = bits ^ value;
+			value = bits;
+			if (xor == 0) {
+				write(0, 1);
+				return;
+			}
+			int newLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int newTrailing = Long.numberOfTrailingZeros(xor);
+			if (leading >= 0 && newLeading >= leading
+					&& newTrailing >= trailing) { // fits into former window
+				write(0b10, 2);
+				write(xor >>> trailing, 64 - leading - trailing);
+			} else {
+				leading = newLeading;
+				trailing = newTrailing;
+				int length = 64 - leading - trailing;
+				write(0b11, 2);
+				write(leading, 5);
+				write(length - 1, 6);
+				write(xor >>> trailing, length);
+			}
+		}
+
+		private void addRun(int type) {
+			if (runCount > 0 && runs[runCount - 1] >>> TYPE_SHIFT == type
+					&& (runs[runCount - 1] & RUN_MASK) < RUN_MASK) {
+				runs[runCount - 1]++;
+				return;
+			}
+			if (runCount == runs.length) {
+				runs = Arrays.copyOf(runs, runCount * 2);
+			}
+			runs[runCount++] = type << TYPE_SHIFT | 1;
+		}
+
+		/** Writes the lower n bits of value (1 &lt;= n &lt;= 64) */
+		private void write(long value, int n) {
+			int index = bits >>> 6;
+			if (index + 1 >= words.length) {
+				words = Arrays.copyOf(words, words.length * 2);
+			}
+			value &= mask(n);
+			int free = 64 - (bits & 63);
+			if (n <= free) {
+				words[index] |= value << (free - n);
+			} else {
+				words[index] |= value >>> (n - free);
+				words[index + 1] = value << (64 - (n - free));
+			}
+			bits += n;
+		}
+
+		/** Trims the arrays of a full block */
+		void seal() {
+			words = Arrays.copyOf(words, (bits + 63) >>> 6);
+			runs = Arrays.copyOf(runs, runCount);
+		}
+
+		void read(long from, long to, SampleVisitor visitor) {
+			int position = 0;
+			long timestamp = 0, delta = 0, value = 0;
+			int leading = 0, trailing = 0;
+			boolean hasValue = false;
+			int run = 0, remaining = runs[0] & RUN_MASK;
+
+			for (int i = 0; i < count; i++) {
+				// timestamp
+				if (i == 0) {
+					timestamp = read(position, 64);
+					position += 64;
+				} else {
+					int prefix = 0;
+					while (prefix < 4 && read(position + prefix, 1) == 1) {
+						prefix++;
+					}
+					position += prefix == 4 ? 4 : prefix + 1;
+					int n = prefix == 0 ? 0 : prefix == 1 ? 3 : prefix == 2 ? 7
+							: prefix == 3 ? 12 : 64;
+					if (n > 0) {
+						delta += signExtend(read(position, n), n);
+						position += n;
+					}
+					timestamp += delta;
+				}
+
+				// type
+				if (remaining == 0) {
+					remaining = runs[++run] & RUN_MASK;
+				}
+				remaining--;
+				int type = runs[run] >>> TYPE_SHIFT;
+
+				// value
+				long rtt = 0;
+				if (hasRtt(type)) {
+					if (!hasValue) {
+						hasValue = true;
+						value = read(position, 64);
+						position += 64;
+					} else if (read(position, 1) == 0) {
+						position += 1;
+					} else if (read(position + 1, 1) == 0) {
+						position += 2;
+						int length = 64 - leading - trailing;
+						value ^= read(position, length) << trailing;
+						position += length;
+					} else {
+						position += 2;
+						leading = (int) read(position, 5);
+						int length = (int) read(position + 5, 6) + 1;
+						trailing = 64 - leading - length;
+						position += 11;
+						value ^= read(position, length) << trailing;
+						position += length;
+					}
+					rtt = (long) (Double.longBitsToDouble(value) * resolution);
+				}
+
+				if (timestamp >= from && timestamp <= to) {
+					visitor.sample(timestamp, type, rtt);
+				}
+			}
+		}
+
+		/** Reads n bits (1 &lt;= n &lt;= 64) at position */
+		private long read(int position, int n) {
+			int index = position >>> 6;
+			int free = 64 - (position & 63);
+			if (n <= free) {
+				return (words[index] >>> (free - n)) & mask(n);
+			}
+			long high = words[index] & mask(free);
+			return (high << (n - free)) | (words[index + 1] >>> (64 - (n - free)));
+		}
+	}
+
+	private static long mask(int n) {
+		return n == 64 ? -1L : (1L << n) - 1;
+	}
+
+	private static long signExtend(long value, int n) {
+		return n == 64 ? value : (value << (64 - n)) >> (64 - n);
+	}
+}
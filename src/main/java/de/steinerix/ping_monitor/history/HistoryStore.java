@@ -0,0 +1,79 @@
+package de.steinerix.ping_monitor.history;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+
+/**
+ * Keeps a {@link CompressedHistory} of the replies of each registered device.
+ * Fed as event bus consumer; replies of unregistered devices are ignored.
+ *
+ * @author usr
+ *
+ */
+public class HistoryStore implements DeviceListener {
+	private final long window;
+	private final long resolution;
+	private final ConcurrentHashMap<Device, CompressedHistory> histories = new ConcurrentHashMap<Device, CompressedHistory>();
+
+	/**
+	 * @param window
+	 *            Time in ms samples are kept at least
+	 * @param resolution
+	 *            Resolution of RTTs in ns
+	 */
+	public HistoryStore(long window, long resolution) {
+		this.window = window;
+		this.resolution = resolution;
+	}
+
+	/** Registers a device and returns its history */
+	public CompressedHistory register(Device device) {
+		CompressedHistory history = histories.get(device);
+		if (history == null) {
+			history = new CompressedHistory(window, resolution);
+			CompressedHistory former = histories.putIfAbsent(device, history);
+			if (former != null) {
+				history = former;
+			}
+		}
+		return history;
+	}
+
+	/** Deregisters a device, its history is dropped */
+	public void deregister(Device device) {
+		histories.remove(device);
+	}
+
+	/** Returns the history of a device or null if it isn't registered */
+	public CompressedHistory getHistory(Device device) {
+		return histories.get(device);
+	}
+
+	/** Returns the memory used by the encoded samples of all devices */
+	public long getSize() {
+		long size = 0;
+		for (CompressedHistory history : histories.values()) {
+			size += history.getSize();
+		}
+		return size;
+	}
+
+	@Override
+	public void reply(Device device, int type, long rtt, long timestamp) {
+		CompressedHistory history = histories.get(device);
+		if (history != null) {
+			history.append(timestamp, type, rtt);
+		}
+	}
+
+	@Override
+	public void alarm(DeviceEvent event) {
+	}
+
+	@Override
+	public void clear(DeviceEvent event) {
+	}
+}
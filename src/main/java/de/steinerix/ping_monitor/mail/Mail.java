@@ -18,6 +18,9 @@ import de.steinerix.ping_monitor.config.MailConfig.AuthType;
 import de.steinerix.ping_monitor.config.MailConfig.SecurityType;
 
 public class Mail {
+	/** Time in ms for connecting to and each reply of the SMTP server */
+	public static final int TIMEOUT = 10000;
+
 	private static Logger log = Logger.getLogger(Mail.class.getName());
 
 	/**
@@ -38,6 +41,10 @@ public class Mail {
 		properties.put("mail.smtp.host", config.getSmtpServer().getHostName()); // SMTP
 																				// Host
 		properties.put("mail.smtp.port", config.getPort()); // TLS Port
+		// don't hang on an unreachable server (default: wait forever)
+		properties.put("mail.smtp.connectiontimeout", String.valueOf(TIMEOUT));
+		properties.put("mail.smtp.timeout", String.valueOf(TIMEOUT));
+		properties.put("mail.smtp.writetimeout", String.valueOf(TIMEOUT));
 
 		if (config.getSecurityType() == SecurityType.SSL_TLS) { // SSL/TLS
 			properties.put("mail.smtp.socketFactory.port", "port");
@@ -0,0 +1,139 @@
+package de.steinerix.ping_monitor.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.stats.LatencyWindows;
+
+/**
+ * Keeps the last RTT and result counters of each registered device for the
+ * {@link MetricsServer}. Fed as event bus consumer, so results come from one
+ * thread: the values are volatile fields written by that thread only (so an
+ * increment isn't lost) and read by scrapes without lock.
+ *
+ * @author usr
+ *
+ */
+public class DeviceMetrics implements DeviceListener {
+	private final ConcurrentHashMap<Device, Entry> entries = new ConcurrentHashMap<Device, Entry>();
+	private final Queue<Entry> ordered = new ConcurrentLinkedQueue<Entry>();
+
+	/**
+	 * Values of one device
+	 *
+	 * @author usr
+	 *
+	 */
+	static class Entry {
+		final Device device;
+		final LatencyWindows windows; // null if not tracked
+		final byte[] labels; // name="…",address="…"
+
+		volatile long lastRtt = -1; // ns, -1 before the first reply
+		volatile long lastTimestamp; // ms
+		volatile long normal;
+		volatile long exceeded;
+		volatile long timeouts;
+		volatile long unreachable;
+
+		Entry(Device device, LatencyWindows windows) {
+			this.device = device;
+			this.windows = windows;
+			DeviceConfig config = device.getConfig();
+			labels = ("name=\"" + escape(config.getName())
+					+ "\",address=\""
+					+ config.getAddr().getHostAddress() + "\"")
+					.getBytes(StandardCharsets.UTF_8);
+		}
+
+		/** Returns the number of results of type (see {@link DeviceListener}) */
+		long getResults(int type) {
+			switch (type) {
+			case NORMAL:
+				return normal;
+			case LIMIT_EXCEEDED:
+				return exceeded;
+			case TIMEOUT:
+				return timeouts;
+			default:
+				return unreachable;
+			}
+		}
+	}
+
+	/**
+	 * Registers a device
+	 *
+	 * @param windows
+	 *            Latency windows of the device (null if percentiles aren't
+	 *            exposed)
+	 */
+	public void register(Device device, LatencyWindows windows) {
+		Entry entry = new Entry(device, windows);
+		if (entries.putIfAbsent(device, entry) == null) {
+			ordered.add(entry);
+		}
+	}
+
+	/** Deregisters a device, it isn't exposed anymore */
+	public void deregister(Device device) {
+		Entry entry = entries.remove(device);
+		if (entry != null) {
+			ordered.remove(entry);
+		}
+	}
+
+	/** Returns the number of registered devices */
+	public int size() {
+		return entries.size();
+	}
+
+	/** Entries in order of registration */
+	Iterable<Entry> entries() {
+		return ordered;
+	}
+
+	@Override
+	public void reply(Device device, int type, long rtt, long timestamp) {
+		Entry entry = entries.get(device);
+		if (entry == null) {
+			return;
+		}
+		switch (type) {
+		case NORMAL:
+			entry.normal++;
+			entry.lastRtt = rtt;
+			break;
+		case LIMIT_EXCEEDED:
+			entry.exceeded++;
+			entry.lastRtt = rtt;
+			break;
+		case TIMEOUT:
+			entry.timeouts++;
+			break;
+		default:
+			entry.unreachable++;
+		}
+		entry.lastTimestamp = timestamp;
+	}
+
+	@Override
+	public void alarm(DeviceEvent event) {
+	}
+
+	@Override
+	public void clear(DeviceEvent event) {
+	}
+
+	/** Escapes a label value (backslash, double quote, line feed) */
+	static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+}
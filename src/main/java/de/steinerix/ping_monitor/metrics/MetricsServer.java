@@ -0,0 +1,259 @@
+package de.steinerix.ping_monitor.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.steinerix.ping_monitor.config.MetricsConfig;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.stats.LatencyWindows;
+import de.steinerix.ping_monitor.stats.LatencyWindows.Window;
+import de.steinerix.ping_monitor.stats.LinkQuality;
+
+/**
+ * Serves the {@link DeviceMetrics} in the OpenMetrics text format at
+ * "/metrics" (scraped by Prometheus): last RTT, result counters by type, alarm
+ * state, link quality (jitter, loss of the last 100 and 1000 probes, loss run)
+ * and latency percentiles of the 1 and 5 minute windows of each device,
+ * followed by the {@link PipelineMetrics} if given.
+ * <br />
+ * The body is rendered straight into the chunked response through a reused
+ * {@link MetricsWriter}: label sets are encoded once per device at
+ * registration, numbers are formatted into the buffer, so a scrape of 10k
+ * devices allocates next to nothing regardless of the body size. Scrapes are
+ * handled one at a time.
+ *
+ * @author usr
+ *
+ */
+public class MetricsServer {
+	static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+	static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+	// the hour window would add a third to the body of a scrape
+	private static final Window[] WINDOWS = { Window.ONE_MINUTE,
+			Window.FIVE_MINUTES };
+	private static final String[] WINDOW_LABELS = { "1m", "5m" };
+	private static final String[] TYPE_LABELS = { "normal", "limit_exceeded",
+			"timeout", "not_reachable" };
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] DEVICES = MetricsWriter
+			.bytes("# TYPE ping_monitor_devices gauge\n"
+					+ "# HELP ping_monitor_devices Number of monitored devices.\n"
+					+ "ping_monitor_devices ");
+	private static final byte[] RTT = MetricsWriter
+			.bytes("# TYPE ping_monitor_rtt_seconds gauge\n"
+					+ "# UNIT ping_monitor_rtt_seconds seconds\n"
+					+ "# HELP ping_monitor_rtt_seconds Round trip time of the last reply.\n");
+	private static final byte[] RTT_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_rtt_seconds{");
+	private static final byte[] RESULTS = MetricsWriter
+			.bytes("# TYPE ping_monitor_results counter\n"
+					+ "# HELP ping_monitor_results Probe results by type (timeout and not_reachable are lost).\n");
+	private static final byte[] RESULTS_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_results_total{");
+	private static final byte[] ALARM = MetricsWriter
+			.bytes("# TYPE ping_monitor_alarm gauge\n"
+					+ "# HELP ping_monitor_alarm 1 if the device is in alarm state.\n");
+	private static final byte[] ALARM_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_alarm{");
+	private static final byte[] JITTER = MetricsWriter
+			.bytes("# TYPE ping_monitor_jitter_seconds gauge\n"
+					+ "# UNIT ping_monitor_jitter_seconds seconds\n"
+					+ "# HELP ping_monitor_jitter_seconds Interarrival jitter of the replies (RFC 3550).\n");
+	private static final byte[] JITTER_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_jitter_seconds{");
+	private static final byte[] LOSS = MetricsWriter
+			.bytes("# TYPE ping_monitor_loss_ratio gauge\n"
+					+ "# HELP ping_monitor_loss_ratio Ratio of lost probes among the last probes.\n");
+	private static final byte[] LOSS_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_loss_ratio{");
+	private static final byte[] LOSS_RUN = MetricsWriter
+			.bytes("# TYPE ping_monitor_loss_run gauge\n"
+					+ "# HELP ping_monitor_loss_run Probes lost in a row since the last reply.\n");
+	private static final byte[] LOSS_RUN_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_loss_run{");
+	private static final byte[] LATENCY = MetricsWriter
+			.bytes("# TYPE ping_monitor_latency_seconds summary\n"
+					+ "# UNIT ping_monitor_latency_seconds seconds\n"
+					+ "# HELP ping_monitor_latency_seconds Round trip time percentiles of the replies within a sliding window.\n");
+	private static final byte[] LATENCY_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_latency_seconds{");
+	private static final byte[] LATENCY_COUNT = MetricsWriter
+			.bytes("ping_monitor_latency_seconds_count{");
+	private static final byte[] EOF = MetricsWriter.bytes("# EOF\n");
+	private static final int[] LOSS_WINDOWS = { LinkQuality.SHORT_WINDOW,
+			LinkQuality.LONG_WINDOW };
+	private static final byte[][] LOSS_SUFFIXES = new byte[LOSS_WINDOWS.length][];
+	private static final byte[][] TYPE_SUFFIXES = new byte[TYPE_LABELS.length][];
+	private static final byte[][] WINDOW_SUFFIXES = new byte[WINDOWS.length][];
+	private static final byte[][][] QUANTILE_SUFFIXES = new byte[WINDOWS.length][QUANTILES.length][];
+	private static final byte[] END = MetricsWriter.bytes("} ");
+
+	static {
+		for (int i = 0; i < TYPE_LABELS.length; i++) {
+			TYPE_SUFFIXES[i] = MetricsWriter.bytes(",type=\"" + TYPE_LABELS[i]
+					+ "\"} ");
+		}
+		for (int w = 0; w < LOSS_WINDOWS.length; w++) {
+			LOSS_SUFFIXES[w] = MetricsWriter.bytes(",window=\""
+					+ LOSS_WINDOWS[w] + "\"} ");
+		}
+		for (int w = 0; w < WINDOWS.length; w++) {
+			WINDOW_SUFFIXES[w] = MetricsWriter.bytes(",window=\""
+					+ WINDOW_LABELS[w] + "\"} ");
+			for (int q = 0; q < QUANTILES.length; q++) {
+				QUANTILE_SUFFIXES[w][q] = MetricsWriter.bytes(",window=\""
+						+ WINDOW_LABELS[w] + "\",quantile=\"" + QUANTILES[q]
+						+ "\"} ");
+			}
+		}
+	}
+
+	private final Logger log = Logger.getLogger(MetricsServer.class.getName());
+	private final DeviceMetrics metrics;
+	private final PipelineMetrics pipeline;
+	private final MetricsWriter writer = new MetricsWriter(BUFFER_SIZE);
+	private final long[] values = new long[QUANTILES.length];
+	private HttpServer server;
+
+	public MetricsServer(DeviceMetrics metrics) {
+		this(metrics, null);
+	}
+
+	/**
+	 * @param pipeline
+	 *            The monitor's own metrics served along with the devices' (may
+	 *            be null)
+	 */
+	public MetricsServer(DeviceMetrics metrics, PipelineMetrics pipeline) {
+		this.metrics = metrics;
+		this.pipeline = pipeline;
+	}
+
+	/** Starts serving on host and port of config */
+	public void start(MetricsConfig config) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(config.getHost(),
+				config.getPort()), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					if (!"GET".equals(exchange.getRequestMethod())) {
+						exchange.sendResponseHeaders(405, -1);
+						return;
+					}
+					exchange.getResponseHeaders().set("Content-Type",
+							CONTENT_TYPE);
+					exchange.sendResponseHeaders(200, 0); // chunked
+					long start = System.nanoTime();
+					render(exchange.getResponseBody());
+					if (log.isLoggable(Level.FINE)) {
+						log.log(Level.FINE, "Metrics scraped in "
+								+ (System.nanoTime() - start) / 1000 + " µs");
+					}
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		log.log(Level.INFO, "Metrics served at http://" + config.getHost()
+				+ ":" + config.getPort() + "/metrics");
+	}
+
+	/** Stops serving */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	/** Writes all metrics to out in the OpenMetrics text format */
+	public synchronized void render(OutputStream out) throws IOException {
+		long now = System.currentTimeMillis();
+		writer.reset(out);
+		writer.write(DEVICES).write(metrics.size()).write('\n');
+
+		writer.write(RTT);
+		for (DeviceMetrics.Entry entry : metrics.entries()) {
+			long rtt = entry.lastRtt;
+			if (rtt >= 0) {
+				writer.write(RTT_SAMPLE).write(entry.labels).write(END)
+						.writeSeconds(rtt).write('\n');
+			}
+		}
+
+		writer.write(RESULTS);
+		for (DeviceMetrics.Entry entry : metrics.entries()) {
+			for (int type = DeviceListener.NORMAL; type <= DeviceListener.NOT_REACHABLE; type++) {
+				writer.write(RESULTS_SAMPLE).write(entry.labels)
+						.write(TYPE_SUFFIXES[type])
+						.write(entry.getResults(type)).write('\n');
+			}
+		}
+
+		writer.write(ALARM);
+		for (DeviceMetrics.Entry entry : metrics.entries()) {
+			writer.write(ALARM_SAMPLE).write(entry.labels).write(END)
+					.write(entry.device.isAlarm() ? '1' : '0').write('\n');
+		}
+
+		writer.write(JITTER);
+		for (DeviceMetrics.Entry entry : metrics.entries()) {
+			writer.write(JITTER_SAMPLE).write(entry.labels).write(END)
+					.writeSeconds(entry.device.getLinkQuality().getJitter())
+					.write('\n');
+		}
+
+		writer.write(LOSS);
+		for (DeviceMetrics.Entry entry : metrics.entries()) {
+			LinkQuality quality = entry.device.getLinkQuality();
+			for (int w = 0; w < LOSS_WINDOWS.length; w++) {
+				writer.write(LOSS_SAMPLE).write(entry.labels)
+						.write(LOSS_SUFFIXES[w])
+						.writeRatio(quality.getLoss(LOSS_WINDOWS[w]))
+						.write('\n');
+			}
+		}
+
+		writer.write(LOSS_RUN);
+		for (DeviceMetrics.Entry entry : metrics.entries()) {
+			writer.write(LOSS_RUN_SAMPLE).write(entry.labels).write(END)
+					.write(entry.device.getLinkQuality().getLossRun())
+					.write('\n');
+		}
+
+		writer.write(LATENCY);
+		for (DeviceMetrics.Entry entry : metrics.entries()) {
+			LatencyWindows windows = entry.windows;
+			if (windows == null) {
+				continue;
+			}
+			for (int w = 0; w < WINDOWS.length; w++) {
+				long count = windows.quantiles(WINDOWS[w], QUANTILES, values,
+						now);
+				for (int q = 0; q < QUANTILES.length; q++) {
+					writer.write(LATENCY_SAMPLE).write(entry.labels)
+							.write(QUANTILE_SUFFIXES[w][q])
+							.writeSeconds(values[q]).write('\n');
+				}
+				writer.write(LATENCY_COUNT).write(entry.labels)
+						.write(WINDOW_SUFFIXES[w]).write(count).write('\n');
+			}
+		}
+
+		if (pipeline != null) {
+			pipeline.render(writer);
+		}
+
+		writer.write(EOF);
+		writer.flush();
+	}
+}
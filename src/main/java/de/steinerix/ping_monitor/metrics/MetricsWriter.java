@@ -0,0 +1,127 @@
+package de.steinerix.ping_monitor.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the text exposition into a fixed buffer which is handed to the
+ * output stream whenever it is full, so a body of any size is written
+ * without building it in memory. Numbers are formatted into the buffer
+ * directly; the writer allocates nothing after construction and is reused
+ * for all scrapes (by one thread at a time).
+ *
+ * @author usr
+ *
+ */
+class MetricsWriter {
+	private static final int NANOS_PER_SECOND = 1000000000;
+	private static final long[] POWERS = { 1L, 10L, 100L, 1000L, 10000L,
+			100000L, 1000000L, 10000000L, 100000000L };
+	private static final byte[] MIN_VALUE = bytes("9223372036854775808");
+
+	private final byte[] buffer;
+	private final byte[] digits = new byte[20];
+	private int position;
+	private OutputStream out;
+
+	MetricsWriter(int size) {
+		if (size < digits.length) {
+			throw new IllegalArgumentException("size should be >= "
+					+ digits.length);
+		}
+		buffer = new byte[size];
+	}
+
+	/** Returns the UTF-8 bytes of a constant */
+	static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Starts writing to out (unflushed content is discarded) */
+	void reset(OutputStream out) {
+		this.out = out;
+		position = 0;
+	}
+
+	MetricsWriter write(byte[] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (position == buffer.length) {
+				drain();
+			}
+			int length = Math.min(bytes.length - offset, buffer.length
+					- position);
+			System.arraycopy(bytes, offset, buffer, position, length);
+			position += length;
+			offset += length;
+		}
+		return this;
+	}
+
+	MetricsWriter write(char c) throws IOException {
+		if (position == buffer.length) {
+			drain();
+		}
+		buffer[position++] = (byte) c; // ASCII only
+		return this;
+	}
+
+	/** Writes a decimal integer */
+	MetricsWriter write(long value) throws IOException {
+		if (value < 0) {
+			write('-');
+			if (value == Long.MIN_VALUE) {
+				return write(MIN_VALUE);
+			}
+			value = -value;
+		}
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value != 0);
+		if (buffer.length - position < digits.length - start) {
+			drain();
+		}
+		System.arraycopy(digits, start, buffer, position, digits.length
+				- start);
+		position += digits.length - start;
+		return this;
+	}
+
+	/** Writes a non-negative duration in ns as seconds, e.g. 0.0125 */
+	MetricsWriter writeSeconds(long nanos) throws IOException {
+		write(nanos / NANOS_PER_SECOND);
+		long fraction = nanos % NANOS_PER_SECOND;
+		if (fraction != 0) {
+			int length = 9; // digits of the fraction
+			while (fraction % 10 == 0) { // drop trailing zeros
+				fraction /= 10;
+				length--;
+			}
+			write('.');
+			for (long rest = fraction; rest < POWERS[length - 1]; rest *= 10) {
+				write('0'); // leading zeros
+			}
+			write(fraction);
+		}
+		return this;
+	}
+
+	/** Writes a non-negative ratio with up to 9 decimals, e.g. 0.05 */
+	MetricsWriter writeRatio(double ratio) throws IOException {
+		return writeSeconds(Math.round(ratio * NANOS_PER_SECOND));
+	}
+
+	/** Hands the buffer to the output stream and flushes it */
+	void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	private void drain() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+}
@@ -0,0 +1,221 @@
+package de.steinerix.ping_monitor.metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.steinerix.ping_monitor.PlotInterface;
+import de.steinerix.ping_monitor.event.EventBus;
+import de.steinerix.ping_monitor.event.EventBus.Consumer;
+import de.steinerix.ping_monitor.ping.PingDriver;
+import de.steinerix.ping_monitor.stats.DurationRecorder;
+
+/**
+ * The monitor's own metrics: scheduling lag and probes in flight of the
+ * {@link PingDriver}, time from sending a probe to its result, time spent in
+ * the listener of each event bus consumer, events not handled yet and the
+ * backlog of the GUI thread. High lag, listener times or backlog with normal
+ * probe latency point to an overloaded monitor rather than a slow network.
+ * <br />
+ * The metrics are served by the {@link MetricsServer} and logged periodically
+ * (also in headless mode). The logged maxima cover the time since the last
+ * report, the served maxima the time since the last scrape, so neither resets
+ * the other (and the served ones are windowed without reports as well).
+ *
+ * @author usr
+ *
+ */
+public class PipelineMetrics {
+	private static final byte[] LAG = MetricsWriter
+			.bytes("# TYPE ping_monitor_scheduler_lag_seconds summary\n"
+					+ "# UNIT ping_monitor_scheduler_lag_seconds seconds\n"
+					+ "# HELP ping_monitor_scheduler_lag_seconds Delay between the deadline and the sending of a probe.\n"
+					+ "ping_monitor_scheduler_lag_seconds_count ");
+	private static final byte[] LAG_SUM = MetricsWriter
+			.bytes("ping_monitor_scheduler_lag_seconds_sum ");
+	private static final byte[] LAG_MAX = MetricsWriter
+			.bytes("# TYPE ping_monitor_scheduler_lag_max_seconds gauge\n"
+					+ "# UNIT ping_monitor_scheduler_lag_max_seconds seconds\n"
+					+ "# HELP ping_monitor_scheduler_lag_max_seconds Maximum scheduler lag since the last scrape.\n"
+					+ "ping_monitor_scheduler_lag_max_seconds ");
+	private static final byte[] IN_FLIGHT = MetricsWriter
+			.bytes("# TYPE ping_monitor_probes_in_flight gauge\n"
+					+ "# HELP ping_monitor_probes_in_flight Probes sent whose result is outstanding.\n"
+					+ "ping_monitor_probes_in_flight ");
+	private static final byte[] PROBE = MetricsWriter
+			.bytes("# TYPE ping_monitor_probe_latency_seconds summary\n"
+					+ "# UNIT ping_monitor_probe_latency_seconds seconds\n"
+					+ "# HELP ping_monitor_probe_latency_seconds Time from sending a probe to its result.\n"
+					+ "ping_monitor_probe_latency_seconds_count ");
+	private static final byte[] PROBE_SUM = MetricsWriter
+			.bytes("ping_monitor_probe_latency_seconds_sum ");
+	private static final byte[] PROBE_MAX = MetricsWriter
+			.bytes("# TYPE ping_monitor_probe_latency_max_seconds gauge\n"
+					+ "# UNIT ping_monitor_probe_latency_max_seconds seconds\n"
+					+ "# HELP ping_monitor_probe_latency_max_seconds Maximum probe latency since the last scrape.\n"
+					+ "ping_monitor_probe_latency_max_seconds ");
+	private static final byte[] LISTENER = MetricsWriter
+			.bytes("# TYPE ping_monitor_listener_seconds summary\n"
+					+ "# UNIT ping_monitor_listener_seconds seconds\n"
+					+ "# HELP ping_monitor_listener_seconds Time spent in the listener of an event consumer.\n");
+	private static final byte[] LISTENER_COUNT = MetricsWriter
+			.bytes("ping_monitor_listener_seconds_count");
+	private static final byte[] LISTENER_SUM = MetricsWriter
+			.bytes("ping_monitor_listener_seconds_sum");
+	private static final byte[] LISTENER_MAX = MetricsWriter
+			.bytes("# TYPE ping_monitor_listener_max_seconds gauge\n"
+					+ "# UNIT ping_monitor_listener_max_seconds seconds\n"
+					+ "# HELP ping_monitor_listener_max_seconds Maximum time in the listener of an event consumer since the last scrape.\n");
+	private static final byte[] LISTENER_MAX_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_listener_max_seconds");
+	private static final byte[] EVENT_LAG = MetricsWriter
+			.bytes("# TYPE ping_monitor_event_lag gauge\n"
+					+ "# HELP ping_monitor_event_lag Published events not handled by an event consumer yet.\n");
+	private static final byte[] EVENT_LAG_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_event_lag");
+	private static final byte[] DROPPED = MetricsWriter
+			.bytes("# TYPE ping_monitor_events_dropped counter\n"
+					+ "# HELP ping_monitor_events_dropped Events lost by an event consumer falling behind.\n");
+	private static final byte[] DROPPED_SAMPLE = MetricsWriter
+			.bytes("ping_monitor_events_dropped_total");
+	private static final byte[] BACKLOG = MetricsWriter
+			.bytes("# TYPE ping_monitor_gui_backlog gauge\n"
+					+ "# HELP ping_monitor_gui_backlog Chart updates waiting for the GUI thread.\n"
+					+ "ping_monitor_gui_backlog ");
+
+	private final Logger log = Logger.getLogger(PipelineMetrics.class
+			.getName());
+	private final PingDriver driver;
+	private final PlotInterface plot;
+	private final List<Consumer> consumers;
+	private final byte[][] consumerLabels;
+	private Timer timer;
+
+	// count and total at the last report, to report averages of the period
+	private final long[] reported;
+
+	/**
+	 * @param bus
+	 *            Started event bus (its consumers are fixed)
+	 */
+	public PipelineMetrics(PingDriver driver, EventBus bus, PlotInterface plot) {
+		this.driver = driver;
+		this.plot = plot;
+		consumers = bus.getConsumers();
+		consumerLabels = new byte[consumers.size()][];
+		for (int i = 0; i < consumerLabels.length; i++) {
+			consumerLabels[i] = MetricsWriter.bytes("{consumer=\""
+					+ DeviceMetrics.escape(consumers.get(i).getName())
+					+ "\"} ");
+		}
+		reported = new long[2 * (2 + consumers.size())];
+	}
+
+	/** Logs a report every period seconds (0: never) until stopped */
+	public void start(int period) {
+		if (period <= 0) {
+			return;
+		}
+		timer = new Timer("PipelineMetrics", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				log.log(Level.INFO, report());
+			}
+		}, period * 1000L, period * 1000L);
+	}
+
+	/** Stops the reports */
+	public void stop() {
+		if (timer != null) {
+			timer.cancel();
+		}
+	}
+
+	/**
+	 * Returns a report of the period since the last report (averages and
+	 * maxima) and starts a new period. Scrapes aren't affected.
+	 */
+	public synchronized String report() {
+		StringBuilder report = new StringBuilder("Pipeline: scheduler lag ");
+		append(report, 0, driver.getSchedulingLag());
+		report.append(", probes in flight ").append(
+				driver.getProbesInFlight());
+		report.append(", probe latency ");
+		append(report, 1, driver.getProbeLatency());
+		report.append(", listeners");
+		for (int i = 0; i < consumers.size(); i++) {
+			Consumer consumer = consumers.get(i);
+			report.append(' ').append(consumer.getName()).append(' ');
+			append(report, 2 + i, consumer.getListenerTime());
+			report.append(" (lag ").append(consumer.getLag())
+					.append(", dropped ").append(consumer.getDropped())
+					.append(')');
+		}
+		report.append(", GUI backlog ").append(plot.getBacklog());
+		return report.toString();
+	}
+
+	/** Appends "avg … ms, max … ms" of the period of recorder i */
+	private void append(StringBuilder report, int i, DurationRecorder recorder) {
+		long count = recorder.getCount();
+		long total = recorder.getTotal();
+		long max = recorder.getMax();
+		recorder.resetMax();
+		long periodCount = count - reported[2 * i];
+		long average = periodCount == 0 ? 0 : (total - reported[2 * i + 1])
+				/ periodCount;
+		reported[2 * i] = count;
+		reported[2 * i + 1] = total;
+		report.append(String.format("avg %.3f ms max %.3f ms",
+				average / 1e6, max / 1e6));
+	}
+
+	/**
+	 * Writes the metrics in the OpenMetrics text format and starts a new
+	 * window for the maxima
+	 */
+	void render(MetricsWriter writer) throws IOException {
+		DurationRecorder lag = driver.getSchedulingLag();
+		writer.write(LAG).write(lag.getCount()).write('\n');
+		writer.write(LAG_SUM).writeSeconds(lag.getTotal()).write('\n');
+		writer.write(LAG_MAX).writeSeconds(lag.getAndResetWindowMax()).write('\n');
+
+		writer.write(IN_FLIGHT).write(driver.getProbesInFlight()).write('\n');
+
+		DurationRecorder probe = driver.getProbeLatency();
+		writer.write(PROBE).write(probe.getCount()).write('\n');
+		writer.write(PROBE_SUM).writeSeconds(probe.getTotal()).write('\n');
+		writer.write(PROBE_MAX).writeSeconds(probe.getAndResetWindowMax()).write('\n');
+
+		writer.write(LISTENER);
+		for (int i = 0; i < consumerLabels.length; i++) {
+			DurationRecorder time = consumers.get(i).getListenerTime();
+			writer.write(LISTENER_COUNT).write(consumerLabels[i])
+					.write(time.getCount()).write('\n');
+			writer.write(LISTENER_SUM).write(consumerLabels[i])
+					.writeSeconds(time.getTotal()).write('\n');
+		}
+		writer.write(LISTENER_MAX);
+		for (int i = 0; i < consumerLabels.length; i++) {
+			DurationRecorder time = consumers.get(i).getListenerTime();
+			writer.write(LISTENER_MAX_SAMPLE).write(consumerLabels[i])
+					.writeSeconds(time.getAndResetWindowMax()).write('\n');
+		}
+		writer.write(EVENT_LAG);
+		for (int i = 0; i < consumerLabels.length; i++) {
+			writer.write(EVENT_LAG_SAMPLE).write(consumerLabels[i])
+					.write(consumers.get(i).getLag()).write('\n');
+		}
+		writer.write(DROPPED);
+		for (int i = 0; i < consumerLabels.length; i++) {
+			writer.write(DROPPED_SAMPLE).write(consumerLabels[i])
+					.write(consumers.get(i).getDropped()).write('\n');
+		}
+
+		writer.write(BACKLOG).write(plot.getBacklog()).write('\n');
+	}
+}
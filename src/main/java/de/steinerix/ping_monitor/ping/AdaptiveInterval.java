@@ -0,0 +1,60 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The probe interval of a device in adaptive mode. Each stretch of
+ * BACKOFF_REPLIES normal replies doubles the interval up to the maximum, any
+ * anomaly (limit exceeded, timeout, not reachable) drops it to the minimum at
+ * once. With minimum = maximum = configured interval the interval is fixed.
+ * <br />
+ * The class is thread safe without locks. Concurrent results may be counted
+ * in any order, each change of the interval is applied once.
+ *
+ * @author usr
+ *
+ */
+class AdaptiveInterval {
+	static final int BACKOFF_REPLIES = 10;
+
+	private final int min;
+	private final int nominal;
+	private final int max;
+	private final AtomicInteger current;
+	private final AtomicInteger normalReplies = new AtomicInteger();
+
+	/** Intervals in ms, the interval starts at nominal */
+	AdaptiveInterval(int min, int nominal, int max) {
+		this.min = min;
+		this.nominal = nominal;
+		this.max = max;
+		this.current = new AtomicInteger(nominal);
+	}
+
+	/** Records a normal reply. Returns true if the interval changed. */
+	boolean onNormal() {
+		int interval = current.get();
+		if (interval >= max
+				|| normalReplies.incrementAndGet() % BACKOFF_REPLIES != 0) {
+			return false;
+		}
+		return current.compareAndSet(interval,
+				(int) Math.min(2L * interval, max));
+	}
+
+	/** Records an anomaly. Returns true if the interval changed. */
+	boolean onAnomaly() {
+		normalReplies.set(0);
+		return current.getAndSet(min) != min;
+	}
+
+	/** Returns the current interval in ms */
+	int get() {
+		return current.get();
+	}
+
+	/** Returns the configured interval in ms */
+	int getNominal() {
+		return nominal;
+	}
+}
@@ -0,0 +1,559 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+
+/**
+ * ProbeBackend which sends ICMP echo requests through Linux unprivileged ICMP
+ * datagram sockets (SOCK_DGRAM / IPPROTO_ICMP). Each worker owns one socket
+ * and one thread receiving replies, so no process or thread is started per
+ * probe. Requests are sent directly by the probing thread (back to back for
+ * all due devices).
+ * <br />
+ * The kernel sets the ICMP identifier to the socket's port and only delivers
+ * replies with that identifier to the socket. A reply is matched to its
+ * target by sequence number; the target index and send time are carried in
+ * the payload, which also yields the RTT. Hosts which don't answer are
+ * reported as timeout.
+ * <br />
+ * The process' group has to be included in net.ipv4.ping_group_range.
+ *
+ * @author usr
+ *
+ */
+public class DatagramBackend implements ProbeBackend {
+	private static final Logger log = Logger.getLogger(DatagramBackend.class
+			.getName());
+
+	private static final int ECHO_REPLY = 0;
+	private static final int ECHO_REQUEST = 8;
+	private static final int PACKET_LENGTH = 24; // header + time + index
+	private static final NativeLong NATIVE_PACKET_LENGTH = new NativeLong(
+			PACKET_LENGTH);
+	private static final int SEQUENCES = 65536;
+	private static final int SOCKET_BUFFER = 4 * 1024 * 1024;
+	private static final int MAX_POLL_WAIT = 10; // ms
+	private static final long TIMEOUT = -1;
+
+	private final Worker[] workers;
+	final AtomicInteger targetCount = new AtomicInteger(); // wraps around
+	private volatile boolean shutdown = false;
+
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder replies = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * Opens provided number of ICMP datagram sockets
+	 *
+	 * @throws IllegalStateException
+	 *             if sockets can't be opened (not Linux or not permitted)
+	 */
+	public DatagramBackend(int sockets) {
+		if (sockets < 1) {
+			throw new IllegalArgumentException("sockets should be > 0");
+		}
+		if (!Platform.isLinux()) {
+			throw new IllegalStateException(
+					"Datagram probe backend requires Linux");
+		}
+
+		workers = new Worker[sockets];
+		try {
+			for (int i = 0; i < sockets; i++) {
+				workers[i] = new Worker();
+			}
+		} catch (IllegalStateException e) {
+			for (Worker worker : workers) {
+				if (worker != null) {
+					worker.close();
+				}
+			}
+			throw e;
+		}
+
+		for (int i = 0; i < sockets; i++) {
+			Thread thread = new Thread(workers[i], "DatagramBackend-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		log.log(Level.INFO, "Datagram probe backend started (sockets: "
+				+ sockets + ")");
+	}
+
+	/**
+	 * Returns true if an ICMP datagram socket can be opened on this system
+	 */
+	public static boolean isSupported() {
+		if (!Platform.isLinux()) {
+			return false;
+		}
+		try {
+			int fd = LibC.INSTANCE.socket(LibC.AF_INET, LibC.SOCK_DGRAM,
+					LibC.IPPROTO_ICMP);
+			if (fd < 0) {
+				return false;
+			}
+			LibC.INSTANCE.close(fd);
+			return true;
+		} catch (LinkageError e) { // also failed initializer of LibC
+			return false;
+		}
+	}
+
+	@Override
+	public ProbeTarget createTarget(InetAddress addr, int timeout,
+			ProbeCallback callback) {
+		if (!(addr instanceof Inet4Address)) {
+			throw new IllegalArgumentException(
+					"Datagram probe backend supports IPv4 only: " + addr);
+		}
+		int index = targetCount.getAndIncrement(); // negative after 2^31
+		return new Target(index, workers[Math.floorMod(index, workers.length)],
+				sockaddr(addr.getAddress(), 0), timeout, callback);
+	}
+
+	/**
+	 * Stops sending, each worker closes its socket once the requests being
+	 * sent are out
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	/** Returns the number of sent echo requests */
+	public long getSent() {
+		return sent.sum();
+	}
+
+	/** Returns the number of matched echo replies */
+	public long getReplies() {
+		return replies.sum();
+	}
+
+	/** Returns the number of requests without reply within timeout */
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	/** Returns the number of requests which couldn't be sent */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/** Returns the number of requests waiting for a reply */
+	public int getInFlight() {
+		int inFlight = 0;
+		for (Worker worker : workers) {
+			inFlight += worker.getInFlight();
+		}
+		return inFlight;
+	}
+
+	/** Returns a struct sockaddr_in */
+	private static byte[] sockaddr(byte[] ip, int port) {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.order(ByteOrder.nativeOrder()).putShort((short) LibC.AF_INET);
+		buffer.order(ByteOrder.BIG_ENDIAN).putShort((short) port).put(ip);
+		return buffer.array();
+	}
+
+	/** Returns description of last native error */
+	private static String lastError() {
+		int errno = Native.getLastError();
+		return LibC.INSTANCE.strerror(errno) + " (errno " + errno + ")";
+	}
+
+	/** A host with its reusable echo request packet */
+	private class Target implements ProbeTarget {
+		private final int index;
+		private final Worker worker;
+		private final byte[] sockaddr;
+		private final long timeout; // ns
+		private final ProbeCallback callback;
+		private final byte[] packet = new byte[PACKET_LENGTH];
+
+		// state of current probe, guarded by worker
+		private int seq = -1;
+		private long deadline;
+
+		Target(int index, Worker worker, byte[] sockaddr, int timeout,
+				ProbeCallback callback) {
+			this.index = index;
+			this.worker = worker;
+			this.sockaddr = sockaddr;
+			this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+			this.callback = callback;
+		}
+
+		@Override
+		public boolean probe() {
+			return worker.send(this);
+		}
+	}
+
+	/** Owns one socket, receives replies and expires timed out requests */
+	private class Worker implements Runnable {
+		private final int fd;
+		private final int identifier;
+
+		// requests in flight by sequence number, guarded by this
+		private final Target[] pending = new Target[SEQUENCES];
+		private int nextSeq = 0;
+		private int inFlight = 0;
+		private int sending = 0; // threads in sendto, socket must stay open
+
+		// min-heap of request deadlines, guarded by this
+		private long[] deadlines = new long[1024];
+		private int[] deadlineSeqs = new int[1024];
+		private int deadlineCount = 0;
+
+		// used by worker thread only
+		private final byte[] receiveBuffer = new byte[1500];
+		private final NativeLong receiveLength = new NativeLong(
+				receiveBuffer.length);
+		private final byte[] pollFd = new byte[8];
+		private final List<Target> expired = new ArrayList<Target>();
+
+		Worker() {
+			LibC libc = LibC.INSTANCE;
+			fd = libc.socket(LibC.AF_INET, LibC.SOCK_DGRAM, LibC.IPPROTO_ICMP);
+			if (fd < 0) {
+				throw new IllegalStateException(
+						"Could not open ICMP datagram socket: " + lastError()
+								+ " - please check net.ipv4.ping_group_range");
+			}
+
+			// bind to port 0: kernel chooses the ICMP identifier
+			byte[] addr = sockaddr(new byte[4], 0);
+			int[] length = new int[] { addr.length };
+			if (libc.bind(fd, addr, addr.length) < 0
+					|| libc.getsockname(fd, addr, length) < 0) {
+				String error = lastError();
+				libc.close(fd);
+				throw new IllegalStateException(
+						"Could not bind ICMP datagram socket: " + error);
+			}
+			identifier = ((addr[2] & 0xff) << 8) | (addr[3] & 0xff);
+
+			// best effort: bursts of replies should not overflow the socket
+			libc.setsockopt(fd, LibC.SOL_SOCKET, LibC.SO_RCVBUF,
+					new int[] { SOCKET_BUFFER }, 4);
+			libc.setsockopt(fd, LibC.SOL_SOCKET, LibC.SO_SNDBUF,
+					new int[] { SOCKET_BUFFER }, 4);
+
+			ByteBuffer.wrap(pollFd).order(ByteOrder.nativeOrder()).putInt(fd)
+					.putShort(LibC.POLLIN);
+		}
+
+		synchronized int getInFlight() {
+			return inFlight;
+		}
+
+		/**
+		 * Sends an echo request to target. Returns false if the target has a
+		 * request in flight or no sequence number is available.
+		 */
+		boolean send(Target target) {
+			long now = System.nanoTime();
+			int seq;
+			synchronized (this) {
+				seq = nextSeq & (SEQUENCES - 1);
+				if (shutdown || target.seq != -1 || pending[seq] != null) {
+					return false;
+				}
+				nextSeq++;
+				pending[seq] = target;
+				target.seq = seq;
+				target.deadline = now + target.timeout;
+				pushDeadline(target.deadline, seq);
+				inFlight++;
+				sending++;
+			}
+
+			encodeRequest(target.packet, seq, now, target.index);
+			NativeLong result;
+			try {
+				result = LibC.INSTANCE.sendto(fd, target.packet,
+						NATIVE_PACKET_LENGTH, 0, target.sockaddr,
+						target.sockaddr.length);
+			} finally {
+				synchronized (this) {
+					if (--sending == 0) {
+						notifyAll();
+					}
+				}
+			}
+			if (result.longValue() < 0) {
+				String error = lastError();
+				if (release(target, seq)) {
+					failures.increment();
+					deliver(target, ProbeResult.unreachable(error));
+				}
+			} else {
+				sent.increment();
+			}
+			return true;
+		}
+
+		@Override
+		public void run() {
+			LibC libc = LibC.INSTANCE;
+			NativeLong one = new NativeLong(1);
+			while (!shutdown) {
+				int ready = libc.poll(pollFd, one, nextWait());
+				if (ready > 0) {
+					receiveAll();
+				} else if (ready < 0 && Native.getLastError() != LibC.EINTR) {
+					log.log(Level.SEVERE, "poll failed: " + lastError());
+					break;
+				}
+				expire(System.nanoTime());
+			}
+			close();
+		}
+
+		/**
+		 * Closes the socket after sends in progress. No send starts after
+		 * shutdown, so the fd can't be reused while a thread writes to it.
+		 */
+		void close() {
+			boolean interrupted = false;
+			synchronized (this) {
+				while (sending > 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			LibC.INSTANCE.close(fd);
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/** Returns ms until next deadline (at most MAX_POLL_WAIT) */
+		private synchronized int nextWait() {
+			if (deadlineCount == 0) {
+				return MAX_POLL_WAIT;
+			}
+			long wait = TimeUnit.NANOSECONDS.toMillis(deadlines[0]
+					- System.nanoTime());
+			return (int) Math.max(0, Math.min(wait, MAX_POLL_WAIT));
+		}
+
+		/** Reads all queued datagrams without blocking */
+		private void receiveAll() {
+			while (true) {
+				long length = LibC.INSTANCE.recvfrom(fd, receiveBuffer,
+						receiveLength, LibC.MSG_DONTWAIT, null, null)
+						.longValue();
+				if (length < 0) {
+					return; // EAGAIN: socket drained
+				}
+				handleReply((int) length, System.nanoTime());
+			}
+		}
+
+		/** Matches a received datagram to its target */
+		private void handleReply(int length, long now) {
+			byte[] buffer = receiveBuffer;
+			if (length < PACKET_LENGTH || (buffer[0] & 0xff) != ECHO_REPLY
+					|| readShort(buffer, 4) != identifier) {
+				return;
+			}
+			int seq = readShort(buffer, 6);
+			long sendTime = readLong(buffer, 8);
+			int index = readInt(buffer, 16);
+
+			Target target;
+			synchronized (this) {
+				target = pending[seq];
+				if (target == null || target.index != index
+						|| target.seq != seq) {
+					return; // late reply of an expired request
+				}
+				pending[seq] = null;
+				target.seq = -1;
+				inFlight--;
+			}
+			replies.increment();
+			deliver(target, now - sendTime);
+		}
+
+		/** Reports all requests with reached deadline as timeout */
+		private void expire(long now) {
+			synchronized (this) {
+				while (deadlineCount > 0 && deadlines[0] - now <= 0) {
+					long deadline = deadlines[0];
+					int seq = deadlineSeqs[0];
+					popDeadline();
+
+					Target target = pending[seq];
+					if (target != null && target.seq == seq
+							&& target.deadline == deadline) {
+						pending[seq] = null;
+						target.seq = -1;
+						inFlight--;
+						expired.add(target);
+					}
+				}
+			}
+			for (int i = 0; i < expired.size(); i++) {
+				timeouts.increment();
+				deliver(expired.get(i), TIMEOUT);
+			}
+			expired.clear();
+		}
+
+		/** Hands a reply (rtt in ns) or TIMEOUT to the target's callback */
+		private void deliver(Target target, long rtt) {
+			try {
+				if (rtt == TIMEOUT) {
+					target.callback.onTimeout();
+				} else {
+					target.callback.onReply(rtt);
+				}
+			} catch (Throwable t) {
+				log.log(Level.SEVERE, "Callback terminated unexpectedly", t);
+			}
+		}
+
+		/** Hands a result to the target's callback */
+		private void deliver(Target target, ProbeResult result) {
+			try {
+				target.callback.onSuccess(result);
+			} catch (Throwable t) {
+				log.log(Level.SEVERE, "Callback terminated unexpectedly", t);
+			}
+		}
+
+		/** Releases a request. Returns false if it was already released. */
+		private synchronized boolean release(Target target, int seq) {
+			if (pending[seq] != target || target.seq != seq) {
+				return false;
+			}
+			pending[seq] = null;
+			target.seq = -1;
+			inFlight--;
+			return true;
+		}
+
+		private void pushDeadline(long deadline, int seq) {
+			if (deadlineCount == deadlines.length) {
+				deadlines = Arrays.copyOf(deadlines, deadlineCount * 2);
+				deadlineSeqs = Arrays.copyOf(deadlineSeqs, deadlineCount * 2);
+			}
+			int index = deadlineCount++;
+			while (index > 0) {
+				int parent = (index - 1) >>> 1;
+				if (deadlines[parent] - deadline <= 0) {
+					break;
+				}
+				deadlines[index] = deadlines[parent];
+				deadlineSeqs[index] = deadlineSeqs[parent];
+				index = parent;
+			}
+			deadlines[index] = deadline;
+			deadlineSeqs[index] = seq;
+		}
+
+		private void popDeadline() {
+			int last = --deadlineCount;
+			long deadline = deadlines[last];
+			int seq = deadlineSeqs[last];
+			int index = 0;
+			while (true) {
+				int child = 2 * index + 1;
+				if (child >= deadlineCount) {
+					break;
+				}
+				if (child + 1 < deadlineCount
+						&& deadlines[child + 1] - deadlines[child] < 0) {
+					child++;
+				}
+				if (deadline - deadlines[child] <= 0) {
+					break;
+				}
+				deadlines[index] = deadlines[child];
+				deadlineSeqs[index] = deadlineSeqs[child];
+				index = child;
+			}
+			deadlines[index] = deadline;
+			deadlineSeqs[index] = seq;
+		}
+	}
+
+	/**
+	 * Writes an echo request: type, code, checksum, identifier (set by
+	 * kernel), sequence number, send time and target index
+	 */
+	static void encodeRequest(byte[] packet, int seq, long sendTime, int index) {
+		packet[0] = ECHO_REQUEST;
+		packet[1] = 0;
+		packet[2] = 0; // checksum
+		packet[3] = 0;
+		packet[4] = 0; // identifier
+		packet[5] = 0;
+		packet[6] = (byte) (seq >>> 8);
+		packet[7] = (byte) seq;
+		for (int i = 0; i < 8; i++) {
+			packet[8 + i] = (byte) (sendTime >>> (56 - 8 * i));
+		}
+		for (int i = 0; i < 4; i++) {
+			packet[16 + i] = (byte) (index >>> (24 - 8 * i));
+		}
+		for (int i = 20; i < PACKET_LENGTH; i++) {
+			packet[i] = 0;
+		}
+		int checksum = checksum(packet, PACKET_LENGTH);
+		packet[2] = (byte) (checksum >>> 8);
+		packet[3] = (byte) checksum;
+	}
+
+	/** Internet checksum (RFC 1071) */
+	static int checksum(byte[] data, int length) {
+		int sum = 0;
+		for (int i = 0; i + 1 < length; i += 2) {
+			sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+		}
+		if ((length & 1) == 1) {
+			sum += (data[length - 1] & 0xff) << 8;
+		}
+		while ((sum >>> 16) != 0) {
+			sum = (sum & 0xffff) + (sum >>> 16);
+		}
+		return ~sum & 0xffff;
+	}
+
+	private static int readShort(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return (readShort(buffer, offset) << 16) | readShort(buffer, offset + 2);
+	}
+
+	private static long readLong(byte[] buffer, int offset) {
+		return ((long) readInt(buffer, offset) << 32)
+				| (readInt(buffer, offset + 4) & 0xffffffffL);
+	}
+}
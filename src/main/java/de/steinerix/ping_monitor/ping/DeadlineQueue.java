@@ -0,0 +1,198 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A min-heap of periodic deadlines (in ns). Each item is contained at most
+ * once and carries its own period. Polling a due item re-inserts it with its
+ * next deadline, so the head of the queue is always the next item to fire.
+ * <br />
+ * Add, remove and poll are O(log n), peek is O(1). The class is <b>not</b>
+ * thread safe.
+ *
+ * @author usr
+ *
+ */
+class DeadlineQueue<T> {
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** heap entry of one item */
+	private static class Entry<T> {
+		private final T item;
+		private long deadline;
+		private long period;
+		private int index;
+
+		Entry(T item, long deadline, long period) {
+			this.item = item;
+			this.deadline = deadline;
+			this.period = period;
+		}
+	}
+
+	private final Map<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+	private Entry<?>[] heap = new Entry<?>[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/**
+	 * Adds an item which is first due at deadline and afterwards every period
+	 * ns. Returns false if the item is already contained.
+	 */
+	boolean add(T item, long deadline, long period) {
+		if (item == null) {
+			throw new IllegalArgumentException("item may not be null");
+		}
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		if (entries.containsKey(item)) {
+			return false;
+		}
+		Entry<T> entry = new Entry<T>(item, deadline, period);
+		entries.put(item, entry);
+
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, size * 2);
+		}
+		entry.index = size;
+		heap[size++] = entry;
+		siftUp(entry.index);
+		return true;
+	}
+
+	/** Removes an item. Returns false if the item wasn't contained. */
+	boolean remove(T item) {
+		Entry<T> entry = entries.remove(item);
+		if (entry == null) {
+			return false;
+		}
+		int index = entry.index;
+		size--;
+		if (index != size) {
+			heap[index] = heap[size];
+			entry(index).index = index;
+			heap[size] = null;
+			siftDown(index);
+			siftUp(index);
+		} else {
+			heap[size] = null;
+		}
+		return true;
+	}
+
+	/** Returns true if item is contained */
+	boolean contains(T item) {
+		return entries.containsKey(item);
+	}
+
+	/** Returns number of contained items */
+	int size() {
+		return size;
+	}
+
+	/** Returns true if no item is contained */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Returns the earliest deadline or Long.MAX_VALUE if queue is empty */
+	long peekDeadline() {
+		return size == 0 ? Long.MAX_VALUE : heap[0].deadline;
+	}
+
+	/**
+	 * Returns the head item if its deadline is reached (deadline <= now) and
+	 * moves it to its next deadline, otherwise null is returned. <br />
+	 * The next deadline is the previous one plus period, so no drift
+	 * accumulates. If the caller fell behind by more than a whole period the
+	 * missed deadlines are skipped instead of being fired as a burst.
+	 */
+	T pollDue(long now) {
+		if (size == 0 || heap[0].deadline - now > 0) {
+			return null;
+		}
+		Entry<T> head = entry(0);
+		long next = head.deadline + head.period;
+		if (next - now <= 0) {
+			next = now + head.period;
+		}
+		head.deadline = next;
+		siftDown(0);
+		return head.item;
+	}
+
+	/**
+	 * Moves an item to a new deadline and period. Returns false if the item
+	 * isn't contained.
+	 */
+	boolean reschedule(T item, long deadline, long period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		Entry<T> entry = entries.get(item);
+		if (entry == null) {
+			return false;
+		}
+		entry.deadline = deadline;
+		entry.period = period;
+		siftDown(entry.index);
+		siftUp(entry.index);
+		return true;
+	}
+
+	/** Returns the deadline of item or Long.MAX_VALUE if it isn't contained */
+	long getDeadline(T item) {
+		Entry<T> entry = entries.get(item);
+		return entry == null ? Long.MAX_VALUE : entry.deadline;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Entry<T> entry(int index) {
+		return (Entry<T>) heap[index];
+	}
+
+	/** deadlines are compared overflow safe (as System.nanoTime() values) */
+	private boolean less(int a, int b) {
+		return heap[a].deadline - heap[b].deadline < 0;
+	}
+
+	private void siftUp(int index) {
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!less(index, parent)) {
+				break;
+			}
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+		while (true) {
+			int left = 2 * index + 1;
+			if (left >= size) {
+				break;
+			}
+			int smallest = left;
+			int right = left + 1;
+			if (right < size && less(right, left)) {
+				smallest = right;
+			}
+			if (!less(smallest, index)) {
+				break;
+			}
+			swap(index, smallest);
+			index = smallest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		Entry<?> tmp = heap[a];
+		heap[a] = heap[b];
+		heap[b] = tmp;
+		heap[a].index = a;
+		heap[b].index = b;
+	}
+}
@@ -1,50 +1,105 @@
 package de.steinerix.ping_monitor.ping;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.icmp4j.AsyncCallback;
-import org.icmp4j.IcmpPingRequest;
-import org.icmp4j.IcmpPingResponse;
-import org.icmp4j.IcmpPingUtil;
-
 import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.stats.LinkQuality;
 
 /**
- * A Device represents a remote host which can be pinged.
+ * A Device represents a remote host which can be pinged. Pings are sent
+ * through the {@link ProbeBackend} provided on construction. If the config is
+ * adaptive, the device changes its interval in the {@link PingDriver} it is
+ * registered in according to its replies.
+ * <br />
+ * Probing and results may happen on any thread. The state (pending and alarm
+ * flags, counters of normal replies, exceeded limits and errors) is packed
+ * into one AtomicLong and changed by compare-and-set only, listeners are kept
+ * in a copy-on-write array, so no lock is taken.
+ * <br />
+ * Replies and timeouts reported by {@link #onReply(long)} and
+ * {@link #onTimeout()} are handed to the listeners without allocating any
+ * object; event objects are only created for alarm and clear.
+ * <br />
+ * Each result updates the {@link LinkQuality} (jitter, recent loss) of the
+ * device. With a jitter or loss limit configured, a reply within the RTT
+ * limit still counts as exceeded limit while the link quality is beyond it.
  * 
  * @author usr
  *
  */
-public class Device implements AsyncCallback<IcmpPingResponse> {
-	private final Logger log = Logger.getLogger(Device.class.getName());;
-	private List<DeviceListener> listeners = new ArrayList<DeviceListener>();
+public class Device implements ProbeCallback {
+	private static final Logger log = Logger.getLogger(Device.class
+			.getName());
+	private static final DeviceListener[] NO_LISTENERS = new DeviceListener[0];
+	private volatile DeviceListener[] listeners = NO_LISTENERS;
 
 	private final DeviceConfig config;
-	private final IcmpPingRequest pingRequest;
+	private final long limit; // ns
+	private final long jitterLimit; // ns, 0 = none
+	private final double lossLimit; // ratio, 0 = none
+	private final LinkQuality quality = new LinkQuality();
+	private final ProbeTarget probeTarget;
+	private final AdaptiveInterval interval;
+	private volatile PingDriver driver;
+
+	static final int NUMBER_OF_RETRIES = 3;
+
+	// state layout: flags, three saturating 16 bit counters and a probe
+	// sequence, which makes each acquisition of the pending flag unique
+	private static final long PENDING = 1L;
+	private static final long ALARM = 1L << 1;
+	private static final int NORMAL_SHIFT = 8;
+	private static final int EXCEEDED_SHIFT = 24;
+	private static final int ERROR_SHIFT = 40;
+	private static final int SEQUENCE_SHIFT = 56;
+	private static final long COUNT_MASK = 0xffffL;
+	private static final int[] COUNTERS = { NORMAL_SHIFT, EXCEEDED_SHIFT,
+			ERROR_SHIFT };
+
+	private final AtomicLong state = new AtomicLong();
+	private volatile long lastPing;
+	private volatile long sent; // ns, of the last probe
+
+	public Device(DeviceConfig config, ProbeBackend backend) {
+		this.config = config;
+		limit = config.getLimit() * 1000000L;
+		jitterLimit = config.getJitterLimit() * 1000000L;
+		lossLimit = config.getLossLimit() / 100.0;
+		interval = new AdaptiveInterval(config.getMinInterval(),
+				config.getInterval(), config.getMaxInterval());
+		probeTarget = backend.createTarget(config.getAddr(), getTimeout(),
+				this);
+	}
 
-	private final int NUMBER_OF_RETRIES = 3;
-	private final Counter limitExceeded = new Counter(NUMBER_OF_RETRIES);
-	private final Counter routingErrors = new Counter(NUMBER_OF_RETRIES);
-	private final Counter succesfulPings = new Counter(NUMBER_OF_RETRIES);
+	/** Returns the device configuration (immutable, shared) */
+	public DeviceConfig getConfig() {
+		return config;
+	}
 
-	private long lastPing;
-	private boolean alarmFlag = false;
-	private boolean pendingFlag = false;
+	/**
+	 * Returns the current probe interval in ms (differs from the configured
+	 * interval in adaptive mode)
+	 */
+	public int getInterval() {
+		return interval.get();
+	}
 
-	public Device(DeviceConfig config) {
-		this.config = new DeviceConfig(config);
-		pingRequest = IcmpPingUtil.createIcmpPingRequest();
-		pingRequest.setHost(config.getAddr().getHostAddress());
-		pingRequest.setTimeout(getTimeout());
+	/** Returns jitter, loss and loss run of the results so far */
+	public LinkQuality getLinkQuality() {
+		return quality;
 	}
 
-	/** Returns a copy of the device configuration */
-	public DeviceConfig getConfig() {
-		return new DeviceConfig(config);
+	/** Returns the adaptive interval of this device */
+	AdaptiveInterval getAdaptiveInterval() {
+		return interval;
+	}
+
+	/** Sets the driver which schedules this device (null if none) */
+	void setDriver(PingDriver driver) {
+		this.driver = driver;
 	}
 
 	/**
@@ -53,44 +108,44 @@ public class Device implements AsyncCallback<IcmpPingResponse> {
 	 * host not reachable) is captured
 	 */
 	public boolean isPending() {
-		if (getLastPing() + (2 * config.getTimeout()) < System
-				.currentTimeMillis())
-			return false;
-		return pendingFlag;
+		return isPending(state.get(), System.currentTimeMillis());
 	}
 
-	/** Sets ping state of device to pending */
-	private void setPending() {
-		pendingFlag = true;
+	/**
+	 * Returns true if state is pending and the ping didn't expire (a result
+	 * is expected within twice the timeout)
+	 */
+	private boolean isPending(long current, long now) {
+		return (current & PENDING) != 0
+				&& getLastPing() + (2 * config.getTimeout()) >= now;
 	}
 
 	/** Resets ping state of device to <b>false</b> (= no ping pending) */
 	private void resetPending() {
-		pendingFlag = false;
+		long current;
+		do {
+			current = state.get();
+		} while (!state.compareAndSet(current, current & ~PENDING));
 	}
 
 	/** Returns alarm state of device */
 	public boolean isAlarm() {
-		return alarmFlag;
+		return (state.get() & ALARM) != 0;
 	}
 
-	/** Sets device to alarm state */
-	private void setAlarm(IcmpPingResponse response) {
-		alarmFlag = true;
-		fireAlarm(new DeviceEvent(this, response));
-		log(Level.WARNING, "Alarm state entered: ");
+	/** Returns the number of consecutive normal replies */
+	int getNormalCount() {
+		return count(state.get(), NORMAL_SHIFT);
 	}
 
-	/** Clears alarm state of device */
-	private void clearAlarm(IcmpPingResponse response) {
-		alarmFlag = false;
-		fireClear(new DeviceEvent(this, response));
-		log(Level.WARNING, "Alarm state cleared: ");
+	/** Returns the number of consecutive replies exceeding the limit */
+	int getExceededCount() {
+		return count(state.get(), EXCEEDED_SHIFT);
 	}
 
-	/** Updates the last ping time */
-	private void updateLastPing() {
-		lastPing = System.currentTimeMillis();
+	/** Returns the number of consecutive timeouts and errors */
+	int getErrorCount() {
+		return count(state.get(), ERROR_SHIFT);
 	}
 
 	/** Get the time when last ping was sent */
@@ -100,88 +155,188 @@ public class Device implements AsyncCallback<IcmpPingResponse> {
 
 	/**
 	 * Execute a ping command on device (Ping will only be executed if not
-	 * blocked by an already pending ping)
+	 * blocked by an already pending ping). If the backend rejects the probe,
+	 * this ping is skipped.
 	 */
 	public void ping() {
-		if (isPending()) {
-			return;
+		long now = System.currentTimeMillis();
+		long current;
+		do {
+			current = state.get();
+			if (isPending(current, now)) {
+				return;
+			}
+		} while (!state.compareAndSet(current, acquire(current)));
+		lastPing = now;
+		sent = System.nanoTime();
+		PingDriver owner = driver;
+		if (owner != null) {
+			owner.probeSent();
+		}
+
+		if (!probeTarget.probe()) { // back-pressure: backend saturated
+			resetPending();
+			if (owner != null) {
+				owner.probeRejected();
+			}
+			log(Level.FINE, "Ping skipped, probe backend saturated: ");
 		}
-		setPending();
-		updateLastPing();
+	}
 
-		IcmpPingUtil.executePingRequest(pingRequest, this); // call "this" back
+	/** Callback implementation for a received reply (rtt in ns). */
+	@Override
+	public void onReply(long rtt) {
+		quality.reply(rtt);
+		result(rtt <= limit && isQualityWithinLimits() ? DeviceListener.NORMAL
+				: DeviceListener.LIMIT_EXCEEDED, rtt, null);
+	}
 
+	/** Returns true if jitter and recent loss are within their limits */
+	private boolean isQualityWithinLimits() {
+		return (jitterLimit == 0 || quality.getJitter() <= jitterLimit)
+				&& (lossLimit == 0 || quality
+						.getLoss(LinkQuality.SHORT_WINDOW) <= lossLimit);
 	}
 
-	/** Callback implementation for a successful IcmpPingResponse. */
+	/** Callback implementation for a timeout. */
 	@Override
-	public void onSuccess(IcmpPingResponse response) {
-		fireReply(new DeviceEvent(this, response));
-		log.log(Level.FINE, IcmpPingUtil.formatResponse(response));
-		resetPending();
-
-		if (response.getSuccessFlag() && !response.getTimeoutFlag()
-				&& response.getRtt() <= config.getLimit()) {
-			if (updateCounter(succesfulPings, limitExceeded, routingErrors)
-					&& isAlarm()) {
-				clearAlarm(response);
-			}
-		} else if (response.getSuccessFlag() && !response.getTimeoutFlag()
-				&& response.getRtt() > config.getLimit()) {
-			if (updateCounter(limitExceeded, routingErrors, succesfulPings)
-					&& !isAlarm()) {
-				setAlarm(response);
-			}
+	public void onTimeout() {
+		result(DeviceListener.TIMEOUT, 0, null);
+	}
+
+	/** Callback implementation for a probe result. */
+	@Override
+	public void onSuccess(ProbeResult response) {
+		if (response.getSuccessFlag() && !response.getTimeoutFlag()) {
+			onReply((long) (response.getRtt() * 1000000));
+		} else if (response.getTimeoutFlag()) {
+			onTimeout();
 		} else {
-			if (updateCounter(routingErrors, succesfulPings, limitExceeded)
-					&& !isAlarm()) {
-				setAlarm(response);
-			}
+			result(DeviceListener.NOT_REACHABLE, 0, response);
 		}
 	}
 
-	/** Callback implementation for a failure IcmpPingResponse. */
+	/** Callback implementation for a failed probe. */
 	@Override
 	public void onFailure(Throwable throwable) {
-		log.log(Level.WARNING,
-				"ICMP4J couldn't handle response " + config.getName() + " ("
-						+ config.getAddr().getHostAddress());
+		log(Level.WARNING, "Probe backend couldn't handle response: ");
 		// construct a dummy response
-		IcmpPingResponse response = new IcmpPingResponse();
-		response.setRtt(0);
-		response.setHost(this.getConfig().getAddr().getHostAddress());
-		response.setTtl(0);
-		response.setErrorMessage(throwable.getMessage());
-		response.setSuccessFlag(false);
-		response.setTimeoutFlag(false);
-		fireReply(new DeviceEvent(this, response));
-		resetPending();
-		if (updateCounter(routingErrors, succesfulPings, limitExceeded)
-				&& !isAlarm()) {
-			setAlarm(response);
-		}
+		result(DeviceListener.NOT_REACHABLE, 0,
+				ProbeResult.unreachable(throwable.getMessage()));
 	}
 
 	/**
-	 * Increments first counter by one and resets the other two if limit of
-	 * former is reached. Otherwise they are only reset if their count didn't
-	 * reach limit yet. Returns limit reached of increment counter
+	 * Hands a result to the listeners and updates the state (response is
+	 * only required for NOT_REACHABLE)
 	 */
-	private boolean updateCounter(Counter increment, Counter reset1,
-			Counter reset2) {
-		boolean limitReached = increment.increment();
-		if (limitReached) {
-			reset1.reset();
-			reset2.reset();
-		} else {
-			if (!reset1.isLimitReached()) {
-				reset1.reset();
+	private void result(int type, long rtt, ProbeResult response) {
+		PingDriver owner = driver;
+		if (owner != null) {
+			owner.probeCompleted(sent);
+		}
+		if (type >= DeviceListener.TIMEOUT) { // replies are added by onReply
+			quality.lost();
+		}
+		fireReply(type, rtt, System.currentTimeMillis());
+
+		switch (type) {
+		case DeviceListener.NORMAL:
+			update(NORMAL_SHIFT, type, rtt, response);
+			if (interval.onNormal()) {
+				intervalChanged();
 			}
-			if (!reset2.isLimitReached()) {
-				reset2.reset();
+			break;
+		case DeviceListener.LIMIT_EXCEEDED:
+			update(EXCEEDED_SHIFT, type, rtt, response);
+			anomaly();
+			break;
+		default:
+			update(ERROR_SHIFT, type, rtt, response);
+			anomaly();
+		}
+	}
+
+	/**
+	 * Applies a result to the state and fires alarm or clear if the alarm
+	 * flag was changed by this result
+	 */
+	private void update(int shift, int type, long rtt, ProbeResult response) {
+		long current, next;
+		do {
+			current = state.get();
+			next = transition(current, shift);
+		} while (!state.compareAndSet(current, next));
+
+		if ((current & ALARM) == 0 && (next & ALARM) != 0) {
+			fireAlarm(new DeviceEvent(this, response != null ? response
+					: toResult(type, rtt)));
+			log(Level.WARNING, "Alarm state entered: ");
+		} else if ((current & ALARM) != 0 && (next & ALARM) == 0) {
+			fireClear(new DeviceEvent(this, response != null ? response
+					: toResult(type, rtt)));
+			log(Level.WARNING, "Alarm state cleared: ");
+		}
+	}
+
+	/** Returns a result object for a reply or timeout */
+	private static ProbeResult toResult(int type, long rtt) {
+		return type == DeviceListener.TIMEOUT ? ProbeResult.timeout()
+				: ProbeResult.reply(rtt / 1000000.0);
+	}
+
+	/** Switches to the fast interval, so an alarm is confirmed quickly */
+	private void anomaly() {
+		if (interval.onAnomaly()) {
+			intervalChanged();
+		}
+	}
+
+	/** Hands the current interval to the driver */
+	private void intervalChanged() {
+		if (log.isLoggable(Level.FINE)) {
+			log(Level.FINE, "Interval changed to " + interval.get() + "ms: ");
+		}
+		PingDriver current = driver;
+		if (current != null) {
+			current.changeInterval(this, interval.get());
+		}
+	}
+
+	/** Returns state with pending flag set and the next probe sequence */
+	private static long acquire(long current) {
+		long sequence = ((current >>> SEQUENCE_SHIFT) + 1) << SEQUENCE_SHIFT;
+		return (current & ~(-1L << SEQUENCE_SHIFT)) | sequence | PENDING;
+	}
+
+	/**
+	 * Returns the state after a result: pending is reset, the counter at
+	 * shift is incremented and the other two are reset if limit of former is
+	 * reached. Otherwise they are only reset if their count didn't reach limit
+	 * yet. If the limit is reached, the alarm is set (exceeded limit, error)
+	 * or cleared (normal reply).
+	 */
+	static long transition(long current, int shift) {
+		int count = Math.min(count(current, shift) + 1, (int) COUNT_MASK);
+		boolean limitReached = count >= NUMBER_OF_RETRIES;
+
+		long next = current & ~PENDING & ~(COUNT_MASK << shift);
+		next |= (long) count << shift;
+		for (int other : COUNTERS) {
+			if (other != shift
+					&& (limitReached || count(current, other) < NUMBER_OF_RETRIES)) {
+				next &= ~(COUNT_MASK << other);
 			}
 		}
-		return limitReached;
+
+		if (limitReached) {
+			next = shift == NORMAL_SHIFT ? next & ~ALARM : next | ALARM;
+		}
+		return next;
+	}
+
+	/** Returns the counter at shift of state */
+	private static int count(long current, int shift) {
+		return (int) ((current >>> shift) & COUNT_MASK);
 	}
 
 	/** Log a message with provided level (device name and IP will be attached) */
@@ -192,35 +347,42 @@ public class Device implements AsyncCallback<IcmpPingResponse> {
 
 	/** Add listener */
 	public synchronized void addListener(DeviceListener listener) {
-		listeners.add(listener);
+		DeviceListener[] copy = Arrays.copyOf(listeners, listeners.length + 1);
+		copy[listeners.length] = listener;
+		listeners = copy;
 	}
 
 	/** Remove listener */
 	public synchronized void removeListener(DeviceListener listener) {
-		listeners.remove(listener);
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				DeviceListener[] copy = new DeviceListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, copy, 0, i);
+				System.arraycopy(listeners, i + 1, copy, i, copy.length - i);
+				listeners = copy;
+				return;
+			}
+		}
 	}
 
 	/** Reply */
-	private synchronized void fireReply(DeviceEvent event) {
-		for (Iterator<DeviceListener> iterator = listeners.iterator(); iterator
-				.hasNext();) {
-			iterator.next().reply(event);
+	private void fireReply(int type, long rtt, long timestamp) {
+		for (DeviceListener listener : listeners) {
+			listener.reply(this, type, rtt, timestamp);
 		}
 	}
 
 	/** Alarm */
-	private synchronized void fireAlarm(DeviceEvent event) {
-		for (Iterator<DeviceListener> iterator = listeners.iterator(); iterator
-				.hasNext();) {
-			iterator.next().alarm(event);
+	private void fireAlarm(DeviceEvent event) {
+		for (DeviceListener listener : listeners) {
+			listener.alarm(event);
 		}
 	}
 
 	/** Clear alarm */
-	private synchronized void fireClear(DeviceEvent event) {
-		for (Iterator<DeviceListener> iterator = listeners.iterator(); iterator
-				.hasNext();) {
-			iterator.next().clear(event);
+	private void fireClear(DeviceEvent event) {
+		for (DeviceListener listener : listeners) {
+			listener.clear(event);
 		}
 	}
 
@@ -1,15 +1,35 @@
 package de.steinerix.ping_monitor.ping;
 
 /**
- * Interface for a DeviceListener
+ * Interface for a DeviceListener. Replies are reported with primitive values
+ * only, as they are the bulk of all events; alarm and clear carry a
+ * {@link DeviceEvent}.
  * 
  * @author usr
  *
  */
 public interface DeviceListener {
+	// reply types (ordinals of PingResponse.Type)
+	public static final int NORMAL = 0;
+	public static final int LIMIT_EXCEEDED = 1;
+	public static final int TIMEOUT = 2;
+	public static final int NOT_REACHABLE = 3;
+
 	public void alarm(DeviceEvent event);
 
 	public void clear(DeviceEvent event);
 
-	public void reply(DeviceEvent event);
+	/**
+	 * Called for each probe result
+	 * 
+	 * @param device
+	 *            Device which was probed
+	 * @param type
+	 *            Reply type (NORMAL, LIMIT_EXCEEDED, TIMEOUT, NOT_REACHABLE)
+	 * @param rtt
+	 *            Round trip time in ns (0 if no reply was received)
+	 * @param timestamp
+	 *            Time of the result in ms (System.currentTimeMillis())
+	 */
+	public void reply(Device device, int type, long rtt, long timestamp);
 }
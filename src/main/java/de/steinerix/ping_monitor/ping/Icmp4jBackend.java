@@ -0,0 +1,81 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.net.InetAddress;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.icmp4j.IcmpPingRequest;
+import org.icmp4j.IcmpPingResponse;
+import org.icmp4j.IcmpPingUtil;
+
+/**
+ * ProbeBackend which sends pings through ICMP4J (native ping support on Linux
+ * and Windows). ICMP4J requests block until a reply is received, they are
+ * executed by a bounded {@link ProbeExecutor}.
+ *
+ * @author usr
+ *
+ */
+public class Icmp4jBackend implements ProbeBackend {
+	private final Logger log = Logger.getLogger(Icmp4jBackend.class.getName());
+	private final ProbeExecutor executor;
+
+	/** Initializes ICMP4J, probes are executed by provided executor */
+	public Icmp4jBackend(ProbeExecutor executor) {
+		this.executor = executor;
+
+		// init IcmpPingUtil subsystem with a first, blocking ping.
+		log.log(Level.INFO, "Initialize ICMP4J");
+		IcmpPingUtil.executePingRequest("127.0.0.1", 40, 300);
+	}
+
+	/** Returns the executor which runs the probes */
+	public ProbeExecutor getProbeExecutor() {
+		return executor;
+	}
+
+	@Override
+	public ProbeTarget createTarget(InetAddress addr, int timeout,
+			ProbeCallback callback) {
+		return new Target(addr, timeout, callback);
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/** A host with its reusable ICMP4J request */
+	private class Target implements ProbeTarget, Runnable {
+		private final IcmpPingRequest pingRequest;
+		private final ProbeCallback callback;
+
+		Target(InetAddress addr, int timeout, ProbeCallback callback) {
+			this.callback = callback;
+			pingRequest = IcmpPingUtil.createIcmpPingRequest();
+			pingRequest.setHost(addr.getHostAddress());
+			pingRequest.setTimeout(timeout);
+		}
+
+		@Override
+		public boolean probe() {
+			return executor.submit(this);
+		}
+
+		/** Executes blocking ICMP4J request (on executor thread) */
+		@Override
+		public void run() {
+			IcmpPingResponse response;
+			try {
+				response = IcmpPingUtil.executePingRequest(pingRequest);
+			} catch (Throwable t) {
+				callback.onFailure(t);
+				return;
+			}
+			log.log(Level.FINE, IcmpPingUtil.formatResponse(response));
+			callback.onSuccess(new ProbeResult(response.getSuccessFlag(),
+					response.getTimeoutFlag(), response.getRtt(), response
+							.getErrorMessage()));
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package de.steinerix.ping_monitor.ping;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * JNA mapping of the Linux libc socket functions used by
+ * {@link DatagramBackend}. Structs are passed as byte arrays in the layout
+ * expected by Linux.
+ *
+ * @author usr
+ *
+ */
+interface LibC extends Library {
+	LibC INSTANCE = (LibC) Native.loadLibrary("c", LibC.class);
+
+	int AF_INET = 2;
+	int SOCK_DGRAM = 2;
+	int IPPROTO_ICMP = 1;
+	int SOL_SOCKET = 1;
+	int SO_RCVBUF = 8;
+	int SO_SNDBUF = 7;
+	int MSG_DONTWAIT = 0x40;
+	short POLLIN = 0x1;
+
+	int EINTR = 4;
+
+	int socket(int domain, int type, int protocol);
+
+	int setsockopt(int fd, int level, int name, int[] value, int length);
+
+	int bind(int fd, byte[] addr, int length);
+
+	int getsockname(int fd, byte[] addr, int[] length);
+
+	NativeLong sendto(int fd, byte[] buffer, NativeLong length, int flags,
+			byte[] addr, int addrLength);
+
+	NativeLong recvfrom(int fd, byte[] buffer, NativeLong length, int flags,
+			Pointer addr, Pointer addrLength);
+
+	int poll(byte[] fds, NativeLong count, int timeout);
+
+	int close(int fd);
+
+	String strerror(int errno);
+}
@@ -1,50 +1,284 @@
 package de.steinerix.ping_monitor.ping;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.icmp4j.IcmpPingUtil;
-
-import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.config.ProbeConfig;
+import de.steinerix.ping_monitor.stats.DurationRecorder;
 
 /**
- * Pings all registered devices according to their interval time.
- * 
+ * Pings all registered devices according to their interval time. Devices are
+ * kept in a queue ordered by their next due time, the driver thread sleeps
+ * until the earliest deadline is reached.
+ * <br />
+ * Devices with the same interval form an interval class. The first probes of
+ * a class are spread evenly across the interval (0, 1/2, 1/4, 3/4, 1/8, …
+ * of the interval after the first device of the class was registered), so
+ * devices don't fire at once and stay evenly phased as devices are added. An
+ * optional random jitter shifts each device's phase additionally.
+ * <br />
+ * Devices with adaptive interval change their period while registered. The
+ * driver counts sent probes against the probes the configured intervals
+ * would have required (see {@link #getProbeSavings()}).
+ * <br />
+ * The driver instruments itself: the scheduling lag (time a probe is sent
+ * after its deadline), the probes in flight and the time from sending a probe
+ * to its result, so an overloaded monitor can be told apart from a slow
+ * network.
+ *
  * @author usr
  *
  */
 public class PingDriver implements Runnable {
 	private final Logger log = Logger.getLogger(PingDriver.class.getName());
-	private List<Device> devices = new ArrayList<Device>();
+	private final DeadlineQueue<Device> schedule = new DeadlineQueue<Device>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition scheduleChanged = lock.newCondition();
+	private final ProbeBackend backend;
+	private final Map<Long, Phase> phases = new HashMap<Long, Phase>();
+	private final double jitter;
+	private final Random random = new Random();
+	private final LongAdder probes = new LongAdder();
+	private final DoubleAdder nominalProbes = new DoubleAdder();
+	private final DurationRecorder schedulingLag = new DurationRecorder();
+	private final DurationRecorder probeLatency = new DurationRecorder();
+	private final LongAdder inFlight = new LongAdder();
+	private long[] dueDeadlines = new long[64]; // of due devices, driver thread
+	private volatile boolean running = true;
 
-	/** The PingDriver instance starts automatically */
+	/**
+	 * The PingDriver instance starts automatically and pings with ICMP4J
+	 * (default ProbeExecutor settings)
+	 */
 	public PingDriver() {
-		Thread t = new Thread(this);
+		this(new Icmp4jBackend(new ProbeExecutor(ProbeConfig.DEFAULT_THREADS,
+				ProbeConfig.DEFAULT_QUEUE_CAPACITY)));
+	}
+
+	/**
+	 * The PingDriver instance starts automatically, registered devices should
+	 * be constructed with the provided backend (see {@link #getProbeBackend()})
+	 */
+	public PingDriver(ProbeBackend backend) {
+		this(backend, 0);
+	}
+
+	/**
+	 * The PingDriver instance starts automatically, registered devices should
+	 * be constructed with the provided backend (see {@link #getProbeBackend()})
+	 * 
+	 * @param jitter
+	 *            Random shift of a device's first probe as fraction of its
+	 *            interval (0 … 1)
+	 */
+	public PingDriver(ProbeBackend backend, double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("jitter should be in [0, 1]");
+		}
+		this.backend = backend;
+		this.jitter = jitter;
+		Thread t = new Thread(this, "PingDriver");
 		t.start();
 	}
 
-	/** Register a device in PingDriver */
+	/** Returns the backend which sends the probes */
+	public ProbeBackend getProbeBackend() {
+		return backend;
+	}
+
+	/** Returns the number of registered devices */
+	public int getDeviceCount() {
+		lock.lock();
+		try {
+			return schedule.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Returns the number of sent probes */
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	/**
+	 * Returns the number of probes which would have been sent at the
+	 * configured intervals in the same time
+	 */
+	public double getNominalProbes() {
+		return nominalProbes.sum();
+	}
+
+	/**
+	 * Returns the fraction of probes saved by adaptive intervals (0 … 1,
+	 * negative if devices probed faster than configured)
+	 */
+	public double getProbeSavings() {
+		double nominal = nominalProbes.sum();
+		return nominal == 0 ? 0 : 1 - probes.sum() / nominal;
+	}
+
+	/** Returns the delays between deadline and sending of probes (ns) */
+	public DurationRecorder getSchedulingLag() {
+		return schedulingLag;
+	}
+
+	/** Returns the times from sending a probe to its result (ns) */
+	public DurationRecorder getProbeLatency() {
+		return probeLatency;
+	}
+
+	/** Returns the number of probes sent whose result is outstanding */
+	public long getProbesInFlight() {
+		return Math.max(0, inFlight.sum());
+	}
+
+	/** Called by a device before it hands a probe to the backend */
+	void probeSent() {
+		inFlight.increment();
+	}
+
+	/** Called by a device if the backend rejected its probe */
+	void probeRejected() {
+		inFlight.decrement();
+	}
+
+	/** Called by a device on the result of a probe sent at time sent (ns) */
+	void probeCompleted(long sent) {
+		inFlight.decrement();
+		probeLatency.record(System.nanoTime() - sent);
+	}
+
+	/** Stops the ping driver and its backend */
+	public void shutdown() {
+		log.log(Level.INFO, "Probes sent: " + getProbes()
+				+ ", at configured intervals: " + (long) getNominalProbes()
+				+ String.format(" (savings: %.1f%%)", 100 * getProbeSavings()));
+		running = false;
+		lock.lock();
+		try {
+			scheduleChanged.signal();
+		} finally {
+			lock.unlock();
+		}
+		backend.shutdown();
+	}
+
+	/**
+	 * Register a device in PingDriver. The device is due within its interval
+	 * according to its phase in the interval class.
+	 */
 	public void registerDevice(Device device) {
-		if (!devices.contains(device)) {
-			synchronized (this) {
-				devices.add(device);
-				log.log(Level.INFO, "Device registered in PingDriver ("
-						+ device.getConfig().getName() + ")");
+		long interval = TimeUnit.MILLISECONDS.toNanos(device.getInterval());
+		lock.lock();
+		try {
+			if (!schedule.contains(device)) {
+				schedule.add(device, firstDeadline(interval, System.nanoTime()),
+						interval);
+				device.setDriver(this);
+				scheduleChanged.signal();
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Device registered in PingDriver ("
+							+ device.getConfig().getName() + ")");
+				}
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	/** De-register a device from PingDriver. */
-	synchronized public boolean deregisterDevice(Device device) {
-		if (devices.remove(device)) {
-			log.log(Level.INFO, "Device deregistered from PingDriver ("
-					+ device.getConfig().getName() + ")");
-			return true;
-		} else {
-			return false;
+	public boolean deregisterDevice(Device device) {
+		lock.lock();
+		try {
+			if (schedule.remove(device)) {
+				device.setDriver(null);
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Device deregistered from PingDriver ("
+							+ device.getConfig().getName() + ")");
+				}
+				return true;
+			} else {
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Changes the interval of a registered device. A shorter interval takes
+	 * effect immediately (next probe at the latest one interval from now), a
+	 * longer one after the next probe.
+	 */
+	void changeInterval(Device device, int intervalMs) {
+		long interval = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+		lock.lock();
+		try {
+			long deadline = schedule.getDeadline(device);
+			if (deadline == Long.MAX_VALUE) {
+				return; // deregistered meanwhile
+			}
+			long fast = System.nanoTime() + interval;
+			if (fast - deadline < 0) {
+				deadline = fast;
+			}
+			schedule.reschedule(device, deadline, interval);
+			scheduleChanged.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the first deadline of a device with provided interval (ns), the
+	 * lock must be held
+	 */
+	private long firstDeadline(long interval, long now) {
+		Phase phase = phases.get(interval);
+		if (phase == null) {
+			phase = new Phase(now);
+			phases.put(interval, phase);
+		}
+		double fraction = spread(phase.count++);
+		if (jitter > 0) {
+			fraction += jitter * random.nextDouble();
+			fraction -= Math.floor(fraction);
+		}
+
+		long deadline = phase.epoch + (long) (fraction * interval);
+		if (deadline - now < 0) { // class started earlier: next phase slot
+			deadline += ((now - deadline) / interval + 1) * interval;
+		}
+		return deadline;
+	}
+
+	/**
+	 * Returns the index-th element of the van der Corput sequence (0, 1/2,
+	 * 1/4, 3/4, 1/8, …), each prefix of it is evenly spread over [0, 1)
+	 */
+	static double spread(int index) {
+		return (Integer.reverse(index) & 0xffffffffL) / 4294967296.0;
+	}
+
+	/** Start time and number of registered devices of an interval class */
+	private static class Phase {
+		private final long epoch;
+		private int count = 0;
+
+		Phase(long epoch) {
+			this.epoch = epoch;
 		}
 	}
 
@@ -53,34 +287,61 @@ public class PingDriver implements Runnable {
 	 */
 	@Override
 	public void run() {
-		// init IcmpPingUtil subsystem with a first, blocking ping.
-		IcmpPingUtil.executePingRequest("127.0.0.1", 40, 300);
-
-		while (true) {
+		List<Device> dueDevices = new ArrayList<Device>();
+		while (running) {
 			try {
-				Thread.sleep(10); // let the CPU rest for a while
+				awaitDueDevices(dueDevices);
 			} catch (InterruptedException e) {
 				log.log(Level.INFO, "PingDriver has been interrupted.", e);
 			}
 
-			// ping devices
-			synchronized (this) {
-				for (Iterator<Device> iterator = devices.iterator(); iterator
-						.hasNext();) {
-					Device device = iterator.next();
-					try {
-						Thread.sleep(10);
-					} catch (InterruptedException e) {
-						log.log(Level.INFO,
-								"SyncPingDriver has been interrupted.", e);
-					}
-					DeviceConfig config = device.getConfig();
-					if (device.getLastPing() + config.getInterval() < System
-							.currentTimeMillis()) {
-						device.ping();
+			// ping devices outside of lock, registration must not wait on it
+			for (int i = 0; i < dueDevices.size(); i++) {
+				Device device = dueDevices.get(i);
+				schedulingLag.record(System.nanoTime() - dueDeadlines[i]);
+				AdaptiveInterval interval = device.getAdaptiveInterval();
+				probes.increment();
+				nominalProbes.add(interval.get()
+						/ (double) interval.getNominal());
+				device.ping();
+			}
+			dueDevices.clear();
+		}
+	}
+
+	/**
+	 * Blocks until at least one device is due and moves all due devices to
+	 * the provided list, their deadlines to dueDeadlines.
+	 */
+	private void awaitDueDevices(List<Device> dueDevices)
+			throws InterruptedException {
+		lock.lock();
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				long deadline = schedule.peekDeadline();
+				Device device;
+				while ((device = schedule.pollDue(now)) != null) {
+					if (dueDevices.size() == dueDeadlines.length) {
+						dueDeadlines = Arrays.copyOf(dueDeadlines,
+								2 * dueDeadlines.length);
 					}
+					dueDeadlines[dueDevices.size()] = deadline;
+					dueDevices.add(device);
+					deadline = schedule.peekDeadline();
+				}
+				if (!dueDevices.isEmpty()) {
+					return;
+				}
+
+				if (schedule.isEmpty()) {
+					scheduleChanged.await();
+				} else {
+					scheduleChanged.awaitNanos(schedule.peekDeadline() - now);
 				}
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 }
@@ -0,0 +1,29 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.net.InetAddress;
+
+/**
+ * A ProbeBackend sends probes (e. g. ICMP echo requests) to hosts. Devices
+ * only interact with the backend through this interface, which allows to
+ * replace the network by a simulation.
+ *
+ * @author usr
+ *
+ */
+public interface ProbeBackend {
+	/**
+	 * Prepares a host for probing
+	 *
+	 * @param addr
+	 *            address of host
+	 * @param timeout
+	 *            time in ms to wait for a reply
+	 * @param callback
+	 *            receives the result of each probe
+	 */
+	public ProbeTarget createTarget(InetAddress addr, int timeout,
+			ProbeCallback callback);
+
+	/** Stops the backend, pending probes may not be reported anymore */
+	public void shutdown();
+}
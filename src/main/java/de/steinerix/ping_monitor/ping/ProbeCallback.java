@@ -0,0 +1,27 @@
+package de.steinerix.ping_monitor.ping;
+
+/**
+ * Receives the outcome of a probe from a {@link ProbeTarget}. Backends should
+ * report replies and timeouts by {@link #onReply(long)} and
+ * {@link #onTimeout()}, which don't require a result object.
+ *
+ * @author usr
+ *
+ */
+public interface ProbeCallback {
+	/** Called with the result of a probe (including timeouts) */
+	public void onSuccess(ProbeResult result);
+
+	/** Called if the backend couldn't execute or evaluate a probe */
+	public void onFailure(Throwable throwable);
+
+	/** Called with the round trip time in ns of a received reply */
+	public default void onReply(long rtt) {
+		onSuccess(ProbeResult.reply(rtt / 1000000.0));
+	}
+
+	/** Called if no reply was received within timeout */
+	public default void onTimeout() {
+		onSuccess(ProbeResult.timeout());
+	}
+}
@@ -0,0 +1,184 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes probes on a fixed number of worker threads fed by a bounded queue.
+ * <br />
+ * Submitting never blocks: if the queue is full the probe is rejected and
+ * {@link #submit(Runnable)} returns false, so a slow network can neither stall
+ * the caller nor spawn an unbounded number of threads.
+ *
+ * @author usr
+ *
+ */
+public class ProbeExecutor {
+	private final Logger log = Logger.getLogger(ProbeExecutor.class.getName());
+	private final BlockingQueue<Runnable> queue;
+	private final Thread[] workers;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxQueueDepth = new AtomicInteger();
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder serviceTime = new LongAdder();
+	private final AtomicLong maxServiceTime = new AtomicLong();
+
+	private volatile boolean saturated = false;
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param parallelism
+	 *            number of probes executed at the same time (worker threads)
+	 * @param queueCapacity
+	 *            number of probes which may wait for a free worker
+	 */
+	public ProbeExecutor(int parallelism, int queueCapacity) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism should be > 0");
+		}
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queueCapacity should be > 0");
+		}
+		queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+		workers = new Thread[parallelism];
+		for (int i = 0; i < parallelism; i++) {
+			workers[i] = new Thread(new Worker(), "ProbeExecutor-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		log.log(Level.INFO, "ProbeExecutor started (parallelism: "
+				+ parallelism + ", queue capacity: " + queueCapacity + ")");
+	}
+
+	/**
+	 * Queues a probe for execution. Returns false if the probe was rejected
+	 * because all workers are busy and the queue is full (or the executor is
+	 * shut down).
+	 */
+	public boolean submit(Runnable probe) {
+		if (shutdown) {
+			return false;
+		}
+		if (queue.offer(probe)) {
+			submitted.increment();
+			updateMaxQueueDepth(queue.size());
+			if (saturated) {
+				saturated = false;
+				log.log(Level.INFO, "ProbeExecutor accepts probes again");
+			}
+			return true;
+		}
+
+		rejected.increment();
+		if (!saturated) { // warn once per saturation period
+			saturated = true;
+			log.log(Level.WARNING, "ProbeExecutor saturated, probes are "
+					+ "rejected (in flight: " + inFlight.get() + ", queued: "
+					+ queue.size() + ")");
+		}
+		return false;
+	}
+
+	/** Stops all workers. Queued probes are discarded. */
+	public void shutdown() {
+		shutdown = true;
+		queue.clear();
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/** Returns the number of worker threads */
+	public int getParallelism() {
+		return workers.length;
+	}
+
+	/** Returns the number of probes waiting for a free worker */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/** Returns the highest observed number of waiting probes */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/** Returns the number of probes currently executed */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/** Returns the number of accepted probes */
+	public long getSubmitted() {
+		return submitted.sum();
+	}
+
+	/** Returns the number of finished probes */
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	/** Returns the number of rejected probes */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/** Returns the mean service time of finished probes in ns */
+	public long getMeanServiceTime() {
+		long count = completed.sum();
+		return count == 0 ? 0 : serviceTime.sum() / count;
+	}
+
+	/** Returns the longest service time of a finished probe in ns */
+	public long getMaxServiceTime() {
+		return maxServiceTime.get();
+	}
+
+	private void updateMaxQueueDepth(int depth) {
+		int max;
+		while (depth > (max = maxQueueDepth.get())) {
+			if (maxQueueDepth.compareAndSet(max, depth)) {
+				return;
+			}
+		}
+	}
+
+	/** Takes probes from queue and executes them */
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			while (!shutdown) {
+				Runnable probe;
+				try {
+					probe = queue.take();
+				} catch (InterruptedException e) {
+					continue; // shutdown is checked by loop
+				}
+
+				inFlight.incrementAndGet();
+				long start = System.nanoTime();
+				try {
+					probe.run();
+				} catch (Throwable t) {
+					log.log(Level.SEVERE, "Probe terminated unexpectedly", t);
+				} finally {
+					long time = System.nanoTime() - start;
+					inFlight.decrementAndGet();
+					serviceTime.add(time);
+					completed.increment();
+					if (time > maxServiceTime.get()) {
+						maxServiceTime.accumulateAndGet(time, Math::max);
+					}
+				}
+			}
+		}
+	}
+}
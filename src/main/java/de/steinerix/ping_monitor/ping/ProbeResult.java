@@ -0,0 +1,84 @@
+package de.steinerix.ping_monitor.ping;
+
+/**
+ * Outcome of a single probe, independent of the {@link ProbeBackend} which
+ * executed it. A probe succeeded if the success flag is set and the timeout
+ * flag isn't; a timeout sets the timeout flag, any other failure (e. g. host
+ * not reachable) sets neither flag.
+ *
+ * @author usr
+ *
+ */
+public class ProbeResult {
+	private static final ProbeResult TIMEOUT = new ProbeResult(false, true,
+			0, "timeout");
+
+	private final boolean successFlag;
+	private final boolean timeoutFlag;
+	private final double rtt;
+	private final String errorMessage;
+
+	/**
+	 * @param successFlag
+	 *            true if a reply was received
+	 * @param timeoutFlag
+	 *            true if no reply was received within timeout
+	 * @param rtt
+	 *            round trip time in ms
+	 * @param errorMessage
+	 *            error description or null
+	 */
+	public ProbeResult(boolean successFlag, boolean timeoutFlag, double rtt,
+			String errorMessage) {
+		this.successFlag = successFlag;
+		this.timeoutFlag = timeoutFlag;
+		this.rtt = rtt;
+		this.errorMessage = errorMessage;
+	}
+
+	/** Returns result of a received reply with provided rtt in ms */
+	public static ProbeResult reply(double rtt) {
+		return new ProbeResult(true, false, rtt, null);
+	}
+
+	/** Returns result of a probe which wasn't answered within timeout */
+	public static ProbeResult timeout() {
+		return TIMEOUT;
+	}
+
+	/** Returns result of a probe which failed with provided reason */
+	public static ProbeResult unreachable(String errorMessage) {
+		return new ProbeResult(false, false, 0, errorMessage);
+	}
+
+	/** True if a reply was received */
+	public boolean getSuccessFlag() {
+		return successFlag;
+	}
+
+	/** True if no reply was received within timeout */
+	public boolean getTimeoutFlag() {
+		return timeoutFlag;
+	}
+
+	/** Round trip time in ms (0 if no reply was received) */
+	public double getRtt() {
+		return rtt;
+	}
+
+	/** Error description or null */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	@Override
+	public String toString() {
+		if (successFlag && !timeoutFlag) {
+			return "reply: rtt=" + rtt + "ms";
+		} else if (timeoutFlag) {
+			return "timeout";
+		} else {
+			return "error: " + errorMessage;
+		}
+	}
+}
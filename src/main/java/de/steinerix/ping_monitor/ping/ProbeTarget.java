@@ -0,0 +1,18 @@
+package de.steinerix.ping_monitor.ping;
+
+/**
+ * A host prepared for probing by a {@link ProbeBackend}. Backend specific
+ * request objects are allocated once per target and reused for each probe.
+ *
+ * @author usr
+ *
+ */
+public interface ProbeTarget {
+	/**
+	 * Sends a single probe. The result is reported exactly once to the
+	 * target's {@link ProbeCallback}, possibly on another thread. Returns false
+	 * if the backend can't accept the probe right now (back-pressure), the
+	 * callback isn't invoked in that case.
+	 */
+	public boolean probe();
+}
@@ -0,0 +1,202 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.net.InetAddress;
+import java.util.BitSet;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.steinerix.ping_monitor.config.DeviceSettings;
+import de.steinerix.ping_monitor.config.RangeConfig;
+
+/**
+ * Sweeps the hosts of a {@link RangeConfig} which haven't answered yet: each
+ * of them is probed once per interval, spread evenly across the interval. A
+ * host which answers is handed to the listener once, which usually turns it
+ * into a {@link Device} monitored as any configured device; it isn't probed
+ * by the sweep anymore.
+ * <br />
+ * Hosts which never answered are kept as a clear bit only. A probe target is
+ * created for each probe of such a host and dropped with its result, so a
+ * /16 range doesn't hold 65k targets (or ICMP4J requests) up front.
+ *
+ * @author usr
+ *
+ */
+public class RangeSweep {
+	static final long TICK = 100; // ms
+	private static final int DEFAULT_TIMEOUT = 5000; // ms
+
+	/**
+	 * Receives hosts which answered (on a thread of the probe backend)
+	 *
+	 * @author usr
+	 *
+	 */
+	public interface Listener {
+		public void hostFound(RangeSweep sweep, int index);
+	}
+
+	private final Logger log = Logger.getLogger(RangeSweep.class.getName());
+	private final RangeConfig range;
+	private final ProbeBackend backend;
+	private final Listener listener;
+	private final int timeout; // ms
+	private final int interval; // ms
+	private final BitSet found; // guarded by this
+	private int foundCount = 0; // guarded by this
+	private final LongAdder probes = new LongAdder();
+	private Timer timer;
+	private volatile boolean running = false;
+
+	// sweep state, timer thread only
+	private int cursor = 0;
+	private double credit = 0;
+
+	public RangeSweep(RangeConfig range, ProbeBackend backend,
+			Listener listener) {
+		if (range == null || backend == null || listener == null) {
+			throw new IllegalArgumentException("argument may not be null");
+		}
+		this.range = range;
+		this.backend = backend;
+		this.listener = listener;
+		DeviceSettings settings = range.getSettings();
+		timeout = settings.getTimeout() != 0 ? settings.getTimeout() : Math
+				.min(settings.getInterval(), DEFAULT_TIMEOUT);
+		interval = settings.getInterval();
+		found = new BitSet(range.size());
+	}
+
+	/** Returns the range of this sweep */
+	public RangeConfig getRange() {
+		return range;
+	}
+
+	/** Returns the number of probes sent so far */
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	/** Returns the number of hosts which answered */
+	public synchronized int getFoundCount() {
+		return foundCount;
+	}
+
+	/** Returns true if the host at index answered */
+	public synchronized boolean isFound(int index) {
+		return found.get(index);
+	}
+
+	/** Starts sweeping on a daemon thread */
+	public synchronized void start() {
+		if (timer != null) {
+			throw new IllegalStateException("RangeSweep already started");
+		}
+		running = true;
+		timer = new Timer("RangeSweep", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) { // would cancel the timer
+					log.log(Level.SEVERE, "Sweep of range " + range.getName()
+							+ " failed, retried next tick", e);
+				}
+			}
+		}, 0, TICK);
+		log.log(Level.INFO, "Sweeping " + range.size() + " hosts of range "
+				+ range.getName());
+	}
+
+	/** Stops sweeping, outstanding results are ignored */
+	public synchronized void stop() {
+		running = false;
+		if (timer != null) {
+			timer.cancel();
+		}
+	}
+
+	/**
+	 * Probes the next hosts which haven't answered, as many as are due per
+	 * tick, so each of them is probed once per interval. Hosts rejected by
+	 * the backend are probed next tick.
+	 */
+	void tick() {
+		double probesPerTick;
+		synchronized (this) {
+			probesPerTick = (range.size() - foundCount) * TICK
+					/ (double) interval;
+		}
+		credit = Math.min(credit + probesPerTick, probesPerTick + 1);
+		while (credit >= 1 && running) {
+			int index;
+			synchronized (this) {
+				if (foundCount == range.size()) {
+					credit = 0;
+					return;
+				}
+				index = found.nextClearBit(cursor);
+				if (index >= range.size()) { // next pass
+					index = found.nextClearBit(0);
+				}
+			}
+			InetAddress addr = range.getAddr(index);
+			if (!backend.createTarget(addr, timeout, new HostProbe(index))
+					.probe()) {
+				return; // back-pressure: backend saturated
+			}
+			probes.increment();
+			cursor = index + 1;
+			credit--;
+		}
+	}
+
+	/** Marks the host at index as found and tells the listener once */
+	private void found(int index) {
+		synchronized (this) {
+			if (!running || found.get(index)) {
+				return;
+			}
+			found.set(index);
+			foundCount++;
+		}
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Host of range " + range.getName()
+					+ " answered: " + range.getAddr(index).getHostAddress());
+		}
+		listener.hostFound(this, index);
+	}
+
+	/** Receives the result of a single probe of a host */
+	private class HostProbe implements ProbeCallback {
+		private final int index;
+
+		HostProbe(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void onReply(long rtt) {
+			found(index);
+		}
+
+		@Override
+		public void onTimeout() {
+		}
+
+		@Override
+		public void onSuccess(ProbeResult result) {
+			if (result.getSuccessFlag() && !result.getTimeoutFlag()) {
+				found(index);
+			}
+		}
+
+		@Override
+		public void onFailure(Throwable throwable) {
+		}
+	}
+}
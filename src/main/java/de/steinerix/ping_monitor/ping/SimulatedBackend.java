@@ -0,0 +1,287 @@
+package de.steinerix.ping_monitor.ping;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ProbeBackend which simulates hosts in process without sending any packet.
+ * It allows to load test the pipeline (scheduler, alarm logic, listeners and
+ * GUI) with a huge number of virtual hosts.
+ * <br />
+ * Each host gets a base RTT between minRtt and maxRtt derived from its
+ * address. Each probe multiplies the base RTT with a log-normal distributed
+ * factor (sigma = jitter). A probe is lost with the loss probability (reported
+ * as timeout after the target's timeout) and fails with the unreachable
+ * probability. Replies slower than the timeout are reported as timeout.
+ * Results are delivered after the simulated RTT by the backend's threads.
+ *
+ * @author usr
+ *
+ */
+public class SimulatedBackend implements ProbeBackend {
+	private static final long TIMEOUT = -1;
+	private static final long UNREACHABLE = -2;
+
+	private final Logger log = Logger.getLogger(SimulatedBackend.class
+			.getName());
+	private final DelayQueue<Target> pending = new DelayQueue<Target>();
+	private final Thread[] threads;
+	private final Random random;
+
+	private final double minRtt;
+	private final double maxRtt;
+	private final double jitter;
+	private final double loss;
+	private final double unreachable;
+
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder replies = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	private volatile boolean shutdown = false;
+
+	public static class Builder {
+		private double minRtt = 1;
+		private double maxRtt = 50;
+		private double jitter = 0.1;
+		private double loss = 0;
+		private double unreachable = 0;
+		private int threads = 1;
+		private long seed = System.nanoTime();
+
+		/** Base RTT of hosts in ms is uniformly distributed in [min, max] */
+		public Builder rtt(double min, double max) {
+			this.minRtt = min;
+			this.maxRtt = max;
+			return this;
+		}
+
+		/** Sigma of the log-normal per probe RTT factor (0 = constant RTT) */
+		public Builder jitter(double sigma) {
+			this.jitter = sigma;
+			return this;
+		}
+
+		/** Probability of a lost probe (reported as timeout) */
+		public Builder loss(double probability) {
+			this.loss = probability;
+			return this;
+		}
+
+		/** Probability of a probe failing with host not reachable */
+		public Builder unreachable(double probability) {
+			this.unreachable = probability;
+			return this;
+		}
+
+		/** Number of threads delivering results to callbacks */
+		public Builder threads(int threads) {
+			this.threads = threads;
+			return this;
+		}
+
+		/** Seed of the random generator (for reproducible runs) */
+		public Builder seed(long seed) {
+			this.seed = seed;
+			return this;
+		}
+
+		/** build SimulatedBackend */
+		public SimulatedBackend build() {
+			return new SimulatedBackend(this);
+		}
+	}
+
+	private SimulatedBackend(Builder builder) {
+		if (builder.minRtt < 0 || builder.maxRtt < builder.minRtt) {
+			throw new IllegalArgumentException(
+					"rtt: 0 <= min <= max required");
+		}
+		if (builder.jitter < 0) {
+			throw new IllegalArgumentException("jitter should be >= 0");
+		}
+		checkProbability(builder.loss, "loss");
+		checkProbability(builder.unreachable, "unreachable");
+		if (builder.threads < 1) {
+			throw new IllegalArgumentException("threads should be > 0");
+		}
+
+		minRtt = builder.minRtt;
+		maxRtt = builder.maxRtt;
+		jitter = builder.jitter;
+		loss = builder.loss;
+		unreachable = builder.unreachable;
+		random = new Random(builder.seed);
+
+		threads = new Thread[builder.threads];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Deliverer(), "SimulatedBackend-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		log.log(Level.INFO, "Simulated probe backend started (rtt: " + minRtt
+				+ "-" + maxRtt + "ms, jitter: " + jitter + ", loss: " + loss
+				+ ", unreachable: " + unreachable + ")");
+	}
+
+	private static void checkProbability(double value, String name) {
+		if (value < 0 || value > 1) {
+			throw new IllegalArgumentException(name
+					+ " should be a probability (0 … 1)");
+		}
+	}
+
+	@Override
+	public ProbeTarget createTarget(InetAddress addr, int timeout,
+			ProbeCallback callback) {
+		return new Target(baseRtt(addr), timeout, callback);
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		pending.clear();
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	/** Returns the number of accepted probes */
+	public long getProbes() {
+		return probes.sum();
+	}
+
+	/** Returns the number of delivered replies */
+	public long getReplies() {
+		return replies.sum();
+	}
+
+	/** Returns the number of delivered timeouts */
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	/** Returns the number of delivered failures (host not reachable) */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/** Returns the number of probes waiting for their result */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/** Derives a stable base RTT in [minRtt, maxRtt] from the address */
+	private double baseRtt(InetAddress addr) {
+		int hash = 0;
+		for (byte b : addr.getAddress()) {
+			hash = 31 * hash + (b & 0xff);
+		}
+		hash ^= hash >>> 16; // spread bits (as HashMap does)
+		hash *= 0x45d9f3b;
+		hash ^= hash >>> 16;
+		double fraction = (hash & 0x7fffffff) / (double) Integer.MAX_VALUE;
+		return minRtt + fraction * (maxRtt - minRtt);
+	}
+
+	/** A virtual host, reused for each of its probes */
+	private class Target implements ProbeTarget, Delayed {
+		private final double baseRtt;
+		private final int timeout;
+		private final ProbeCallback callback;
+		private final AtomicBoolean inFlight = new AtomicBoolean();
+
+		// outcome of current probe: rtt in ns, TIMEOUT or UNREACHABLE
+		private long due;
+		private long rtt;
+
+		Target(double baseRtt, int timeout, ProbeCallback callback) {
+			this.baseRtt = baseRtt;
+			this.timeout = timeout;
+			this.callback = callback;
+		}
+
+		@Override
+		public boolean probe() {
+			if (shutdown || !inFlight.compareAndSet(false, true)) {
+				return false; // one probe per target at a time
+			}
+			double delay;
+			double chance = random.nextDouble();
+			if (chance < unreachable) {
+				rtt = UNREACHABLE;
+				delay = 0;
+			} else if (chance < unreachable + loss) {
+				rtt = TIMEOUT;
+				delay = timeout;
+			} else {
+				delay = baseRtt * Math.exp(jitter * random.nextGaussian());
+				if (delay > timeout) {
+					rtt = TIMEOUT;
+					delay = timeout;
+				} else {
+					rtt = (long) (delay * 1000000);
+				}
+			}
+			due = System.nanoTime() + (long) (delay * 1000000);
+			probes.increment();
+			pending.add(this);
+			return true;
+		}
+
+		/** Hands the current result to the callback (without allocation) */
+		void deliver() {
+			long delivered = rtt;
+			inFlight.set(false);
+			if (delivered == TIMEOUT) {
+				timeouts.increment();
+				callback.onTimeout();
+			} else if (delivered == UNREACHABLE) {
+				failures.increment();
+				callback.onSuccess(ProbeResult.unreachable("host not reachable"));
+			} else {
+				replies.increment();
+				callback.onReply(delivered);
+			}
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			long diff = due - ((Target) other).due;
+			return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+		}
+	}
+
+	/** Delivers results as soon as their simulated RTT elapsed */
+	private class Deliverer implements Runnable {
+		@Override
+		public void run() {
+			while (!shutdown) {
+				Target target;
+				try {
+					target = pending.take();
+				} catch (InterruptedException e) {
+					continue; // shutdown is checked by loop
+				}
+				try {
+					target.deliver();
+				} catch (Throwable t) {
+					log.log(Level.SEVERE, "Callback terminated unexpectedly", t);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package de.steinerix.ping_monitor.stats;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number, sum and maximum of durations recorded by any number of threads.
+ * Counts are striped ({@link LongAdder}), so recording costs about an
+ * uncontended compare-and-set and doesn't allocate. There are two independent
+ * maxima, so two readers can't reset each other's period: one covers the time
+ * since the last {@link #resetMax()} (e.g. a report period), the other the
+ * time since the last {@link #getAndResetWindowMax()} (e.g. a scrape
+ * interval).
+ *
+ * @author usr
+ *
+ */
+public class DurationRecorder {
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator windowMax = new LongAccumulator(Math::max, 0);
+
+	/** Records a duration in ns (negative durations count as 0) */
+	public void record(long duration) {
+		if (duration < 0) {
+			duration = 0;
+		}
+		count.increment();
+		total.add(duration);
+		max.accumulate(duration);
+		windowMax.accumulate(duration);
+	}
+
+	/** Returns the number of recorded durations */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/** Returns the sum of all recorded durations in ns */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/** Returns the longest duration in ns since the last reset of the maximum */
+	public long getMax() {
+		return max.get();
+	}
+
+	/** Starts a new period for the maximum */
+	public void resetMax() {
+		max.reset();
+	}
+
+	/**
+	 * Returns the longest duration in ns since the last call and starts a new
+	 * window (independent of {@link #resetMax()})
+	 */
+	public long getAndResetWindowMax() {
+		return windowMax.getThenReset();
+	}
+}
@@ -0,0 +1,216 @@
+package de.steinerix.ping_monitor.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fixed-memory latency histogram with logarithmic buckets (in the manner of
+ * DDSketch): each quantile is returned with a relative error of at most
+ * ACCURACY between MIN_VALUE and MAX_VALUE. Sketches are merged by adding
+ * their bucket counts, so quantiles of a group of devices or of a longer time
+ * span need no raw data.
+ * <br />
+ * Only the buckets between the smallest and largest recorded RTT are kept, so
+ * a sketch is small for a typical device; recording doesn't allocate once
+ * this range is covered. The class isn't thread safe.
+ *
+ * @author usr
+ *
+ */
+public class LatencySketch {
+	public static final double ACCURACY = 0.02;
+	public static final long MIN_VALUE = 10000; // ns
+	public static final long MAX_VALUE = 100000000000L; // ns
+	private static final double GAMMA = (1 + ACCURACY) / (1 - ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+	static final int BUCKETS = (int) Math.ceil(Math.log((double) MAX_VALUE
+			/ MIN_VALUE) / LOG_GAMMA) + 1;
+
+	private static final int[] NO_COUNTS = new int[0];
+	private static final int INITIAL_BUCKETS = 16;
+
+	// counts of buckets [offset, offset + counts.length), grown on demand
+	private int[] counts = NO_COUNTS;
+	private int offset;
+	private long count;
+
+	/** Records an RTT in ns */
+	public void record(long rtt) {
+		recordBucket(index(rtt));
+	}
+
+	/** Records an RTT by its bucket (see {@link #index(long)}) */
+	void recordBucket(int index) {
+		cover(index);
+		counts[index - offset]++;
+		count++;
+	}
+
+	/** Adds the counts of other to this sketch */
+	public void merge(LatencySketch other) {
+		if (other.count == 0) {
+			return;
+		}
+		cover(other.offset);
+		cover(other.offset + other.counts.length - 1);
+		int shift = other.offset - offset;
+		for (int i = 0; i < other.counts.length; i++) {
+			counts[shift + i] += other.counts[i];
+		}
+		count += other.count;
+	}
+
+	/** Removes the counts of other, which were merged before */
+	public void subtract(LatencySketch other) {
+		if (other.count == 0) {
+			return;
+		}
+		int shift = other.offset - offset;
+		for (int i = 0; i < other.counts.length; i++) {
+			if (other.counts[i] != 0) { // range of other may be wider
+				counts[shift + i] -= other.counts[i];
+			}
+		}
+		count -= other.count;
+	}
+
+	/** Removes all counts (the memory of the buckets is kept) */
+	public void clear() {
+		if (count != 0) {
+			Arrays.fill(counts, 0);
+			count = 0;
+		}
+	}
+
+	/** Returns the number of recorded RTTs */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the quantile q (0 … 1) in ns, or 0 if the sketch is empty. The
+	 * cost depends on the number of buckets only.
+	 */
+	public long quantile(double q) {
+		if (q < 0 || q > 1) {
+			throw new IllegalArgumentException("q should be in [0, 1]");
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) (q * (count - 1));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen > rank) {
+				return value(offset + i);
+			}
+		}
+		return value(offset + counts.length - 1);
+	}
+
+	/**
+	 * Writes the quantiles qs (ascending, 0 … 1) in ns to values in one pass
+	 * over the buckets (0 if the sketch is empty)
+	 */
+	public void quantiles(double[] qs, long[] values) {
+		int i = 0, q = 0;
+		long seen = 0;
+		for (; q < qs.length; q++) {
+			if (qs[q] < 0 || qs[q] > 1 || q > 0 && qs[q] < qs[q - 1]) {
+				throw new IllegalArgumentException(
+						"qs should be ascending in [0, 1]");
+			}
+			if (count == 0) {
+				values[q] = 0;
+				continue;
+			}
+			long rank = (long) (qs[q] * (count - 1));
+			while (i < counts.length - 1 && seen + counts[i] <= rank) {
+				seen += counts[i++];
+			}
+			values[q] = value(offset + i);
+		}
+	}
+
+	/**
+	 * Grows the buckets to cover index. Buckets are only allocated for the
+	 * range of recorded RTTs (at most BUCKETS), so recording allocates only
+	 * while the range widens.
+	 */
+	private void cover(int index) {
+		if (counts.length == 0) {
+			counts = new int[INITIAL_BUCKETS];
+			offset = Math.max(0, Math.min(index - INITIAL_BUCKETS / 2,
+					BUCKETS - INITIAL_BUCKETS));
+			return;
+		}
+		int end = offset + counts.length;
+		if (index >= offset && index < end) {
+			return;
+		}
+		int size = Math.min(BUCKETS, Math.max(2 * counts.length,
+				Math.max(end, index + 1) - Math.min(offset, index)));
+		int low = index < offset ? Math.max(0, end - size) : offset;
+		if (low + size > BUCKETS) {
+			low = BUCKETS - size;
+		}
+		int[] grown = new int[size];
+		System.arraycopy(counts, 0, grown, offset - low, counts.length);
+		counts = grown;
+		offset = low;
+	}
+
+	/** Returns the bucket of an RTT */
+	static int index(long rtt) {
+		if (rtt <= MIN_VALUE) {
+			return 0;
+		}
+		int index = (int) Math.ceil(Math.log((double) rtt / MIN_VALUE)
+				/ LOG_GAMMA);
+		return Math.min(index, BUCKETS - 1);
+	}
+
+	/** Returns the value within relative accuracy of all RTTs of a bucket */
+	private static long value(int index) {
+		if (index == 0) {
+			return MIN_VALUE;
+		}
+		return (long) (MIN_VALUE * 2 * Math.pow(GAMMA, index) / (GAMMA + 1));
+	}
+
+	/** Writes the non-empty buckets */
+	public void write(DataOutput out) throws IOException {
+		int buckets = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				buckets++;
+			}
+		}
+		out.writeShort(buckets);
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				out.writeShort(offset + i);
+				out.writeInt(counts[i]);
+			}
+		}
+	}
+
+	/** Reads buckets written by {@link #write(DataOutput)} into this sketch */
+	public void read(DataInput in) throws IOException {
+		clear();
+		int buckets = in.readUnsignedShort();
+		for (int i = 0; i < buckets; i++) {
+			int index = in.readUnsignedShort();
+			int bucketCount = in.readInt();
+			if (index >= BUCKETS) {
+				throw new IOException("Invalid sketch bucket: " + index);
+			}
+			cover(index);
+			counts[index - offset] += bucketCount;
+			count += bucketCount;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package de.steinerix.ping_monitor.stats;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.stats.LatencyWindows.Window;
+
+/**
+ * Keeps {@link LatencyWindows} of the replies of each registered device. Fed
+ * as event bus consumer; timeouts and unreachable hosts have no latency and
+ * replies of unregistered devices are ignored. Percentiles of a group of
+ * devices are computed by merging their window sketches.
+ *
+ * @author usr
+ *
+ */
+public class LatencyTracker implements DeviceListener {
+	private final ConcurrentHashMap<Device, LatencyWindows> windows = new ConcurrentHashMap<Device, LatencyWindows>();
+
+	/** Registers a device and returns its windows */
+	public LatencyWindows register(Device device) {
+		LatencyWindows deviceWindows = windows.get(device);
+		if (deviceWindows == null) {
+			deviceWindows = new LatencyWindows();
+			LatencyWindows former = windows.putIfAbsent(device, deviceWindows);
+			if (former != null) {
+				deviceWindows = former;
+			}
+		}
+		return deviceWindows;
+	}
+
+	/** Deregisters a device, its windows are dropped */
+	public void deregister(Device device) {
+		windows.remove(device);
+	}
+
+	/** Returns the windows of a device or null if it isn't registered */
+	public LatencyWindows getWindows(Device device) {
+		return windows.get(device);
+	}
+
+	/**
+	 * Returns a sketch of window at time now of all devices (registered ones
+	 * only)
+	 */
+	public LatencySketch merge(Iterable<Device> devices, Window window,
+			long now) {
+		LatencySketch sketch = new LatencySketch();
+		for (Device device : devices) {
+			LatencyWindows deviceWindows = windows.get(device);
+			if (deviceWindows != null) {
+				deviceWindows.mergeInto(window, now, sketch);
+			}
+		}
+		return sketch;
+	}
+
+	/** Returns a sketch of window at time now of all registered devices */
+	public LatencySketch mergeAll(Window window, long now) {
+		return merge(windows.keySet(), window, now);
+	}
+
+	@Override
+	public void reply(Device device, int type, long rtt, long timestamp) {
+		if (type != NORMAL && type != LIMIT_EXCEEDED) {
+			return;
+		}
+		LatencyWindows deviceWindows = windows.get(device);
+		if (deviceWindows != null) {
+			deviceWindows.record(timestamp, rtt);
+		}
+	}
+
+	@Override
+	public void alarm(DeviceEvent event) {
+	}
+
+	@Override
+	public void clear(DeviceEvent event) {
+	}
+}
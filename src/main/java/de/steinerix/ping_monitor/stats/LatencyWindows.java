@@ -0,0 +1,85 @@
+package de.steinerix.ping_monitor.stats;
+
+/**
+ * Latency percentiles of one device over sliding windows of 1 min, 5 min and
+ * 1 h. Memory is bounded (a fixed number of {@link LatencySketch}es), recording
+ * doesn't allocate once the range of RTTs is covered and percentiles cost a
+ * scan of the buckets only, independent of the number of RTTs.
+ * <br />
+ * Methods are synchronized, as RTTs are recorded by one thread and read by
+ * others.
+ *
+ * @author usr
+ *
+ */
+public class LatencyWindows {
+
+	/**
+	 * Window length and number of slots (the window moves by one slot)
+	 *
+	 * @author usr
+	 *
+	 */
+	public enum Window {
+		ONE_MINUTE(15000L, 4), FIVE_MINUTES(60000L, 5), ONE_HOUR(600000L, 6);
+
+		private final long slotLength;
+		private final int slots;
+
+		private Window(long slotLength, int slots) {
+			this.slotLength = slotLength;
+			this.slots = slots;
+		}
+
+		/** Length of the window in ms */
+		public long getLength() {
+			return slotLength * slots;
+		}
+	};
+
+	private static final Window[] WINDOWS = Window.values();
+
+	private final SlidingSketch[] sketches = new SlidingSketch[WINDOWS.length];
+
+	public LatencyWindows() {
+		for (int i = 0; i < WINDOWS.length; i++) {
+			sketches[i] = new SlidingSketch(WINDOWS[i].slotLength,
+					WINDOWS[i].slots);
+		}
+	}
+
+	/** Records an RTT in ns received at timestamp (ms) */
+	public synchronized void record(long timestamp, long rtt) {
+		int bucket = LatencySketch.index(rtt);
+		for (SlidingSketch sketch : sketches) {
+			sketch.record(timestamp, bucket);
+		}
+	}
+
+	/** Returns the quantile q (0 … 1) in ns of window at time now */
+	public synchronized long quantile(Window window, double q, long now) {
+		return sketches[window.ordinal()].get(now).quantile(q);
+	}
+
+	/**
+	 * Writes the quantiles qs (ascending) in ns of window at time now to
+	 * values and returns the number of RTTs in window
+	 */
+	public synchronized long quantiles(Window window, double[] qs,
+			long[] values, long now) {
+		LatencySketch sketch = sketches[window.ordinal()].get(now);
+		sketch.quantiles(qs, values);
+		return sketch.getCount();
+	}
+
+	/** Returns the number of RTTs in window at time now */
+	public synchronized long getCount(Window window, long now) {
+		return sketches[window.ordinal()].get(now).getCount();
+	}
+
+	/** Adds the RTTs of window at time now to target */
+	public synchronized void mergeInto(Window window, long now,
+			LatencySketch target) {
+		target.merge(sketches[window.ordinal()].get(now));
+	}
+}
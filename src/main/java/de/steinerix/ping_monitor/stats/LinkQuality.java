@@ -0,0 +1,119 @@
+package de.steinerix.ping_monitor.stats;
+
+/**
+ * Streaming link quality of a device: interarrival jitter as in RFC 3550
+ * (6.4.1), the loss ratio of the last {@link #SHORT_WINDOW} and
+ * {@link #LONG_WINDOW} probes and the number of consecutive lost probes.
+ * <br />
+ * For pings the transit time of a packet is its RTT, so the difference D of
+ * two replies is the difference of their RTTs and the jitter is smoothed by
+ * J += (|D| - J) / 16. Results of the long window are kept as a ring of bits,
+ * both windows are updated by the bit entering and the bits leaving them, so
+ * each result costs O(1) without scanning any history. The ring is allocated
+ * with the first lost probe, devices without loss don't carry it.
+ *
+ * @author usr
+ *
+ */
+public class LinkQuality {
+	public static final int SHORT_WINDOW = 100; // probes
+	public static final int LONG_WINDOW = 1000; // probes
+
+	private long[] lost = null; // until the first lost probe
+	private int position = 0; // of the next result in the ring
+	private int results = 0; // in the ring, up to LONG_WINDOW
+	private int shortLost = 0;
+	private int longLost = 0;
+	private int run = 0;
+	private int longestRun = 0;
+	private long lastRtt = -1; // ns, of the last reply
+	private double jitter = 0; // ns
+
+	/** Records a reply with round trip time rtt in ns */
+	public synchronized void reply(long rtt) {
+		if (lastRtt >= 0) {
+			jitter += (Math.abs(rtt - lastRtt) - jitter) / 16;
+		}
+		lastRtt = rtt;
+		run = 0;
+		add(false);
+	}
+
+	/** Records a lost probe (timeout or unreachable host) */
+	public synchronized void lost() {
+		run++;
+		if (run > longestRun) {
+			longestRun = run;
+		}
+		add(true);
+	}
+
+	/** Adds a result to the ring and to the loss counts of the windows */
+	private void add(boolean isLost) {
+		if (results >= SHORT_WINDOW) { // leaves the short window
+			int leaving = position - SHORT_WINDOW;
+			if (isSet(leaving < 0 ? leaving + LONG_WINDOW : leaving)) {
+				shortLost--;
+			}
+		}
+		if (results == LONG_WINDOW) { // leaves the long window
+			if (isSet(position)) {
+				longLost--;
+			}
+		} else {
+			results++;
+		}
+
+		long bit = 1L << position;
+		if (isLost) {
+			if (lost == null) {
+				lost = new long[(LONG_WINDOW + 63) / 64];
+			}
+			lost[position >>> 6] |= bit;
+			shortLost++;
+			longLost++;
+		} else if (lost != null) {
+			lost[position >>> 6] &= ~bit;
+		}
+		if (++position == LONG_WINDOW) {
+			position = 0;
+		}
+	}
+
+	private boolean isSet(int index) {
+		return lost != null && (lost[index >>> 6] & 1L << index) != 0;
+	}
+
+	/** Returns the interarrival jitter in ns */
+	public synchronized long getJitter() {
+		return (long) jitter;
+	}
+
+	/**
+	 * Returns the ratio (0 … 1) of lost probes among the last window probes
+	 * ({@link #SHORT_WINDOW} or {@link #LONG_WINDOW}), 0 without results
+	 */
+	public synchronized double getLoss(int window) {
+		int count;
+		if (window == SHORT_WINDOW) {
+			count = shortLost;
+		} else if (window == LONG_WINDOW) {
+			count = longLost;
+		} else {
+			throw new IllegalArgumentException("window should be "
+					+ SHORT_WINDOW + " or " + LONG_WINDOW);
+		}
+		int size = Math.min(results, window);
+		return size == 0 ? 0 : count / (double) size;
+	}
+
+	/** Returns the number of probes lost since the last reply */
+	public synchronized int getLossRun() {
+		return run;
+	}
+
+	/** Returns the longest run of consecutive lost probes */
+	public synchronized int getLongestLossRun() {
+		return longestRun;
+	}
+}
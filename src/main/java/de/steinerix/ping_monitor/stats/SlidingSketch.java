@@ -0,0 +1,59 @@
+package de.steinerix.ping_monitor.stats;
+
+/**
+ * A {@link LatencySketch} over a sliding window, made of a ring of slots. The
+ * window sketch is kept as sum of the slots: a slot is subtracted when it
+ * leaves the window, so the window is never rebuilt. The window covers the
+ * current slot and the slots-1 slots before it.
+ *
+ * @author usr
+ *
+ */
+class SlidingSketch {
+	private final long slotLength; // ms
+	private final LatencySketch[] slots;
+	private final long[] starts;
+	private final LatencySketch window = new LatencySketch();
+
+	SlidingSketch(long slotLength, int slots) {
+		this.slotLength = slotLength;
+		this.slots = new LatencySketch[slots];
+		this.starts = new long[slots];
+		for (int i = 0; i < slots; i++) {
+			this.slots[i] = new LatencySketch();
+			starts[i] = Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Records an RTT by its bucket (see {@link LatencySketch#index(long)}),
+	 * RTTs older than the window are ignored
+	 */
+	void record(long timestamp, int bucket) {
+		long start = timestamp - Math.floorMod(timestamp, slotLength);
+		int slot = (int) Math.floorMod(start / slotLength, (long) slots.length);
+		if (starts[slot] != start) {
+			if (starts[slot] > start) {
+				return; // slot was reused already
+			}
+			window.subtract(slots[slot]);
+			slots[slot].clear();
+			starts[slot] = start;
+		}
+		slots[slot].recordBucket(bucket);
+		window.recordBucket(bucket);
+	}
+
+	/** Returns the window sketch at time now (don't modify) */
+	LatencySketch get(long now) {
+		long oldest = now - Math.floorMod(now, slotLength) - (slots.length - 1)
+				* slotLength;
+		for (int i = 0; i < slots.length; i++) {
+			if (starts[i] < oldest && slots[i].getCount() > 0) {
+				window.subtract(slots[i]);
+				slots[i].clear();
+			}
+		}
+		return window;
+	}
+}
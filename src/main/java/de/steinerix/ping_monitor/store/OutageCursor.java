@@ -0,0 +1,93 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import de.steinerix.ping_monitor.ping.DeviceListener;
+
+/**
+ * Streams the outages of one series within [from, to]: runs of consecutive
+ * lost results (timeout, not reachable). An outage starts with its first lost
+ * result and ends with the next reply; if there is none until to, it is
+ * ongoing and ends with its last lost result.
+ * <br />
+ * While looking for the next outage only blocks containing lost results of the
+ * series are read, so a week without outages costs a read of the block
+ * summaries.
+ *
+ * @author usr
+ *
+ */
+public class OutageCursor implements Closeable {
+	private final RecordCursor records;
+
+	private long start;
+	private long end;
+	private int lost;
+	private int timeouts;
+	private boolean ongoing;
+
+	OutageCursor(RecordCursor records) {
+		this.records = records;
+	}
+
+	/** Moves to the next outage. Returns false if there are no more outages. */
+	public boolean next() throws IOException {
+		records.setLostOnly(true);
+		if (!records.next()) {
+			return false;
+		}
+		start = end = records.getTimestamp();
+		lost = 1;
+		timeouts = records.getType() == DeviceListener.TIMEOUT ? 1 : 0;
+		ongoing = true;
+		records.setLostOnly(false);
+		while (records.next()) {
+			end = records.getTimestamp();
+			if (!SegmentIndex.isLost(records.getType())) {
+				ongoing = false;
+				break;
+			}
+			lost++;
+			if (records.getType() == DeviceListener.TIMEOUT) {
+				timeouts++;
+			}
+		}
+		return true;
+	}
+
+	/** Time of the first lost result in ms */
+	public long getStart() {
+		return start;
+	}
+
+	/** Time of the first reply after the outage (last lost result if ongoing) */
+	public long getEnd() {
+		return end;
+	}
+
+	/** Number of lost results */
+	public int getLost() {
+		return lost;
+	}
+
+	/** Number of timeouts among the lost results */
+	public int getTimeouts() {
+		return timeouts;
+	}
+
+	/** true if the outage lasts until the end of the query */
+	public boolean isOngoing() {
+		return ongoing;
+	}
+
+	/** Number of records read so far */
+	public long getScanned() {
+		return records.getScanned();
+	}
+
+	@Override
+	public void close() throws IOException {
+		records.close();
+	}
+}
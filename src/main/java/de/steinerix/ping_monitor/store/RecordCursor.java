@@ -0,0 +1,238 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.steinerix.ping_monitor.ping.DeviceListener;
+
+/**
+ * Streams the records of one series within [from, to] from the segments of a
+ * shard, one segment mapping at a time, in the order they were appended:
+ *
+ * <pre>
+ * try (RecordCursor cursor = store.query(config, from, to)) {
+ * 	while (cursor.next()) {
+ * 		cursor.getTimestamp() ...
+ * 	}
+ * }
+ * </pre>
+ *
+ * Blocks whose {@link SegmentIndex} summary can't match (time span, series,
+ * RTT, lost results) are skipped without reading their records, of the other
+ * blocks only the records of the series are read (postings). Only the block
+ * being written is scanned. Segments without index file are indexed while
+ * reading.
+ *
+ * @author usr
+ *
+ */
+public class RecordCursor implements Closeable {
+	private static final Logger log = Logger.getLogger(RecordCursor.class
+			.getName());
+
+	private final Iterator<File> files;
+	private final Segment current; // segment appended to when created
+	private final int series;
+	private final long from;
+	private final long to;
+	private final int minRtt; // µs, -1 for all results
+	private boolean lostOnly;
+
+	private Segment segment;
+	private SegmentIndex index;
+	private int count;
+	private int position; // next record of segment
+	private int blockEnd; // end of the block being read
+	private int block; // being read
+	private int posting; // next posting of the series in block
+	private int postingEnd;
+
+	private long timestamp;
+	private int type;
+	private long rtt;
+
+	private long scanned;
+	private long skipped;
+
+	/** Creates an empty cursor */
+	RecordCursor() {
+		this(Collections.<File> emptyList(), null, -1, 0, 0, -1);
+	}
+
+	/**
+	 * @param files
+	 *            Segment files in order
+	 * @param current
+	 *            Segment appended to (or null), its index is used
+	 * @param minRtt
+	 *            Only replies with RTT &gt; minRtt in µs, or -1 for all
+	 *            results
+	 */
+	RecordCursor(List<File> files, Segment current, int series, long from,
+			long to, int minRtt) {
+		this.files = files.iterator();
+		this.current = current;
+		this.series = series;
+		this.from = from;
+		this.to = to;
+		this.minRtt = minRtt;
+	}
+
+	/** Reads only timeouts and not reachable results (until reset) */
+	void setLostOnly(boolean lostOnly) {
+		this.lostOnly = lostOnly;
+	}
+
+	/**
+	 * Moves to the next record. Returns false if there are no more records.
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			if (segment == null && !openNext()) {
+				return false;
+			}
+			while (posting < postingEnd || position < count) {
+				int i;
+				if (posting < postingEnd) {
+					i = block * SegmentIndex.BLOCK_RECORDS
+							+ index.record(block, posting++);
+				} else if (position == blockEnd) {
+					enterBlock();
+					continue;
+				} else {
+					i = position++;
+				}
+				scanned++;
+				if (segment.series(i) != series) {
+					continue;
+				}
+				long time = segment.timestamp(i);
+				int recordType = segment.type(i);
+				if (time < from || time > to || !matches(recordType, i)) {
+					continue;
+				}
+				timestamp = time;
+				type = recordType;
+				rtt = segment.rtt(i);
+				return true;
+			}
+			closeSegment();
+		}
+	}
+
+	private boolean matches(int recordType, int i) {
+		if (lostOnly && !SegmentIndex.isLost(recordType)) {
+			return false;
+		}
+		return minRtt < 0 || !SegmentIndex.isLost(recordType)
+				&& segment.encodedRtt(i) > minRtt;
+	}
+
+	/**
+	 * Sets blockEnd to the end of the block at position. A complete block is
+	 * skipped (position moves to its end) and its postings of the series are
+	 * read unless it can't match, the block being written is scanned.
+	 */
+	private void enterBlock() {
+		block = position / SegmentIndex.BLOCK_RECORDS;
+		blockEnd = Math.min(position + SegmentIndex.BLOCK_RECORDS, count);
+		if (block >= index.getComplete()) {
+			return; // being written, no final summary
+		}
+		position = blockEnd;
+		int i = -1;
+		if (index.last[block] >= from && index.first[block] <= to
+				&& (minRtt < 0 || index.maxRtt[block] > minRtt)
+				&& (!lostOnly || index.hasLost(block, series))) {
+			i = index.find(block, series);
+		}
+		if (i < 0) {
+			skipped++;
+			return;
+		}
+		posting = index.start(block, i);
+		postingEnd = index.end(block, i);
+	}
+
+	/** Opens the next readable segment which may contain matching records */
+	private boolean openNext() throws IOException {
+		while (files.hasNext()) {
+			File file = files.next();
+			try {
+				segment = Segment.open(file, false);
+			} catch (IOException e) {
+				if (file.exists()) { // otherwise expired meanwhile
+					log.log(Level.WARNING, "Segment not readable", e);
+				}
+				continue;
+			}
+			count = segment.getCount();
+			position = blockEnd = 0;
+			posting = postingEnd = 0;
+			if (current != null && current.getFile().equals(file)) {
+				index = current.getIndex();
+			} else {
+				index = SegmentIndex.read(SegmentIndex.file(file));
+				if (index == null) {
+					index = SegmentIndex.build(segment, count);
+					index.seal(count);
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void closeSegment() throws IOException {
+		Segment closed = segment;
+		segment = null;
+		index = null;
+		closed.close();
+	}
+
+	/** Series id of the records */
+	public int getSeries() {
+		return series;
+	}
+
+	/** Time of the current record in ms */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/** Reply type of the current record (see {@link DeviceListener}) */
+	public int getType() {
+		return type;
+	}
+
+	/** RTT of the current record in ns (µs resolution) */
+	public long getRtt() {
+		return rtt;
+	}
+
+	/**
+	 * Number of records read so far (including those not matching, in the
+	 * block being written or out of the time span)
+	 */
+	public long getScanned() {
+		return scanned;
+	}
+
+	/** Number of blocks skipped so far by their summary */
+	public long getSkippedBlocks() {
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (segment != null) {
+			closeSegment();
+		}
+	}
+}
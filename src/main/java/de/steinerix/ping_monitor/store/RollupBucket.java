@@ -0,0 +1,179 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.stats.LatencySketch;
+
+/**
+ * Aggregate of all results of a device within [start, start + length):
+ * number of results, lost results (timeout, not reachable), timeouts, replies
+ * exceeding the limit, min, max and sum of the RTTs of replies and a
+ * {@link LatencySketch} of them. Buckets of a device are merged to the
+ * aggregate of their union.
+ *
+ * @author usr
+ *
+ */
+public class RollupBucket {
+	private long start; // ms
+	private long length; // ms
+	private long count;
+	private long lost;
+	private long timeouts;
+	private long exceeded;
+	private long min = Long.MAX_VALUE; // ns
+	private long max; // ns
+	private long sum; // ns
+	private final LatencySketch sketch = new LatencySketch();
+
+	/** Creates an empty bucket */
+	public RollupBucket(long start, long length) {
+		this.start = start;
+		this.length = length;
+	}
+
+	/** Creates a copy of bucket */
+	public RollupBucket(RollupBucket bucket) {
+		this(bucket.start, bucket.length);
+		merge(bucket);
+	}
+
+	/** Records a result (rtt in ns) */
+	public void record(int type, long rtt) {
+		count++;
+		switch (type) {
+		case DeviceListener.TIMEOUT:
+			timeouts++;
+			lost++;
+			return;
+		case DeviceListener.NOT_REACHABLE:
+			lost++;
+			return;
+		case DeviceListener.LIMIT_EXCEEDED:
+			exceeded++;
+			break;
+		}
+		min = Math.min(min, rtt);
+		max = Math.max(max, rtt);
+		sum += rtt;
+		sketch.record(rtt);
+	}
+
+	/**
+	 * Adds the results of bucket. The time span is extended to cover both
+	 * buckets.
+	 */
+	public void merge(RollupBucket bucket) {
+		if (bucket.count == 0 && count != 0) {
+			return;
+		}
+		if (count == 0 && length == 0) {
+			start = bucket.start;
+			length = bucket.length;
+		} else {
+			long end = Math.max(start + length, bucket.start + bucket.length);
+			start = Math.min(start, bucket.start);
+			length = end - start;
+		}
+		count += bucket.count;
+		lost += bucket.lost;
+		timeouts += bucket.timeouts;
+		exceeded += bucket.exceeded;
+		min = Math.min(min, bucket.min);
+		max = Math.max(max, bucket.max);
+		sum += bucket.sum;
+		sketch.merge(bucket.sketch);
+	}
+
+	/** Removes all results and moves the bucket to start */
+	void reset(long start) {
+		this.start = start;
+		count = lost = timeouts = exceeded = max = sum = 0;
+		min = Long.MAX_VALUE;
+		sketch.clear();
+	}
+
+	/** Start of the time span in ms */
+	public long getStart() {
+		return start;
+	}
+
+	/** Length of the time span in ms */
+	public long getLength() {
+		return length;
+	}
+
+	/** Number of results */
+	public long getCount() {
+		return count;
+	}
+
+	/** Number of timeouts and not reachable results */
+	public long getLost() {
+		return lost;
+	}
+
+	/** Number of timeouts */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/** Number of replies exceeding the limit */
+	public long getExceeded() {
+		return exceeded;
+	}
+
+	/** Share of results which weren't lost (1 if there are no results) */
+	public double getAvailability() {
+		return count == 0 ? 1 : 1 - (double) lost / count;
+	}
+
+	/** Minimum RTT of replies in ns (0 if there are none) */
+	public long getMin() {
+		return count == lost ? 0 : min;
+	}
+
+	/** Maximum RTT of replies in ns */
+	public long getMax() {
+		return max;
+	}
+
+	/** Mean RTT of replies in ns (0 if there are none) */
+	public long getMean() {
+		return count == lost ? 0 : sum / (count - lost);
+	}
+
+	/** RTT quantile q (0 … 1) of replies in ns */
+	public long getQuantile(double q) {
+		return sketch.quantile(q);
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeLong(start);
+		out.writeLong(length);
+		out.writeLong(count);
+		out.writeLong(lost);
+		out.writeLong(timeouts);
+		out.writeLong(exceeded);
+		out.writeLong(min);
+		out.writeLong(max);
+		out.writeLong(sum);
+		sketch.write(out);
+	}
+
+	static RollupBucket read(DataInput in) throws IOException {
+		RollupBucket bucket = new RollupBucket(in.readLong(), in.readLong());
+		bucket.count = in.readLong();
+		bucket.lost = in.readLong();
+		bucket.timeouts = in.readLong();
+		bucket.exceeded = in.readLong();
+		bucket.min = in.readLong();
+		bucket.max = in.readLong();
+		bucket.sum = in.readLong();
+		bucket.sketch.read(in);
+		return bucket;
+	}
+}
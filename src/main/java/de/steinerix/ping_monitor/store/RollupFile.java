@@ -0,0 +1,253 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A rollup file of one series and resolution: {@link RollupBucket}s in time
+ * order, appended through a channel which stays open, and an index file with
+ * start and offset of each bucket (16 bytes per entry). A query finds its
+ * first bucket by a binary search in the index and reads only the buckets
+ * overlapping its time span.
+ * <br />
+ * A bucket is appended before its index entry. On open, buckets behind the
+ * last index entry are indexed and a bucket cut off by a crash is truncated,
+ * so buckets appended afterwards follow the last whole one. A file without
+ * index file is indexed completely.
+ * <br />
+ * Not thread-safe, the {@link RollupStore} guards its files.
+ *
+ * @author usr
+ *
+ */
+class RollupFile implements Closeable {
+	static final String INDEX_SUFFIX = ".index";
+	static final int ENTRY_SIZE = 16; // start, offset
+
+	private final Logger log = Logger.getLogger(RollupFile.class.getName());
+	private final File file;
+	private final long length; // of the buckets, ms
+	private final FileChannel data;
+	private final FileChannel index;
+	private long dataSize;
+	private long entries;
+	private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream out = new DataOutputStream(bytes);
+
+	private RollupFile(File file, long length, FileChannel data,
+			FileChannel index) {
+		this.file = file;
+		this.length = length;
+		this.data = data;
+		this.index = index;
+	}
+
+	/**
+	 * Opens or creates the rollup file of buckets with length (ms) and
+	 * recovers its index
+	 */
+	static RollupFile open(File file, long length) throws IOException {
+		FileChannel data = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE);
+		FileChannel index = null;
+		try {
+			index = FileChannel.open(indexFile(file).toPath(),
+					StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE);
+			RollupFile rollupFile = new RollupFile(file, length, data, index);
+			rollupFile.recover();
+			return rollupFile;
+		} catch (IOException | RuntimeException e) {
+			data.close();
+			if (index != null) {
+				index.close();
+			}
+			throw e;
+		}
+	}
+
+	/** Returns the index file of a rollup file */
+	static File indexFile(File file) {
+		return new File(file.getPath() + INDEX_SUFFIX);
+	}
+
+	/**
+	 * Indexes the buckets behind the last index entry (which is checked
+	 * again) and truncates a bucket cut off by a crash
+	 */
+	private void recover() throws IOException {
+		dataSize = data.size();
+		entries = index.size() / ENTRY_SIZE;
+		while (entries > 0 && offset(entries - 1) >= dataSize) {
+			entries--; // bucket of entry lost
+		}
+		long end = 0;
+		if (entries > 0) {
+			end = offset(--entries);
+		}
+		index.truncate(entries * ENTRY_SIZE);
+
+		long start = end;
+		CountingInputStream counting = new CountingInputStream(
+				new BufferedInputStream(Channels.newInputStream(data
+						.position(start))));
+		DataInputStream in = new DataInputStream(counting);
+		try {
+			while (end < dataSize) {
+				RollupBucket bucket = RollupBucket.read(in);
+				writeEntry(bucket.getStart(), end);
+				end = start + counting.count;
+			}
+		} catch (IOException e) { // cut off or not a bucket
+		}
+		if (end < dataSize) {
+			log.log(Level.WARNING, "Truncated " + (dataSize - end)
+					+ " bytes of a partial bucket: " + file);
+			data.truncate(end);
+			dataSize = end;
+		}
+	}
+
+	/** Appends a bucket and its index entry */
+	void append(RollupBucket bucket) throws IOException {
+		bytes.reset();
+		bucket.write(out);
+		out.flush();
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		long offset = dataSize;
+		while (buffer.hasRemaining()) {
+			offset += data.write(buffer, offset);
+		}
+		writeEntry(bucket.getStart(), dataSize);
+		dataSize = offset;
+	}
+
+	/** Returns the buckets which overlap [from, to) */
+	List<RollupBucket> read(long from, long to) throws IOException {
+		long low = 0, high = entries; // first bucket ending after from
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (start(mid) + length > from) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		long first = low;
+		high = entries; // first bucket starting at or after to
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (start(mid) >= to) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+
+		List<RollupBucket> buckets = new ArrayList<RollupBucket>();
+		if (first < low) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(data.position(offset(first)))));
+			for (long i = first; i < low; i++) {
+				buckets.add(RollupBucket.read(in));
+			}
+		}
+		return buckets;
+	}
+
+	/** Returns the number of buckets */
+	long size() {
+		return entries;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			data.close();
+		} finally {
+			index.close();
+		}
+	}
+
+	private void writeEntry(long start, long offset) throws IOException {
+		entry.clear();
+		entry.putLong(start).putLong(offset).flip();
+		long position = entries * ENTRY_SIZE;
+		while (entry.hasRemaining()) {
+			position += index.write(entry, position);
+		}
+		entries++;
+	}
+
+	private long start(long i) throws IOException {
+		readEntry(i);
+		return entry.getLong(0);
+	}
+
+	private long offset(long i) throws IOException {
+		readEntry(i);
+		return entry.getLong(8);
+	}
+
+	private void readEntry(long i) throws IOException {
+		entry.clear();
+		long position = i * ENTRY_SIZE;
+		while (entry.hasRemaining()) {
+			int read = index.read(entry, position);
+			if (read < 0) {
+				throw new IOException("Index entry " + i + " missing: "
+						+ file);
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Counts the bytes read through it
+	 *
+	 * @author usr
+	 *
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+
+/**
+ * Aggregates the results of each registered device into {@link RollupBucket}s
+ * of one minute, one hour and one day (aligned to UTC). Each result updates
+ * the open bucket of every resolution; when a result falls behind the end of
+ * an open bucket, the bucket is sealed: appended to the {@link RollupFile}
+ * of its device and resolution and reused for the next time span. Up to
+ * MAX_OPEN_FILES rollup files are kept open, the least recently used one is
+ * closed.
+ * <br />
+ * Queries seek to the first sealed bucket of the time span and read up to
+ * its end, plus the open bucket, so a month of hourly buckets is about 720
+ * records however long the series is. A bucket cut off by a crash is
+ * truncated when its file is opened again.
+ * <br />
+ * Results ({@link #reply(Device, int, long, long)}) must come from one
+ * thread, e.g. an event bus consumer. Queries may happen on any thread.
+ *
+ * @author usr
+ *
+ */
+public class RollupStore implements DeviceListener, Closeable {
+
+	/**
+	 * Resolution of rollup buckets
+	 *
+	 * @author usr
+	 *
+	 */
+	public enum Resolution {
+		MINUTE(60000L), HOUR(3600000L), DAY(86400000L);
+
+		private final long length;
+
+		private Resolution(long length) {
+			this.length = length;
+		}
+
+		/** Length of a bucket in ms */
+		public long getLength() {
+			return length;
+		}
+	};
+
+	private static final Resolution[] RESOLUTIONS = Resolution.values();
+	static final String SUFFIX = ".rollup";
+	static final int MAX_OPEN_FILES = 256; // two descriptors each
+
+	private final Logger log = Logger.getLogger(RollupStore.class.getName());
+	private final File directory;
+	private final SeriesRegistry series;
+	private final ConcurrentHashMap<Device, Rollups> devices = new ConcurrentHashMap<Device, Rollups>();
+	private volatile boolean closed = false;
+	private final ConcurrentHashMap<Integer, Rollups> bySeries = new ConcurrentHashMap<Integer, Rollups>();
+	// open rollup files in access order, guarded by itself
+	private final LinkedHashMap<File, RollupFile> files = new LinkedHashMap<File, RollupFile>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, RollupFile> eldest) {
+			if (size() <= MAX_OPEN_FILES) {
+				return false;
+			}
+			closeQuietly(eldest.getValue());
+			return true;
+		}
+	};
+
+	/** Opens or creates a rollup store in directory */
+	public RollupStore(File directory) throws IOException {
+		this.directory = directory;
+		for (Resolution resolution : RESOLUTIONS) {
+			File dir = resolutionDirectory(resolution);
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Could not create rollup directory: "
+						+ dir);
+			}
+		}
+		series = new SeriesRegistry(directory);
+		log.log(Level.INFO,
+				"Rollup store opened: " + directory.getAbsolutePath());
+	}
+
+	/**
+	 * Registers a device and returns its series id. A device with the same
+	 * name and address gets the same id as in former runs and continues the
+	 * open buckets of its series.
+	 */
+	public int register(Device device) throws IOException {
+		Rollups rollups = devices.get(device);
+		if (rollups == null) {
+			int id = series.register(device.getConfig());
+			rollups = bySeries.get(id);
+			if (rollups == null) {
+				rollups = new Rollups(id);
+				Rollups former = bySeries.putIfAbsent(id, rollups);
+				if (former != null) {
+					rollups = former;
+				}
+			}
+			devices.put(device, rollups);
+		}
+		return rollups.series;
+	}
+
+	/**
+	 * Deregisters a device, the open buckets of its series are kept (sealed
+	 * by {@link #close()} or continued if it is registered again)
+	 */
+	public void deregister(Device device) {
+		devices.remove(device);
+	}
+
+	/** Returns the series id of a device config or -1 if it is unknown */
+	public int getSeriesId(DeviceConfig config) {
+		return series.get(config);
+	}
+
+	@Override
+	public void reply(Device device, int type, long rtt, long timestamp) {
+		Rollups rollups = devices.get(device);
+		if (rollups != null) {
+			rollups.record(timestamp, type, rtt);
+		}
+	}
+
+	@Override
+	public void alarm(DeviceEvent event) {
+	}
+
+	@Override
+	public void clear(DeviceEvent event) {
+	}
+
+	/**
+	 * Records a result of a series (rtt in ns). Used for series whose device
+	 * isn't registered in this run.
+	 */
+	public void record(int series, long timestamp, int type, long rtt) {
+		Rollups rollups = bySeries.get(series);
+		if (rollups == null) {
+			rollups = new Rollups(series);
+			Rollups former = bySeries.putIfAbsent(series, rollups);
+			if (former != null) {
+				rollups = former;
+			}
+		}
+		rollups.record(timestamp, type, rtt);
+	}
+
+	/**
+	 * Returns the buckets of a series and resolution which overlap [from, to)
+	 * in the order they were sealed; the open bucket is last.
+	 */
+	public List<RollupBucket> query(int series, Resolution resolution,
+			long from, long to) throws IOException {
+		List<RollupBucket> buckets;
+		File file = file(series, resolution);
+		synchronized (files) {
+			buckets = file.exists() ? open(file, resolution).read(from, to)
+					: new ArrayList<RollupBucket>();
+		}
+		Rollups rollups = bySeries.get(series);
+		if (rollups != null) {
+			RollupBucket open = rollups.copyOpen(resolution);
+			if (open != null && open.getCount() > 0
+					&& overlaps(open, from, to)) {
+				buckets.add(open);
+			}
+		}
+		return buckets;
+	}
+
+	/** Returns all buckets of a series and resolution overlapping [from, to) merged */
+	public RollupBucket summarize(int series, Resolution resolution,
+			long from, long to) throws IOException {
+		RollupBucket summary = new RollupBucket(from, 0);
+		for (RollupBucket bucket : query(series, resolution, from, to)) {
+			summary.merge(bucket);
+		}
+		return summary;
+	}
+
+	private static boolean overlaps(RollupBucket bucket, long from, long to) {
+		return bucket.getStart() < to
+				&& bucket.getStart() + bucket.getLength() > from;
+	}
+
+	/**
+	 * Seals all open buckets, even if their time span isn't over, and closes
+	 * the rollup files. Results recorded afterwards are ignored.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		for (Rollups rollups : bySeries.values()) {
+			rollups.sealAll();
+		}
+		synchronized (files) {
+			for (Iterator<RollupFile> iterator = files.values().iterator(); iterator
+					.hasNext();) {
+				closeQuietly(iterator.next());
+				iterator.remove();
+			}
+		}
+		series.close();
+	}
+
+	private File resolutionDirectory(Resolution resolution) {
+		return new File(directory, resolution.name().toLowerCase(Locale.ROOT));
+	}
+
+	private File file(int series, Resolution resolution) {
+		return new File(resolutionDirectory(resolution), series + SUFFIX);
+	}
+
+	/** Appends a sealed bucket to the file of its series and resolution */
+	private void seal(int series, Resolution resolution, RollupBucket bucket)
+			throws IOException {
+		synchronized (files) {
+			open(file(series, resolution), resolution).append(bucket);
+		}
+	}
+
+	/** Returns the open rollup file, opened (and recovered) if necessary */
+	private RollupFile open(File file, Resolution resolution)
+			throws IOException {
+		RollupFile rollupFile = files.get(file);
+		if (rollupFile == null) {
+			rollupFile = RollupFile.open(file, resolution.getLength());
+			files.put(file, rollupFile);
+		}
+		return rollupFile;
+	}
+
+	private void closeQuietly(RollupFile rollupFile) {
+		try {
+			rollupFile.close();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not close rollup file", e);
+		}
+	}
+
+	/**
+	 * The open buckets of a series, one per resolution
+	 *
+	 * @author usr
+	 *
+	 */
+	private class Rollups {
+		private final int series;
+		private final RollupBucket[] open = new RollupBucket[RESOLUTIONS.length];
+
+		Rollups(int series) {
+			this.series = series;
+		}
+
+		synchronized void record(long timestamp, int type, long rtt) {
+			if (closed) {
+				return; // not sealed anymore
+			}
+			for (int i = 0; i < RESOLUTIONS.length; i++) {
+				long length = RESOLUTIONS[i].getLength();
+				long start = timestamp - Math.floorMod(timestamp, length);
+				RollupBucket bucket = open[i];
+				if (bucket == null) {
+					bucket = open[i] = new RollupBucket(start, length);
+				} else if (start > bucket.getStart()) {
+					if (bucket.getCount() > 0) {
+						sealQuietly(RESOLUTIONS[i], bucket);
+					}
+					bucket.reset(start);
+				}
+				bucket.record(type, rtt);
+			}
+		}
+
+		synchronized RollupBucket copyOpen(Resolution resolution) {
+			RollupBucket bucket = open[resolution.ordinal()];
+			return bucket == null ? null : new RollupBucket(bucket);
+		}
+
+		synchronized void sealAll() throws IOException {
+			for (int i = 0; i < RESOLUTIONS.length; i++) {
+				if (open[i] != null && open[i].getCount() > 0) {
+					seal(series, RESOLUTIONS[i], open[i]);
+					open[i].reset(open[i].getStart());
+				}
+			}
+		}
+
+		private void sealQuietly(Resolution resolution, RollupBucket bucket) {
+			try {
+				seal(series, resolution, bucket);
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Could not seal " + resolution
+						+ " bucket of series " + series, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+
+/**
+ * Append-only store of all replies (timestamp, RTT, type) of the registered
+ * devices. Each device gets a series id, which is kept in "series.properties"
+ * of the store directory; the devices are distributed among shards by series
+ * id. A shard is a directory of {@link Segment} files written through a
+ * memory mapping, so an append is a few memory writes without a system call.
+ * <br />
+ * A full segment is forced to disk and the next one is created (rolling).
+ * Segments whose records are all older than the retention are deleted when a
+ * shard rolls and when the store is opened.
+ * <br />
+ * Each segment has a sparse {@link SegmentIndex} of block summaries and
+ * per-series postings, saved as index file when it rolls. Queries by device
+ * ({@link #query(DeviceConfig, long, long)},
+ * {@link #queryOutages(DeviceConfig, long, long)}) skip the segments and blocks
+ * which can't match, read only the records of the device and stream their
+ * results through a cursor.
+ * <br />
+ * Appends ({@link #reply(Device, int, long, long)}) must come from one thread,
+ * e.g. an event bus consumer. Reads and registrations may happen on any thread.
+ *
+ * @author usr
+ *
+ */
+public class RttStore implements DeviceListener, Closeable {
+	private final Logger log = Logger.getLogger(RttStore.class.getName());
+	private final File directory;
+	private final int segmentSize; // bytes
+	private final long retention; // ms
+	private final Shard[] shards;
+
+	private final Map<Device, Integer> seriesIds = new ConcurrentHashMap<Device, Integer>();
+	private final SeriesRegistry series;
+
+	/**
+	 * Record visitor for reads
+	 *
+	 * @author usr
+	 *
+	 */
+	public interface RecordVisitor {
+		/**
+		 * Called for each record read
+		 *
+		 * @param series
+		 *            Series id of the device
+		 * @param timestamp
+		 *            Time of the result in ms
+		 * @param type
+		 *            Reply type (see {@link DeviceListener})
+		 * @param rtt
+		 *            Round trip time in ns (µs resolution)
+		 */
+		void record(int series, long timestamp, int type, long rtt);
+	}
+
+	/**
+	 * Opens or creates a store
+	 *
+	 * @param directory
+	 *            Directory of the store
+	 * @param shards
+	 *            Number of shards
+	 * @param segmentSize
+	 *            Size of a segment file in bytes
+	 * @param retention
+	 *            Time in ms a segment is kept after its last record
+	 */
+	public RttStore(File directory, int shards, int segmentSize,
+			long retention) throws IOException {
+		if (shards < 1) {
+			throw new IllegalArgumentException("shards should be > 0");
+		}
+		if (segmentSize < Segment.HEADER_SIZE + Segment.RECORD_SIZE) {
+			throw new IllegalArgumentException("segment size too small");
+		}
+		if (retention < 1) {
+			throw new IllegalArgumentException("retention should be > 0");
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create store directory: "
+					+ directory);
+		}
+
+		series = new SeriesRegistry(directory);
+
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new Shard(new File(directory, "shard-" + i));
+		}
+		log.log(Level.INFO, "RTT store opened: " + directory.getAbsolutePath()
+				+ " (" + series.size() + " series)");
+	}
+
+	/**
+	 * Registers a device and returns its series id. A device with the same
+	 * name and address gets the same id as in former runs.
+	 */
+	public int register(Device device) throws IOException {
+		Integer id = seriesIds.get(device);
+		if (id == null) {
+			id = series.register(device.getConfig());
+			seriesIds.put(device, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Deregisters a device, its series is kept (and continued if it is
+	 * registered again)
+	 */
+	public void deregister(Device device) {
+		seriesIds.remove(device);
+	}
+
+	/** Returns the series id of a device or -1 if it isn't registered */
+	public int getSeriesId(Device device) {
+		Integer id = seriesIds.get(device);
+		return id == null ? -1 : id;
+	}
+
+	/** Returns the series id of a device config or -1 if it is unknown */
+	public int getSeriesId(DeviceConfig config) {
+		return series.get(config);
+	}
+
+	@Override
+	public void reply(Device device, int type, long rtt, long timestamp) {
+		Integer id = seriesIds.get(device);
+		if (id != null) {
+			append(id, timestamp, type, rtt);
+		}
+	}
+
+	@Override
+	public void alarm(DeviceEvent event) {
+	}
+
+	@Override
+	public void clear(DeviceEvent event) {
+	}
+
+	/**
+	 * Appends a record
+	 *
+	 * @param rtt
+	 *            RTT in ns
+	 */
+	public void append(int series, long timestamp, int type, long rtt) {
+		if (timestamp <= 0) {
+			throw new IllegalArgumentException("timestamp should be > 0");
+		}
+		shards[series % shards.length].append(timestamp, series, type, rtt);
+	}
+
+	/**
+	 * Reads all records of a series with from &lt;= timestamp &lt;= to in the
+	 * order they were appended
+	 */
+	public void read(int series, long from, long to, RecordVisitor visitor)
+			throws IOException {
+		try (RecordCursor cursor = query(series, from, to, -1)) {
+			while (cursor.next()) {
+				visitor.record(series, cursor.getTimestamp(),
+						cursor.getType(), cursor.getRtt());
+			}
+		}
+	}
+
+	/**
+	 * Returns a cursor over the results of a device (by name and address) with
+	 * from &lt;= timestamp &lt;= to in the order they were appended. The cursor
+	 * is empty if the device is unknown.
+	 */
+	public RecordCursor query(DeviceConfig config, long from, long to) {
+		return query(series.get(config), from, to, -1);
+	}
+
+	/**
+	 * Returns a cursor over the replies of a device with an RTT &gt; rtt (in
+	 * ns, µs resolution) and from &lt;= timestamp &lt;= to
+	 */
+	public RecordCursor querySlowerThan(DeviceConfig config, long from,
+			long to, long rtt) {
+		return query(series.get(config), from, to,
+				Segment.encode(DeviceListener.NORMAL, rtt));
+	}
+
+	/** Returns a cursor over the outages of a device within [from, to] */
+	public OutageCursor queryOutages(DeviceConfig config, long from, long to) {
+		return new OutageCursor(query(series.get(config), from, to, -1));
+	}
+
+	private RecordCursor query(int series, long from, long to, int minRtt) {
+		if (series < 0) {
+			return new RecordCursor();
+		}
+		return shards[series % shards.length].query(series, from, to, minRtt);
+	}
+
+	/** Returns the number of segment files of all shards */
+	public int getSegmentCount() {
+		int count = 0;
+		for (Shard shard : shards) {
+			count += shard.segments.size();
+		}
+		return count;
+	}
+
+	/** Forces all records to disk (call from the appending thread) */
+	public void flush() {
+		for (Shard shard : shards) {
+			shard.flush();
+		}
+	}
+
+	/** Forces all records to disk and closes the current segments */
+	@Override
+	public void close() throws IOException {
+		for (Shard shard : shards) {
+			shard.close();
+		}
+		series.close();
+	}
+
+	/**
+	 * Segments of a shard by start timestamp, the last one is appended to
+	 *
+	 * @author usr
+	 *
+	 */
+	private class Shard {
+		private final File directory;
+		private final ConcurrentSkipListMap<Long, File> segments = new ConcurrentSkipListMap<Long, File>();
+		private volatile Segment current;
+
+		Shard(File directory) throws IOException {
+			this.directory = directory;
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create shard directory: "
+						+ directory);
+			}
+			File[] files = directory.listFiles();
+			for (File file : files == null ? new File[0] : files) {
+				if (file.getName().endsWith(Segment.TMP_SUFFIX)) {
+					// roll interrupted by a crash
+					Files.delete(file.toPath());
+				} else if (file.getName().endsWith(Segment.SUFFIX)) {
+					segments.put(Segment.parseStart(file), file);
+				}
+			}
+			if (!segments.isEmpty()) {
+				try {
+					current = Segment.open(segments.lastEntry().getValue(),
+							true);
+					expire(current.getCount() > 0 ? current
+							.timestamp(current.getCount() - 1) : current
+							.getStart());
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Segment not appended to", e);
+				}
+			}
+		}
+
+		void append(long timestamp, int series, int type, long rtt) {
+			if (current == null
+					|| !current.append(timestamp, series, type, rtt)) {
+				roll(timestamp);
+				current.append(timestamp, series, type, rtt);
+			}
+		}
+
+		/** Completes the current segment and starts a new one */
+		private void roll(long timestamp) {
+			try {
+				long start = timestamp;
+				if (!segments.isEmpty() && segments.lastKey() >= start) {
+					start = segments.lastKey() + 1; // keep names ordered
+				}
+				Segment next = Segment.create(directory, start, segmentSize);
+				if (current != null) {
+					current.force();
+					current.close();
+					saveIndex(current);
+				}
+				current = next;
+				segments.put(start, next.getFile());
+				expire(timestamp);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not roll segment in "
+						+ directory, e);
+			}
+		}
+
+		/** Saves the index of a full segment (it's rebuilt if this fails) */
+		private void saveIndex(Segment segment) {
+			SegmentIndex index = segment.getIndex();
+			index.seal(segment.getCount());
+			try {
+				index.write(SegmentIndex.file(segment.getFile()));
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Segment index not saved: "
+						+ segment.getFile(), e);
+			}
+		}
+
+		/**
+		 * Deletes segments which end (i.e. the next segment starts) before
+		 * now - retention
+		 */
+		private void expire(long now) throws IOException {
+			long cutoff = now - retention;
+			Map.Entry<Long, File> first = segments.firstEntry();
+			while (first != null) {
+				Long next = segments.higherKey(first.getKey());
+				if (next == null || next > cutoff) {
+					break;
+				}
+				segments.remove(first.getKey());
+				Files.deleteIfExists(first.getValue().toPath());
+				Files.deleteIfExists(SegmentIndex.file(first.getValue())
+						.toPath());
+				log.log(Level.FINE, "Segment expired: " + first.getValue());
+				first = segments.firstEntry();
+			}
+		}
+
+		RecordCursor query(int series, long from, long to, int minRtt) {
+			Segment segment = current; // newer ones are indexed by the cursor
+			// start with the segment containing from
+			Long first = segments.floorKey(from);
+			ArrayList<File> files = new ArrayList<File>(segments.subMap(
+					first != null ? first : Long.MIN_VALUE, true, to, true)
+					.values());
+			return new RecordCursor(files, segment, series, from, to, minRtt);
+		}
+
+		void flush() {
+			Segment segment = current;
+			if (segment != null) {
+				segment.force();
+			}
+		}
+
+		void close() throws IOException {
+			if (current != null) {
+				current.force();
+				current.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A segment file of the RTT store: a header followed by fixed-width records,
+ * written through a {@link MappedByteBuffer}. The file has its final size from
+ * creation on and is zero-filled, so a record is committed by writing its
+ * timestamp last: the records of a segment are all records before the first
+ * zero timestamp. This holds after a crash of the process as well, as written
+ * pages belong to the page cache, not to the process.
+ * <br />
+ * Record layout (16 bytes): timestamp in ms (long), series id (int), type in
+ * the upper 4 bits and RTT in µs in the lower 28 bits (int).
+ * <br />
+ * A segment is appended to by one thread only. A writable segment maintains
+ * its {@link SegmentIndex}.
+ *
+ * @author usr
+ *
+ */
+class Segment {
+	static final int MAGIC = 0x50494e47; // "PING"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16; // magic, version, record size, unused
+	static final int RECORD_SIZE = 16;
+	static final String SUFFIX = ".seg";
+	static final String TMP_SUFFIX = ".tmp";
+
+	static final int TYPE_SHIFT = 28;
+	static final int MAX_RTT = (1 << TYPE_SHIFT) - 1; // µs
+
+	private final File file;
+	private final long start;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int capacity; // records
+	private int count;
+	private SegmentIndex index; // writable segments only
+
+	private Segment(File file, long start, FileChannel channel,
+			MappedByteBuffer buffer) {
+		this.file = file;
+		this.start = start;
+		this.channel = channel;
+		this.buffer = buffer;
+		this.capacity = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+	}
+
+	/**
+	 * Creates a segment file with the start timestamp as name. The file is
+	 * written as temporary file and renamed when its header is on disk, so
+	 * there are never segment files without valid header.
+	 */
+	static Segment create(File directory, long start, int size)
+			throws IOException {
+		File file = new File(directory, fileName(start));
+		File tmp = new File(directory, fileName(start) + TMP_SUFFIX);
+		try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+			raf.setLength(size);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			raf.writeInt(RECORD_SIZE);
+			raf.getFD().sync();
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+		return open(file, true);
+	}
+
+	/**
+	 * Opens an existing segment. The number of records is recovered by a
+	 * binary search for the first zero timestamp.
+	 *
+	 * @throws IOException
+	 *             if the file isn't a valid segment
+	 */
+	static Segment open(File file, boolean writable) throws IOException {
+		long start = parseStart(file);
+		RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw"
+				: "r");
+		FileChannel channel = raf.getChannel();
+		try {
+			MappedByteBuffer buffer = channel.map(
+					writable ? MapMode.READ_WRITE : MapMode.READ_ONLY, 0,
+					channel.size());
+			if (buffer.capacity() < HEADER_SIZE + RECORD_SIZE
+					|| buffer.getInt(0) != MAGIC
+					|| buffer.getInt(4) != VERSION
+					|| buffer.getInt(8) != RECORD_SIZE) {
+				throw new IOException("Not a valid segment: " + file);
+			}
+			Segment segment = new Segment(file, start, channel, buffer);
+			segment.count = segment.recoverCount();
+			if (writable) {
+				segment.index = SegmentIndex.build(segment, segment.count);
+			}
+			return segment;
+		} catch (IOException | RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/** Returns the number of committed records */
+	private int recoverCount() {
+		int low = 0, high = capacity; // first zero timestamp in [low, high]
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (timestamp(mid) != 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Appends a record. Returns false if the segment is full.
+	 *
+	 * @param rtt
+	 *            RTT in ns
+	 */
+	boolean append(long timestamp, int series, int type, long rtt) {
+		if (count == capacity) {
+			return false;
+		}
+		int offset = HEADER_SIZE + count * RECORD_SIZE;
+		int value = encode(type, rtt);
+		buffer.putInt(offset + 8, series);
+		buffer.putInt(offset + 12, value);
+		buffer.putLong(offset, timestamp); // commits the record
+		index.add(count, timestamp, series, type, value & MAX_RTT);
+		count++;
+		return true;
+	}
+
+	/** Packs type and RTT in ns into an int */
+	static int encode(int type, long rtt) {
+		long micros = Math.min(Math.max(rtt / 1000, 0), MAX_RTT);
+		return (type << TYPE_SHIFT) | (int) micros;
+	}
+
+	/** Returns the timestamp of record i */
+	long timestamp(int i) {
+		return buffer.getLong(HEADER_SIZE + i * RECORD_SIZE);
+	}
+
+	/** Returns the series id of record i */
+	int series(int i) {
+		return buffer.getInt(HEADER_SIZE + i * RECORD_SIZE + 8);
+	}
+
+	/** Returns the type of record i */
+	int type(int i) {
+		return buffer.getInt(HEADER_SIZE + i * RECORD_SIZE + 12) >>> TYPE_SHIFT;
+	}
+
+	/** Returns the RTT of record i in ns */
+	long rtt(int i) {
+		return (buffer.getInt(HEADER_SIZE + i * RECORD_SIZE + 12) & MAX_RTT) * 1000L;
+	}
+
+	/** Returns the RTT of record i in µs as stored */
+	int encodedRtt(int i) {
+		return buffer.getInt(HEADER_SIZE + i * RECORD_SIZE + 12) & MAX_RTT;
+	}
+
+	/** Index of a writable segment (null for read-only segments) */
+	SegmentIndex getIndex() {
+		return index;
+	}
+
+	/** Number of committed records (as seen by the writing thread) */
+	int getCount() {
+		return count;
+	}
+
+	/** Maximum number of records */
+	int getCapacity() {
+		return capacity;
+	}
+
+	/** Timestamp of the first record (name of the file) */
+	long getStart() {
+		return start;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/** Writes all records to disk */
+	void force() {
+		buffer.force();
+	}
+
+	/**
+	 * Closes the file. The mapping stays valid until the segment is garbage
+	 * collected, so concurrent readers aren't affected.
+	 */
+	void close() throws IOException {
+		channel.close();
+	}
+
+	static String fileName(long start) {
+		return String.format("%016d", start) + SUFFIX;
+	}
+
+	/** Returns the start timestamp of a segment file name */
+	static long parseStart(File file) throws IOException {
+		String name = file.getName();
+		if (!name.endsWith(SUFFIX)) {
+			throw new IOException("Not a segment file: " + file);
+		}
+		try {
+			return Long.parseLong(name.substring(0,
+					name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			throw new IOException("Not a segment file: " + file, e);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Sparse index of a {@link Segment}: a summary per block of BLOCK_RECORDS
+ * records, so queries skip blocks without reading their records. A summary
+ * holds the time span of the block, min and max RTT of its replies and the
+ * number of lost results. The postings of a block list its series (sorted),
+ * the records of each series and the series with lost results, so a query
+ * reads only the records of its series, however many series share a shard.
+ * <br />
+ * Postings layout: number of series n and of series with lost results m
+ * (ints), n series ids, n + 1 starts of the records of each series, m series
+ * ids with lost results (ints), then the records grouped by series (shorts,
+ * offsets within the block in ascending order).
+ * <br />
+ * The index of the segment being appended to is updated by the writing
+ * thread; summaries and postings of blocks below {@link #getComplete()} are
+ * final and may be read by any thread. It is saved next to the segment when
+ * the segment is full and mapped when it is read.
+ *
+ * @author usr
+ *
+ */
+class SegmentIndex {
+	static final int BLOCK_RECORDS = 4096;
+	static final String SUFFIX = ".idx";
+	private static final int MAGIC = 0x50494432; // "PID2"
+	private static final int HEADER_SIZE = 12; // magic, length, blocks
+	private static final int SUMMARY_SIZE = 32; // with size of postings
+
+	final long[] first; // min timestamp
+	final long[] last; // max timestamp
+	final int[] minRtt; // encoded as in segment (µs)
+	final int[] maxRtt;
+	final int[] lost;
+	private final ByteBuffer[] postings;
+	private long[] keys; // block being added: series, record, lost bit
+	private volatile int complete;
+
+	SegmentIndex(int records) {
+		int blocks = (records + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+		first = new long[blocks];
+		last = new long[blocks];
+		minRtt = new int[blocks];
+		maxRtt = new int[blocks];
+		lost = new int[blocks];
+		postings = new ByteBuffer[blocks];
+	}
+
+	/** Adds record (numbered from 0) to the summary of its block */
+	void add(int record, long timestamp, int seriesId, int type, int rtt) {
+		int block = record / BLOCK_RECORDS;
+		int offset = record % BLOCK_RECORDS;
+		if (offset == 0) {
+			first[block] = Long.MAX_VALUE;
+			last[block] = Long.MIN_VALUE;
+			minRtt[block] = Integer.MAX_VALUE;
+			maxRtt[block] = Integer.MIN_VALUE;
+			if (keys == null) {
+				keys = new long[BLOCK_RECORDS];
+			}
+		}
+		first[block] = Math.min(first[block], timestamp);
+		last[block] = Math.max(last[block], timestamp);
+		keys[offset] = (long) seriesId << 32 | offset << 1;
+		if (isLost(type)) {
+			lost[block]++;
+			keys[offset] |= 1;
+		} else {
+			minRtt[block] = Math.min(minRtt[block], rtt);
+			maxRtt[block] = Math.max(maxRtt[block], rtt);
+		}
+		if (offset == BLOCK_RECORDS - 1) {
+			postings[block] = buildPostings(BLOCK_RECORDS);
+			complete = block + 1; // publishes summary and postings
+		}
+	}
+
+	/**
+	 * Marks the summaries of all blocks of the first count records as final
+	 * (the segment is full or isn't appended to by anyone)
+	 */
+	void seal(int count) {
+		int blocks = (count + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+		if (blocks > complete && postings[blocks - 1] == null) {
+			// partial last block
+			postings[blocks - 1] = buildPostings(count - (blocks - 1)
+					* BLOCK_RECORDS);
+		}
+		complete = blocks;
+	}
+
+	/** Number of blocks with final summary */
+	int getComplete() {
+		return complete;
+	}
+
+	/**
+	 * Returns the number of a series in the postings of a complete block or
+	 * -1 if the block has no records of it
+	 */
+	int find(int block, int seriesId) {
+		ByteBuffer buffer = postings[block];
+		return search(buffer, 8, buffer.getInt(0), seriesId);
+	}
+
+	/** Returns the first posting of series number i of a complete block */
+	int start(int block, int i) {
+		ByteBuffer buffer = postings[block];
+		return buffer.getInt(8 + (buffer.getInt(0) + i) * 4);
+	}
+
+	/** Returns the end of the postings of series number i */
+	int end(int block, int i) {
+		return start(block, i + 1);
+	}
+
+	/** Returns the record of a posting (offset within the block) */
+	int record(int block, int posting) {
+		ByteBuffer buffer = postings[block];
+		return buffer.getShort(8 + (2 * buffer.getInt(0) + 1 + buffer
+				.getInt(4)) * 4 + posting * 2);
+	}
+
+	/** Returns whether a complete block has lost results of a series */
+	boolean hasLost(int block, int seriesId) {
+		ByteBuffer buffer = postings[block];
+		return search(buffer, 8 + (2 * buffer.getInt(0) + 1) * 4,
+				buffer.getInt(4), seriesId) >= 0;
+	}
+
+	static boolean isLost(int type) {
+		return type >= 2; // TIMEOUT, NOT_REACHABLE
+	}
+
+	/** Binary search for a value in n ints at position (bytes) */
+	private static int search(ByteBuffer buffer, int position, int n,
+			int value) {
+		int low = 0, high = n - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midValue = buffer.getInt(position + mid * 4);
+			if (midValue < value) {
+				low = mid + 1;
+			} else if (midValue > value) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/** Builds the postings of the first records of the block being added */
+	private ByteBuffer buildPostings(int records) {
+		Arrays.sort(keys, 0, records); // by series, then record
+		int n = 0, m = 0;
+		boolean seriesLost = false;
+		for (int i = 0; i < records; i++) {
+			if (i == 0 || series(keys[i]) != series(keys[i - 1])) {
+				n++;
+				seriesLost = false;
+			}
+			if ((keys[i] & 1) != 0 && !seriesLost) {
+				m++;
+				seriesLost = true;
+			}
+		}
+
+		int ids = 8;
+		int starts = ids + n * 4;
+		int lostIds = starts + (n + 1) * 4;
+		int offsets = lostIds + m * 4;
+		ByteBuffer buffer = ByteBuffer.allocate(offsets + records * 2);
+		buffer.putInt(0, n).putInt(4, m);
+		for (int i = 0; i < records; i++) {
+			int seriesId = series(keys[i]);
+			if (i == 0 || seriesId != series(keys[i - 1])) {
+				buffer.putInt(ids, seriesId).putInt(starts, i);
+				ids += 4;
+				starts += 4;
+				seriesLost = false;
+			}
+			if ((keys[i] & 1) != 0 && !seriesLost) {
+				buffer.putInt(lostIds, seriesId);
+				lostIds += 4;
+				seriesLost = true;
+			}
+			buffer.putShort(offsets + i * 2, (short) ((int) keys[i] >>> 1));
+		}
+		buffer.putInt(starts, records);
+		return buffer;
+	}
+
+	private static int series(long key) {
+		return (int) (key >> 32);
+	}
+
+	/** Builds the index of the first count records of segment */
+	static SegmentIndex build(Segment segment, int count) {
+		SegmentIndex index = new SegmentIndex(segment.getCapacity());
+		for (int i = 0; i < count; i++) {
+			index.add(i, segment.timestamp(i), segment.series(i),
+					segment.type(i), segment.encodedRtt(i));
+		}
+		return index;
+	}
+
+	/** Returns the index file of a segment file */
+	static File file(File segment) {
+		String name = segment.getName();
+		return new File(segment.getParentFile(), name.substring(0,
+				name.length() - Segment.SUFFIX.length())
+				+ SUFFIX);
+	}
+
+	/**
+	 * Writes the complete blocks, summaries first (temporary file, renamed
+	 * when written)
+	 */
+	void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + Segment.TMP_SUFFIX);
+		int blocks = complete;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(first.length);
+			out.writeInt(blocks);
+			for (int i = 0; i < blocks; i++) {
+				out.writeLong(first[i]);
+				out.writeLong(last[i]);
+				out.writeInt(minRtt[i]);
+				out.writeInt(maxRtt[i]);
+				out.writeInt(lost[i]);
+				out.writeInt(postings[i].capacity());
+			}
+			WritableByteChannel channel = Channels.newChannel(out);
+			for (int i = 0; i < blocks; i++) {
+				channel.write(postings[i].duplicate());
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads an index file or returns null if it is missing or invalid. The
+	 * postings stay in the mapping and are paged in as queries read them.
+	 */
+	static SegmentIndex read(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			return null; // rebuilt from segment
+		}
+		try {
+			if (buffer.getInt(0) != MAGIC) {
+				return null;
+			}
+			int length = buffer.getInt(4);
+			int blocks = buffer.getInt(8);
+			if (blocks < 0 || blocks > length) {
+				return null;
+			}
+			SegmentIndex index = new SegmentIndex(length * BLOCK_RECORDS);
+			int position = HEADER_SIZE + blocks * SUMMARY_SIZE;
+			for (int i = 0; i < blocks; i++) {
+				int summary = HEADER_SIZE + i * SUMMARY_SIZE;
+				index.first[i] = buffer.getLong(summary);
+				index.last[i] = buffer.getLong(summary + 8);
+				index.minRtt[i] = buffer.getInt(summary + 16);
+				index.maxRtt[i] = buffer.getInt(summary + 20);
+				index.lost[i] = buffer.getInt(summary + 24);
+				int size = buffer.getInt(summary + 28);
+				ByteBuffer block = buffer.duplicate();
+				block.limit(position + size).position(position);
+				index.postings[i] = block.slice();
+				position += size;
+			}
+			index.complete = blocks;
+			return index;
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			return null; // truncated, rebuilt from segment
+		}
+	}
+}
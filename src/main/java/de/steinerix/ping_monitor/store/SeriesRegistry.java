@@ -0,0 +1,103 @@
+package de.steinerix.ping_monitor.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+
+/**
+ * Assigns series ids to devices by name and address and keeps them in
+ * "series.properties" of a store directory, so a device gets the same id in
+ * every run
+ * <br />
+ * The file is an append-only log in properties format: a new series appends
+ * its "key=id" line, so registering n devices writes n lines instead of
+ * rewriting the file n times. A line cut off by a crash is truncated on open
+ * (it could name a wrong id).
+ *
+ * @author usr
+ *
+ */
+class SeriesRegistry implements Closeable {
+	static final String SERIES_FILE = "series.properties";
+
+	private final Properties series = new Properties(); // key -> series id
+	private final OutputStream out; // appends to the series file
+
+	SeriesRegistry(File directory) throws IOException {
+		File file = new File(directory, SERIES_FILE);
+		if (file.exists()) {
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			int end = bytes.length;
+			while (end > 0 && bytes[end - 1] != '\n') {
+				end--; // line without end
+			}
+			if (end < bytes.length) {
+				try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					raf.setLength(end);
+				}
+			}
+			series.load(new StringReader(new String(bytes, 0, end,
+					StandardCharsets.ISO_8859_1)));
+		}
+		out = new FileOutputStream(file, true);
+	}
+
+	/** Returns the id of a device, a new id is assigned and appended */
+	synchronized int register(DeviceConfig config) throws IOException {
+		String key = key(config);
+		String value = series.getProperty(key);
+		if (value != null) {
+			return Integer.parseInt(value);
+		}
+		int id = series.size();
+		append(key, Integer.toString(id));
+		series.setProperty(key, Integer.toString(id));
+		return id;
+	}
+
+	/** Returns the id of a device or -1 if it is unknown */
+	synchronized int get(DeviceConfig config) {
+		String value = series.getProperty(key(config));
+		return value == null ? -1 : Integer.parseInt(value);
+	}
+
+	/** Returns the number of series */
+	synchronized int size() {
+		return series.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	private static String key(DeviceConfig config) {
+		return config.getName() + "@" + config.getAddr().getHostAddress();
+	}
+
+	/**
+	 * Appends an escaped "key=id" line with a single write, before the id is
+	 * handed out
+	 */
+	private void append(String key, String id) throws IOException {
+		Properties line = new Properties();
+		line.setProperty(key, id);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		line.store(bytes, null); // escaped, ISO 8859-1
+		byte[] text = bytes.toByteArray();
+		int start = 0;
+		while (text[start++] != '\n') { // skip date comment
+		}
+		out.write(text, start, text.length - start);
+	}
+}
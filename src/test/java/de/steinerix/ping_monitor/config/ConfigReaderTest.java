@@ -4,19 +4,23 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.xpath.XPathExpressionException;
-
 import org.junit.Test;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import de.steinerix.ping_monitor.config.EventConfig.Policy;
+import de.steinerix.ping_monitor.dns.ResolverCache;
+import de.steinerix.ping_monitor.dns.StubResolver;
 
 public class ConfigReaderTest {
 
 	@Test
 	public void shouldReadValidConfig() throws FileNotFoundException,
-			XPathExpressionException, SAXException {
+			SAXException {
 		ConfigReader config = new ConfigReader(
 				openFile("test-config-valid.xml"));
 		config.getDeviceConfigs();
@@ -24,7 +28,7 @@ public class ConfigReaderTest {
 
 	@Test
 	public void shouldContainTestData() throws FileNotFoundException,
-			XPathExpressionException, SAXException {
+			SAXException {
 		List<DeviceConfig> devices = new ArrayList<DeviceConfig>();
 
 		ConfigReader config = new ConfigReader(
@@ -46,10 +50,16 @@ public class ConfigReaderTest {
 				.get(0).getMaxGraph() == 500);
 		assertTrue(devices.get(0).getName() + " did not match Test machine",
 				devices.get(0).getName().equals("Test machine"));
+		assertTrue("Link quality limits are optional", devices.get(0)
+				.getJitterLimit() == 0 && devices.get(0).getLossLimit() == 0);
 
 		// check second entry
 		assertTrue(devices.get(1).getName() + " did not match Test machine 2",
 				devices.get(2).getName().equals("Test machine 3"));
+		assertTrue(devices.get(1).getJitterLimit() + " did not match 10",
+				devices.get(1).getJitterLimit() == 10);
+		assertTrue(devices.get(1).getLossLimit() + " did not match 5",
+				devices.get(1).getLossLimit() == 5);
 
 		// check third entry
 		assertTrue(devices.get(2).getName() + " did not match Test machine 3",
@@ -57,8 +67,82 @@ public class ConfigReaderTest {
 	}
 
 	@Test
-	public void shouldNotReadInvalidConfig() throws FileNotFoundException,
-			XPathExpressionException {
+	public void shouldUseDefaultProbeConfig() throws FileNotFoundException,
+			SAXException {
+		ConfigReader config = new ConfigReader(
+				openFile("test-config-valid.xml"));
+		ProbeConfig probeConfig = config.getProbeConfig();
+
+		assertTrue(probeConfig.getThreads() + " does not match default",
+				probeConfig.getThreads() == ProbeConfig.DEFAULT_THREADS);
+		assertTrue(probeConfig.getQueueCapacity() + " does not match default",
+				probeConfig.getQueueCapacity() == ProbeConfig.DEFAULT_QUEUE_CAPACITY);
+		assertTrue(probeConfig.getJitter() == ProbeConfig.DEFAULT_JITTER);
+	}
+
+	@Test
+	public void shouldUseDefaultEventConfig() throws FileNotFoundException,
+			SAXException {
+		ConfigReader config = new ConfigReader(
+				openFile("test-config-valid.xml"));
+		EventConfig eventConfig = config.getEventConfig();
+
+		assertTrue(eventConfig.getCapacity() + " does not match default",
+				eventConfig.getCapacity() == EventConfig.DEFAULT_CAPACITY);
+		assertTrue(eventConfig.getGuiPolicy() == EventConfig.DEFAULT_GUI_POLICY);
+		assertTrue(eventConfig.getLogPolicy() == EventConfig.DEFAULT_LOG_POLICY);
+		assertTrue(eventConfig.getStoragePolicy() == EventConfig.DEFAULT_STORAGE_POLICY);
+	}
+
+	@Test
+	public void shouldNotBlockPublishersByDefault() {
+		EventConfig eventConfig = new EventConfig();
+
+		assertTrue(eventConfig.getGuiPolicy() != Policy.BLOCK);
+		assertTrue(eventConfig.getLogPolicy() != Policy.BLOCK);
+		assertTrue(eventConfig.getStoragePolicy() != Policy.BLOCK);
+	}
+
+	@Test
+	public void shouldDisableStoreByDefault() throws FileNotFoundException,
+			SAXException {
+		ConfigReader config = new ConfigReader(
+				openFile("test-config-valid.xml"));
+		StoreConfig storeConfig = config.getStoreConfig();
+
+		assertFalse(storeConfig.isEnabled());
+		assertFalse(storeConfig.isRollups());
+		assertTrue(storeConfig.getShards() == StoreConfig.DEFAULT_SHARDS);
+		assertTrue(storeConfig.getRetention() == StoreConfig.DEFAULT_RETENTION);
+	}
+
+	@Test
+	public void shouldUseDefaultHistoryConfig() throws FileNotFoundException,
+			SAXException {
+		ConfigReader config = new ConfigReader(
+				openFile("test-config-valid.xml"));
+		HistoryConfig historyConfig = config.getHistoryConfig();
+
+		assertTrue(historyConfig.isEnabled() == HistoryConfig.DEFAULT_ENABLED);
+		assertTrue(historyConfig.getWindow() == HistoryConfig.DEFAULT_WINDOW);
+		assertTrue(historyConfig.getResolution() == HistoryConfig.DEFAULT_RESOLUTION);
+	}
+
+	@Test
+	public void shouldDisableMetricsByDefault() throws FileNotFoundException,
+			SAXException {
+		ConfigReader config = new ConfigReader(
+				openFile("test-config-valid.xml"));
+		MetricsConfig metricsConfig = config.getMetricsConfig();
+
+		assertFalse(metricsConfig.isEnabled());
+		assertTrue(metricsConfig.getHost().equals(MetricsConfig.DEFAULT_HOST));
+		assertTrue(metricsConfig.getPort() == MetricsConfig.DEFAULT_PORT);
+		assertTrue(metricsConfig.getReport() == MetricsConfig.DEFAULT_REPORT);
+	}
+
+	@Test
+	public void shouldNotReadInvalidConfig() throws FileNotFoundException {
 		try {
 			ConfigReader config = new ConfigReader(
 					openFile("test-config-invalid.xml"));
@@ -77,12 +161,40 @@ public class ConfigReaderTest {
 					openFile("test-config-malformed.xml"));
 			config.getDeviceConfigs();
 			fail();
-		} catch (XPathExpressionException e) {
 		} catch (SAXException e) {
 		}
 
 	}
 
+	@Test
+	public void shouldReportLineOfInvalidValue() throws FileNotFoundException {
+		try {
+			new ConfigReader(openFile("test-config-invalid.xml"));
+			fail();
+		} catch (SAXParseException e) { // <ip>invalid</ip>
+			assertTrue(e.getMessage(), e.getLineNumber() == 20);
+			assertTrue(e.getMessage(), e.getMessage().contains("line 20"));
+		} catch (SAXException e) {
+			fail(e.toString());
+		}
+	}
+
+	@Test
+	public void shouldReportLineOfMalformedConfig()
+			throws FileNotFoundException {
+		try {
+			new ConfigReader(openFile("test-config-malformed.xml"));
+			fail();
+		} catch (SAXParseException e) {
+			assertTrue(e.getLineNumber() + " is not the line of <device",
+					e.getLineNumber() >= 19 && e.getLineNumber() <= 20);
+			assertTrue(e.getMessage(), e.getMessage().contains("line "
+					+ e.getLineNumber() + ", column"));
+		} catch (SAXException e) {
+			fail(e.toString());
+		}
+	}
+
 	@Test
 	public void shouldThrowExceptionForNonExistingConfig() throws SAXException {
 		try {
@@ -92,6 +204,86 @@ public class ConfigReaderTest {
 		}
 	}
 
+	@Test
+	public void shouldReadRanges() throws Exception {
+		ConfigReader config = new ConfigReader(
+				openFile("test-config-valid.xml"));
+		List<RangeConfig> ranges = config.getRangeConfigs();
+
+		assertTrue("Test data contains one range.", ranges.size() == 1);
+		assertTrue(ranges.get(0).size() + " hosts of 10.1.0.0/24", ranges
+				.get(0).size() == 254);
+		assertTrue(ranges.get(0).getDeviceConfig(0).getName()
+				.equals("Test range 10.1.0.1"));
+	}
+
+	@Test
+	public void shouldShareSettings() throws Exception {
+		ConfigReader config = new ConfigReader(
+				openFile("test-config-templates.xml"));
+		List<DeviceConfig> devices = config.getDeviceConfigs();
+		RangeConfig range = config.getRangeConfigs().get(0);
+
+		DeviceSettings servers = devices.get(0).getSettings();
+		assertTrue("Devices of a template share its settings",
+				servers == devices.get(1).getSettings());
+		assertTrue(servers.getMinInterval() == 500
+				&& servers.getJitterLimit() == 5
+				&& devices.get(1).getEmail().getAddress()
+						.equals("servers@test.com"));
+		assertTrue("Equal settings are shared",
+				devices.get(2).getSettings() == devices.get(3).getSettings());
+		assertTrue("Hosts of a range share the template's settings", range
+				.getDeviceConfig(7).getSettings() == range.getSettings()
+				&& range.getSettings().getInterval() == 5000);
+	}
+
+	@Test
+	public void shouldResolveHostsOfDevices() throws Exception {
+		StubResolver stub = new StubResolver();
+		stub.put("router.test.tld", InetAddress.getByName("10.0.0.1"), 60);
+		stub.put("server.test.tld", InetAddress.getByName("10.0.0.2"), 60);
+		stub.put("smtp.test.tld", InetAddress.getByName("10.0.0.25"), 60);
+		ResolverCache resolver = new ResolverCache(stub, 2);
+		try {
+			ConfigReader config = new ConfigReader(
+					openFile("test-config-hosts.xml"), resolver);
+			List<DeviceConfig> devices = config.getDeviceConfigs();
+
+			assertTrue("Devices keep the order of the config file", devices
+					.get(0).getName().equals("Router")
+					&& devices.get(1).getName().equals("Test machine")
+					&& devices.get(2).getName().equals("Server"));
+			assertTrue(devices.get(0).getAddr().getHostAddress()
+					.equals("10.0.0.1"));
+			assertTrue(devices.get(0).getHost().equals("router.test.tld"));
+			assertTrue(devices.get(1).getHost() == null);
+			assertTrue(devices.get(2).getAddr().getHostAddress()
+					.equals("10.0.0.2"));
+			assertTrue(config.getMailConfig().getSmtpServer()
+					.getHostAddress().equals("10.0.0.25"));
+		} finally {
+			resolver.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldReportLineOfUnknownHost() throws Exception {
+		StubResolver stub = new StubResolver();
+		stub.put("router.test.tld", InetAddress.getByName("10.0.0.1"), 60);
+		ResolverCache resolver = new ResolverCache(stub, 2);
+		try {
+			new ConfigReader(openFile("test-config-hosts.xml"), resolver);
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage(),
+					e.getMessage().contains("server.test.tld")
+							&& e.getMessage().contains("line 34"));
+		} finally {
+			resolver.shutdown();
+		}
+	}
+
 	private File openFile(String fileName) {
 		try {
 			return new File(this.getClass().getResource("/" + fileName)
@@ -0,0 +1,65 @@
+package de.steinerix.ping_monitor.config;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigWatcherTest {
+	private File directory;
+	private File configFile;
+
+	@Before
+	public void createConfig() throws IOException {
+		directory = Files.createTempDirectory("config-watcher").toFile();
+		configFile = new File(directory, "config.xml");
+		write(configFile, "<config/>");
+	}
+
+	@After
+	public void deleteConfig() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void shouldRunListenerOnceAfterChanges() throws Exception {
+		final Semaphore changes = new Semaphore(0);
+		ConfigWatcher watcher = new ConfigWatcher(configFile, new Runnable() {
+			@Override
+			public void run() {
+				changes.release();
+			}
+		});
+		watcher.start();
+		try {
+			write(new File(directory, "other.xml"), "<other/>");
+			assertFalse("Listener ran for another file", changes.tryAcquire(
+					2 * ConfigWatcher.SETTLE_TIME, TimeUnit.MILLISECONDS));
+
+			for (int i = 0; i < 3; i++) { // saved in several steps
+				write(configFile, "<config>" + i + "</config>");
+			}
+			assertTrue("Listener didn't run",
+					changes.tryAcquire(10, TimeUnit.SECONDS));
+			assertFalse("Listener ran for each step", changes.tryAcquire(
+					2 * ConfigWatcher.SETTLE_TIME, TimeUnit.MILLISECONDS));
+		} finally {
+			watcher.stop();
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -72,6 +72,20 @@ public class DeviceConfigTest {
 		} catch (IllegalArgumentException e) {
 		}
 
+		try { // jitterLimit
+			config = new DeviceConfig(InetAddress.getByName(ip), name,
+					interval, 0, 0, timeout, limit, -1, 0, maxGraph, eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		try { // lossLimit
+			config = new DeviceConfig(InetAddress.getByName(ip), name,
+					interval, 0, 0, timeout, limit, 0, 101, maxGraph, eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
 		try { // maxGraph < limit
 			config = new DeviceConfig(InetAddress.getByName(ip), name,
 					interval, timeout, limit, limit - 1, eMail);
@@ -80,4 +94,66 @@ public class DeviceConfigTest {
 		}
 
 	}
+
+	@Test
+	public void testAdaptiveInterval() throws AddressException,
+			UnknownHostException {
+		InternetAddress eMail = new InternetAddress("daniel@steinerix.de");
+		InetAddress addr = InetAddress.getByName("127.0.0.1");
+
+		DeviceConfig config = new DeviceConfig(addr, "Test machine", 1000, 0,
+				50, 100, eMail);
+		assertFalse(config.isAdaptive());
+		assertEquals(1000, config.getMinInterval());
+		assertEquals(1000, config.getMaxInterval());
+
+		config = new DeviceConfig(addr, "Test machine", 1000, 500, 4000, 0,
+				50, 100, eMail);
+		assertTrue(config.isAdaptive());
+		assertEquals(500, config.getMinInterval());
+		assertEquals(4000, config.getMaxInterval());
+
+		try { // mininterval > interval
+			new DeviceConfig(addr, "Test machine", 1000, 2000, 4000, 0, 50,
+					100, eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		try { // maxinterval < interval
+			new DeviceConfig(addr, "Test machine", 1000, 500, 800, 0, 50,
+					100, eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+
+		try { // flooding protection
+			new DeviceConfig(addr, "Test machine", 1000, 50, 4000, 0, 50,
+					100, eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void shouldShareSettings() throws Exception {
+		DeviceSettings settings = new DeviceSettings(1000, 0, 0, 0, 50, 0, 0,
+				500, new InternetAddress("test@test.com"));
+		DeviceConfig first = new DeviceConfig(
+				InetAddress.getByName("10.0.0.1"), "First", settings);
+		DeviceConfig second = new DeviceConfig(
+				InetAddress.getByName("10.0.0.2"), "Second", settings);
+
+		assertTrue(first.getSettings() == second.getSettings());
+		assertTrue(first.getInterval() == 1000
+				&& first.getMinInterval() == 1000 && !first.isAdaptive());
+		assertTrue("Configs with equal values are equal",
+				first.equals(new DeviceConfig(InetAddress
+						.getByName("10.0.0.1"), "First", 1000, 0, 50, 500,
+						new InternetAddress("test@test.com"))));
+
+		// the notification address can't be changed through a config
+		first.getEmail().setAddress("other@test.com");
+		assertTrue(second.getEmail().getAddress().equals("test@test.com"));
+	}
 }
@@ -0,0 +1,64 @@
+package de.steinerix.ping_monitor.config;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+public class RangeConfigTest {
+
+	@Test
+	public void shouldExpandCidrBlock() throws Exception {
+		RangeConfig range = RangeConfig.ofCidr("10.1.7.9/16", "Net", 1000, 0,
+				50, 500, new InternetAddress("test@test.com"));
+
+		assertTrue(range.size() + " hosts", range.size() == 65534);
+		assertTrue(range.getAddr(0).getHostAddress().equals("10.1.0.1"));
+		assertTrue(range.getAddr(65533).getHostAddress()
+				.equals("10.1.255.254"));
+		assertTrue(range.indexOf(InetAddress.getByName("10.1.1.0")) == 255);
+		assertTrue(range.indexOf(InetAddress.getByName("10.2.0.1")) == -1);
+
+		DeviceConfig config = range.getDeviceConfig(255);
+		assertTrue(config.getName().equals("Net 10.1.1.0"));
+		assertTrue(config.getLimit() == 50);
+		assertTrue("Configs of a host are equal",
+				config.equals(range.getDeviceConfig(255)));
+	}
+
+	@Test
+	public void shouldKeepAllAddressesOfSmallBlocks() throws Exception {
+		InternetAddress eMail = new InternetAddress("test@test.com");
+		assertTrue(RangeConfig.ofCidr("10.0.0.4/31", "Net", 1000, 0, 50, 500,
+				eMail).size() == 2);
+		assertTrue(RangeConfig.ofCidr("10.0.0.4/32", "Net", 1000, 0, 50, 500,
+				eMail).size() == 1);
+	}
+
+	@Test
+	public void shouldRejectInvalidRanges() throws Exception {
+		InternetAddress eMail = new InternetAddress("test@test.com");
+		try { // too large
+			RangeConfig.ofCidr("10.0.0.0/8", "Net", 1000, 0, 50, 500, eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try { // last before first
+			new RangeConfig(InetAddress.getByName("10.0.0.9"),
+					InetAddress.getByName("10.0.0.1"), "Net", 1000, 0, 50,
+					500, eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try { // shared settings are validated
+			new RangeConfig(InetAddress.getByName("10.0.0.1"),
+					InetAddress.getByName("10.0.0.9"), "Net", 10, 0, 50, 500,
+					eMail);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
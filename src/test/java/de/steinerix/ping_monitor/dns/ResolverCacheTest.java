@@ -0,0 +1,115 @@
+package de.steinerix.ping_monitor.dns;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResolverCacheTest {
+	private StubResolver stub;
+	private ResolverCache cache;
+
+	@Before
+	public void createCache() {
+		stub = new StubResolver();
+		cache = new ResolverCache(stub, 8);
+	}
+
+	@After
+	public void shutdownCache() {
+		cache.shutdown();
+	}
+
+	@Test
+	public void shouldResolveHostsConcurrently() throws Exception {
+		List<String> hosts = new ArrayList<String>();
+		for (int i = 0; i < 16; i++) {
+			hosts.add("host" + i + ".test.tld");
+			stub.put(hosts.get(i), address(i), 60);
+		}
+		stub.setDelay(100);
+
+		long start = System.nanoTime();
+		Map<String, InetAddress> addresses = cache.resolveAll(hosts);
+		long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(time + " ms for 16 lookups of 100 ms", time < 1000);
+		for (int i = 0; i < 16; i++) {
+			assertTrue(addresses.get(hosts.get(i)).equals(address(i)));
+		}
+	}
+
+	@Test
+	public void shouldCacheAddressForTtl() throws Exception {
+		stub.put("host.test.tld", address(1), 60);
+		stub.put("short.test.tld", address(2), 0);
+
+		cache.resolve("host.test.tld");
+		cache.resolve("host.test.tld");
+		assertTrue(stub.getLookups() + " lookups", stub.getLookups() == 1);
+
+		cache.resolve("short.test.tld");
+		Thread.sleep(5);
+		cache.resolve("short.test.tld");
+		assertTrue(stub.getLookups() + " lookups", stub.getLookups() == 3);
+	}
+
+	@Test
+	public void shouldRefreshChangedAddress() throws Exception {
+		final BlockingQueue<InetAddress> changes = new LinkedBlockingQueue<InetAddress>();
+		cache.addListener(new ResolverCache.Listener() {
+			@Override
+			public void addressChanged(String host, InetAddress address) {
+				changes.add(address);
+			}
+		});
+		stub.put("host.test.tld", address(1), 1);
+		cache.resolve("host.test.tld");
+		cache.start();
+
+		stub.put("host.test.tld", address(2), 60);
+		InetAddress changed = changes.poll(10, TimeUnit.SECONDS);
+		assertTrue("Listener wasn't told", address(2).equals(changed));
+		assertTrue(cache.resolve("host.test.tld").equals(address(2)));
+	}
+
+	@Test
+	public void shouldKeepAddressIfRefreshFails() throws Exception {
+		stub.put("host.test.tld", address(1), 0);
+		cache.resolve("host.test.tld");
+		stub.remove("host.test.tld");
+
+		cache.refreshExpired();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (stub.getLookups() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(50); // refresh completes after the lookup
+
+		assertTrue(cache.resolve("host.test.tld").equals(address(1)));
+		assertTrue(stub.getLookups() + " lookups", stub.getLookups() == 2);
+	}
+
+	@Test(expected = UnknownHostException.class)
+	public void shouldThrowForUnknownHost() throws Exception {
+		stub.put("host.test.tld", address(1), 60);
+		List<String> hosts = new ArrayList<String>();
+		hosts.add("host.test.tld");
+		hosts.add("unknown.test.tld");
+		cache.resolveAll(hosts);
+	}
+
+	private static InetAddress address(int i) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) i });
+	}
+}
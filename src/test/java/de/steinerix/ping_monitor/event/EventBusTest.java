@@ -0,0 +1,278 @@
+package de.steinerix.ping_monitor.event;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.config.EventConfig.Policy;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.ProbeResult;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+
+public class EventBusTest {
+	private static final int PRODUCERS = 4;
+	private static final int EVENTS = 20000;
+
+	private EventBus bus;
+
+	@After
+	public void shutdown() {
+		if (bus != null) {
+			bus.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldDeliverAllEventsInOrderToBlockingConsumer()
+			throws Exception {
+		bus = new EventBus(64); // much smaller than the number of events
+		final Device[] devices = createDevices(PRODUCERS);
+		final Recorder recorder = new Recorder(PRODUCERS * EVENTS, 0);
+		EventBus.Consumer consumer = bus.addConsumer("block", recorder,
+				Policy.BLOCK);
+		bus.start();
+
+		produce(devices, EVENTS);
+		assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+
+		// per producer, rtt counts up without gaps
+		for (int i = 0; i < PRODUCERS; i++) {
+			List<Long> rtts = recorder.rtts(devices[i]);
+			assertTrue(rtts.size() + " events of producer " + i,
+					rtts.size() == EVENTS);
+			for (int j = 0; j < EVENTS; j++) {
+				assertTrue(rtts.get(j) == j);
+			}
+		}
+		assertTrue(consumer.getDropped() == 0);
+	}
+
+	@Test
+	public void shouldNotDelayProducersBySlowConsumer() throws Exception {
+		bus = new EventBus(64);
+		Device[] devices = createDevices(1);
+		EventBus.Consumer consumer = bus.addConsumer("slow", new Recorder(0,
+				1), Policy.DROP);
+		bus.start();
+
+		long start = System.nanoTime();
+		produce(devices, EVENTS); // would take > 20 s at 1 ms per event
+		long elapsed = System.nanoTime() - start;
+
+		assertTrue(elapsed / 1000000 + "ms to publish",
+				elapsed < TimeUnit.SECONDS.toNanos(5));
+		assertTrue(bus.getPublishWaits() == 0);
+		Thread.sleep(100);
+		assertTrue(consumer.getDropped() + " dropped",
+				consumer.getDropped() > 0);
+	}
+
+	@Test
+	public void shouldCoalesceRepliesButKeepAlarms() throws Exception {
+		bus = new EventBus(1024);
+		Device[] devices = createDevices(2);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Recorder recorder = new Recorder(0, 0) {
+			@Override
+			public void reply(Device device, int type, long rtt,
+					long timestamp) {
+				if (rtt == -1) { // first event: hold consumer, so a batch queues
+					blocked.countDown();
+					await(release);
+				}
+				super.reply(device, type, rtt, timestamp);
+			}
+		};
+		EventBus.Consumer consumer = bus.addConsumer("gui", recorder,
+				Policy.COALESCE);
+		bus.start();
+
+		bus.reply(devices[0], DeviceListener.NORMAL, -1, 0);
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 100; i++) {
+			bus.reply(devices[0], DeviceListener.NORMAL, i, 0);
+			bus.reply(devices[1], DeviceListener.NORMAL, 1000 + i, 0);
+			if (i % 10 == 0) {
+				bus.alarm(new DeviceEvent(devices[0], ProbeResult.timeout()));
+			}
+		}
+		release.countDown();
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (consumer.getLag() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(recorder.rtts(devices[0]).equals(listOf(-1L, 99L)));
+		assertTrue(recorder.rtts(devices[1]).equals(listOf(1099L)));
+		assertTrue(recorder.alarms + " alarms", recorder.alarms == 10);
+		assertTrue(consumer.getCoalesced() == 198);
+	}
+
+	@Test
+	public void shouldDrainRingOnShutdown() throws Exception {
+		bus = new EventBus(1024);
+		Device[] devices = createDevices(1);
+		Recorder recorder = new Recorder(0, 1);
+		EventBus.Consumer consumer = bus.addConsumer("storage", recorder,
+				Policy.BLOCK);
+		bus.start();
+
+		for (int i = 0; i < 200; i++) {
+			bus.reply(devices[0], DeviceListener.NORMAL, i, 0);
+		}
+		assertTrue("Consumers still running", bus.shutdown(5000));
+		assertTrue(recorder.rtts(devices[0]).size() + " events handled",
+				recorder.rtts(devices[0]).size() == 200);
+		assertTrue(consumer.getLag() == 0);
+
+		bus.reply(devices[0], DeviceListener.NORMAL, 200, 0); // discarded
+		assertTrue(bus.getPublished() == 200);
+	}
+
+	@Test
+	public void shouldParkIdleConsumers() throws Exception {
+		bus = new EventBus(64);
+		Device[] devices = createDevices(1);
+		Recorder recorder = new Recorder(2, 0);
+		bus.addConsumer("idle", recorder, Policy.DROP);
+		bus.start();
+		bus.reply(devices[0], DeviceListener.NORMAL, 0, 0);
+
+		Thread consumer = null;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("EventBus-idle")) {
+				consumer = thread;
+			}
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (consumer.getState() != Thread.State.WAITING
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(consumer.getState() + " while idle",
+				consumer.getState() == Thread.State.WAITING); // no timeout
+
+		bus.reply(devices[0], DeviceListener.NORMAL, 1, 0); // unparks
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertTrue(recorder.rtts(devices[0]).equals(listOf(0L, 1L)));
+	}
+
+	@Test
+	public void shouldRejectInvalidCapacity() {
+		try {
+			new EventBus(1000);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	/** Publishes events replies per device, one producer thread per device */
+	private void produce(final Device[] devices, final int events)
+			throws InterruptedException {
+		Thread[] threads = new Thread[devices.length];
+		for (int i = 0; i < devices.length; i++) {
+			final Device device = devices[i];
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < events; j++) {
+						bus.reply(device, DeviceListener.NORMAL, j, 0);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+
+	private Device[] createDevices(int count) throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().build();
+		Device[] devices = new Device[count];
+		for (int i = 0; i < count; i++) {
+			DeviceConfig config = new DeviceConfig(
+					InetAddress.getByName("127.0.0." + (i + 1)), "Device " + i,
+					1000, 1000, 50, 100, new InternetAddress("test@test.com"));
+			devices[i] = new Device(config, backend);
+		}
+		return devices;
+	}
+
+	private static List<Long> listOf(Long... values) {
+		List<Long> list = new ArrayList<Long>();
+		Collections.addAll(list, values);
+		return list;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Records replies (consumer thread only), optionally slowly */
+	private static class Recorder implements DeviceListener {
+		final List<Device> devices = new ArrayList<Device>();
+		final List<Long> rtts = new ArrayList<Long>();
+		final CountDownLatch done;
+		final long delay;
+		volatile int alarms = 0;
+
+		Recorder(int expected, long delay) {
+			this.done = new CountDownLatch(expected);
+			this.delay = delay;
+		}
+
+		@Override
+		public void alarm(DeviceEvent event) {
+			alarms++;
+		}
+
+		@Override
+		public void clear(DeviceEvent event) {
+		}
+
+		@Override
+		public void reply(Device device, int type, long rtt, long timestamp) {
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			synchronized (this) {
+				devices.add(device);
+				rtts.add(rtt);
+			}
+			done.countDown();
+		}
+
+		synchronized List<Long> rtts(Device device) {
+			List<Long> result = new ArrayList<Long>();
+			for (int i = 0; i < devices.size(); i++) {
+				if (devices.get(i) == device) {
+					result.add(rtts.get(i));
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.steinerix.ping_monitor.history;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.ping.DeviceListener;
+
+public class CompressedHistoryTest {
+	private static final long DAY = 24 * 3600000L;
+	private static final long RESOLUTION = 1000000; // 1 ms
+
+	@Test
+	public void shouldDecodeAppendedSamples() {
+		CompressedHistory history = new CompressedHistory(DAY, 1);
+		Random random = new Random(1);
+		long[][] samples = new long[5000][];
+		long timestamp = 1500000000000L;
+		for (int i = 0; i < samples.length; i++) {
+			// irregular intervals, all types, full ns resolution
+			timestamp += random.nextInt(10) == 0 ? random.nextInt(100000)
+					: 1000 + random.nextInt(5);
+			int type = random.nextInt(4);
+			long rtt = type <= DeviceListener.LIMIT_EXCEEDED ? random
+					.nextInt(1000000000) : 0;
+			samples[i] = new long[] { timestamp, type, rtt };
+			history.append(timestamp, type, rtt);
+		}
+
+		List<long[]> decoded = read(history, 0, Long.MAX_VALUE);
+		assertTrue(decoded.size() + " samples", decoded.size() == samples.length);
+		for (int i = 0; i < samples.length; i++) {
+			assertArrayEquals(samples[i], decoded.get(i));
+		}
+
+		// range across blocks
+		List<long[]> range = read(history, samples[1000][0], samples[3000][0]);
+		assertTrue(range.size() == 2001);
+		assertArrayEquals(samples[1000], range.get(0));
+	}
+
+	@Test
+	public void shouldStoreSampleInLessThanTwoBytes() {
+		CompressedHistory history = new CompressedHistory(DAY, RESOLUTION);
+		Random random = new Random(1);
+		long timestamp = 1500000000000L;
+		int samples = 86400; // 24 h at 1 s
+		for (int i = 0; i < samples; i++) {
+			// reply arrives 20 ms +- 2 ms after a probe sent every second
+			long rtt = (long) ((20 + 2 * random.nextGaussian()) * 1000000);
+			int type = DeviceListener.NORMAL;
+			if (i % 3600 < 60) { // one minute outage per hour
+				type = DeviceListener.TIMEOUT;
+				rtt = 0;
+			}
+			history.append(timestamp + i * 1000L + rtt / 1000000, type, rtt);
+		}
+
+		double bytes = (double) history.getSize() / samples;
+		assertTrue(bytes + " bytes per sample", bytes < 2);
+		assertTrue(history.getCount() == samples);
+	}
+
+	@Test
+	public void shouldDropBlocksOutsideWindow() {
+		CompressedHistory history = new CompressedHistory(60000, RESOLUTION);
+		for (int i = 0; i < 10 * CompressedHistory.BLOCK_SAMPLES; i++) {
+			history.append(1 + i * 1000L, DeviceListener.NORMAL, 1000000);
+		}
+		// window of 60 samples, but full blocks are dropped only
+		int count = history.getCount();
+		assertTrue(count + " samples", count >= 60
+				&& count <= 2 * CompressedHistory.BLOCK_SAMPLES);
+		List<long[]> decoded = read(history, 0, Long.MAX_VALUE);
+		assertTrue(decoded.get(decoded.size() - 1)[0] == 1 + (10
+				* CompressedHistory.BLOCK_SAMPLES - 1) * 1000L);
+		assertTrue(decoded.get(0)[2] == 1000000);
+	}
+
+	private List<long[]> read(CompressedHistory history, long from, long to) {
+		final List<long[]> samples = new ArrayList<long[]>();
+		history.read(from, to, new CompressedHistory.SampleVisitor() {
+			@Override
+			public void sample(long timestamp, int type, long rtt) {
+				samples.add(new long[] { timestamp, type, rtt });
+			}
+		});
+		return samples;
+	}
+}
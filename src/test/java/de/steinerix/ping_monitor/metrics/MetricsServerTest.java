@@ -0,0 +1,193 @@
+package de.steinerix.ping_monitor.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.config.MetricsConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+import de.steinerix.ping_monitor.stats.LatencyWindows;
+
+public class MetricsServerTest {
+	private final SimulatedBackend backend = new SimulatedBackend.Builder()
+			.build();
+
+	@Test
+	public void shouldRenderDeviceMetrics() throws Exception {
+		DeviceMetrics metrics = new DeviceMetrics();
+		Device device = createDevice("Router \"1\"", 1);
+		LatencyWindows windows = new LatencyWindows();
+		metrics.register(device, windows);
+		metrics.register(createDevice("Switch", 2), null); // no reply yet
+
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			metrics.reply(device, DeviceListener.NORMAL, 12500000, now);
+			windows.record(now, 12500000);
+		}
+		metrics.reply(device, DeviceListener.TIMEOUT, 0, now);
+		metrics.reply(device, DeviceListener.TIMEOUT, 0, now);
+
+		String body = render(new MetricsServer(metrics));
+		String labels = "{name=\"Router \\\"1\\\"\",address=\"127.0.0.1\"";
+
+		assertTrue(body, body.contains("ping_monitor_devices 2\n"));
+		assertTrue(body, body.contains("ping_monitor_rtt_seconds" + labels
+				+ "} 0.0125\n"));
+		assertFalse(body, body.contains("ping_monitor_rtt_seconds{name=\"Switch\""));
+		assertTrue(body, body.contains("ping_monitor_results_total" + labels
+				+ ",type=\"normal\"} 100\n"));
+		assertTrue(body, body.contains("ping_monitor_results_total" + labels
+				+ ",type=\"timeout\"} 2\n"));
+		assertTrue(body, body.contains("ping_monitor_alarm" + labels + "} 0\n"));
+		assertTrue(body, body.contains("ping_monitor_jitter_seconds" + labels
+				+ "} 0\n"));
+		assertTrue(body, body.contains("ping_monitor_loss_ratio" + labels
+				+ ",window=\"100\"} 0\n"));
+		assertTrue(body, body.contains("ping_monitor_loss_run" + labels
+				+ "} 0\n"));
+		assertTrue(body, body.contains("ping_monitor_latency_seconds" + labels
+				+ ",window=\"5m\",quantile=\"0.99\"} 0.012"));
+		assertTrue(body, body.contains("ping_monitor_latency_seconds_count"
+				+ labels + ",window=\"1m\"} 100\n"));
+		assertTrue(body, body.endsWith("# EOF\n"));
+	}
+
+	@Test
+	public void shouldNotRenderDeregisteredDevice() throws Exception {
+		DeviceMetrics metrics = new DeviceMetrics();
+		Device device = createDevice("Router", 1);
+		metrics.register(device, null);
+		metrics.register(createDevice("Switch", 2), null);
+		metrics.deregister(device);
+		metrics.reply(device, DeviceListener.NORMAL, 12500000, 0);
+
+		String body = render(new MetricsServer(metrics));
+		assertTrue(body, body.contains("ping_monitor_devices 1\n"));
+		assertFalse(body, body.contains("name=\"Router\""));
+		assertTrue(body, body.contains("name=\"Switch\""));
+	}
+
+	@Test
+	public void shouldFormatSeconds() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MetricsWriter writer = new MetricsWriter(32);
+		writer.reset(out);
+		long[] values = { 0, 1, 1234567, 500000000, 2000000000, 12000000001L };
+		for (long value : values) {
+			writer.writeSeconds(value).write(' ');
+		}
+		writer.write(-42).write(' ').write(Long.MIN_VALUE);
+		writer.flush();
+		assertEquals("0 0.000000001 0.001234567 0.5 2 12.000000001 -42 "
+				+ Long.MIN_VALUE, new String(out.toByteArray(),
+				StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void shouldServeScrapes() throws Exception {
+		DeviceMetrics metrics = new DeviceMetrics();
+		metrics.register(createDevice("Router", 1), null);
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		MetricsServer server = new MetricsServer(metrics);
+		server.start(new MetricsConfig(true, "localhost", port));
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://localhost:" + port + "/metrics").openConnection();
+			assertTrue(connection.getResponseCode() == 200);
+			assertEquals(MetricsServer.CONTENT_TYPE,
+					connection.getContentType());
+			try (InputStream in = connection.getInputStream()) {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				for (int n; (n = in.read(buffer)) > 0;) {
+					body.write(buffer, 0, n);
+				}
+				String text = body.toString("UTF-8");
+				assertTrue(text, text.startsWith("# TYPE ping_monitor_devices"));
+				assertTrue(text, text.endsWith("# EOF\n"));
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void shouldScrapeManyDevicesWithoutAllocating() throws Exception {
+		DeviceMetrics metrics = new DeviceMetrics();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 10000; i++) {
+			Device device = createDevice("Device " + i, 1 + i % 250);
+			LatencyWindows windows = new LatencyWindows();
+			metrics.register(device, windows);
+			for (int r = 0; r < 10; r++) {
+				metrics.reply(device, DeviceListener.NORMAL, 1000000 * (r + 1),
+						now);
+				windows.record(now, 1000000 * (r + 1));
+			}
+		}
+		MetricsServer server = new MetricsServer(metrics);
+		CountingStream out = new CountingStream();
+		for (int i = 0; i < 5; i++) { // warm up
+			server.render(out);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		out.count = 0;
+		long before = threads.getThreadAllocatedBytes(thread);
+		server.render(out);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		assertTrue(out.count + " bytes", out.count > 1000000);
+		assertTrue(allocated + " bytes allocated by a scrape",
+				allocated < 10000); // iterators, measurement
+	}
+
+	private String render(MetricsServer server) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.render(out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private Device createDevice(String name, int host) throws Exception {
+		DeviceConfig config = new DeviceConfig(
+				InetAddress.getByName("127.0.0." + host), name, 1000, 1000,
+				50, 100, new InternetAddress("test@test.com"));
+		return new Device(config, backend);
+	}
+
+	/** Counts the bytes written to it */
+	private static class CountingStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
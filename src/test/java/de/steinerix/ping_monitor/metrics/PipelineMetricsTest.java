@@ -0,0 +1,134 @@
+package de.steinerix.ping_monitor.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.PingResponse.Type;
+import de.steinerix.ping_monitor.PlotInterface;
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.config.EventConfig.Policy;
+import de.steinerix.ping_monitor.event.EventBus;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceEvent;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.PingDriver;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+
+public class PipelineMetricsTest {
+
+	@Test
+	public void shouldMeasurePipeline() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().rtt(1, 2)
+				.build();
+		PingDriver driver = new PingDriver(backend);
+		EventBus bus = new EventBus(1024);
+		bus.addConsumer("slow \"log\"", new DeviceListener() {
+			@Override
+			public void reply(Device device, int type, long rtt,
+					long timestamp) {
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void alarm(DeviceEvent event) {
+			}
+
+			@Override
+			public void clear(DeviceEvent event) {
+			}
+		}, Policy.BLOCK);
+		bus.start();
+		PipelineMetrics pipeline = new PipelineMetrics(driver, bus,
+				new PlotInterface() {
+					@Override
+					public int addPingGraph(String name, InetAddress ip,
+							int maxGraph, int limit, int interval) {
+						return 0;
+					}
+
+					@Override
+					public void updatePingGraph(int id, Type type, double time) {
+					}
+
+					@Override
+					public int getBacklog() {
+						return 7;
+					}
+				});
+		try {
+			for (int i = 1; i <= 10; i++) {
+				Device device = new Device(new DeviceConfig(
+						InetAddress.getByName("127.0.0." + i), "Device " + i,
+						100, 1000, 50, 100,
+						new InternetAddress("test@test.com")), backend);
+				device.addListener(bus);
+				driver.registerDevice(device);
+			}
+			Thread.sleep(550);
+		} finally {
+			driver.shutdown();
+			bus.shutdown();
+		}
+
+		assertTrue(driver.getSchedulingLag().getCount() >= 40);
+		assertTrue(driver.getProbeLatency().getCount() >= 40);
+		assertTrue("probe latency includes the simulated RTT", driver
+				.getProbeLatency().getMax() >= 1000000);
+		assertTrue(driver.getProbesInFlight() >= 0);
+		assertTrue(bus.getConsumers().get(0).getListenerTime().getMax() >= 2000000);
+
+		String body = render(pipeline);
+		String labels = "{consumer=\"slow \\\"log\\\"\"} ";
+
+		assertTrue(body, body.contains("ping_monitor_scheduler_lag_seconds_count "
+				+ driver.getSchedulingLag().getCount() + "\n"));
+		assertTrue(body, body.contains("ping_monitor_probes_in_flight "));
+		assertTrue(body, body.contains("ping_monitor_probe_latency_max_seconds 0.00"));
+		assertTrue(body, body.contains("ping_monitor_listener_seconds_count"
+				+ labels + bus.getConsumers().get(0).getHandled() + "\n"));
+		assertTrue(body, body.contains("ping_monitor_listener_max_seconds"
+				+ labels + "0.00"));
+		assertTrue(body, body.contains("ping_monitor_events_dropped_total"
+				+ labels + "0\n"));
+		assertTrue(body, body.contains("ping_monitor_gui_backlog 7\n"));
+		assertTrue("maxima not reset by a scrape", driver.getProbeLatency()
+				.getMax() >= 1000000);
+
+		String report = pipeline.report();
+		assertTrue(report, report.contains("slow \"log\" avg "));
+		assertTrue(report, report.endsWith("GUI backlog 7"));
+		assertTrue("maxima reset by the report", driver.getProbeLatency()
+				.getMax() == 0);
+		report = pipeline.report();
+		assertTrue(report, report.startsWith("Pipeline: scheduler lag avg 0.000 ms"));
+
+		// scrapes have a window of their own
+		driver.getProbeLatency().record(5000000);
+		pipeline.report();
+		body = render(pipeline);
+		assertTrue(body, body.contains("ping_monitor_probe_latency_max_seconds 0.005\n"));
+		body = render(pipeline);
+		assertTrue(body, body.contains("ping_monitor_probe_latency_max_seconds 0\n"));
+	}
+
+	private String render(PipelineMetrics pipeline) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MetricsWriter writer = new MetricsWriter(256);
+		writer.reset(out);
+		pipeline.render(writer);
+		writer.flush();
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
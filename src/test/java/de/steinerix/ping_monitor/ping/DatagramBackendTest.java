@@ -0,0 +1,153 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatagramBackendTest {
+	private DatagramBackend backend;
+
+	@Before
+	public void setUp() {
+		// requires Linux and net.ipv4.ping_group_range including our group
+		assumeTrue(DatagramBackend.isSupported());
+		backend = new DatagramBackend(2);
+	}
+
+	@After
+	public void tearDown() {
+		if (backend != null) {
+			backend.shutdown();
+		}
+	}
+
+	@Test
+	public void shouldComputeInternetChecksum() {
+		byte[] packet = new byte[24];
+		DatagramBackend.encodeRequest(packet, 0x1234, System.nanoTime(), 42);
+		assertTrue("Checksum of packet with checksum should be 0",
+				DatagramBackend.checksum(packet, packet.length) == 0);
+	}
+
+	@Test
+	public void shouldPingLocalhost() throws Exception {
+		Recorder recorder = new Recorder(1);
+		ProbeTarget target = backend.createTarget(
+				InetAddress.getByName("127.0.0.1"), 1000, recorder);
+
+		assertTrue(target.probe());
+		recorder.await();
+
+		assertTrue(recorder.replies.get() == 1);
+		assertTrue(backend.getReplies() == 1);
+		assertTrue(backend.getInFlight() == 0);
+	}
+
+	@Test
+	public void shouldMatchRepliesOfManyTargets() throws Exception {
+		final int targets = 5000;
+		Recorder recorder = new Recorder(targets);
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		ProbeTarget[] probeTargets = new ProbeTarget[targets];
+		for (int i = 0; i < targets; i++) {
+			probeTargets[i] = backend.createTarget(localhost, 2000, recorder);
+		}
+
+		long start = System.nanoTime();
+		for (ProbeTarget target : probeTargets) {
+			assertTrue(target.probe());
+		}
+		recorder.await();
+		long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- start);
+
+		assertTrue(recorder.replies.get() + " replies of " + targets
+				+ " within " + duration + "ms",
+				recorder.replies.get() == targets);
+	}
+
+	@Test
+	public void shouldCreateTargetsAfterCounterOverflow() throws Exception {
+		backend.targetCount.set(Integer.MAX_VALUE - 2); // e.g. after a sweep
+		Recorder recorder = new Recorder(5);
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		for (int i = 0; i < 5; i++) {
+			assertTrue(backend.createTarget(localhost, 2000, recorder).probe());
+		}
+		recorder.await();
+
+		assertTrue(recorder.replies.get() + " replies",
+				recorder.replies.get() == 5);
+		assertTrue(backend.targetCount.get() < 0);
+	}
+
+	@Test
+	public void shouldStopSendingOnShutdown() throws Exception {
+		final InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		final AtomicInteger sends = new AtomicInteger();
+		Thread[] senders = new Thread[4];
+		for (int i = 0; i < senders.length; i++) {
+			senders[i] = new Thread() {
+				@Override
+				public void run() {
+					while (backend.createTarget(localhost, 1000,
+							new Recorder(1)).probe()) {
+						sends.incrementAndGet();
+					}
+				}
+			};
+			senders[i].start();
+		}
+		Thread.sleep(100);
+		backend.shutdown(); // while senders are in sendto
+
+		for (Thread sender : senders) {
+			sender.join(5000);
+			assertFalse("Sending after shutdown", sender.isAlive());
+		}
+		assertTrue(sends.get() > 0);
+		assertFalse(backend.createTarget(localhost, 1000, new Recorder(1))
+				.probe());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectIpv6() throws Exception {
+		backend.createTarget(InetAddress.getByName("::1"), 1000,
+				new Recorder(0));
+	}
+
+	/** records results of all probes */
+	private static class Recorder implements ProbeCallback {
+		final CountDownLatch done;
+		final AtomicInteger replies = new AtomicInteger();
+
+		Recorder(int expected) {
+			done = new CountDownLatch(expected);
+		}
+
+		@Override
+		public void onSuccess(ProbeResult result) {
+			if (result.getSuccessFlag()) {
+				replies.incrementAndGet();
+			}
+			done.countDown();
+		}
+
+		@Override
+		public void onFailure(Throwable throwable) {
+			fail(throwable.getMessage());
+		}
+
+		void await() throws InterruptedException {
+			assertTrue("Results missing", done.await(10, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DeadlineQueueTest {
+
+	@Test
+	public void shouldReturnItemsInDeadlineOrder() {
+		DeadlineQueue<String> queue = new DeadlineQueue<String>();
+		queue.add("c", 30, 1000);
+		queue.add("a", 10, 1000);
+		queue.add("b", 20, 1000);
+
+		assertTrue(queue.peekDeadline() + " does not match 10",
+				queue.peekDeadline() == 10);
+		assertEquals("a", queue.pollDue(100));
+		assertEquals("b", queue.pollDue(100));
+		assertEquals("c", queue.pollDue(100));
+		assertNull("No item should be due", queue.pollDue(100));
+	}
+
+	@Test
+	public void shouldNotReturnItemBeforeDeadline() {
+		DeadlineQueue<String> queue = new DeadlineQueue<String>();
+		queue.add("a", 50, 100);
+
+		assertNull(queue.pollDue(49));
+		assertEquals("a", queue.pollDue(50));
+		assertTrue(queue.getDeadline("a") + " does not match 150",
+				queue.getDeadline("a") == 150);
+	}
+
+	@Test
+	public void shouldRescheduleItem() {
+		DeadlineQueue<String> queue = new DeadlineQueue<String>();
+		queue.add("a", 100, 1000);
+		queue.add("b", 200, 1000);
+
+		assertTrue(queue.reschedule("b", 50, 10));
+		assertFalse(queue.reschedule("c", 50, 10));
+		assertEquals("b", queue.pollDue(50));
+		assertTrue(queue.getDeadline("b") + " does not match 60",
+				queue.getDeadline("b") == 60);
+	}
+
+	@Test
+	public void shouldSkipMissedDeadlines() {
+		DeadlineQueue<String> queue = new DeadlineQueue<String>();
+		queue.add("a", 0, 100);
+
+		// caller fell behind by several periods
+		assertEquals("a", queue.pollDue(1050));
+		assertTrue(queue.getDeadline("a") + " does not match 1150",
+				queue.getDeadline("a") == 1150);
+	}
+
+	@Test
+	public void shouldAddItemOnlyOnce() {
+		DeadlineQueue<String> queue = new DeadlineQueue<String>();
+		assertTrue(queue.add("a", 0, 100));
+		assertFalse(queue.add("a", 0, 100));
+		assertTrue(queue.size() == 1);
+	}
+
+	@Test
+	public void shouldRemoveItems() {
+		DeadlineQueue<Integer> queue = new DeadlineQueue<Integer>();
+		for (int i = 0; i < 100; i++) {
+			queue.add(i, i, 1000);
+		}
+		for (int i = 0; i < 100; i += 2) {
+			assertTrue(queue.remove(i));
+		}
+		assertFalse(queue.remove(0));
+		assertTrue(queue.size() == 50);
+
+		// remaining items are still ordered
+		for (int i = 1; i < 100; i += 2) {
+			assertEquals(Integer.valueOf(i), queue.pollDue(100));
+		}
+	}
+
+	@Test
+	public void shouldKeepHeapOrderWithRandomDeadlines() {
+		DeadlineQueue<Integer> queue = new DeadlineQueue<Integer>();
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			queue.add(i, random.nextInt(1000000), Long.MAX_VALUE / 2);
+		}
+
+		long last = Long.MIN_VALUE;
+		while (queue.peekDeadline() < 1000000) {
+			long deadline = queue.peekDeadline();
+			assertTrue("Deadlines not in order", deadline >= last);
+			assertNotNull(queue.pollDue(deadline));
+			last = deadline;
+		}
+	}
+
+	@Test
+	public void shouldHandleNanoTimeOverflow() {
+		DeadlineQueue<String> queue = new DeadlineQueue<String>();
+		queue.add("late", Long.MIN_VALUE + 10, 100); // wrapped around
+		queue.add("early", Long.MAX_VALUE - 10, 100);
+
+		assertEquals("early", queue.pollDue(Long.MAX_VALUE));
+	}
+}
@@ -0,0 +1,176 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+
+/**
+ * Races pings and results of one device on several threads (in the manner of
+ * jcstress: many short rounds, all actors released by a barrier) and checks
+ * the invariants of the device state afterwards.
+ */
+public class DeviceStressTest {
+	private static final int THREADS = 4;
+	private static final int ROUNDS = 2000;
+
+	@Test
+	public void shouldAcceptOnePingPerPendingState() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			final CountingBackend backend = new CountingBackend();
+			final Device device = createDevice(backend);
+
+			race(new Actor() {
+				@Override
+				public void act(int thread) {
+					device.ping();
+				}
+			});
+			assertTrue(backend.probes.get() + " probes in round " + round,
+					backend.probes.get() == 1);
+			assertTrue(device.isPending());
+		}
+	}
+
+	@Test
+	public void shouldNotLoseConcurrentResults() throws Exception {
+		final int results = 10;
+		for (int round = 0; round < ROUNDS / 10; round++) {
+			final Device device = createDevice(new CountingBackend());
+			final EventCounter events = new EventCounter();
+			device.addListener(events);
+
+			race(new Actor() {
+				@Override
+				public void act(int thread) {
+					for (int i = 0; i < results; i++) {
+						device.onSuccess(ProbeResult.timeout());
+					}
+				}
+			});
+			assertTrue(device.getErrorCount() + " errors counted",
+					device.getErrorCount() == THREADS * results);
+			assertTrue(events.replies.get() == THREADS * results);
+			assertTrue(events.alarms.get() + " alarms in round " + round,
+					events.alarms.get() == 1);
+			assertTrue(device.isAlarm());
+		}
+	}
+
+	@Test
+	public void shouldFireAlarmAndClearAlternately() throws Exception {
+		for (int round = 0; round < ROUNDS / 10; round++) {
+			final Device device = createDevice(new CountingBackend());
+			final EventCounter events = new EventCounter();
+			device.addListener(events);
+			final long seed = round;
+
+			race(new Actor() {
+				@Override
+				public void act(int thread) {
+					Random random = new Random(seed * THREADS + thread);
+					for (int i = 0; i < 200; i++) {
+						// bursts, so limits are reached
+						ProbeResult result = random.nextBoolean() ? ProbeResult
+								.timeout() : ProbeResult.reply(10);
+						for (int j = 0; j < 4; j++) {
+							device.onSuccess(result);
+						}
+					}
+				}
+			});
+			int open = events.alarms.get() - events.clears.get();
+			assertTrue(events.alarms.get() + " alarms, " + events.clears.get()
+					+ " clears in round " + round,
+					open == (device.isAlarm() ? 1 : 0));
+		}
+	}
+
+	/** Runs actor on all threads at once and waits for completion */
+	private void race(final Actor actor) throws Exception {
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						actor.act(thread);
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.get() == 0);
+	}
+
+	private Device createDevice(ProbeBackend backend) throws Exception {
+		DeviceConfig config = new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Stress", 1000, 60000, 50,
+				100, new InternetAddress("test@test.com"));
+		return new Device(config, backend);
+	}
+
+	private interface Actor {
+		void act(int thread);
+	}
+
+	/** counts probes, never reports a result */
+	private static class CountingBackend implements ProbeBackend {
+		final AtomicInteger probes = new AtomicInteger();
+
+		@Override
+		public ProbeTarget createTarget(InetAddress addr, int timeout,
+				ProbeCallback callback) {
+			return new ProbeTarget() {
+				@Override
+				public boolean probe() {
+					probes.incrementAndGet();
+					return true;
+				}
+			};
+		}
+
+		@Override
+		public void shutdown() {
+		}
+	}
+
+	/** counts events by type */
+	private static class EventCounter implements DeviceListener {
+		final AtomicInteger replies = new AtomicInteger();
+		final AtomicInteger alarms = new AtomicInteger();
+		final AtomicInteger clears = new AtomicInteger();
+
+		@Override
+		public void reply(Device device, int type, long rtt, long timestamp) {
+			replies.incrementAndGet();
+		}
+
+		@Override
+		public void alarm(DeviceEvent event) {
+			alarms.incrementAndGet();
+		}
+
+		@Override
+		public void clear(DeviceEvent event) {
+			clears.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.stats.LinkQuality;
+
+public class DeviceTest {
+	private Device device;
+	private List<String> events;
+
+	@Before
+	public void setUp() throws Exception {
+		DeviceConfig config = new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Test machine", 1000, 1000,
+				50, 100, new InternetAddress("test@test.com"));
+		device = new Device(config, createBackend());
+
+		events = new ArrayList<String>();
+		device.addListener(new DeviceListener() {
+			@Override
+			public void alarm(DeviceEvent event) {
+				events.add("alarm");
+			}
+
+			@Override
+			public void clear(DeviceEvent event) {
+				events.add("clear");
+			}
+
+			@Override
+			public void reply(Device device, int type, long rtt,
+					long timestamp) {
+				events.add("reply");
+			}
+		});
+	}
+
+	@Test
+	public void shouldShareConfig() throws Exception {
+		DeviceConfig config = new DeviceConfig(
+				InetAddress.getByName("127.0.0.2"), "Shared", 1000, 1000, 50,
+				100, new InternetAddress("test@test.com"));
+		Device shared = new Device(config, createBackend());
+		assertTrue("Config copied", shared.getConfig() == config);
+	}
+
+	@Test
+	public void shouldEnterAlarmAfterThreeTimeouts() {
+		device.onSuccess(ProbeResult.timeout());
+		device.onSuccess(ProbeResult.timeout());
+		assertFalse("Alarm after two timeouts", device.isAlarm());
+
+		device.onSuccess(ProbeResult.timeout());
+		assertTrue("No alarm after three timeouts", device.isAlarm());
+		assertTrue(events.contains("alarm"));
+	}
+
+	@Test
+	public void shouldEnterAlarmAfterThreeExceededLimits() {
+		for (int i = 0; i < 3; i++) {
+			device.onSuccess(ProbeResult.reply(51));
+		}
+		assertTrue(device.isAlarm());
+	}
+
+	@Test
+	public void shouldNotEnterAlarmIfInterrupted() {
+		device.onSuccess(ProbeResult.timeout());
+		device.onSuccess(ProbeResult.timeout());
+		device.onSuccess(ProbeResult.reply(10));
+		device.onSuccess(ProbeResult.timeout());
+		assertFalse(device.isAlarm());
+	}
+
+	@Test
+	public void shouldClearAlarmAfterThreeNormalReplies() {
+		for (int i = 0; i < 3; i++) {
+			device.onFailure(new IllegalStateException("expected by test"));
+		}
+		assertTrue(device.isAlarm());
+
+		device.onSuccess(ProbeResult.reply(10));
+		device.onSuccess(ProbeResult.reply(10));
+		assertTrue("Alarm cleared too early", device.isAlarm());
+		device.onSuccess(ProbeResult.reply(10));
+		assertFalse("Alarm not cleared", device.isAlarm());
+
+		assertTrue(events.indexOf("alarm") < events.indexOf("clear"));
+		assertTrue(events.size() == 8); // 6 replies, 1 alarm, 1 clear
+	}
+
+	@Test
+	public void shouldBePendingAfterPing() {
+		assertFalse(device.isPending());
+		device.ping();
+		assertTrue(device.isPending());
+		device.onSuccess(ProbeResult.reply(10));
+		assertFalse(device.isPending());
+	}
+
+	@Test
+	public void shouldBackOffWhenHealthy() throws Exception {
+		Device adaptive = new Device(new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Adaptive", 1000, 500,
+				4000, 1000, 50, 100, new InternetAddress("test@test.com")),
+				createBackend());
+		assertTrue(adaptive.getInterval() == 1000);
+
+		for (int i = 0; i < AdaptiveInterval.BACKOFF_REPLIES; i++) {
+			adaptive.onSuccess(ProbeResult.reply(10));
+		}
+		assertTrue(adaptive.getInterval() + " not backed off",
+				adaptive.getInterval() == 2000);
+
+		for (int i = 0; i < 5 * AdaptiveInterval.BACKOFF_REPLIES; i++) {
+			adaptive.onSuccess(ProbeResult.reply(10));
+		}
+		assertTrue(adaptive.getInterval() + " exceeds maxinterval",
+				adaptive.getInterval() == 4000);
+	}
+
+	@Test
+	public void shouldSpeedUpOnAnomaly() throws Exception {
+		Device adaptive = new Device(new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Adaptive", 1000, 500,
+				4000, 1000, 50, 100, new InternetAddress("test@test.com")),
+				createBackend());
+		adaptive.onSuccess(ProbeResult.reply(51));
+		assertTrue(adaptive.getInterval() == 500);
+
+		for (int i = 0; i < AdaptiveInterval.BACKOFF_REPLIES; i++) {
+			adaptive.onSuccess(ProbeResult.reply(10));
+		}
+		adaptive.onSuccess(ProbeResult.timeout());
+		assertTrue(adaptive.getInterval() == 500);
+	}
+
+	@Test
+	public void shouldKeepFixedInterval() {
+		for (int i = 0; i < 3 * AdaptiveInterval.BACKOFF_REPLIES; i++) {
+			device.onSuccess(ProbeResult.reply(10));
+		}
+		device.onSuccess(ProbeResult.timeout());
+		assertTrue(device.getInterval() == 1000);
+	}
+
+	@Test
+	public void shouldEnterAlarmOnJitter() throws Exception {
+		Device jittery = new Device(new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Jitter", 1000, 0, 0,
+				1000, 50, 10, 0, 100, new InternetAddress("test@test.com")),
+				createBackend());
+		for (int i = 0; i < 10; i++) { // within the RTT limit
+			jittery.onSuccess(ProbeResult.reply(10));
+		}
+		assertFalse(jittery.isAlarm());
+
+		for (int i = 0; i < 10; i++) { // 30 ms jitter
+			jittery.onSuccess(ProbeResult.reply(i % 2 == 0 ? 40 : 10));
+		}
+		assertTrue("No alarm after " + jittery.getLinkQuality().getJitter()
+				+ " ns jitter", jittery.isAlarm());
+	}
+
+	@Test
+	public void shouldEnterAlarmOnLoss() throws Exception {
+		Device lossy = new Device(new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Loss", 1000, 0, 0, 1000,
+				50, 0, 5, 100, new InternetAddress("test@test.com")),
+				createBackend());
+		for (int i = 0; i < 96; i++) {
+			lossy.onSuccess(ProbeResult.reply(10));
+		}
+		for (int i = 0; i < 4; i++) { // 4 % loss, no timeouts in a row
+			lossy.onSuccess(ProbeResult.timeout());
+			lossy.onSuccess(ProbeResult.reply(10));
+		}
+		assertFalse(lossy.isAlarm());
+
+		lossy.onSuccess(ProbeResult.timeout());
+		lossy.onSuccess(ProbeResult.timeout()); // 6 % loss
+		for (int i = 0; i < 3; i++) {
+			lossy.onSuccess(ProbeResult.reply(10));
+		}
+		assertTrue("No alarm at "
+				+ lossy.getLinkQuality().getLoss(LinkQuality.SHORT_WINDOW)
+				+ " loss", lossy.isAlarm());
+	}
+
+	@Test
+	public void shouldNotAllocateOnReply() throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		Device quiet = new Device(device.getConfig(), createBackend());
+		quiet.addListener(new DeviceListener() {
+			@Override
+			public void alarm(DeviceEvent event) {
+			}
+
+			@Override
+			public void clear(DeviceEvent event) {
+			}
+
+			@Override
+			public void reply(Device device, int type, long rtt,
+					long timestamp) {
+			}
+		});
+		for (int i = 0; i < 100000; i++) { // warm up
+			quiet.onReply(10000000L);
+		}
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 100000; i++) {
+			quiet.onReply(10000000L);
+		}
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		assertTrue(allocated + " bytes allocated by 100000 replies",
+				allocated < 1000); // measurement itself allocates a little
+	}
+
+	private ProbeBackend createBackend() {
+		return new ProbeBackend() {
+			@Override
+			public ProbeTarget createTarget(InetAddress addr, int timeout,
+					ProbeCallback callback) {
+				return new ProbeTarget() {
+					@Override
+					public boolean probe() {
+						return true;
+					}
+				};
+			}
+
+			@Override
+			public void shutdown() {
+			}
+		};
+	}
+}
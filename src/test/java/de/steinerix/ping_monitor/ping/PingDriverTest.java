@@ -0,0 +1,170 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+
+public class PingDriverTest {
+	private SimulatedBackend backend;
+	private PingDriver driver;
+
+	@Before
+	public void setUp() {
+		backend = new SimulatedBackend.Builder().rtt(0, 1).threads(2).build();
+		driver = new PingDriver(backend);
+	}
+
+	@After
+	public void tearDown() {
+		driver.shutdown();
+	}
+
+	@Test
+	public void shouldPingDevicesByInterval() throws Exception {
+		Device device = createDevice(1, 100);
+		driver.registerDevice(device);
+		Thread.sleep(1050);
+
+		long probes = backend.getProbes();
+		assertTrue(probes + " pings sent within 1s at 100ms interval",
+				probes >= 9 && probes <= 12);
+	}
+
+	@Test
+	public void shouldRegisterDeviceOnlyOnce() throws Exception {
+		Device device = createDevice(1, 1000);
+		driver.registerDevice(device);
+		driver.registerDevice(device);
+		assertTrue(driver.getDeviceCount() == 1);
+
+		assertTrue(driver.deregisterDevice(device));
+		assertFalse(driver.deregisterDevice(device));
+		assertTrue(driver.getDeviceCount() == 0);
+	}
+
+	@Test
+	public void shouldStopPingingDeregisteredDevice() throws Exception {
+		Device device = createDevice(1, 100);
+		driver.registerDevice(device);
+		Thread.sleep(150);
+		driver.deregisterDevice(device);
+		Thread.sleep(50); // let pending probe finish
+		long probes = backend.getProbes();
+
+		Thread.sleep(300);
+		assertTrue("Deregistered device still pinged",
+				backend.getProbes() == probes);
+	}
+
+	@Test
+	public void shouldPingFiftyThousandDevicesWithinInterval()
+			throws Exception {
+		final int count = 50000;
+		for (int i = 0; i < count; i++) {
+			driver.registerDevice(createDevice(i, 2000));
+		}
+		assertTrue(driver.getDeviceCount() == count);
+
+		long end = System.currentTimeMillis() + 2000;
+		while (backend.getReplies() < count
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertTrue(backend.getReplies() + " of " + count
+				+ " devices pinged within interval",
+				backend.getReplies() >= count);
+	}
+
+	@Test
+	public void shouldSaveProbesWithAdaptiveInterval() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			DeviceConfig config = new DeviceConfig(createDevice(i, 100)
+					.getConfig().getAddr(), "Device " + i, 100, 100, 800, 0,
+					50, 100, new InternetAddress("test@test.com"));
+			driver.registerDevice(new Device(config, backend));
+		}
+		Thread.sleep(3000);
+
+		double savings = driver.getProbeSavings();
+		assertTrue(driver.getProbes() + " probes, at configured interval "
+				+ driver.getNominalProbes(), savings > 0.2);
+	}
+
+	@Test
+	public void shouldSpreadPhasesEvenly() {
+		assertTrue(PingDriver.spread(0) == 0);
+		assertTrue(PingDriver.spread(1) == 0.5);
+		assertTrue(PingDriver.spread(2) == 0.25);
+		assertTrue(PingDriver.spread(3) == 0.75);
+	}
+
+	@Test
+	public void shouldSpreadProbesAcrossInterval() throws Exception {
+		final int count = 10000;
+		final int buckets = 100; // 10ms buckets within 1s interval
+		final long start = System.nanoTime();
+		final AtomicIntegerArray probes = new AtomicIntegerArray(2 * buckets);
+		ProbeBackend recorder = new ProbeBackend() {
+			@Override
+			public ProbeTarget createTarget(InetAddress addr, int timeout,
+					ProbeCallback callback) {
+				return new ProbeTarget() {
+					@Override
+					public boolean probe() {
+						long bucket = TimeUnit.NANOSECONDS.toMillis(System
+								.nanoTime() - start) / 10;
+						if (bucket < probes.length()) {
+							probes.incrementAndGet((int) bucket);
+						}
+						return false; // device is not pending
+					}
+				};
+			}
+
+			@Override
+			public void shutdown() {
+			}
+		};
+		PingDriver spreadDriver = new PingDriver(recorder);
+		for (int i = 0; i < count; i++) {
+			spreadDriver.registerDevice(createDevice(i, 1000, recorder));
+		}
+		Thread.sleep(2050);
+		spreadDriver.shutdown();
+
+		// second interval: all devices are in steady state
+		int peak = 0;
+		for (int i = buckets; i < 2 * buckets; i++) {
+			peak = Math.max(peak, probes.get(i));
+		}
+		double peakToMean = peak / (count / (double) buckets);
+		assertTrue("Peak to mean ratio of probes per 10ms: " + peakToMean,
+				peakToMean < 2);
+	}
+
+	private Device createDevice(int index, int interval)
+			throws UnknownHostException, AddressException {
+		return createDevice(index, interval, backend);
+	}
+
+	private Device createDevice(int index, int interval, ProbeBackend backend)
+			throws UnknownHostException, AddressException {
+		InetAddress addr = InetAddress.getByAddress(new byte[] { 10,
+				(byte) (index >> 16), (byte) (index >> 8), (byte) index });
+		DeviceConfig config = new DeviceConfig(addr, "Device " + index,
+				interval, 0, 50, 100, new InternetAddress("test@test.com"));
+		return new Device(config, backend);
+	}
+}
@@ -0,0 +1,132 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProbeExecutorTest {
+
+	@Test
+	public void shouldRejectInvalidArguments() {
+		try {
+			new ProbeExecutor(0, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new ProbeExecutor(1, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void shouldExecuteProbes() throws InterruptedException {
+		ProbeExecutor executor = new ProbeExecutor(4, 100);
+		CountDownLatch done = new CountDownLatch(50);
+		for (int i = 0; i < 50; i++) {
+			assertTrue(executor.submit(countDown(done)));
+		}
+		assertTrue("Probes not executed", done.await(5, TimeUnit.SECONDS));
+		waitForCompletion(executor, 50);
+
+		assertTrue(executor.getSubmitted() == 50);
+		assertTrue(executor.getRejected() == 0);
+		executor.shutdown();
+	}
+
+	@Test
+	public void shouldRejectProbesIfSaturated() throws InterruptedException {
+		ProbeExecutor executor = new ProbeExecutor(2, 3);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(2);
+
+		// occupy both workers
+		for (int i = 0; i < 2; i++) {
+			assertTrue(executor.submit(block(started, release)));
+		}
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertTrue(executor.getInFlight() + " does not match 2",
+				executor.getInFlight() == 2);
+
+		// fill queue
+		for (int i = 0; i < 3; i++) {
+			assertTrue(executor.submit(block(new CountDownLatch(1), release)));
+		}
+		assertTrue(executor.getQueueDepth() == 3);
+		assertTrue(executor.getMaxQueueDepth() == 3);
+
+		// back-pressure
+		assertFalse("Probe should be rejected",
+				executor.submit(block(new CountDownLatch(1), release)));
+		assertTrue(executor.getRejected() == 1);
+
+		release.countDown();
+		waitForCompletion(executor, 5);
+		assertTrue(executor.getQueueDepth() == 0);
+		assertTrue(executor.getInFlight() == 0);
+		assertTrue("Service time should be measured",
+				executor.getMaxServiceTime() >= executor.getMeanServiceTime()
+						&& executor.getMeanServiceTime() > 0);
+		executor.shutdown();
+	}
+
+	@Test
+	public void shouldSurviveFailingProbes() throws InterruptedException {
+		ProbeExecutor executor = new ProbeExecutor(1, 10);
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException("expected by test");
+			}
+		});
+		CountDownLatch done = new CountDownLatch(1);
+		executor.submit(countDown(done));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		executor.shutdown();
+	}
+
+	@Test
+	public void shouldRejectProbesAfterShutdown() {
+		ProbeExecutor executor = new ProbeExecutor(1, 10);
+		executor.shutdown();
+		assertFalse(executor.submit(countDown(new CountDownLatch(1))));
+	}
+
+	private Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		};
+	}
+
+	private Runnable block(final CountDownLatch started,
+			final CountDownLatch release) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+	}
+
+	private void waitForCompletion(ProbeExecutor executor, long count)
+			throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (executor.getCompleted() < count
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(1);
+		}
+		assertTrue(executor.getCompleted() + " does not match " + count,
+				executor.getCompleted() == count);
+	}
+}
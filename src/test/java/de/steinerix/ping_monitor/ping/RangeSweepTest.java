@@ -0,0 +1,121 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.RangeConfig;
+
+public class RangeSweepTest {
+
+	@Test
+	public void shouldReportAnsweringHostsOnce() throws Exception {
+		RangeConfig range = RangeConfig.ofCidr("10.0.0.0/28", "Net", 200, 0,
+				50, 500, new InternetAddress("test@test.com"));
+		final Set<String> answering = new CopyOnWriteArraySet<String>();
+		answering.add("10.0.0.3");
+		answering.add("10.0.0.7");
+		final ConcurrentMap<String, AtomicInteger> probes = new ConcurrentHashMap<String, AtomicInteger>();
+		final Set<Integer> found = new CopyOnWriteArraySet<Integer>();
+		final AtomicInteger reports = new AtomicInteger();
+
+		RangeSweep sweep = new RangeSweep(range, new ProbeBackend() {
+			@Override
+			public ProbeTarget createTarget(final InetAddress addr,
+					int timeout, final ProbeCallback callback) {
+				return new ProbeTarget() {
+					@Override
+					public boolean probe() {
+						String host = addr.getHostAddress();
+						probes.putIfAbsent(host, new AtomicInteger());
+						probes.get(host).incrementAndGet();
+						if (answering.contains(host)) {
+							callback.onReply(1000000L);
+						} else {
+							callback.onTimeout();
+						}
+						return true;
+					}
+				};
+			}
+
+			@Override
+			public void shutdown() {
+			}
+		}, new RangeSweep.Listener() {
+			@Override
+			public void hostFound(RangeSweep sweep, int index) {
+				found.add(index);
+				reports.incrementAndGet();
+			}
+		});
+
+		sweep.start();
+		try {
+			Thread.sleep(1000); // five intervals
+		} finally {
+			sweep.stop();
+		}
+
+		assertTrue(found + " found", found.size() == 2 && found.contains(2)
+				&& found.contains(6));
+		assertTrue(reports.get() + " reports", reports.get() == 2);
+		assertTrue(sweep.getFoundCount() == 2 && sweep.isFound(2));
+		assertTrue("Found host probed after its reply",
+				probes.get("10.0.0.3").get() == 1);
+		int silent = probes.get("10.0.0.1").get();
+		assertTrue(silent + " probes of a silent host in 5 intervals",
+				silent >= 3 && silent <= 7);
+	}
+
+	@Test
+	public void shouldKeepSweepingAfterFailingBackend() throws Exception {
+		RangeConfig range = RangeConfig.ofCidr("10.0.0.0/30", "Net", 200, 0,
+				50, 500, new InternetAddress("test@test.com"));
+		final AtomicInteger failures = new AtomicInteger(3);
+		final Set<Integer> found = new CopyOnWriteArraySet<Integer>();
+
+		RangeSweep sweep = new RangeSweep(range, new ProbeBackend() {
+			@Override
+			public ProbeTarget createTarget(InetAddress addr, int timeout,
+					final ProbeCallback callback) {
+				if (failures.getAndDecrement() > 0) {
+					throw new IllegalStateException("backend failure");
+				}
+				return new ProbeTarget() {
+					@Override
+					public boolean probe() {
+						callback.onReply(1000000L);
+						return true;
+					}
+				};
+			}
+
+			@Override
+			public void shutdown() {
+			}
+		}, new RangeSweep.Listener() {
+			@Override
+			public void hostFound(RangeSweep sweep, int index) {
+				found.add(index);
+			}
+		});
+
+		sweep.start();
+		try {
+			Thread.sleep(1000);
+		} finally {
+			sweep.stop();
+		}
+		assertTrue(found + " found after failures", found.size() == 2);
+	}
+}
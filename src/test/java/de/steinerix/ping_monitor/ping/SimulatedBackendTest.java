@@ -0,0 +1,168 @@
+package de.steinerix.ping_monitor.ping;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SimulatedBackendTest {
+
+	@Test
+	public void shouldRejectInvalidSettings() {
+		try {
+			new SimulatedBackend.Builder().rtt(10, 5).build();
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new SimulatedBackend.Builder().loss(1.5).build();
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new SimulatedBackend.Builder().threads(0).build();
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void shouldReplyWithinRttBounds() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().rtt(2, 5)
+				.jitter(0).seed(1).build();
+		Recorder recorder = new Recorder(100);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(backend.createTarget(address(i), 1000, recorder)
+					.probe());
+		}
+		recorder.await();
+
+		assertTrue(recorder.replies.get() + " does not match 100",
+				recorder.replies.get() == 100);
+		assertTrue("RTT out of bounds", recorder.minRtt >= 2
+				&& recorder.maxRtt <= 5);
+		assertTrue(backend.getReplies() == 100);
+		backend.shutdown();
+	}
+
+	@Test
+	public void shouldReportLossAsTimeout() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().loss(1)
+				.build();
+		Recorder recorder = new Recorder(10);
+		for (int i = 0; i < 10; i++) {
+			backend.createTarget(address(i), 10, recorder).probe();
+		}
+		recorder.await();
+
+		assertTrue(recorder.timeouts.get() == 10);
+		assertTrue(backend.getTimeouts() == 10);
+		backend.shutdown();
+	}
+
+	@Test
+	public void shouldReportUnreachableHosts() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder()
+				.unreachable(1).build();
+		Recorder recorder = new Recorder(10);
+		for (int i = 0; i < 10; i++) {
+			backend.createTarget(address(i), 10, recorder).probe();
+		}
+		recorder.await();
+
+		assertTrue(recorder.failures.get() == 10);
+		backend.shutdown();
+	}
+
+	@Test
+	public void shouldReportSlowRepliesAsTimeout() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().rtt(50, 50)
+				.jitter(0).build();
+		Recorder recorder = new Recorder(1);
+		backend.createTarget(address(1), 20, recorder).probe();
+		recorder.await();
+
+		assertTrue(recorder.timeouts.get() == 1);
+		backend.shutdown();
+	}
+
+	@Test
+	public void shouldAcceptOneProbePerTarget() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().rtt(20, 20)
+				.build();
+		Recorder recorder = new Recorder(1);
+		ProbeTarget target = backend.createTarget(address(1), 100, recorder);
+
+		assertTrue(target.probe());
+		assertFalse("Probe already in flight", target.probe());
+		recorder.await();
+		backend.shutdown();
+	}
+
+	@Test
+	public void shouldHandleManyVirtualHosts() throws Exception {
+		final int hosts = 100000;
+		SimulatedBackend backend = new SimulatedBackend.Builder().rtt(0, 2)
+				.threads(2).build();
+		Recorder recorder = new Recorder(hosts);
+		ProbeTarget[] targets = new ProbeTarget[hosts];
+		for (int i = 0; i < hosts; i++) {
+			targets[i] = backend.createTarget(address(i), 1000, recorder);
+		}
+		for (ProbeTarget target : targets) {
+			target.probe();
+		}
+		recorder.await();
+
+		assertTrue(backend.getProbes() == hosts);
+		assertTrue(recorder.replies.get() == hosts);
+		backend.shutdown();
+	}
+
+	private InetAddress address(int index) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] { 10, (byte) (index >> 16),
+				(byte) (index >> 8), (byte) index });
+	}
+
+	/** records results of all probes */
+	private static class Recorder implements ProbeCallback {
+		final CountDownLatch done;
+		final AtomicInteger replies = new AtomicInteger();
+		final AtomicInteger timeouts = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		volatile double minRtt = Double.MAX_VALUE;
+		volatile double maxRtt = 0;
+
+		Recorder(int expected) {
+			done = new CountDownLatch(expected);
+		}
+
+		@Override
+		public synchronized void onSuccess(ProbeResult result) {
+			if (result.getSuccessFlag()) {
+				replies.incrementAndGet();
+				minRtt = Math.min(minRtt, result.getRtt());
+				maxRtt = Math.max(maxRtt, result.getRtt());
+			} else if (result.getTimeoutFlag()) {
+				timeouts.incrementAndGet();
+			} else {
+				failures.incrementAndGet();
+			}
+			done.countDown();
+		}
+
+		@Override
+		public void onFailure(Throwable throwable) {
+			fail(throwable.getMessage());
+		}
+
+		void await() throws InterruptedException {
+			assertTrue("Results missing", done.await(10, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package de.steinerix.ping_monitor.stats;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencySketchTest {
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	@Test
+	public void shouldReturnQuantilesWithinAccuracy() {
+		LatencySketch sketch = new LatencySketch();
+		Random random = new Random(1);
+		long[] values = new long[100000];
+		for (int i = 0; i < values.length; i++) {
+			// log-normal around 20 ms
+			values[i] = (long) (20000000 * Math.exp(random.nextGaussian()));
+			sketch.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (double q : QUANTILES) {
+			long exact = values[(int) (q * (values.length - 1))];
+			double error = Math.abs(sketch.quantile(q) - exact)
+					/ (double) exact;
+			assertTrue("p" + q + ": " + error,
+					error <= LatencySketch.ACCURACY + 1e-9);
+		}
+
+		// all quantiles in one pass
+		long[] quantiles = new long[QUANTILES.length];
+		sketch.quantiles(QUANTILES, quantiles);
+		for (int i = 0; i < QUANTILES.length; i++) {
+			assertTrue(quantiles[i] == sketch.quantile(QUANTILES[i]));
+		}
+	}
+
+	@Test
+	public void shouldMergeAndSubtract() {
+		LatencySketch fast = new LatencySketch();
+		LatencySketch slow = new LatencySketch();
+		for (int i = 0; i < 900; i++) {
+			fast.record(1000000); // 1 ms
+		}
+		for (int i = 0; i < 100; i++) {
+			slow.record(100000000); // 100 ms
+		}
+		LatencySketch all = new LatencySketch();
+		all.merge(fast);
+		all.merge(slow);
+		assertTrue(all.getCount() == 1000);
+		assertTrue(all.quantile(0.5) == fast.quantile(0.5));
+		assertTrue(all.quantile(0.95) == slow.quantile(0.5));
+
+		all.subtract(slow);
+		assertTrue(all.quantile(0.99) == fast.quantile(0.99));
+	}
+
+	@Test
+	public void shouldReadWrittenSketch() throws IOException {
+		LatencySketch sketch = new LatencySketch();
+		for (int i = 1; i <= 1000; i++) {
+			sketch.record(i * 100000L);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		sketch.write(new DataOutputStream(bytes));
+
+		LatencySketch read = new LatencySketch();
+		read.read(new DataInputStream(new ByteArrayInputStream(bytes
+				.toByteArray())));
+		assertTrue(read.getCount() == 1000);
+		for (double q : QUANTILES) {
+			assertTrue(read.quantile(q) == sketch.quantile(q));
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package de.steinerix.ping_monitor.stats;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+import de.steinerix.ping_monitor.stats.LatencyWindows.Window;
+
+public class LatencyWindowsTest {
+	private static final long START = 1500000000000L;
+
+	@Test
+	public void shouldSlideWindows() {
+		LatencyWindows windows = new LatencyWindows();
+		// 10 min at 1 s: 1 ms for the first 9 min, then 100 ms
+		for (int i = 0; i < 600; i++) {
+			windows.record(START + i * 1000L, i < 540 ? 1000000 : 100000000);
+		}
+		long now = START + 599 * 1000L;
+
+		assertTrue(near(windows.quantile(Window.ONE_MINUTE, 0.5, now),
+				100000000));
+		assertTrue(near(windows.quantile(Window.FIVE_MINUTES, 0.5, now),
+				1000000));
+		assertTrue(near(windows.quantile(Window.FIVE_MINUTES, 0.9, now),
+				100000000));
+		assertTrue(windows.getCount(Window.ONE_HOUR, now) == 600);
+
+		// 1 min window covers 45 … 60 s
+		long count = windows.getCount(Window.ONE_MINUTE, now);
+		assertTrue(count + " in 1 min window", count >= 45 && count <= 60);
+		// all slots expired
+		assertTrue(windows.getCount(Window.FIVE_MINUTES, now + 3600000L) == 0);
+	}
+
+	@Test
+	public void shouldMergeDevices() throws Exception {
+		LatencyTracker tracker = new LatencyTracker();
+		Device[] devices = new Device[10];
+		SimulatedBackend backend = new SimulatedBackend.Builder().build();
+		Random random = new Random(1);
+		long[] all = new long[10 * 100];
+		for (int d = 0; d < devices.length; d++) {
+			devices[d] = new Device(new DeviceConfig(
+					InetAddress.getByName("127.0.0." + (d + 1)), "Device " + d,
+					1000, 1000, 50, 100, new InternetAddress("test@test.com")),
+					backend);
+			tracker.register(devices[d]);
+			for (int i = 0; i < 100; i++) {
+				long rtt = (d + 1) * 1000000L + random.nextInt(1000000);
+				all[d * 100 + i] = rtt;
+				tracker.reply(devices[d], DeviceListener.NORMAL, rtt, START + i);
+			}
+			tracker.reply(devices[d], DeviceListener.TIMEOUT, 0, START);
+		}
+		Arrays.sort(all);
+
+		LatencySketch fleet = tracker.mergeAll(Window.ONE_HOUR, START + 100);
+		assertTrue(fleet.getCount() == all.length);
+		assertTrue(near(fleet.quantile(0.99), all[(int) (0.99 * (all.length - 1))]));
+		assertTrue(near(fleet.quantile(0.5), all[(int) (0.5 * (all.length - 1))]));
+	}
+
+	@Test
+	public void shouldNotAllocateOnRecord() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		LatencyWindows windows = new LatencyWindows();
+		Random random = new Random(1);
+		long[] rtts = new long[1024];
+		for (int i = 0; i < rtts.length; i++) {
+			rtts[i] = 1000000 + random.nextInt(50000000);
+		}
+		// warm up: all slots of all windows cover the range of RTTs
+		int warmup = (int) (Window.ONE_HOUR.getLength() / 10) + 100000;
+		for (int i = 0; i < warmup; i++) {
+			windows.record(START + i * 10L, rtts[i & 1023]);
+		}
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = warmup; i < warmup + 100000; i++) {
+			windows.record(START + i * 10L, rtts[i & 1023]);
+		}
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+		assertTrue(allocated + " bytes allocated by 100000 records",
+				allocated < 1000);
+	}
+
+	private static boolean near(long value, long expected) {
+		return Math.abs(value - expected) <= LatencySketch.ACCURACY * expected;
+	}
+}
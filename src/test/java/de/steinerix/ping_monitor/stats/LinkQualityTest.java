@@ -0,0 +1,79 @@
+package de.steinerix.ping_monitor.stats;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LinkQualityTest {
+
+	@Test
+	public void shouldConvergeToRttDifference() {
+		LinkQuality quality = new LinkQuality();
+		for (int i = 0; i < 500; i++) { // alternating 10 ms and 40 ms
+			quality.reply(i % 2 == 0 ? 10000000L : 40000000L);
+		}
+		long jitter = quality.getJitter();
+		assertTrue(jitter + " ns jitter", Math.abs(jitter - 30000000L) < 100000);
+
+		for (int i = 0; i < 500; i++) { // steady replies
+			quality.reply(10000000L);
+		}
+		assertTrue(quality.getJitter() + " ns jitter of steady replies",
+				quality.getJitter() < 1000);
+	}
+
+	@Test
+	public void shouldCountLossOfWindows() {
+		LinkQuality quality = new LinkQuality();
+		assertTrue(quality.getLoss(LinkQuality.SHORT_WINDOW) == 0);
+
+		Random random = new Random(42);
+		boolean[] history = new boolean[5000];
+		for (int i = 0; i < history.length; i++) {
+			// lossy phases, so the windows differ
+			history[i] = random.nextInt(i / 700 % 2 == 0 ? 20 : 3) == 0;
+			if (history[i]) {
+				quality.lost();
+			} else {
+				quality.reply(10000000L);
+			}
+			assertTrue("short window after " + i, quality
+					.getLoss(LinkQuality.SHORT_WINDOW) == loss(history, i,
+					LinkQuality.SHORT_WINDOW));
+			assertTrue("long window after " + i, quality
+					.getLoss(LinkQuality.LONG_WINDOW) == loss(history, i,
+					LinkQuality.LONG_WINDOW));
+		}
+	}
+
+	@Test
+	public void shouldCountLossRuns() {
+		LinkQuality quality = new LinkQuality();
+		quality.lost();
+		quality.lost();
+		quality.lost();
+		assertTrue(quality.getLossRun() == 3);
+		quality.reply(10000000L);
+		quality.lost();
+		assertTrue(quality.getLossRun() == 1);
+		assertTrue(quality.getLongestLossRun() == 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectOtherWindows() {
+		new LinkQuality().getLoss(10);
+	}
+
+	/** Naive loss ratio of the last window results up to index last */
+	private static double loss(boolean[] history, int last, int window) {
+		int size = Math.min(last + 1, window), count = 0;
+		for (int i = last - size + 1; i <= last; i++) {
+			if (history[i]) {
+				count++;
+			}
+		}
+		return count / (double) size;
+	}
+}
@@ -0,0 +1,179 @@
+package de.steinerix.ping_monitor.store;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+import de.steinerix.ping_monitor.store.RollupStore.Resolution;
+
+public class RollupStoreTest {
+	private static final long MINUTE = 60000L;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+	private static final long START = 1500000000000L - 1500000000000L % DAY;
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("rollups").toFile();
+	}
+
+	@After
+	public void deleteDirectory() {
+		delete(directory);
+	}
+
+	@Test
+	public void shouldAggregateResultsPerResolution() throws IOException {
+		RollupStore store = new RollupStore(directory);
+		// 2 h at 1 s: replies of 10 ms, every 10th result a timeout
+		for (int i = 0; i < 7200; i++) {
+			if (i % 10 == 0) {
+				store.record(0, START + i * 1000L, DeviceListener.TIMEOUT, 0);
+			} else {
+				store.record(0, START + i * 1000L, DeviceListener.NORMAL,
+						10000000);
+			}
+		}
+
+		List<RollupBucket> minutes = store.query(0, Resolution.MINUTE, START,
+				START + 2 * HOUR);
+		assertTrue(minutes.size() + " minutes", minutes.size() == 120);
+		RollupBucket minute = minutes.get(0);
+		assertTrue(minute.getStart() == START && minute.getCount() == 60);
+		assertTrue(minute.getLost() == 6 && minute.getTimeouts() == 6);
+		assertTrue(minute.getMean() == 10000000);
+
+		List<RollupBucket> hours = store.query(0, Resolution.HOUR, START,
+				START + 2 * HOUR);
+		assertTrue(hours.size() == 2);
+		assertTrue(hours.get(1).getStart() == START + HOUR);
+
+		RollupBucket day = store.summarize(0, Resolution.DAY, START, START
+				+ DAY);
+		assertTrue(day.getCount() == 7200);
+		assertTrue(Math.abs(day.getAvailability() - 0.9) < 1e-9);
+		assertTrue(Math.abs(day.getQuantile(0.5) - 10000000) <= 200000);
+		store.close();
+	}
+
+	@Test
+	public void shouldSummarizeMonthFromHourlyBuckets() throws IOException {
+		RollupStore store = new RollupStore(directory);
+		// 30 days, one result per minute, one day without replies
+		for (long t = START; t < START + 30 * DAY; t += MINUTE) {
+			boolean outage = t >= START + 10 * DAY && t < START + 11 * DAY;
+			store.record(7, t, outage ? DeviceListener.NOT_REACHABLE
+					: DeviceListener.NORMAL, 5000000);
+		}
+		store.close();
+
+		// reopened store reads sealed buckets only
+		store = new RollupStore(directory);
+		List<RollupBucket> hours = store.query(7, Resolution.HOUR, START,
+				START + 30 * DAY);
+		assertTrue(hours.size() + " hours", hours.size() == 720);
+		RollupBucket month = store.summarize(7, Resolution.HOUR, START, START
+				+ 30 * DAY);
+		assertTrue(month.getCount() == 30 * 1440);
+		assertTrue(Math.abs(month.getAvailability() - 29 / 30.0) < 1e-9);
+		assertTrue(month.getMin() == 5000000 && month.getMax() == 5000000);
+
+		List<RollupBucket> outage = store.query(7, Resolution.HOUR, START + 10
+				* DAY + 1, START + 11 * DAY);
+		assertTrue(outage.size() + " hours", outage.size() == 24);
+		assertTrue(outage.get(0).getStart() == START + 10 * DAY);
+		assertTrue(outage.get(23).getAvailability() == 0);
+		assertTrue(store.query(7, Resolution.HOUR, START + 30 * DAY,
+				START + 31 * DAY).isEmpty());
+		store.close();
+	}
+
+	@Test
+	public void shouldTruncatePartialRecord() throws IOException {
+		RollupStore store = new RollupStore(directory);
+		for (int i = 0; i < 3; i++) {
+			store.record(1, START + i * MINUTE, DeviceListener.NORMAL, 1000000);
+		}
+		store.close();
+		File file = new File(directory, "minute/1" + RollupStore.SUFFIX);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes,
+				bytes.length - 5)); // crash while writing the last record
+
+		store = new RollupStore(directory);
+		assertTrue(store.query(1, Resolution.MINUTE, 0, Long.MAX_VALUE).size() == 2);
+
+		// buckets appended after the restart follow the last whole one
+		for (int i = 3; i < 6; i++) {
+			store.record(1, START + i * MINUTE, DeviceListener.NORMAL, 2000000);
+		}
+		store.close();
+		store = new RollupStore(directory);
+		List<RollupBucket> minutes = store.query(1, Resolution.MINUTE, 0,
+				Long.MAX_VALUE);
+		assertTrue(minutes.size() + " minutes", minutes.size() == 5);
+		assertTrue(minutes.get(2).getStart() == START + 3 * MINUTE);
+		assertTrue(minutes.get(4).getMean() == 2000000);
+		store.close();
+
+		// a file without index is indexed again
+		RollupFile.indexFile(file).delete();
+		store = new RollupStore(directory);
+		assertTrue(store.query(1, Resolution.MINUTE, START + 4 * MINUTE,
+				Long.MAX_VALUE).size() == 2);
+		store.close();
+	}
+
+	@Test
+	public void shouldContinueSeriesOfReaddedDevice() throws Exception {
+		RollupStore store = new RollupStore(directory);
+		DeviceConfig config = new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), "Router", 1000, 1000, 50,
+				100, new InternetAddress("test@test.com"));
+		Device device = new Device(config, new SimulatedBackend.Builder()
+				.build());
+		int series = store.register(device);
+		store.reply(device, DeviceListener.NORMAL, 1000000, START);
+
+		store.deregister(device);
+		store.reply(device, DeviceListener.NORMAL, 1000000, START + 1000);
+		Device readded = new Device(config, new SimulatedBackend.Builder()
+				.build());
+		assertTrue(store.register(readded) == series);
+		store.reply(readded, DeviceListener.NORMAL, 1000000, START + 2000);
+
+		List<RollupBucket> minutes = store.query(series, Resolution.MINUTE,
+				START, START + MINUTE);
+		assertTrue(minutes.size() == 1);
+		assertTrue(minutes.get(0).getCount() + " results in open bucket",
+				minutes.get(0).getCount() == 2);
+		store.close();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
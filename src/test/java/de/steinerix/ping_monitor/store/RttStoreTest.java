@@ -0,0 +1,324 @@
+package de.steinerix.ping_monitor.store;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.steinerix.ping_monitor.config.DeviceConfig;
+import de.steinerix.ping_monitor.ping.Device;
+import de.steinerix.ping_monitor.ping.DeviceListener;
+import de.steinerix.ping_monitor.ping.SimulatedBackend;
+
+public class RttStoreTest {
+	private static final int SEGMENT_SIZE = Segment.HEADER_SIZE + 100
+			* Segment.RECORD_SIZE;
+	private static final long HOUR = 3600000L;
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("rtt-store").toFile();
+	}
+
+	@After
+	public void deleteDirectory() {
+		delete(directory);
+	}
+
+	@Test
+	public void shouldReadAppendedRecords() throws IOException {
+		RttStore store = new RttStore(directory, 4, SEGMENT_SIZE, HOUR);
+		for (int i = 1; i <= 1000; i++) {
+			store.append(i % 8, i, DeviceListener.NORMAL, i * 1000L);
+		}
+		store.append(3, 2000, DeviceListener.TIMEOUT, 0);
+
+		List<long[]> records = read(store, 3, 0, Long.MAX_VALUE);
+		assertTrue(records.size() + " records", records.size() == 126);
+		assertTrue(records.get(0)[0] == 3 && records.get(0)[2] == 3000);
+		long[] last = records.get(records.size() - 1);
+		assertTrue(last[0] == 2000 && last[1] == DeviceListener.TIMEOUT);
+
+		// range
+		assertTrue(read(store, 3, 11, 30).size() == 3); // 11, 19, 27
+		store.close();
+	}
+
+	@Test
+	public void shouldRollSegments() throws IOException {
+		RttStore store = new RttStore(directory, 1, SEGMENT_SIZE, HOUR);
+		for (int i = 1; i <= 1050; i++) {
+			store.append(0, i, DeviceListener.NORMAL, 0);
+		}
+		assertTrue(store.getSegmentCount() + " segments",
+				store.getSegmentCount() == 11);
+		assertTrue(read(store, 0, 95, 105).size() == 11);
+		store.close();
+	}
+
+	@Test
+	public void shouldRecoverAfterReopen() throws IOException {
+		RttStore store = new RttStore(directory, 1, SEGMENT_SIZE, HOUR);
+		for (int i = 1; i <= 150; i++) {
+			store.append(0, i, DeviceListener.NORMAL, 0);
+		}
+		// no close: a crashed process leaves the mapped pages in the cache
+		// and a temporary file of an interrupted roll
+		assertTrue(new File(directory, "shard-0/x" + Segment.SUFFIX
+				+ Segment.TMP_SUFFIX).createNewFile());
+
+		store = new RttStore(directory, 1, SEGMENT_SIZE, HOUR);
+		for (int i = 151; i <= 200; i++) {
+			store.append(0, i, DeviceListener.NORMAL, 0);
+		}
+		List<long[]> records = read(store, 0, 0, Long.MAX_VALUE);
+		assertTrue(records.size() + " records", records.size() == 200);
+		for (int i = 0; i < 200; i++) {
+			assertTrue(records.get(i)[0] == i + 1);
+		}
+		assertTrue(store.getSegmentCount() == 2);
+		// two segments and the index of the full one
+		assertTrue(new File(directory, "shard-0").list().length == 3);
+		store.close();
+	}
+
+	@Test
+	public void shouldDeleteExpiredSegments() throws IOException {
+		RttStore store = new RttStore(directory, 1, SEGMENT_SIZE, HOUR);
+		for (int i = 0; i < 500; i++) {
+			store.append(0, 1 + i * 60000L, DeviceListener.NORMAL, 0);
+		}
+		// 500 min, segments of 100 min: on the last roll (min 400) only the
+		// segment ending within the last hour and the current one are kept
+		assertTrue(store.getSegmentCount() + " segments",
+				store.getSegmentCount() == 2);
+		List<long[]> records = read(store, 0, 0, Long.MAX_VALUE);
+		assertTrue(records.get(0)[0] == 1 + 300 * 60000L);
+		store.close();
+	}
+
+	@Test
+	public void shouldKeepSeriesIds() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().build();
+		Device first = createDevice("first", backend);
+		Device second = createDevice("second", backend);
+
+		RttStore store = new RttStore(directory, 2, SEGMENT_SIZE, HOUR);
+		assertTrue(store.register(first) == 0);
+		assertTrue(store.register(second) == 1);
+		store.reply(second, DeviceListener.LIMIT_EXCEEDED, 123456789, 42);
+		store.close();
+
+		store = new RttStore(directory, 2, SEGMENT_SIZE, HOUR);
+		Device reopened = createDevice("second", backend);
+		assertTrue(store.getSeriesId(reopened.getConfig()) == 1);
+		assertTrue(store.register(reopened) == 1);
+		List<long[]> records = read(store, 1, 0, Long.MAX_VALUE);
+		assertTrue(records.size() == 1);
+		assertTrue(records.get(0)[1] == DeviceListener.LIMIT_EXCEEDED);
+		assertTrue(records.get(0)[2] == 123456000); // µs resolution
+		store.close();
+	}
+
+	@Test
+	public void shouldDropPartialSeriesLine() throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().build();
+		RttStore store = new RttStore(directory, 1, SEGMENT_SIZE, HOUR);
+		assertTrue(store.register(createDevice("first", backend)) == 0);
+		store.close();
+		// a crash while appending the second series
+		File file = new File(directory, SeriesRegistry.SERIES_FILE);
+		Files.write(file.toPath(), "second@127.0.0.1=".getBytes("ISO-8859-1"),
+				StandardOpenOption.APPEND);
+
+		store = new RttStore(directory, 1, SEGMENT_SIZE, HOUR);
+		Device second = createDevice("second", backend);
+		assertTrue(store.getSeriesId(second.getConfig()) == -1);
+		assertTrue(store.register(second) == 1);
+		store.close();
+
+		store = new RttStore(directory, 1, SEGMENT_SIZE, HOUR);
+		assertTrue(store.getSeriesId(createDevice("first", backend)
+				.getConfig()) == 0);
+		assertTrue(store.getSeriesId(second.getConfig()) == 1);
+		store.close();
+	}
+
+	@Test
+	public void shouldQueryByDeviceSkippingBlocks() throws Exception {
+		int blocks = 8; // per segment
+		RttStore store = new RttStore(directory, 1, Segment.HEADER_SIZE
+				+ blocks * SegmentIndex.BLOCK_RECORDS * Segment.RECORD_SIZE,
+				HOUR);
+		Device[] devices = register(store, 10);
+		for (int i = 0; i < 100000; i++) {
+			int type = i % 10 == 3 && i >= 50000 && i < 50100 ? DeviceListener.TIMEOUT
+					: DeviceListener.NORMAL;
+			long rtt = i == 70005 ? 50000000 : 1000000;
+			store.append(i % 10, i + 1, type, rtt);
+		}
+		assertQueries(store, devices);
+
+		// index files of full segments after reopen
+		store.close();
+		store = new RttStore(directory, 1, Segment.HEADER_SIZE + blocks
+				* SegmentIndex.BLOCK_RECORDS * Segment.RECORD_SIZE, HOUR);
+		assertQueries(store, devices);
+		store.close();
+	}
+
+	@Test
+	public void shouldReadOnlyRecordsOfSeries() throws Exception {
+		int blocks = 4; // per segment
+		int size = Segment.HEADER_SIZE + blocks * SegmentIndex.BLOCK_RECORDS
+				* Segment.RECORD_SIZE;
+		RttStore store = new RttStore(directory, 1, size, HOUR);
+		Device[] devices = register(store, 2000); // one shard
+		for (int i = 0; i < 100000; i++) {
+			int type = i == 40007 ? DeviceListener.TIMEOUT
+					: DeviceListener.NORMAL;
+			store.append(i % 2000, i + 1, type, i == 60007 ? 50000000
+					: 1000000);
+		}
+		assertSeriesQueries(store, devices[7]);
+
+		store.close();
+		store = new RttStore(directory, 1, size, HOUR);
+		assertSeriesQueries(store, devices[7]);
+		store.close();
+	}
+
+	private void assertSeriesQueries(RttStore store, Device device)
+			throws Exception {
+		// the records of the series and the block being written
+		long maxScanned = 50 + SegmentIndex.BLOCK_RECORDS;
+		try (RecordCursor cursor = store.query(device.getConfig(), 0,
+				Long.MAX_VALUE)) {
+			int count = 0;
+			while (cursor.next()) {
+				assertTrue(cursor.getTimestamp() == count * 2000 + 8);
+				count++;
+			}
+			assertTrue(count + " records", count == 50);
+			assertTrue(cursor.getScanned() + " scanned",
+					cursor.getScanned() <= maxScanned);
+		}
+		try (RecordCursor cursor = store.querySlowerThan(device.getConfig(),
+				0, Long.MAX_VALUE, 10000000)) {
+			assertTrue(cursor.next());
+			assertTrue(cursor.getTimestamp() == 60008);
+			assertFalse(cursor.next());
+			assertTrue(cursor.getScanned() + " scanned",
+					cursor.getScanned() <= maxScanned);
+		}
+		try (OutageCursor outages = store.queryOutages(device.getConfig(), 0,
+				Long.MAX_VALUE)) {
+			assertTrue(outages.next());
+			assertTrue(outages.getStart() == 40008);
+			assertTrue(outages.getLost() == 1);
+			assertFalse(outages.next());
+			assertTrue(outages.getScanned() + " scanned",
+					outages.getScanned() <= maxScanned);
+		}
+	}
+
+	private void assertQueries(RttStore store, Device[] devices)
+			throws Exception {
+		// 100 ms of device 3: at most the two blocks overlapping it are read
+		try (RecordCursor cursor = store.query(devices[3].getConfig(), 60000,
+				60100)) {
+			int count = 0;
+			while (cursor.next()) {
+				assertTrue(cursor.getTimestamp() % 10 == 4);
+				assertTrue(cursor.getRtt() == 1000000);
+				count++;
+			}
+			assertTrue(count + " records", count == 10);
+			assertTrue(cursor.getScanned() + " scanned",
+					cursor.getScanned() <= 2 * SegmentIndex.BLOCK_RECORDS);
+		}
+
+		// outage of device 3: blocks without its lost results are skipped,
+		// except the last one being written
+		try (OutageCursor outages = store.queryOutages(devices[3].getConfig(),
+				0, Long.MAX_VALUE)) {
+			assertTrue(outages.next());
+			assertTrue(outages.getStart() == 50004);
+			assertTrue(outages.getEnd() == 50104);
+			assertTrue(outages.getLost() == 10 && outages.getTimeouts() == 10);
+			assertFalse(outages.isOngoing());
+			assertFalse(outages.next());
+			assertTrue(outages.getScanned() + " scanned",
+					outages.getScanned() <= 3 * SegmentIndex.BLOCK_RECORDS);
+		}
+
+		// slow replies of device 5 by block max RTT
+		try (RecordCursor cursor = store.querySlowerThan(
+				devices[5].getConfig(), 0, Long.MAX_VALUE, 10000000)) {
+			assertTrue(cursor.next());
+			assertTrue(cursor.getTimestamp() == 70006);
+			assertTrue(cursor.getRtt() == 50000000);
+			assertFalse(cursor.next());
+			assertTrue(cursor.getScanned() + " scanned",
+					cursor.getScanned() <= 2 * SegmentIndex.BLOCK_RECORDS);
+		}
+
+		// unknown device
+		SimulatedBackend backend = new SimulatedBackend.Builder().build();
+		assertFalse(store.query(createDevice("unknown", backend).getConfig(),
+				0, Long.MAX_VALUE).next());
+	}
+
+	private Device[] register(RttStore store, int count) throws Exception {
+		SimulatedBackend backend = new SimulatedBackend.Builder().build();
+		Device[] devices = new Device[count];
+		for (int i = 0; i < count; i++) {
+			devices[i] = createDevice("device" + i, backend);
+			assertTrue(store.register(devices[i]) == i);
+		}
+		return devices;
+	}
+
+	private List<long[]> read(RttStore store, int series, long from, long to)
+			throws IOException {
+		final List<long[]> records = new ArrayList<long[]>();
+		store.read(series, from, to, new RttStore.RecordVisitor() {
+			@Override
+			public void record(int series, long timestamp, int type, long rtt) {
+				records.add(new long[] { timestamp, type, rtt });
+			}
+		});
+		return records;
+	}
+
+	private Device createDevice(String name, SimulatedBackend backend)
+			throws Exception {
+		DeviceConfig config = new DeviceConfig(
+				InetAddress.getByName("127.0.0.1"), name, 1000, 1000, 50, 100,
+				new InternetAddress("test@test.com"));
+		return new Device(config, backend);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}